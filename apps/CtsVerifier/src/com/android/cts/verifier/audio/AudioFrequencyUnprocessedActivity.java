@@ -650,10 +650,9 @@ public class AudioFrequencyUnprocessedActivity extends AudioFrequencyActivity im
 
             //for the current frame, compute FFT and send to the viewer.
 
-            //apply window and pack as complex for now.
+            //apply window and transform the real samples.
             DspBufferMath.mult(mData, mData, mWindow.mBuffer);
-            DspBufferMath.set(mC, mData);
-            mFftServer.fft(mC, 1);
+            mFftServer.realFft(mData, mC);
 
             double[] halfMagnitude = new double[mBlockSizeSamples / 2];
             for (i = 0; i < mBlockSizeSamples / 2; i++) {
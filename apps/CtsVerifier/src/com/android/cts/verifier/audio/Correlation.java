@@ -18,6 +18,9 @@ package com.android.cts.verifier.audio;
 
 import android.util.Log;
 
+import com.android.cts.verifier.audio.wavelib.DspBufferComplex;
+import com.android.cts.verifier.audio.wavelib.DspFftServer;
+
 
 public class Correlation {
 
@@ -32,9 +35,17 @@ public class Correlation {
 
     private double mAmplitudeThreshold = 0.001;  // 0.001 = -60 dB noise
 
+    // Scratch buffers of the autocorrelation, kept from one call to the next
+    private int mFftSize = 0;
+    private DspFftServer mFftServer;
+    private DspBufferComplex mSpectrum;
+    private double [] mPowerSpectrum;
+
     public void init(int blockSize, int samplingRate) {
         mBlockSize = blockSize;
         mSamplingRate = samplingRate;
+        mDataDownsampled = new double [mBlockSize];
+        mDataAutocorrelated = new double [mBlockSize];
     }
 
     public boolean computeCorrelation(double [] data, int samplingRate) {
@@ -45,7 +56,10 @@ public class Correlation {
         downsampleData(data, mDataDownsampled, mAmplitudeThreshold);
 
         //correlation vector
+        long startTime = System.nanoTime();
         autocorrelation(mDataDownsampled, mDataAutocorrelated);
+        log(String.format(" Autocorrelation of %d points: %.3f ms", mBlockSize,
+                (System.nanoTime() - startTime) / 1e6));
 
         int N = data.length; //all samples available
         double groupSize =  (double) N / mBlockSize;  //samples per downsample point.
@@ -138,6 +152,13 @@ public class Correlation {
         return status;
     }
 
+    /**
+     * Computes the autocorrelation of data, normalized by its energy, for lags 0 to N-1.
+     *
+     * The data is zero padded to at least twice its length, so that the circular correlation
+     * given by the FFT equals the linear one. The power spectrum of the data is then transformed
+     * back into the autocorrelation. Both transforms are of real input.
+     */
     private boolean autocorrelation(double [] data, double [] dataOut) {
         boolean status = false;
 
@@ -149,13 +170,19 @@ public class Correlation {
         }
 
         if (sumsquared>0) {
-            for (int i = 0; i < N; i++) {
-                dataOut[i] = 0;
-                for (int j = 0; j < N - i; j++) {
+            initFft(2 * N);
+
+            mFftServer.realFft(data, 0, N, mSpectrum);
+            for (int k = 0; k < mFftSize; k++) {
+                mPowerSpectrum[k] = mSpectrum.mReal[k] * mSpectrum.mReal[k]
+                        + mSpectrum.mImag[k] * mSpectrum.mImag[k];
+            }
 
-                    dataOut[i] += data[j] * data[i + j];
-                }
-                dataOut[i] = dataOut[i] / sumsquared;
+            // The power spectrum is real and even, so is the autocorrelation, which the forward
+            // transform gives as well as the inverse
+            mFftServer.realFft(mPowerSpectrum, 0, mFftSize, mSpectrum);
+            for (int i = 0; i < N; i++) {
+                dataOut[i] = mSpectrum.mReal[i] / (mFftSize * sumsquared);
             }
             status = true;
         }
@@ -163,6 +190,23 @@ public class Correlation {
         return status;
     }
 
+    /**
+     * Allocates the scratch buffers for a transform of at least the given size.
+     */
+    private void initFft(int minSize) {
+        int size = 2;
+        while (size < minSize) {
+            size *= 2;
+        }
+        if (size == mFftSize) {
+            return;
+        }
+        mFftSize = size;
+        mFftServer = new DspFftServer(size);
+        mSpectrum = new DspBufferComplex(size);
+        mPowerSpectrum = new double [size];
+    }
+
     private static void log(String msg) {
         Log.v("Recorder", msg);
     }
@@ -24,6 +24,12 @@ public class DspFftServer {
     DspBufferDouble mSin;
     public boolean isInitialized = false;
 
+    // Pairs of indices swapped by the bit-reversal permutation, computed once per size
+    private int[] mSwaps;
+    // Half size transform and scratch buffer of the real input transforms, created on first use
+    private DspFftServer mHalfServer;
+    private DspBufferComplex mPacked;
+
     public DspFftServer(int size) {
         init(size);
     }
@@ -34,12 +40,16 @@ public class DspFftServer {
 
         mOrder = (int) (Math.log(mN) / Math.log(2));
         if (mN == (1 << mOrder)) {
-            mCos = new DspBufferDouble(mN / 2);
-            mSin = new DspBufferDouble(mN / 2);
-            for (int i = 0; i < mN / 2; i++) {
+            // Twiddles for the whole circle, as radix-4 stages need angles up to 3/4 of it
+            mCos = new DspBufferDouble(mN);
+            mSin = new DspBufferDouble(mN);
+            for (int i = 0; i < mN; i++) {
                 mCos.mData[i] = Math.cos(-2 * Math.PI * i / mN);
                 mSin.mData[i] = Math.sin(-2 * Math.PI * i / mN);
             }
+            initBitReversal();
+            mHalfServer = null;
+            mPacked = null;
             status = true;
         } else {
             mN = 0;
@@ -49,15 +59,12 @@ public class DspFftServer {
         return status;
     }
 
-    public void fft(DspBufferComplex r, int sign) {
-        int ii, jj, kk, n1, n2, aa;
-        double cc, ss, t1, t2;
-
-        // Bit-reverse
-        jj = 0;
-        n2 = mN / 2;
-        for (ii = 1; ii < mN - 1; ii++) {
-            n1 = n2;
+    private void initBitReversal() {
+        int[] swaps = new int[mN];
+        int count = 0;
+        int jj = 0;
+        for (int ii = 1; ii < mN - 1; ii++) {
+            int n1 = mN / 2;
             while (jj >= n1) {
                 jj = jj - n1;
                 n1 = n1 / 2;
@@ -65,36 +72,166 @@ public class DspFftServer {
             jj = jj + n1;
 
             if (ii < jj) {
-                t1 =  r.mReal[ii];
-                r.mReal[ii] = r.mReal[jj];
-                r.mReal[jj] = t1;
-                t1 = r.mImag[ii];
-                r.mImag[ii] = r.mImag[jj];
-                r.mImag[jj] = t1;
+                swaps[count++] = ii;
+                swaps[count++] = jj;
+            }
+        }
+        mSwaps = new int[count];
+        System.arraycopy(swaps, 0, mSwaps, 0, count);
+    }
+
+    public int getSize() {
+        return mN;
+    }
+
+    /**
+     * In place FFT of r, forward for sign 1 and inverse (without scaling) for sign -1.
+     */
+    public void fft(DspBufferComplex r, int sign) {
+        double[] re = r.mReal;
+        double[] im = r.mImag;
+        double[] cos = mCos.mData;
+        double[] sin = mSin.mData;
+
+        // Bit-reverse
+        for (int ii = 0; ii < mSwaps.length; ii += 2) {
+            int aa = mSwaps[ii];
+            int bb = mSwaps[ii + 1];
+            double t = re[aa];
+            re[aa] = re[bb];
+            re[bb] = t;
+            t = im[aa];
+            im[aa] = im[bb];
+            im[bb] = t;
+        }
+
+        // With an odd order, start with a radix-2 stage, whose twiddles are all 1
+        int n1 = 1;
+        if ((mOrder & 1) != 0) {
+            for (int kk = 0; kk < mN; kk += 2) {
+                double t1 = re[kk + 1];
+                double t2 = im[kk + 1];
+                re[kk + 1] = re[kk] - t1;
+                im[kk + 1] = im[kk] - t2;
+                re[kk] = re[kk] + t1;
+                im[kk] = im[kk] + t2;
             }
+            n1 = 2;
         }
 
-        // FFT
-        n1 = 0;
-        n2 = 1;
-        for (ii = 0; ii < mOrder; ii++) {
-            n1 = n2;
-            n2 = n2 + n2;
-            aa = 0;
-
-            for (jj = 0; jj < n1; jj++) {
-                cc = mCos.mData[aa];
-                ss = sign * mSin.mData[aa];
-                aa += 1 << (mOrder - ii - 1);
-                for (kk = jj; kk < mN; kk = kk + n2) {
-                    t1 = cc * r.mReal[kk + n1] - ss * r.mImag[kk + n1];
-                    t2 = ss * r.mReal[kk + n1] + cc * r.mImag[kk + n1];
-                    r.mReal[kk + n1] = r.mReal[kk] - t1;
-                    r.mImag[kk + n1] = r.mImag[kk] - t2;
-                    r.mReal[kk] = r.mReal[kk] + t1;
-                    r.mImag[kk] = r.mImag[kk] + t2;
+        // Then radix-4 stages, each doing the work of two radix-2 ones
+        for (; n1 < mN; n1 *= 4) {
+            int n4 = n1 * 4;
+            int step = mN / n4;
+            for (int jj = 0; jj < n1; jj++) {
+                int aa = jj * step;
+                double c1 = cos[2 * aa];
+                double s1 = sign * sin[2 * aa];
+                double c2 = cos[aa];
+                double s2 = sign * sin[aa];
+                double c3 = cos[3 * aa];
+                double s3 = sign * sin[3 * aa];
+                for (int k0 = jj; k0 < mN; k0 += n4) {
+                    int k1 = k0 + n1;
+                    int k2 = k1 + n1;
+                    int k3 = k2 + n1;
+                    double p1r = c1 * re[k1] - s1 * im[k1];
+                    double p1i = s1 * re[k1] + c1 * im[k1];
+                    double p2r = c2 * re[k2] - s2 * im[k2];
+                    double p2i = s2 * re[k2] + c2 * im[k2];
+                    double p3r = c3 * re[k3] - s3 * im[k3];
+                    double p3i = s3 * re[k3] + c3 * im[k3];
+
+                    double ar = re[k0] + p1r;
+                    double ai = im[k0] + p1i;
+                    double br = re[k0] - p1r;
+                    double bi = im[k0] - p1i;
+                    double cr = p2r + p3r;
+                    double ci = p2i + p3i;
+                    // (p2 - p3) turned a quarter of a circle, clockwise for the forward transform
+                    double dr = sign * (p2i - p3i);
+                    double di = -sign * (p2r - p3r);
+
+                    re[k0] = ar + cr;
+                    im[k0] = ai + ci;
+                    re[k2] = ar - cr;
+                    im[k2] = ai - ci;
+                    re[k1] = br + dr;
+                    im[k1] = bi + di;
+                    re[k3] = br - dr;
+                    im[k3] = bi - di;
                 }
             }
         }
     }
+
+    /**
+     * Forward FFT of real data into the whole complex spectrum r, which is resized to the size of
+     * the transform. Same result as {@link #fft} of the data as complex values, for about half the
+     * work.
+     */
+    public void realFft(DspBufferDouble data, DspBufferComplex r) {
+        realFft(data.mData, 0, data.getSize(), r);
+    }
+
+    /**
+     * Forward FFT of {@code length} real values of data from {@code offset}, zero padded to the
+     * size of the transform, into the whole complex spectrum r.
+     *
+     * The even samples are packed in the real part and the odd ones in the imaginary part of a
+     * complex sequence of half the size. Its FFT is split into the FFTs of the even and the odd
+     * samples, which are recombined into the first half of the spectrum. The second half is its
+     * mirror image.
+     */
+    public void realFft(double[] data, int offset, int length, DspBufferComplex r) {
+        r.setSize(mN);
+        if (mN < 2) {
+            r.mReal[0] = length > 0 ? data[offset] : 0;
+            r.mImag[0] = 0;
+            return;
+        }
+        int half = mN / 2;
+        if (mHalfServer == null) {
+            mHalfServer = new DspFftServer(half);
+            mPacked = new DspBufferComplex(half);
+        }
+        length = Math.min(length, mN);
+        for (int n = 0; n < half; n++) {
+            mPacked.mReal[n] = 2 * n < length ? data[offset + 2 * n] : 0;
+            mPacked.mImag[n] = 2 * n + 1 < length ? data[offset + 2 * n + 1] : 0;
+        }
+        mHalfServer.fft(mPacked, 1);
+
+        double[] cos = mCos.mData;
+        double[] sin = mSin.mData;
+        for (int k = 0; k <= half; k++) {
+            double a = mPacked.mReal[k % half];
+            double b = mPacked.mImag[k % half];
+            double c = mPacked.mReal[(half - k) % half];
+            double d = mPacked.mImag[(half - k) % half];
+            // FFTs of the even and the odd samples
+            double evenReal = (a + c) / 2;
+            double evenImag = (b - d) / 2;
+            double oddReal = (b + d) / 2;
+            double oddImag = (c - a) / 2;
+            double real = evenReal + cos[k] * oddReal - sin[k] * oddImag;
+            double imag = evenImag + cos[k] * oddImag + sin[k] * oddReal;
+            r.mReal[k] = real;
+            r.mImag[k] = imag;
+            if (k > 0 && k < half) {
+                r.mReal[mN - k] = real;
+                r.mImag[mN - k] = -imag;
+            }
+        }
+    }
+
+    /**
+     * Forward FFTs of consecutive frames of real data, frame i being the values from
+     * {@code i * getSize()}, into r[i].
+     */
+    public void realFft(double[] data, DspBufferComplex[] r) {
+        for (int i = 0; i < r.length; i++) {
+            realFft(data, i * mN, Math.min(mN, data.length - i * mN), r[i]);
+        }
+    }
 }
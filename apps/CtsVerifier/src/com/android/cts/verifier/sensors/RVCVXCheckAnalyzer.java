@@ -49,7 +49,13 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import android.opengl.GLES20;
 import javax.microedition.khronos.opengles.GL10;
@@ -70,6 +76,8 @@ public class RVCVXCheckAnalyzer {
     private static final boolean TRACE_VIDEO_ANALYSIS = false;
     private static final double DECIMATION_FPS_TARGET = 15.0;
     private static final double MIN_VIDEO_LENGTH_SEC = 10;
+    // frames being analyzed or waiting for a worker, per worker thread
+    private static final int FRAMES_IN_FLIGHT_PER_WORKER = 2;
 
     RVCVXCheckAnalyzer(String path)
     {
@@ -180,9 +188,8 @@ public class RVCVXCheckAnalyzer {
 
         AnalyzeReport report = new AnalyzeReport();
 
-        ArrayList<AttitudeRec> srecs = new ArrayList<>();
-        ArrayList<AttitudeRec> vrecs = new ArrayList<>();
-        ArrayList<AttitudeRec> srecs2 = new ArrayList<>();
+        AttitudeRecs srecs = new AttitudeRecs();
+        AttitudeRecs vrecs = new AttitudeRecs();
 
 
         final boolean use_solved = new File(mPath, "vision_rpy.log").exists() && !FORCE_CV_ANALYSIS;
@@ -229,19 +236,18 @@ public class RVCVXCheckAnalyzer {
         double min_yaw_offset =0.;
 
         // pre-allocation
-        for (AttitudeRec i: vrecs) {
-            srecs2.add(new AttitudeRec(0,0,0,0));
-        }
+        AttitudeRecs srecs2 = new AttitudeRecs(vrecs.size());
 
         // find optimal offset
         for (delta_t = -2.0; delta_t<2.0; delta_t +=0.01) {
             double rms;
             resampleSensorLog(srecs, vrecs, delta_t, 0.0, srecs2);
-            rms = Math.sqrt(calcSqrErr(vrecs, srecs2, 0)+ calcSqrErr(vrecs, srecs2, 1));
+            double [] sqr_err = calcSqrErr(vrecs, srecs2);
+            rms = Math.sqrt(sqr_err[0] + sqr_err[1]);
             if (rms < min_rms) {
                 min_rms = rms;
                 min_delta_t = delta_t;
-                min_yaw_offset = vrecs.get(0).yaw - srecs2.get(0).yaw;
+                min_yaw_offset = vrecs.yaw[0] - srecs2.yaw[0];
             }
         }
         // sample at optimal offset
@@ -255,13 +261,15 @@ public class RVCVXCheckAnalyzer {
         dumpAttitudeError(new File(mPath, "attitude_error.log"), vrecs, srecs2);
 
         // fill report fields
-        report.roll_rms_error = Math.sqrt(calcSqrErr(vrecs, srecs2, 0));
-        report.pitch_rms_error = Math.sqrt(calcSqrErr(vrecs, srecs2, 1));
-        report.yaw_rms_error = Math.sqrt(calcSqrErr(vrecs, srecs2, 2));
+        double [] sqr_err = calcSqrErr(vrecs, srecs2);
+        report.roll_rms_error = Math.sqrt(sqr_err[0]);
+        report.pitch_rms_error = Math.sqrt(sqr_err[1]);
+        report.yaw_rms_error = Math.sqrt(sqr_err[2]);
 
-        report.roll_max_error = calcMaxErr(vrecs, srecs2, 0);
-        report.pitch_max_error = calcMaxErr(vrecs, srecs2, 1);
-        report.yaw_max_error = calcMaxErr(vrecs, srecs2, 2);
+        double [] max_err = calcMaxErr(vrecs, srecs2);
+        report.roll_max_error = max_err[0];
+        report.pitch_max_error = max_err[1];
+        report.yaw_max_error = max_err[2];
 
         report.optimal_delta_t = min_delta_t;
         report.yaw_offset = (min_yaw_offset);
@@ -331,64 +339,73 @@ public class RVCVXCheckAnalyzer {
     }
 
     /**
-     *  Attitude record in time roll pitch yaw format.
+     *  Attitude records in time roll pitch yaw format, kept in one array per field rather than
+     *  one object per record, as the records are walked many times during the analysis.
      *
      */
-    private class AttitudeRec {
-        public double time;
-        public double roll;
-        public double pitch;
-        public double yaw;
+    private static class AttitudeRecs {
+        public double [] time;
+        public double [] roll;
+        public double [] pitch;
+        public double [] yaw;
+        private int mSize;
 
         // ctor
-        AttitudeRec(double atime, double aroll, double apitch, double ayaw) {
-            time = atime;
-            roll = aroll;
-            pitch = apitch;
-            yaw = ayaw;
+        AttitudeRecs() {
+            this(256);
         }
 
         // ctor
-        AttitudeRec(double atime, double [] rpy) {
-            time = atime;
-            roll = rpy[0];
-            pitch = rpy[1];
-            yaw = rpy[2];
+        AttitudeRecs(int capacity) {
+            time = new double[capacity];
+            roll = new double[capacity];
+            pitch = new double[capacity];
+            yaw = new double[capacity];
+        }
+
+        int size() {
+            return mSize;
         }
 
-        // copy value of another to this
-        void assign(AttitudeRec rec) {
-            time = rec.time;
-            roll = rec.time;
-            pitch = rec.pitch;
-            yaw = rec.yaw;
+        void clear() {
+            mSize = 0;
+        }
+
+        // change the number of records, the new records are left uninitialized
+        void setSize(int size) {
+            if (size > time.length) {
+                int capacity = Math.max(size, time.length * 2);
+                time = Arrays.copyOf(time, capacity);
+                roll = Arrays.copyOf(roll, capacity);
+                pitch = Arrays.copyOf(pitch, capacity);
+                yaw = Arrays.copyOf(yaw, capacity);
+            }
+            mSize = size;
         }
 
-        // copy roll-pitch-yaw value but leave the time specified by atime
-        void assign(AttitudeRec rec, double atime) {
-            time = atime;
-            roll = rec.time;
-            pitch = rec.pitch;
-            yaw = rec.yaw;
+        // append a record
+        void add(double atime, double aroll, double apitch, double ayaw) {
+            int i = mSize;
+            setSize(i + 1);
+            time[i] = atime;
+            roll[i] = aroll;
+            pitch[i] = apitch;
+            yaw[i] = ayaw;
         }
 
-        // set each field separately
-        void set(double atime, double aroll, double apitch, double ayaw) {
-            time = atime;
-            roll = aroll;
-            pitch = apitch;
-            yaw = ayaw;
+        // append a record
+        void add(double atime, double [] rpy) {
+            add(atime, rpy[0], rpy[1], rpy[2]);
         }
     }
 
 
     /**
-     *  Load the sensor log in (time Roll-pitch-yaw) format to a ArrayList<AttitudeRec>
+     *  Load the sensor log in (time Roll-pitch-yaw) format to a AttitudeRecs
      *
      *  @return the number of sensor log items
      */
-    private int loadSensorLog(ArrayList<AttitudeRec> recs) {
-        //ArrayList<AttitudeRec> recs = new ArrayList<AttitudeRec>();
+    private int loadSensorLog(AttitudeRecs recs) {
         File csvFile = new File(mPath, "sensor.log");
         BufferedReader br=null;
         String line;
@@ -421,7 +438,7 @@ public class RVCVXCheckAnalyzer {
                 if (t0 < 0) {
                     t0 = Long.parseLong(items[0])/1e9;
                 }
-                recs.add(new AttitudeRec(Long.parseLong(items[0])/1e9-t0, rpy));
+                recs.add(Long.parseLong(items[0])/1e9-t0, rpy);
             }
 
         } catch (FileNotFoundException e) {
@@ -504,10 +521,10 @@ public class RVCVXCheckAnalyzer {
 
 
     /**
-     * Debugging helper function, load ArrayList<AttitudeRec> from a file dumped out by
+     * Debugging helper function, load AttitudeRecs from a file dumped out by
      * dumpAttitudeRecs
      */
-    private int loadAttitudeRecs(File file, ArrayList<AttitudeRec> recs) {
+    private int loadAttitudeRecs(File file, AttitudeRecs recs) {
         BufferedReader br=null;
         String line;
         double time;
@@ -529,7 +546,7 @@ public class RVCVXCheckAnalyzer {
                 rpy[1] = Double.parseDouble(items[2]);
                 rpy[2] = Double.parseDouble(items[3]);
 
-                recs.add(new AttitudeRec(time, rpy));
+                recs.add(time, rpy);
             }
 
         } catch (FileNotFoundException e) {
@@ -551,15 +568,16 @@ public class RVCVXCheckAnalyzer {
         return recs.size();
     }
     /**
-     * Debugging helper function, Dump an ArrayList<AttitudeRec> to a file
+     * Debugging helper function, Dump an AttitudeRecs to a file
      */
-    private void dumpAttitudeRecs(File file, ArrayList<AttitudeRec> recs) {
+    private void dumpAttitudeRecs(File file, AttitudeRecs recs) {
         OutputStreamWriter w=null;
         try {
             w = new OutputStreamWriter(new FileOutputStream(file));
 
-            for (AttitudeRec r : recs) {
-                w.write(String.format("%f %f %f %f\r\n", r.time, r.roll, r.pitch, r.yaw));
+            for (int i = 0; i < recs.size(); ++i) {
+                w.write(String.format("%f %f %f %f\r\n",
+                        recs.time[i], recs.roll[i], recs.pitch[i], recs.yaw[i]));
             }
             w.close();
         } catch(FileNotFoundException e) {
@@ -579,21 +597,21 @@ public class RVCVXCheckAnalyzer {
     }
 
     /**
-     *  Read the sensor log in ArrayList<AttitudeRec> format and find out the sensor sample time
+     *  Read the sensor log in AttitudeRecs format and find out the sensor sample time
      *  statistics: mean and standard deviation.
      *
      *  @return The returned value will be a double array with exact 2 items, first [0] will be
      *  mean and the second [1]  will be the standard deviation.
      *
      */
-    private double [] calcSensorPeriodStat(ArrayList<AttitudeRec> srec)   {
-        double tp = srec.get(0).time;
+    private double [] calcSensorPeriodStat(AttitudeRecs srec)   {
+        double tp = srec.time[0];
         int i;
         double sum = 0.0;
         double sumsq = 0.0;
         for(i=1; i<srec.size(); ++i) {
             double dt;
-            dt = srec.get(i).time - tp;
+            dt = srec.time[i] - tp;
             sum += dt;
             sumsq += dt*dt;
             tp += dt;
@@ -607,180 +625,149 @@ public class RVCVXCheckAnalyzer {
     /**
      * Flipping the axis as the image are flipped upside down in OpenGL frames
      */
-    private void fixFlippedAxis(ArrayList<AttitudeRec> vrecs)   {
-        for (AttitudeRec i: vrecs) {
-            i.yaw = -i.yaw;
+    private void fixFlippedAxis(AttitudeRecs vrecs)   {
+        for (int i = 0; i < vrecs.size(); ++i) {
+            vrecs.yaw[i] = -vrecs.yaw[i];
         }
     }
 
     /**
-     *  Calculate the maximum error on the specified axis between two time aligned (resampled)
-     *  ArrayList<AttitudeRec>. Yaw axis needs special treatment as 0 and 2pi error are same thing
-     *
-     * @param ra  one ArrayList of AttitudeRec
-     * @param rb  the other ArrayList of AttitudeRec
-     * @param axis axis id for the comparison (0 = roll, 1 = pitch, 2 = yaw)
-     * @return Maximum error
+     * Check that two AttitudeRecs are time aligned (resampled), so that they can be compared
      */
-    private double calcMaxErr(ArrayList<AttitudeRec> ra, ArrayList<AttitudeRec> rb, int axis)  {
-        // check if they are valid and comparable data
+    private static void checkAligned(AttitudeRecs ra, AttitudeRecs rb) {
         if (ra.size() != rb.size()) {
             throw new ArrayIndexOutOfBoundsException("Two array has to be the same");
         }
-        // check input parameter validity
-        if (axis<0 || axis > 2) {
-            throw new IllegalArgumentException("Invalid data axis.");
-        }
-
-        int i;
-        double max = 0.0;
-        double diff = 0.0;
-        for(i=0; i<ra.size(); ++i) {
-            // make sure they are aligned data
-            if (ra.get(i).time != rb.get(i).time) {
+        for (int i = 0; i < ra.size(); ++i) {
+            if (ra.time[i] != rb.time[i]) {
                 throw new IllegalArgumentException("Element "+i+
                         " of two inputs has different time.");
             }
-            switch(axis) {
-                case 0:
-                    diff = ra.get(i).roll - rb.get(i).roll; // they always opposite of each other..
-                    break;
-                case 1:
-                    diff = ra.get(i).pitch - rb.get(i).pitch;
-                    break;
-                case 2:
-                    diff = Math.abs(((4*Math.PI + ra.get(i).yaw - rb.get(i).yaw)%(2*Math.PI))
-                            -Math.PI)-Math.PI;
-                    break;
-            }
-            diff = Math.abs(diff);
-            if (diff>max) {
-                max = diff;
-            }
         }
-        return max;
     }
 
     /**
-     *  Calculate the RMS error on the specified axis between two time aligned (resampled)
-     *  ArrayList<AttitudeRec>. Yaw axis needs special treatment as 0 and 2pi error are same thing
+     * Error on yaw axis, which needs special treatment as 0 and 2pi error are same thing
+     */
+    private static double yawErr(double yawa, double yawb) {
+        return Math.abs(((4*Math.PI + yawa - yawb)%(2*Math.PI))-Math.PI)-Math.PI;
+    }
+
+    /**
+     *  Calculate the maximum error on each axis between two time aligned (resampled)
+     *  AttitudeRecs, in a single pass over the records.
      *
-     * @param ra  one ArrayList of AttitudeRec
-     * @param rb  the other ArrayList of AttitudeRec
-     * @param axis axis id for the comparison (0 = roll, 1 = pitch, 2 = yaw)
-     * @return Mean square error
+     * @param ra  one AttitudeRecs
+     * @param rb  the other AttitudeRecs
+     * @return Maximum error of roll [0], pitch [1] and yaw [2]
      */
-    private double calcSqrErr(ArrayList<AttitudeRec> ra, ArrayList<AttitudeRec> rb, int axis) {
-        // check if they are valid and comparable data
-        if (ra.size() != rb.size()) {
-            throw new ArrayIndexOutOfBoundsException("Two array has to be the same");
-        }
-        // check input parameter validity
-        if (axis<0 || axis > 2) {
-            throw new IllegalArgumentException("Invalid data axis.");
+    private double [] calcMaxErr(AttitudeRecs ra, AttitudeRecs rb)  {
+        checkAligned(ra, rb);
+
+        double [] max = new double[3];
+        for(int i=0; i<ra.size(); ++i) {
+            // they always opposite of each other..
+            max[0] = Math.max(max[0], Math.abs(ra.roll[i] - rb.roll[i]));
+            max[1] = Math.max(max[1], Math.abs(ra.pitch[i] - rb.pitch[i]));
+            max[2] = Math.max(max[2], Math.abs(yawErr(ra.yaw[i], rb.yaw[i])));
         }
+        return max;
+    }
 
-        int i;
-        double sum = 0.0;
-        double diff = 0.0;
-        for(i=0; i<ra.size(); ++i) {
-            // check input data validity
-            if (ra.get(i).time != rb.get(i).time) {
-                throw new IllegalArgumentException("Element "+i+
-                        " of two inputs has different time.");
-            }
-
-            switch(axis) {
-                case 0:
-                    diff = ra.get(i).roll - rb.get(i).roll;
-                    break;
-                case 1:
-                    diff = ra.get(i).pitch - rb.get(i).pitch;
-                    break;
-                case 2:
-                    diff = Math.abs(((4*Math.PI + ra.get(i).yaw - rb.get(i).yaw)%(2*Math.PI))-
-                            Math.PI)-Math.PI;
-                    break;
-            }
-
-            sum += diff*diff;
+    /**
+     *  Calculate the mean square error on each axis between two time aligned (resampled)
+     *  AttitudeRecs, in a single pass over the records.
+     *
+     * @param ra  one AttitudeRecs
+     * @param rb  the other AttitudeRecs
+     * @return Mean square error of roll [0], pitch [1] and yaw [2]
+     */
+    private double [] calcSqrErr(AttitudeRecs ra, AttitudeRecs rb) {
+        checkAligned(ra, rb);
+
+        double [] sum = new double[3];
+        for(int i=0; i<ra.size(); ++i) {
+            double diff = ra.roll[i] - rb.roll[i];
+            sum[0] += diff*diff;
+            diff = ra.pitch[i] - rb.pitch[i];
+            sum[1] += diff*diff;
+            diff = yawErr(ra.yaw[i], rb.yaw[i]);
+            sum[2] += diff*diff;
+        }
+        for (int axis = 0; axis < 3; ++axis) {
+            sum[axis] /= ra.size();
         }
-        return sum/ra.size();
+        return sum;
     }
 
     /**
-     * Debugging helper function. Dump the error between two time aligned ArrayList<AttitudeRec>'s
+     * Debugging helper function. Dump the error between two time aligned AttitudeRecs
      *
      * @param file File to write to
-     * @param ra  one ArrayList of AttitudeRec
-     * @param rb  the other ArrayList of AttitudeRec
+     * @param ra  one AttitudeRecs
+     * @param rb  the other AttitudeRecs
      */
-    private void dumpAttitudeError(File file, ArrayList<AttitudeRec> ra, ArrayList<AttitudeRec> rb){
-        if (ra.size() != rb.size()) {
-            throw new ArrayIndexOutOfBoundsException("Two array has to be the same");
-        }
-
-        int i;
-
-        ArrayList<AttitudeRec> rerr = new ArrayList<>();
-        for(i=0; i<ra.size(); ++i) {
-            if (ra.get(i).time != rb.get(i).time) {
-                throw new IllegalArgumentException("Element "+ i
-                        + " of two inputs has different time.");
-            }
-
-            rerr.add(new AttitudeRec(ra.get(i).time, ra.get(i).roll - rb.get(i).roll,
-                    ra.get(i).pitch - rb.get(i).pitch,
-                    (Math.abs(((4*Math.PI + ra.get(i).yaw - rb.get(i).yaw)%(2*Math.PI))
-                            -Math.PI)-Math.PI)));
+    private void dumpAttitudeError(File file, AttitudeRecs ra, AttitudeRecs rb){
+        checkAligned(ra, rb);
 
+        AttitudeRecs rerr = new AttitudeRecs(ra.size());
+        for(int i=0; i<ra.size(); ++i) {
+            rerr.add(ra.time[i], ra.roll[i] - rb.roll[i], ra.pitch[i] - rb.pitch[i],
+                    yawErr(ra.yaw[i], rb.yaw[i]));
         }
         dumpAttitudeRecs(file, rerr);
     }
 
     /**
-     * Resample one ArrayList<AttitudeRec> with respect to another ArrayList<AttitudeRec>
+     * Resample one AttitudeRecs with respect to another AttitudeRecs
      *
-     * @param rec           the ArrayList of AttitudeRec to be sampled
-     * @param timebase      the other ArrayList of AttitudeRec that serves as time base
+     * @param rec           the AttitudeRecs to be sampled
+     * @param timebase      the other AttitudeRecs that serves as time base
      * @param delta_t       offset in time before resample
      * @param yaw_offset    offset in yaw axis
-     * @param resampled     output ArrayList of AttitudeRec
+     * @param resampled     output AttitudeRecs, resized to the size of timebase
      */
 
-    private void resampleSensorLog(ArrayList<AttitudeRec> rec, ArrayList<AttitudeRec> timebase,
-            double delta_t, double yaw_offset, ArrayList<AttitudeRec> resampled)    {
+    private void resampleSensorLog(AttitudeRecs rec, AttitudeRecs timebase,
+            double delta_t, double yaw_offset, AttitudeRecs resampled)    {
         int i;
         int j = -1;
+        int last = rec.size()-1;
+        resampled.setSize(timebase.size());
         for(i=0; i<timebase.size(); i++) {
-            double time = timebase.get(i).time + delta_t;
+            double time = timebase.time[i] + delta_t;
 
-            while(j<rec.size()-1 && rec.get(j+1).time < time) j++;
+            while(j<last && rec.time[j+1] < time) j++;
 
-            if (j == -1) {
-                //use first
-                resampled.get(i).assign(rec.get(0), timebase.get(i).time);
-            } else if (j == rec.size()-1) {
-                // use last
-                resampled.get(i).assign(rec.get(j), timebase.get(i).time);
+            resampled.time[i] = timebase.time[i];
+            if (j == -1 || j == last) {
+                // use first or last
+                int k = Math.max(j, 0);
+                resampled.roll[i] = rec.roll[k];
+                resampled.pitch[i] = rec.pitch[k];
+                resampled.yaw[i] = rec.yaw[k];
             } else {
                 // do linear resample
-                double alpha = (time - rec.get(j).time)/((rec.get(j+1).time - rec.get(j).time));
-                double roll = (1-alpha) * rec.get(j).roll + alpha * rec.get(j+1).roll;
-                double pitch = (1-alpha) * rec.get(j).pitch + alpha * rec.get(j+1).pitch;
-                double yaw = (1-alpha) * rec.get(j).yaw + alpha * rec.get(j+1).yaw + yaw_offset;
-                resampled.get(i).set(timebase.get(i).time, roll, pitch, yaw);
+                double alpha = (time - rec.time[j])/((rec.time[j+1] - rec.time[j]));
+                resampled.roll[i] = (1-alpha) * rec.roll[j] + alpha * rec.roll[j+1];
+                resampled.pitch[i] = (1-alpha) * rec.pitch[j] + alpha * rec.pitch[j+1];
+                resampled.yaw[i] = (1-alpha) * rec.yaw[j] + alpha * rec.yaw[j+1] + yaw_offset;
             }
         }
     }
 
     /**
-     * Analyze video frames using computer vision approach and generate a ArrayList<AttitudeRec>
+     * Analyze video frames using computer vision approach and generate a AttitudeRecs
      *
-     * @param recs  output ArrayList of AttitudeRec
+     * Frames are decoded on the decoder thread, while circle grid detection and pose estimation
+     * run on a pool of worker threads, one per core. The results are collected in frame order,
+     * and at most a few frames per worker are in flight, so that the decoder does not run ahead
+     * of the analysis.
+     *
+     * @param recs  output AttitudeRecs
      * @return total number of frame of the video
      */
-    private int analyzeVideo(ArrayList<AttitudeRec> recs) {
+    private int analyzeVideo(AttitudeRecs recs) {
         VideoMetaInfo meta = new VideoMetaInfo(new File(mPath, "videometa.json"));
 
         int decimation = 1;
@@ -792,18 +779,21 @@ public class RVCVXCheckAnalyzer {
             meta.fps /=decimation;
         }
 
-        VideoDecoderForOpenCV videoDecoder = new VideoDecoderForOpenCV(
-                new File(mPath, "video.mp4"), decimation);
+        final int nworker = Runtime.getRuntime().availableProcessors();
+        final int max_pending = nworker * FRAMES_IN_FLIGHT_PER_WORKER;
+
+        final VideoDecoderForOpenCV videoDecoder = new VideoDecoderForOpenCV(
+                new File(mPath, "video.mp4"), decimation, max_pending + 1);
 
 
-        Mat frame;
-        Mat gray = new Mat();
+        VideoDecoderForOpenCV.Frame frame;
         int i = -1;
 
-        Size frameSize = videoDecoder.getSize();
+        final Size frameSize = videoDecoder.getSize();
 
         if (frameSize.width != meta.frameWidth || frameSize.height != meta.frameHeight) {
             // this is very unlikely
+            videoDecoder.abort();
             return -1;
         }
 
@@ -811,59 +801,157 @@ public class RVCVXCheckAnalyzer {
             Debug.startMethodTracing("cvprocess");
         }
 
-        Size patternSize = new Size(4,11);
+        final Size patternSize = new Size(4,11);
 
         float fc = (float)(meta.frameWidth/2.0/Math.tan(meta.fovWidth/2.0));
-        Mat camMat = cameraMatrix(fc, new Size(frameSize.width/2, frameSize.height/2));
-        MatOfDouble coeff = new MatOfDouble(); // dummy
-
-        MatOfPoint2f centers = new MatOfPoint2f();
-        MatOfPoint3f grid = asymmetricalCircleGrid(patternSize);
-        Mat rvec = new MatOfFloat();
-        Mat tvec = new MatOfFloat();
-
-        MatOfPoint2f reprojCenters = new MatOfPoint2f();
+        final Mat camMat = cameraMatrix(fc, new Size(frameSize.width/2, frameSize.height/2));
+        final MatOfPoint3f grid = asymmetricalCircleGrid(patternSize);
 
         if (LOCAL_LOGV) {
             Log.v(TAG, "Camera Mat = \n" + camMat.dump());
         }
 
+        // per worker thread OpenCV buffers, reused from frame to frame
+        final ThreadLocal<FrameAnalyzer> analyzers = new ThreadLocal<FrameAnalyzer>() {
+            @Override
+            protected FrameAnalyzer initialValue() {
+                return new FrameAnalyzer(frameSize, patternSize, grid, camMat);
+            }
+        };
+        ExecutorService workers = Executors.newFixedThreadPool(nworker);
+        ArrayDeque<Future<double []>> pending = new ArrayDeque<>();
+
         long startTime = System.nanoTime();
-        long [] ts = new long[1];
 
-        while ((frame = videoDecoder.getFrame(ts)) !=null) {
-            if (LOCAL_LOGV) {
-                Log.v(TAG, "got a frame " + i);
-            }
+        try {
+            while ((frame = videoDecoder.getFrame()) !=null) {
+                if (LOCAL_LOGV) {
+                    Log.v(TAG, "got a frame " + i);
+                }
+
+                if (use_timestamp && frame.timestamp == -1) {
+                    use_timestamp = false;
+                }
+
+                i++;
+
+                // the timestamp depends on the frames before, so it is decided here, in order
+                final double timestamp;
+                if (use_timestamp) {
+                    timestamp = (double)frame.timestamp / 1e6;
+                } else {
+                    timestamp = (double) i / meta.fps;
+                }
+
+                final VideoDecoderForOpenCV.Frame job = frame;
+                final int index = i;
+                pending.add(workers.submit(new Callable<double []>() {
+                    @Override
+                    public double [] call() {
+                        return analyzers.get().analyze(videoDecoder, job, index, timestamp);
+                    }
+                }));
 
-            if (use_timestamp && ts[0] == -1) {
-                use_timestamp = false;
+                // reassemble the results in frame order
+                while (pending.size() >= max_pending) {
+                    collectFrameResult(pending.poll(), recs);
+                }
+            }
+            while (!pending.isEmpty()) {
+                collectFrameResult(pending.poll(), recs);
             }
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(TAG, "Video analysis failed", e);
+            videoDecoder.abort();
+            return -1;
+        } finally {
+            workers.shutdownNow();
+        }
+
+        if (LOCAL_LOGV) {
+            Log.v(TAG, "Finished decoding");
+        }
+
+        if (TRACE_VIDEO_ANALYSIS) {
+            Debug.stopMethodTracing();
+        }
+
+        if (LOCAL_LOGV) {
+            // time analysis
+            double totalTime = (System.nanoTime()-startTime)/1e9;
+            Log.i(TAG, "Total time: "+totalTime +"s, Per frame time: "+totalTime/i );
+        }
+        return i;
+    }
 
-            // has to be in front, as there are cases where execution
-            // will skip the later part of this while
-            i++;
+    /**
+     * Wait for the analysis of a frame and add its attitude, if any, to recs
+     */
+    private static void collectFrameResult(Future<double []> result, AttitudeRecs recs)
+            throws InterruptedException, ExecutionException {
+        double [] rec = result.get();
+        if (rec != null) {
+            recs.add(rec[0], rec[1], rec[2], rec[3]);
+        }
+    }
+
+    /**
+     * Finds the attitude of the camera in a frame. Each worker thread has its own instance, as
+     * the OpenCV buffers are reused from one frame to the next.
+     */
+    private static class FrameAnalyzer {
+        private final Size mFrameSize;
+        private final Size mPatternSize;
+        private final MatOfPoint3f mGrid;
+        private final Mat mCamMat;
+
+        private final Mat mRgba;
+        private final Mat mGray = new Mat();
+        private final MatOfDouble mCoeff = new MatOfDouble(); // dummy
+        private final MatOfPoint2f mCenters = new MatOfPoint2f();
+        private final Mat mRvec = new MatOfFloat();
+        private final Mat mTvec = new MatOfFloat();
+        private final MatOfPoint2f mReprojCenters = new MatOfPoint2f();
+
+        FrameAnalyzer(Size frameSize, Size patternSize, MatOfPoint3f grid, Mat camMat) {
+            mFrameSize = frameSize;
+            mPatternSize = patternSize;
+            // OpenCV objects are not shared between threads
+            mGrid = new MatOfPoint3f(grid.clone());
+            mCamMat = camMat.clone();
+            mRgba = new Mat((int) frameSize.height, (int) frameSize.width, CvType.CV_8UC4);
+        }
+
+        /**
+         * Analyze a frame, which is given back to the decoder as soon as it is copied.
+         *
+         * @return time, roll, pitch and yaw of the camera, or null if it cannot be found
+         */
+        double [] analyze(VideoDecoderForOpenCV decoder, VideoDecoderForOpenCV.Frame frame,
+                int i, double timestamp) {
+            mRgba.put(0, 0, frame.bytes);
+            decoder.recycleFrame(frame);
 
             // convert to gray manually as by default findCirclesGridDefault uses COLOR_BGR2GRAY
-            Imgproc.cvtColor(frame, gray, Imgproc.COLOR_RGB2GRAY);
+            Imgproc.cvtColor(mRgba, mGray, Imgproc.COLOR_RGB2GRAY);
 
             boolean foundPattern = Calib3d.findCirclesGrid(
-                    gray,  patternSize, centers, Calib3d.CALIB_CB_ASYMMETRIC_GRID);
+                    mGray,  mPatternSize, mCenters, Calib3d.CALIB_CB_ASYMMETRIC_GRID);
 
             if (!foundPattern) {
                 // skip to next frame
-                continue;
+                return null;
             }
 
             if (OUTPUT_DEBUG_IMAGE) {
-                Calib3d.drawChessboardCorners(frame, patternSize, centers, true);
+                Calib3d.drawChessboardCorners(mRgba, mPatternSize, mCenters, true);
             }
 
             // figure out the extrinsic parameters using real ground truth 3D points and the pixel
             // position of blobs found in findCircleGrid, an estimated camera matrix and
             // no-distortion are assumed.
             boolean foundSolution =
-                    Calib3d.solvePnP(grid, centers, camMat, coeff, rvec, tvec,
+                    Calib3d.solvePnP(mGrid, mCenters, mCamMat, mCoeff, mRvec, mTvec,
                             false, Calib3d.CV_ITERATIVE);
 
             if (!foundSolution) {
@@ -871,56 +959,37 @@ public class RVCVXCheckAnalyzer {
                 if (LOCAL_LOGV) {
                     Log.v(TAG, "cannot find pnp solution in frame " + i + ", skipped.");
                 }
-                continue;
+                return null;
             }
 
             // reproject points to for evaluation of result accuracy of solvePnP
-            Calib3d.projectPoints(grid, rvec, tvec, camMat, coeff, reprojCenters);
+            Calib3d.projectPoints(mGrid, mRvec, mTvec, mCamMat, mCoeff, mReprojCenters);
 
             // error is evaluated in norm2, which is real error in pixel distance / sqrt(2)
-            double error = Core.norm(centers, reprojCenters, Core.NORM_L2);
+            double error = Core.norm(mCenters, mReprojCenters, Core.NORM_L2);
 
             if (LOCAL_LOGV) {
                 Log.v(TAG, "Found attitude, re-projection error = " + error);
             }
 
+            if (OUTPUT_DEBUG_IMAGE) {
+                Calib3d.drawChessboardCorners(mRgba, mPatternSize, mReprojCenters, true);
+                Imgcodecs.imwrite(Environment.getExternalStorageDirectory().getPath()
+                        + "/RVCVRecData/DebugCV/img" + i + ".png", mRgba);
+            }
+
             // if error is reasonable, add it into the results. use ratio to frame height to avoid
             // discriminating higher definition videos
-            if (error < REPROJECTION_THREASHOLD_RATIO * frameSize.height) {
+            if (error < REPROJECTION_THREASHOLD_RATIO * mFrameSize.height) {
                 double [] rv = new double[3];
-                double timestamp;
 
-                rvec.get(0,0, rv);
-                if (use_timestamp) {
-                    timestamp = (double)ts[0] / 1e6;
-                } else {
-                    timestamp = (double) i / meta.fps;
-                }
+                mRvec.get(0,0, rv);
                 if (LOCAL_LOGV) Log.v(TAG, String.format("Added frame %d  ts = %f", i, timestamp));
-                recs.add(new AttitudeRec(timestamp, rodr2rpy(rv)));
+                double [] rpy = rodr2rpy(rv);
+                return new double[] {timestamp, rpy[0], rpy[1], rpy[2]};
             }
-
-            if (OUTPUT_DEBUG_IMAGE) {
-                Calib3d.drawChessboardCorners(frame, patternSize, reprojCenters, true);
-                Imgcodecs.imwrite(Environment.getExternalStorageDirectory().getPath()
-                        + "/RVCVRecData/DebugCV/img" + i + ".png", frame);
-            }
-        }
-
-        if (LOCAL_LOGV) {
-            Log.v(TAG, "Finished decoding");
-        }
-
-        if (TRACE_VIDEO_ANALYSIS) {
-            Debug.stopMethodTracing();
-        }
-
-        if (LOCAL_LOGV) {
-            // time analysis
-            double totalTime = (System.nanoTime()-startTime)/1e9;
-            Log.i(TAG, "Total time: "+totalTime +"s, Per frame time: "+totalTime/i );
+            return null;
         }
-        return i;
     }
 
     /**
@@ -935,7 +1004,7 @@ public class RVCVXCheckAnalyzer {
         private MediaCodec decoder=null;
         private CtsMediaOutputSurface surface=null;
 
-        private MatBuffer mMatBuffer;
+        private FrameQueue mFrameQueue;
 
         private final File mVideoFile;
 
@@ -944,20 +1013,33 @@ public class RVCVXCheckAnalyzer {
 
         private Thread mThread;
         private int mDecimation;
+        private int mMaxFrames;
 
         /**
          * Constructor
          * @param file video file
          * @param decimation process every "decimation" number of frame
+         * @param maxFrames number of decoded frames which can wait for processing or be processed
+         *                  at the same time
          */
-        VideoDecoderForOpenCV(File file, int decimation) {
+        VideoDecoderForOpenCV(File file, int decimation, int maxFrames) {
             mVideoFile = file;
             mDecimation = decimation;
+            mMaxFrames = maxFrames;
             valid = false;
 
             start();
         }
 
+        /**
+         * Constructor
+         * @param file video file
+         * @param decimation process every "decimation" number of frame
+         */
+        VideoDecoderForOpenCV(File file, int decimation) {
+            this(file, decimation, 1);
+        }
+
         /**
          * Constructor
          * @param file video file
@@ -1048,7 +1130,7 @@ public class RVCVXCheckAnalyzer {
 
                     // Decode to offscreen surface
                     surface = new CtsMediaOutputSurface(width, height);
-                    mMatBuffer = new MatBuffer(width, height);
+                    mFrameQueue = new FrameQueue(width, height, mMaxFrames);
 
                     decoder.configure(format, surface.getSurface(), null, 0);
                     break;
@@ -1087,7 +1169,7 @@ public class RVCVXCheckAnalyzer {
             int iframe = 0;
             long frameTimestamp = 0;
 
-            while (!Thread.interrupted()) {
+            while (!Thread.interrupted() && mFrameQueue.isValid()) {
                 if (!isEOS) {
                     int inIndex = decoder.dequeueInputBuffer(10000);
                     if (inIndex >= 0) {
@@ -1147,13 +1229,14 @@ public class RVCVXCheckAnalyzer {
 
                         if (doRender) {
                             surface.awaitNewImage();
-                            surface.drawImage();
-                            if (LOCAL_LOGV) {
-                                Log.v(TAG, "Finish drawing a frame!");
-                            }
+                            // only the frames kept by decimation need to be drawn and read back
                             if ((iframe++ % mDecimation) == 0) {
+                                surface.drawImage();
+                                if (LOCAL_LOGV) {
+                                    Log.v(TAG, "Finish drawing a frame!");
+                                }
                                 //Send the frame for processing
-                                mMatBuffer.put(frameTimestamp);
+                                mFrameQueue.put(frameTimestamp);
                             }
                         }
                         break;
@@ -1166,7 +1249,7 @@ public class RVCVXCheckAnalyzer {
                     break;
                 }
             }
-            mMatBuffer.invalidate();
+            mFrameQueue.invalidate();
 
             decoder.stop();
 
@@ -1176,11 +1259,27 @@ public class RVCVXCheckAnalyzer {
 
 
         /**
-         * Get next valid frame
-         * @return Frame in OpenCV mat
+         * Get next valid frame, which has to be given back with recycleFrame once used
+         * @return Frame in RGBA, or null at the end of the video
+         */
+        public Frame getFrame() {
+            return mFrameQueue.get();
+        }
+
+        /**
+         * Give back a frame returned by getFrame, so that it can hold another decoded frame
+         */
+        public void recycleFrame(Frame frame) {
+            mFrameQueue.recycle(frame);
+        }
+
+        /**
+         * Stop decoding, for example when the processing of the frames failed
          */
-        public Mat getFrame(long ts[]) {
-            return mMatBuffer.get(ts);
+        public void abort() {
+            if (mFrameQueue != null) {
+                mFrameQueue.invalidate();
+            }
         }
 
         /**
@@ -1188,33 +1287,50 @@ public class RVCVXCheckAnalyzer {
          * @return size of the frame
          */
         Size getSize() {
-            return mMatBuffer.getSize();
+            if (mFrameQueue == null) {
+                return new Size();
+            }
+            return mFrameQueue.getSize();
         }
 
         /**
-         * A synchronized buffer
+         * A decoded frame in RGBA and its time stamp
          */
-        class MatBuffer {
-            private Mat mat;
-            private byte[] bytes;
-            private ByteBuffer buf;
-            private long timestamp;
-            private boolean full;
+        class Frame {
+            final byte[] bytes;
+            long timestamp;
+
+            Frame(int size) {
+                bytes = new byte[size];
+            }
+        }
+
+        /**
+         * A synchronized queue of decoded frames. At most maxFrames frames exist, the decoder
+         * waits for one to be recycled before reading back another one.
+         */
+        class FrameQueue {
+            private final ArrayDeque<Frame> mFull = new ArrayDeque<>();
+            private final ArrayDeque<Frame> mFree = new ArrayDeque<>();
+            private final ByteBuffer buf;
+            private final int mMaxFrames;
+            private int mAllocated;
 
             private int mWidth, mHeight;
             private boolean mValid = false;
 
-            MatBuffer(int width, int height) {
+            FrameQueue(int width, int height, int maxFrames) {
                 mWidth = width;
                 mHeight = height;
+                mMaxFrames = maxFrames;
 
-                mat = new Mat(height, width, CvType.CV_8UC4); //RGBA
-                buf = ByteBuffer.allocateDirect(width*height*4);
-                bytes = new byte[width*height*4];
-                timestamp = -1;
+                buf = ByteBuffer.allocateDirect(width*height*4); //RGBA
 
                 mValid = true;
-                full = false;
+            }
+
+            public synchronized boolean isValid() {
+                return mValid;
             }
 
             public synchronized void invalidate() {
@@ -1222,45 +1338,65 @@ public class RVCVXCheckAnalyzer {
                 notifyAll();
             }
 
-            public synchronized Mat get(long ts[]) {
-
-                if (!mValid) return null;
-                while (full == false) {
+            /**
+             * @return the oldest decoded frame, waiting for one if necessary, or null once the
+             * queue is invalidated and empty
+             */
+            public synchronized Frame get() {
+                while (mFull.isEmpty()) {
+                    if (!mValid) return null;
                     try {
                         wait();
-                        if (!mValid) return null;
                     } catch (InterruptedException e) {
                         return null;
                     }
                 }
-                mat.put(0,0, bytes);
-                full = false;
+                return mFull.poll();
+            }
+
+            public synchronized void recycle(Frame frame) {
+                mFree.add(frame);
                 notifyAll();
-                ts[0] = timestamp;
-                return mat;
             }
 
-            public synchronized void put(long ts) {
-                while (full) {
-                    try {
-                        wait();
-                    } catch (InterruptedException e) {
-                        Log.e(TAG, "Interrupted when waiting for space in buffer");
+            /**
+             * Read back the frame drawn on the current GL surface and queue it
+             */
+            public void put(long ts) {
+                Frame frame;
+                synchronized (this) {
+                    while (mFree.isEmpty() && mAllocated >= mMaxFrames) {
+                        if (!mValid) return;
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Log.e(TAG, "Interrupted when waiting for space in buffer");
+                            return;
+                        }
+                    }
+                    if (mFree.isEmpty()) {
+                        mFree.add(new Frame(mWidth*mHeight*4));
+                        mAllocated++;
                     }
+                    frame = mFree.poll();
                 }
+
+                // read back outside of the lock, so that frames can be taken meanwhile
                 GLES20.glReadPixels(0, 0, mWidth, mHeight, GL10.GL_RGBA,
                         GL10.GL_UNSIGNED_BYTE, buf);
-                buf.get(bytes);
+                buf.get(frame.bytes);
                 buf.rewind();
+                frame.timestamp = ts;
 
-                timestamp = ts;
-                full = true;
-                notifyAll();
+                synchronized (this) {
+                    mFull.add(frame);
+                    notifyAll();
+                }
             }
 
             public Size getSize() {
                 if (valid) {
-                    return mat.size();
+                    return new Size(mWidth, mHeight);
                 }
                 return new Size();
             }
@@ -24,6 +24,7 @@ import java.io.FileNotFoundException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -32,6 +33,7 @@ import java.util.Map;
 public class CompatibilityBuildHelper {
 
     public static final String MODULE_IDS = "MODULE_IDS";
+    public static final String MODULE_ID_ALIASES_PREFIX = "MODULE_ID_ALIASES:";
 
     private static final String ROOT_DIR = "ROOT_DIR";
     private static final String ROOT_DIR2 = "ROOT_DIR2";
@@ -157,6 +159,17 @@ public class CompatibilityBuildHelper {
         mBuildInfo.addBuildAttribute(MODULE_IDS, String.join(",", moduleIds));
     }
 
+    /**
+     * Records the ids under which the results of modules running for one ABI only are also
+     * reported.
+     */
+    public void setModuleIdAliases(Map<String, List<String>> aliases) {
+        for (Map.Entry<String, List<String>> entry : aliases.entrySet()) {
+            mBuildInfo.addBuildAttribute(MODULE_ID_ALIASES_PREFIX + entry.getKey(),
+                    String.join(",", entry.getValue()));
+        }
+    }
+
     public Map<String, File> getDynamicConfigFiles() {
         Map<String, File> configMap = new HashMap<>();
         for (String key : mBuildInfo.getBuildAttributes().keySet()) {
@@ -20,6 +20,7 @@ import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildProvider;
 import com.android.compatibility.common.tradefed.result.IInvocationResultRepo;
 import com.android.compatibility.common.tradefed.result.InvocationResultRepo;
+import com.android.compatibility.common.tradefed.result.RunStatus;
 import com.android.compatibility.common.tradefed.result.SubPlanCreator;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepo;
 import com.android.compatibility.common.util.IInvocationResult;
@@ -79,7 +80,7 @@ public class CompatibilityConsole extends Console {
     }
 
     /**
-     * Adds the 'list plans', 'list modules' and 'list results' commands
+     * Adds the 'list plans', 'list modules', 'list results' and 'status' commands
      */
     @Override
     protected void setCustomCommands(RegexTrie<Runnable> trie, List<String> genericHelp,
@@ -132,6 +133,12 @@ public class CompatibilityConsole extends Console {
                 addSubPlan(flatArgs);
             }
         }, "a(?:dd)?", "s(?:ubplan)?", null);
+        trie.put(new Runnable() {
+            @Override
+            public void run() {
+                printStatus();
+            }
+        }, "status");
         trie.put(new Runnable() {
             @Override
             public void run() {
@@ -177,6 +184,8 @@ public class CompatibilityConsole extends Console {
         helpBuilder.append("  help: show this message.\n");
         helpBuilder.append("  help all: show the complete tradefed help.\n");
         helpBuilder.append("  version: show the version.\n");
+        helpBuilder.append("  status: show the progress, test throughput and estimated time left ");
+        helpBuilder.append("of the running invocations.\n");
         helpBuilder.append("  exit: gracefully exit the compatibiltiy console, waiting until all ");
         helpBuilder.append("invocations have completed.\n");
         helpBuilder.append("Run:\n");
@@ -341,6 +350,30 @@ public class CompatibilityConsole extends Console {
         }
     }
 
+    private void printStatus() {
+        List<RunStatus> statuses = RunStatus.getAll();
+        if (statuses.isEmpty()) {
+            printLine("No invocations in progress");
+            return;
+        }
+        List<List<String>> table = new ArrayList<>();
+        table.add(Arrays.asList("Device serial", "Module", "Modules Complete", "Tests",
+                "Failed", "Tests/s", "Time Left"));
+        for (RunStatus status : statuses) {
+            String module = status.getModuleId();
+            long timeLeft = status.getEstimatedTimeLeft();
+            table.add(Arrays.asList(
+                    status.getSerial(),
+                    module != null ? module : "-",
+                    String.format("%d of %d", status.getModulesDone(), status.getModulesTotal()),
+                    Integer.toString(status.getTestsDone()),
+                    Integer.toString(status.getTestsFailed()),
+                    String.format("%.1f", status.getTestsPerSecond()),
+                    timeLeft < 0 ? "Unknown" : TimeUtil.formatElapsedTime(timeLeft)));
+        }
+        new TableFormatter().displayTable(table, new PrintWriter(System.out, true));
+    }
+
     private void listResults() {
         TableFormatter tableFormatter = new TableFormatter();
         List<List<String>> table = new ArrayList<>();
@@ -16,6 +16,7 @@
 
 package com.android.compatibility.common.tradefed.result;
 
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmlib.testrunner.TestIdentifier;
@@ -28,6 +29,9 @@ import com.android.tradefed.result.IShardableListener;
 import com.android.tradefed.result.StubTestInvocationListener;
 import com.android.tradefed.util.TimeUtil;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.Map;
 
 /**
@@ -40,7 +44,15 @@ public class ConsoleReporter extends StubTestInvocationListener implements IShar
     @Option(name = "quiet-output", description = "Mute display of test results.")
     private boolean mQuietOutput = false;
 
+    @Option(name = "status-file-interval", description = "Minimum number of seconds between "
+            + "updates of the status file in the result directory, 0 to disable it.")
+    private int mStatusFileInterval = 30;
+
+    private static long sLastStatusWrite = 0;
+
     private String mDeviceSerial = UNKNOWN_DEVICE;
+    private RunStatus mStatus = new RunStatus(UNKNOWN_DEVICE, System.currentTimeMillis());
+    private File mResultDir;
     private boolean mTestFailed;
     private String mModuleId;
     private int mCurrentTestNum;
@@ -60,6 +72,26 @@ public class ConsoleReporter extends StubTestInvocationListener implements IShar
         }
         // Escape any "%" signs in the device serial.
         mDeviceSerial = buildInfo.getDeviceSerial().replace("%", "%%");
+        mStatus = RunStatus.start(buildInfo.getDeviceSerial());
+        try {
+            mResultDir = new CompatibilityBuildHelper(buildInfo).getResultDir();
+        } catch (FileNotFoundException e) {
+            CLog.w("No result directory to write the status file to: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invocationEnded(long elapsedTime) {
+        // Each shard ends on its own; the final status is written once all of them have ended.
+        synchronized (ConsoleReporter.class) {
+            if (RunStatus.finish(mStatus.getSerial())) {
+                writeStatusFile(true);
+                RunStatus.removeFinished();
+            }
+        }
     }
 
     /**
@@ -134,6 +166,8 @@ public class ConsoleReporter extends StubTestInvocationListener implements IShar
             logProgress("%s pass", test);
             mPassedTests++;
         }
+        mStatus.testEnded(mTestFailed);
+        writeStatusFile(false);
     }
 
     /**
@@ -159,6 +193,7 @@ public class ConsoleReporter extends StubTestInvocationListener implements IShar
             mPassedTests,
             mFailedTests,
             mNotExecutedTests);
+        writeStatusFile(false);
     }
 
     /**
@@ -169,6 +204,28 @@ public class ConsoleReporter extends StubTestInvocationListener implements IShar
         logMessage("%s stopped (%s)", mModuleId, TimeUtil.formatElapsedTime(elapsedTime));
     }
 
+    /**
+     * Rewrites the status file of the invocation, at most once every mStatusFileInterval seconds
+     * across all shards unless {@code force} is set.
+     */
+    private void writeStatusFile(boolean force) {
+        if (mStatusFileInterval <= 0 || mResultDir == null || !mResultDir.isDirectory()) {
+            return;
+        }
+        synchronized (ConsoleReporter.class) {
+            long now = System.currentTimeMillis();
+            if (!force && now - sLastStatusWrite < mStatusFileInterval * 1000L) {
+                return;
+            }
+            sLastStatusWrite = now;
+            try {
+                RunStatus.writeStatusFile(mResultDir);
+            } catch (IOException e) {
+                CLog.w("Failed to write the status file: %s", e.getMessage());
+            }
+        }
+    }
+
     /**
      * Print out message with test execution status.
      */
@@ -17,12 +17,17 @@ package com.android.compatibility.common.tradefed.result;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.testtype.CompatibilityTest;
+import com.android.compatibility.common.tradefed.util.CoordinatorClient;
+import com.android.compatibility.common.tradefed.util.InvocationTimeline;
+import com.android.compatibility.common.tradefed.util.ModuleCoordinator;
+import com.android.compatibility.common.tradefed.util.TestDurations;
 import com.android.compatibility.common.util.ICaseResult;
 import com.android.compatibility.common.util.IInvocationResult;
 import com.android.compatibility.common.util.IModuleResult;
 import com.android.compatibility.common.util.ITestResult;
 import com.android.compatibility.common.util.InvocationResult;
 import com.android.compatibility.common.util.MetricsStore;
+import com.android.compatibility.common.util.ModuleResult;
 import com.android.compatibility.common.util.ReportLog;
 import com.android.compatibility.common.util.ResultHandler;
 import com.android.compatibility.common.util.ResultUploader;
@@ -56,12 +61,19 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -102,12 +114,35 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     @Option(name = "use-log-saver", description = "Also saves generated result with log saver")
     private boolean mUseLogSaver = false;
 
+    @Option(name = CompatibilityTest.COORDINATOR_PORT_OPTION,
+            description = "collect the results sent by the harnesses of a distributed run on "
+            + "this port.")
+    private int mCoordinatorPort = 0;
+
+    @Option(name = CompatibilityTest.COORDINATOR_OPTION,
+            description = "send the module results to the coordinator of a distributed run, "
+            + "given as host:port.")
+    private String mCoordinator = null;
+
+    @Option(name = CompatibilityTest.COORDINATOR_TOKEN_OPTION,
+            description = "the token shared by the coordinator and the harnesses of a "
+            + "distributed run.")
+    private String mCoordinatorToken = null;
+
+    @Option(name = CompatibilityTest.COORDINATOR_ALL_INTERFACES_OPTION,
+            description = "collect the results of a distributed run on all interfaces rather "
+            + "than the loopback one only. Requires a coordinator token.")
+    private boolean mCoordinatorAllInterfaces = false;
+
     private CompatibilityBuildHelper mBuildHelper;
     private File mResultDir = null;
     private File mLogDir = null;
     private ResultUploader mUploader;
     private String mReferenceUrl;
     private ILogSaver mLogSaver;
+    private ModuleCoordinator mModuleCoordinator;
+    private final TestDurations mTestDurations = new TestDurations();
+    private CoordinatorClient mCoordinatorClient;
     private int invocationEndedCount = 0;
 
     private IInvocationResult mResult = new InvocationResult();
@@ -122,7 +157,10 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     // Note that this count is not necessarily equal to the count of tests contained
     // in mCurrentModuleResult because of how special cases like ignored tests are reported.
     private int mCurrentTestNum;
+    private long mCurrentTestStartTime;
     private int mTotalTestsInModule;
+    // Not executed tests of the current module already forwarded to the master or coordinator
+    private int mForwardedNotExecuted;
 
     // Nullable. If null, "this" is considered the master and must handle
     // result aggregation and reporting. When not null, it should forward events
@@ -176,6 +214,10 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             // The master ResultReporter collects all buildInfos.
             mMasterBuildInfos.add(buildInfo);
 
+            if (mCoordinatorPort > 0 && mModuleCoordinator == null) {
+                startCoordinator();
+            }
+
             if (mResultDir == null) {
                 // For the non-sharding case, invocationStarted is only called once,
                 // but for the sharding case, this might be called multiple times.
@@ -258,6 +300,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             mTotalTestsInModule = numTests;
             // Reset counters
             mCurrentTestNum = 0;
+            mForwardedNotExecuted = 0;
         }
     }
 
@@ -272,6 +315,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             mCurrentResult.reset(); // clear result status for this invocation
         }
         mCurrentTestNum++;
+        mCurrentTestStartTime = System.currentTimeMillis();
     }
 
     /**
@@ -279,6 +323,10 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
      */
     @Override
     public void testEnded(TestIdentifier test, Map<String, String> metrics) {
+        // The master collects the durations of all shards, to balance the next sharded runs
+        ResultReporter master = isShardResultReporter() ? mMasterResultReporter : this;
+        master.mTestDurations.put(mCurrentModuleResult.getId(), test.toString(),
+                System.currentTimeMillis() - mCurrentTestStartTime);
         if (mCurrentResult.getResultStatus() == TestStatus.FAIL) {
             // Test has previously failed.
             return;
@@ -345,10 +393,86 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         mCurrentModuleResult.addRuntime(elapsedTime);
         // Expect them to be equal, but greater than to be safe.
         mCurrentModuleResult.setDone(mCurrentTestNum >= mTotalTestsInModule);
-        mCurrentModuleResult.setNotExecuted(Math.max(mTotalTestsInModule - mCurrentTestNum, 0));
+        int notExecuted = Math.max(mTotalTestsInModule - mCurrentTestNum, 0);
+        mCurrentModuleResult.setNotExecuted(notExecuted);
+        if (!isShardResultReporter() && mCoordinator == null) {
+            return;
+        }
+        // The module result is forwarded after each of its runs, and merging adds up the not
+        // executed tests, so only forward the change since the previous run.
+        IModuleResult forwarded = copyModuleResult(mCurrentModuleResult,
+                mCurrentModuleResult.getId());
+        forwarded.setNotExecuted(notExecuted - mForwardedNotExecuted);
+        mForwardedNotExecuted = notExecuted;
         if (isShardResultReporter()) {
             // Forward module results to the master.
-            mMasterResultReporter.mergeModuleResult(mCurrentModuleResult);
+            mMasterResultReporter.mergeModuleResult(forwarded);
+        }
+        if (mCoordinator != null) {
+            sendToCoordinator(forwarded);
+        }
+    }
+
+    /**
+     * Starts collecting the results of the other harnesses of a distributed run.
+     */
+    private void startCoordinator() {
+        try {
+            mModuleCoordinator = ModuleCoordinator.forPort(mCoordinatorPort,
+                    mCoordinatorAllInterfaces, mCoordinatorToken);
+        } catch (IOException e) {
+            warn("Failed to listen for results on port %d", mCoordinatorPort);
+            CLog.e(e);
+            return;
+        }
+        mModuleCoordinator.setResultListener(new ModuleCoordinator.ResultListener() {
+            @Override
+            public void moduleResult(IModuleResult result) {
+                mergeModuleResult(result);
+            }
+        });
+    }
+
+    /**
+     * Sends a module result to the coordinator of a distributed run.
+     */
+    private synchronized void sendToCoordinator(IModuleResult moduleResult) {
+        if (mCoordinatorClient == null) {
+            // Only sends results, so does not give the identity of the harness
+            mCoordinatorClient = new CoordinatorClient(mCoordinator, mCoordinatorToken, null);
+        }
+        try {
+            mCoordinatorClient.moduleResult(moduleResult);
+        } catch (IOException e) {
+            warn("Failed to send the result of %s to %s", moduleResult.getId(), mCoordinator);
+            CLog.e(e);
+        }
+    }
+
+    /**
+     * Closes the connection to the coordinator of a distributed run, or stops the coordinator.
+     */
+    private synchronized void closeCoordinator() {
+        if (mCoordinatorClient != null) {
+            mCoordinatorClient.close();
+            mCoordinatorClient = null;
+        }
+        if (mModuleCoordinator != null) {
+            mModuleCoordinator.setResultListener(null);
+            mModuleCoordinator.stop();
+            mModuleCoordinator = null;
+        }
+    }
+
+    /**
+     * Withdraws the not executed tests a shard reported for a module it could not finish. Unlike
+     * merging, this leaves the done status of the module as the shards last reported it.
+     */
+    private void withdrawNotExecuted(String id, int notExecuted) {
+        synchronized(this) {
+            IModuleResult moduleResult = mResult.getOrCreateModule(id);
+            moduleResult.setNotExecuted(
+                    Math.max(0, moduleResult.getNotExecuted() - notExecuted));
         }
     }
 
@@ -401,6 +525,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     public void invocationEnded(long elapsedTime) {
         if (isShardResultReporter()) {
             // Shard ResultReporters report
+            closeCoordinator();
             mMasterResultReporter.invocationEnded(elapsedTime);
             return;
         }
@@ -415,6 +540,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             if (++invocationEndedCount < mMasterBuildInfos.size()) {
                 return;
             }
+            closeCoordinator();
             finalizeResults(elapsedTime);
         }
     }
@@ -426,6 +552,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         }
 
         Set<String> allExpectedModules = new HashSet<>();
+        Map<String, String[]> moduleIdAliases = new HashMap<>();
         // Add all build info to the result to be serialized
         for (IBuildInfo buildInfo : mMasterBuildInfos) {
             for (Map.Entry<String, String> entry : buildInfo.getBuildAttributes().entrySet()) {
@@ -438,6 +565,20 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
                 if (key.equals(CompatibilityBuildHelper.MODULE_IDS) && value.length() > 0) {
                     Collections.addAll(allExpectedModules, value.split(","));
                 }
+
+                if (key.startsWith(CompatibilityBuildHelper.MODULE_ID_ALIASES_PREFIX)) {
+                    moduleIdAliases.put(key.substring(
+                            CompatibilityBuildHelper.MODULE_ID_ALIASES_PREFIX.length()),
+                            value.split(","));
+                }
+            }
+        }
+
+        // Report the results of modules which ran for one ABI only under the other ABIs as well
+        for (Map.Entry<String, String[]> entry : moduleIdAliases.entrySet()) {
+            IModuleResult moduleResult = mResult.getOrCreateModule(entry.getKey());
+            for (String alias : entry.getValue()) {
+                mResult.mergeModuleResult(copyModuleResult(moduleResult, alias));
             }
         }
 
@@ -457,28 +598,132 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
                 mResult.getNotExecuted(),
                 moduleProgress);
 
+        // Collect the timelines recorded by the harness on each device
+        List<InvocationTimeline> timelines = new ArrayList<>();
+        for (String deviceSerial : mMasterDeviceSerials) {
+            InvocationTimeline timeline = InvocationTimeline.remove(deviceSerial);
+            if (timeline != null) {
+                timelines.add(timeline);
+            }
+        }
+        Map<String, String> timelineSummary = new LinkedHashMap<>();
+        timelineSummary.put("trace", InvocationTimeline.TRACE_FILE_NAME);
+        timelineSummary.putAll(InvocationTimeline.summarize(timelines));
+        InvocationTimeline hostTimeline = new InvocationTimeline("host");
+        timelines.add(hostTimeline);
+
         long startTime = mResult.getStartTime();
         try {
-            File resultFile = ResultHandler.writeResults(mBuildHelper.getSuiteName(),
-                    mBuildHelper.getSuiteVersion(), mBuildHelper.getSuitePlan(),
-                    mBuildHelper.getSuiteBuild(), mResult, mResultDir, startTime,
-                    elapsedTime + startTime, mReferenceUrl, getLogUrl(),
-                    mBuildHelper.getCommandLineArgs());
+            File resultFile;
+            InvocationTimeline.Span span = hostTimeline.begin("write_results", null);
+            try {
+                resultFile = ResultHandler.writeResults(mBuildHelper.getSuiteName(),
+                        mBuildHelper.getSuiteVersion(), mBuildHelper.getSuitePlan(),
+                        mBuildHelper.getSuiteBuild(), mResult, mResultDir, startTime,
+                        elapsedTime + startTime, mReferenceUrl, getLogUrl(),
+                        mBuildHelper.getCommandLineArgs(), timelineSummary);
+            } finally {
+                span.end();
+            }
             info("Test Result: %s", resultFile.getCanonicalPath());
 
+            span = hostTimeline.begin("copy_result_files", null);
+            try {
+                copyDynamicConfigFiles(mBuildHelper.getDynamicConfigFiles(), mResultDir);
+                copyFormattingFiles(mResultDir);
+            } finally {
+                span.end();
+            }
+            saveTestDurations(mResultDir.getParentFile());
+
             // Zip the full test results directory.
-            copyDynamicConfigFiles(mBuildHelper.getDynamicConfigFiles(), mResultDir);
-            copyFormattingFiles(mResultDir);
-            File zippedResults = zipResults(mResultDir);
+            File zippedResults;
+            span = hostTimeline.begin("zip_results", null);
+            try {
+                zippedResults = zipResults(mResultDir);
+            } finally {
+                span.end();
+            }
             info("Full Result: %s", zippedResults.getCanonicalPath());
 
-            saveLog(resultFile, zippedResults);
-
-            uploadResult(resultFile);
+            span = hostTimeline.begin("save_log", null);
+            try {
+                saveLog(resultFile, zippedResults);
+            } finally {
+                span.end();
+            }
 
+            span = hostTimeline.begin("upload_result", null);
+            try {
+                uploadResult(resultFile);
+            } finally {
+                span.end();
+            }
         } catch (IOException | XmlPullParserException e) {
             CLog.e("[%s] Exception while saving result XML.", mDeviceSerial);
             CLog.e(e);
+        } finally {
+            // Written last so that it covers zipping and uploading the results; the trace is
+            // therefore left out of the zip and only found in the result directory.
+            writeTimeline(timelines, mResultDir);
+        }
+    }
+
+    /**
+     * @return a copy of {@code moduleResult} under the module id {@code id}.
+     */
+    static IModuleResult copyModuleResult(IModuleResult moduleResult, String id) {
+        IModuleResult copy = new ModuleResult(id);
+        copy.addRuntime(moduleResult.getRuntime());
+        copy.setDone(moduleResult.isDone());
+        copy.setNotExecuted(moduleResult.getNotExecuted());
+        for (ICaseResult caseResult : moduleResult.getResults()) {
+            copy.getOrCreateResult(caseResult.getName()).mergeFrom(caseResult);
+        }
+        return copy;
+    }
+
+    /**
+     * Adds the test durations of this invocation to those of the previous ones, in the results
+     * directory. The durations of the modules which ran completely replace the previous ones.
+     */
+    private void saveTestDurations(File resultsDir) {
+        if (mTestDurations.isEmpty()) {
+            return;
+        }
+        Set<String> completeModules = new HashSet<>();
+        if (mRetrySessionId == null) {
+            for (IModuleResult module : mResult.getModules()) {
+                if (module.isDone() && module.getNotExecuted() == 0) {
+                    completeModules.add(module.getId());
+                }
+            }
+        }
+        File durationsFile = new File(resultsDir, TestDurations.FILE_NAME);
+        try {
+            TestDurations.update(durationsFile, mTestDurations, completeModules);
+        } catch (IOException e) {
+            warn("Failed to save test durations to %s", durationsFile.getAbsolutePath());
+            CLog.e(e);
+        }
+    }
+
+    /**
+     * Writes the harness timelines as a trace in the result directory.
+     */
+    private void writeTimeline(List<InvocationTimeline> timelines, File resultDir) {
+        File traceFile = new File(resultDir, InvocationTimeline.TRACE_FILE_NAME);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(traceFile),
+                    StandardCharsets.UTF_8);
+            InvocationTimeline.writeTrace(timelines, writer);
+            info("Harness Timeline: %s", traceFile.getCanonicalPath());
+        } catch (IOException e) {
+            warn("Failed to write harness timeline to %s", traceFile.getAbsolutePath());
+            CLog.e(e);
+        } finally {
+            StreamUtil.close(writer);
         }
     }
 
@@ -488,6 +733,14 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     @Override
     public void invocationFailed(Throwable cause) {
         warn("Invocation failed: %s", cause);
+        if (isShardResultReporter() && mCurrentModuleResult != null
+                && !mCurrentModuleResult.isDone() && mForwardedNotExecuted > 0) {
+            // The module this shard did not finish is handed to another shard, which runs it
+            // again and reports the tests it did not execute itself.
+            mMasterResultReporter.withdrawNotExecuted(mCurrentModuleResult.getId(),
+                    mForwardedNotExecuted);
+            mForwardedNotExecuted = 0;
+        }
     }
 
     /**
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.result;
+
+import com.android.json.stream.JsonWriter;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The live progress of the invocation running on one device: modules done and remaining, tests
+ * per second over the last tests and an estimate of the time left.
+ * <p/>
+ * {@link ConsoleReporter} feeds it test results and
+ * {@link com.android.compatibility.common.tradefed.testtype.CompatibilityTest} the modules of
+ * the shard. The estimate is the sum of the runtime hints of the remaining modules, scaled by how
+ * long the completed modules took compared to their own hints.
+ * <p/>
+ * A module split in chunks is added once per chunk, all under the same id, so each chunk counts
+ * as a module.
+ */
+public class RunStatus {
+
+    public static final String STATUS_FILE_NAME = "status.json";
+
+    /** Number of test end times kept to compute the rolling throughput. */
+    private static final int WINDOW = 128;
+
+    private static final Map<String, RunStatus> sStatuses = new TreeMap<>();
+
+    /**
+     * The chunks of a module left to run, and their summed runtime hint.
+     */
+    private static class Remaining {
+        int mCount;
+        long mHint;
+    }
+
+    private final String mSerial;
+    private final long mStartTime;
+
+    private final Map<String, Remaining> mRemainingModules = new LinkedHashMap<>();
+    private int mModulesTotal;
+    private int mModulesDone;
+    private String mModuleId;
+    private long mModuleHint;
+    private long mModuleStartTime;
+    private long mHintDone;
+    private long mTimeDone;
+
+    private int mTestsDone;
+    private int mTestsFailed;
+    private final long[] mTestEndTimes = new long[WINDOW];
+    private boolean mFinished;
+
+    RunStatus(String serial, long startTime) {
+        mSerial = serial;
+        mStartTime = startTime;
+    }
+
+    /**
+     * Starts tracking the invocation on {@code serial}, replacing any previous one.
+     */
+    public static RunStatus start(String serial) {
+        RunStatus status = new RunStatus(serial, System.currentTimeMillis());
+        synchronized (sStatuses) {
+            sStatuses.put(serial, status);
+        }
+        return status;
+    }
+
+    /**
+     * @return the status of {@code serial}, started if needed.
+     */
+    public static RunStatus forDevice(String serial) {
+        synchronized (sStatuses) {
+            RunStatus status = sStatuses.get(serial);
+            if (status == null) {
+                status = new RunStatus(serial, System.currentTimeMillis());
+                sStatuses.put(serial, status);
+            }
+            return status;
+        }
+    }
+
+    /**
+     * Stops tracking the invocation on {@code serial}.
+     */
+    public static void remove(String serial) {
+        synchronized (sStatuses) {
+            sStatuses.remove(serial);
+        }
+    }
+
+    /**
+     * Marks the invocation on {@code serial} as finished. Its status is kept until the
+     * invocations on all devices have finished, so the last status file shows every shard.
+     *
+     * @return true if the invocations on all devices have now finished.
+     */
+    public static boolean finish(String serial) {
+        synchronized (sStatuses) {
+            RunStatus finished = sStatuses.get(serial);
+            if (finished != null) {
+                finished.setFinished();
+            }
+            for (RunStatus status : sStatuses.values()) {
+                if (!status.isFinished()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Stops tracking the invocations that have finished.
+     */
+    public static void removeFinished() {
+        synchronized (sStatuses) {
+            Iterator<RunStatus> it = sStatuses.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().isFinished()) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the status of all devices, sorted by serial.
+     */
+    public static List<RunStatus> getAll() {
+        synchronized (sStatuses) {
+            return new ArrayList<>(sStatuses.values());
+        }
+    }
+
+    /**
+     * @return the serial of the device.
+     */
+    public String getSerial() {
+        return mSerial;
+    }
+
+    /**
+     * Adds a module, or a chunk of a module, to run on the device.
+     *
+     * @param runtimeHint the expected runtime of the module in ms.
+     */
+    public synchronized void addModule(String id, long runtimeHint) {
+        Remaining remaining = mRemainingModules.get(id);
+        if (remaining == null) {
+            remaining = new Remaining();
+            mRemainingModules.put(id, remaining);
+        }
+        remaining.mCount++;
+        remaining.mHint += runtimeHint;
+        mModulesTotal++;
+    }
+
+    /**
+     * @param runtimeHint the expected runtime in ms of the module, or of the chunk of it starting.
+     */
+    public void moduleStarted(String id, long runtimeHint) {
+        moduleStarted(id, runtimeHint, System.currentTimeMillis());
+    }
+
+    synchronized void moduleStarted(String id, long runtimeHint, long now) {
+        mModuleId = id;
+        mModuleHint = runtimeHint;
+        mModuleStartTime = now;
+    }
+
+    public void moduleEnded(String id) {
+        moduleEnded(id, System.currentTimeMillis());
+    }
+
+    synchronized void moduleEnded(String id, long now) {
+        Remaining remaining = mRemainingModules.get(id);
+        if (remaining == null) {
+            return;
+        }
+        long hint = id.equals(mModuleId) ? mModuleHint : remaining.mHint / remaining.mCount;
+        if (--remaining.mCount == 0) {
+            mRemainingModules.remove(id);
+        } else {
+            remaining.mHint -= hint;
+        }
+        mModulesDone++;
+        if (hint > 0) {
+            mHintDone += hint;
+            mTimeDone += now - mModuleStartTime;
+        }
+        mModuleId = null;
+    }
+
+    public void testEnded(boolean failed) {
+        testEnded(failed, System.currentTimeMillis());
+    }
+
+    synchronized void testEnded(boolean failed, long now) {
+        mTestEndTimes[mTestsDone % WINDOW] = now;
+        mTestsDone++;
+        if (failed) {
+            mTestsFailed++;
+        }
+    }
+
+    public synchronized String getModuleId() {
+        return mModuleId;
+    }
+
+    public synchronized int getModulesDone() {
+        return mModulesDone;
+    }
+
+    public synchronized int getModulesTotal() {
+        return mModulesTotal;
+    }
+
+    public synchronized int getTestsDone() {
+        return mTestsDone;
+    }
+
+    public synchronized int getTestsFailed() {
+        return mTestsFailed;
+    }
+
+    synchronized void setFinished() {
+        mFinished = true;
+        mModuleId = null;
+    }
+
+    public synchronized boolean isFinished() {
+        return mFinished;
+    }
+
+    /**
+     * @return the tests per second over the last tests run, up to {@link #WINDOW} of them.
+     */
+    public double getTestsPerSecond() {
+        return getTestsPerSecond(System.currentTimeMillis());
+    }
+
+    synchronized double getTestsPerSecond(long now) {
+        if (mTestsDone == 0) {
+            return 0;
+        }
+        int count = mTestsDone;
+        long oldest = mStartTime;
+        if (mTestsDone > WINDOW) {
+            // Count the tests ended since the oldest end time still in the window
+            count = WINDOW - 1;
+            oldest = mTestEndTimes[mTestsDone % WINDOW];
+        }
+        long elapsed = now - oldest;
+        return elapsed > 0 ? count * 1000.0 / elapsed : 0;
+    }
+
+    /**
+     * @return the estimated time left in ms, or -1 when there are no runtime hints to go by.
+     */
+    public long getEstimatedTimeLeft() {
+        return getEstimatedTimeLeft(System.currentTimeMillis());
+    }
+
+    synchronized long getEstimatedTimeLeft(long now) {
+        long remainingHint = 0;
+        for (Remaining remaining : mRemainingModules.values()) {
+            remainingHint += remaining.mHint;
+        }
+        if (remainingHint == 0 && !mRemainingModules.isEmpty()) {
+            return -1;
+        }
+        double ratio = mHintDone > 0 ? (double) mTimeDone / mHintDone : 1.0;
+        long left = (long) (remainingHint * ratio);
+        if (mModuleId != null && mRemainingModules.containsKey(mModuleId)) {
+            // The current module is still among the remaining ones
+            long elapsed = now - mModuleStartTime;
+            left -= Math.min(elapsed, (long) (mModuleHint * ratio));
+        }
+        return Math.max(left, 0);
+    }
+
+    synchronized void write(JsonWriter writer, long now) throws IOException {
+        writer.beginObject();
+        writer.name("serial").value(mSerial);
+        writer.name("start_time").value(mStartTime);
+        if (mModuleId != null) {
+            writer.name("module").value(mModuleId);
+        }
+        writer.name("modules_done").value(mModulesDone);
+        writer.name("modules_total").value(mModulesTotal);
+        writer.name("tests_done").value(mTestsDone);
+        writer.name("tests_failed").value(mTestsFailed);
+        writer.name("tests_per_second").value(getTestsPerSecond(now));
+        writer.name("eta_ms").value(getEstimatedTimeLeft(now));
+        writer.name("finished").value(mFinished);
+        writer.endObject();
+    }
+
+    /**
+     * Writes the status of all devices to {@code out} as JSON.
+     */
+    static void writeAll(Writer out, long now) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+        writer.name("time").value(now);
+        writer.name("devices").beginArray();
+        for (RunStatus status : getAll()) {
+            status.write(writer, now);
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Rewrites the {@link #STATUS_FILE_NAME} file in {@code dir}. The file is replaced in one
+     * rename, so readers polling it never see a partial status. The temporary file is removed if
+     * the status cannot be written.
+     */
+    public static void writeStatusFile(File dir) throws IOException {
+        File tmpFile = FileUtil.createTempFile("status", ".json", dir);
+        boolean renamed = false;
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tmpFile),
+                    StandardCharsets.UTF_8);
+            try {
+                writeAll(writer, System.currentTimeMillis());
+            } finally {
+                writer.close();
+            }
+            renamed = tmpFile.renameTo(new File(dir, STATUS_FILE_NAME));
+            if (!renamed) {
+                throw new IOException("Failed to write " + STATUS_FILE_NAME + " in " + dir);
+            }
+        } finally {
+            if (!renamed) {
+                FileUtil.deleteFile(tmpFile);
+            }
+        }
+    }
+}
@@ -18,10 +18,16 @@ package com.android.compatibility.common.tradefed.testtype;
 
 import com.android.compatibility.SuiteInfo;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.tradefed.result.RunStatus;
 import com.android.compatibility.common.tradefed.result.SubPlanCreator;
 import com.android.compatibility.common.tradefed.targetprep.NetworkConnectivityChecker;
 import com.android.compatibility.common.tradefed.targetprep.SystemStatusChecker;
+import com.android.compatibility.common.tradefed.util.CoordinatorClient;
+import com.android.compatibility.common.tradefed.util.IModuleCoordinator;
+import com.android.compatibility.common.tradefed.util.InvocationTimeline;
+import com.android.compatibility.common.tradefed.util.ModuleCoordinator;
 import com.android.compatibility.common.tradefed.util.OptionHelper;
+import com.android.compatibility.common.tradefed.util.TestDurations;
 import com.android.compatibility.common.util.AbiUtils;
 import com.android.compatibility.common.util.ICaseResult;
 import com.android.compatibility.common.util.IInvocationResult;
@@ -69,10 +75,14 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A Test for running Compatibility Suites
@@ -97,6 +107,10 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
     public static final String PRIMARY_ABI_RUN = "primary-abi-only";
     public static final String DEVICE_TOKEN_OPTION = "device-token";
     public static final String LOGCAT_ON_FAILURE_SIZE_OPTION = "logcat-on-failure-size";
+    public static final String COORDINATOR_PORT_OPTION = "coordinator-port";
+    public static final String COORDINATOR_OPTION = "coordinator";
+    public static final String COORDINATOR_TOKEN_OPTION = "coordinator-token";
+    public static final String COORDINATOR_ALL_INTERFACES_OPTION = "coordinator-all-interfaces";
     private static final String URL = "dynamic-config-url";
 
     /* API Key for compatibility test project, used for dynamic configuration */
@@ -262,6 +276,35 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
             + "status checkers invoked between module execution.")
     private String mSystemStatusCheckerConfig = "system-status-checkers";
 
+    @Option(name = "released-module-wait",
+            description = "Maximum number of minutes a device which has run its modules waits "
+            + "for the other devices, in case they become unavailable and release theirs.")
+    private long mReleasedModuleWait = 60;
+
+    @Option(name = COORDINATOR_PORT_OPTION,
+            description = "coordinate a distributed run: hand out the modules to the harnesses "
+            + "connecting on this port, as well as to the local devices, and collect their "
+            + "results in the report of this invocation. Only harnesses on this host can "
+            + "connect unless --" + COORDINATOR_ALL_INTERFACES_OPTION + " is set.")
+    private int mCoordinatorPort = 0;
+
+    @Option(name = COORDINATOR_ALL_INTERFACES_OPTION,
+            description = "coordinate a distributed run on all interfaces rather than the "
+            + "loopback one only, so harnesses on other hosts can connect. Requires --"
+            + COORDINATOR_TOKEN_OPTION + ".")
+    private boolean mCoordinatorAllInterfaces = false;
+
+    @Option(name = COORDINATOR_TOKEN_OPTION,
+            description = "the token shared by the coordinator and the harnesses of a "
+            + "distributed run, which connections must start with.")
+    private String mCoordinatorToken = null;
+
+    @Option(name = COORDINATOR_OPTION,
+            description = "run the modules handed out by the coordinator of a distributed run, "
+            + "given as host:port, and send it the results. The plan and filters must be the "
+            + "same as on the coordinator.")
+    private String mCoordinator = null;
+
     private int mTotalShards;
     private IModuleRepo mModuleRepo;
     private ITestDevice mDevice;
@@ -322,12 +365,31 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
      */
     @Override
     public void run(ITestInvocationListener listener) throws DeviceNotAvailableException {
+        String serial = getDevice().getSerialNumber();
+        boolean shardPrepared = false; // whether this shard has reported its preparation
+        IModuleCoordinator coordinator = null; // hands out the modules of a distributed run
+        String worker = serial;
         try {
+            if (mCoordinator != null) {
+                coordinator = new CoordinatorClient(mCoordinator, mCoordinatorToken,
+                        getCoordinatorIdentity());
+                worker = CoordinatorClient.getWorkerName(serial);
+            } else if (mCoordinatorPort > 0) {
+                coordinator = ModuleCoordinator.forPort(mCoordinatorPort,
+                        mCoordinatorAllInterfaces, mCoordinatorToken);
+                // Taken before setupFilters() changes the filters, as on the workers
+                ((ModuleCoordinator) coordinator).setIdentity(getCoordinatorIdentity());
+            }
             // Synchronized so only one shard enters and sets up the moduleRepo. When the other
             // shards enter after this, moduleRepo is already initialized so they dont do anything
             synchronized (mModuleRepo) {
                 if (!mModuleRepo.isInitialized()) {
                     setupFilters();
+                    if (mTotalShards > 1) {
+                        // Let the repo split the longest modules between the shards
+                        mModuleRepo.setTestDurations(TestDurations.load(new File(
+                                mBuildHelper.getResultsDir(), TestDurations.FILE_NAME)));
+                    }
                     // Initialize the repository, {@link CompatibilityBuildHelper#getTestsDir} can
                     // throw a {@link FileNotFoundException}
                     mModuleRepo.initialize(mTotalShards, mBuildHelper.getTestsDir(), getAbis(),
@@ -336,11 +398,23 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
 
                     // Add the entire list of modules to the CompatibilityBuildHelper for reporting
                     mBuildHelper.setModuleIds(mModuleRepo.getModuleIds());
+                    mBuildHelper.setModuleIdAliases(mModuleRepo.getModuleIdAliases());
+
+                    if (coordinator instanceof ModuleCoordinator) {
+                        ((ModuleCoordinator) coordinator).setModules(getRuntimeHints());
+                    }
                 }
 
             }
-            // Get the tests to run in this shard
-            List<IModuleDef> modules = mModuleRepo.getModules(getDevice().getSerialNumber());
+            // Get the tests to run in this shard, in a distributed run they come one at a time
+            // from the coordinator
+            List<IModuleDef> modules = coordinator == null
+                    ? mModuleRepo.getModules(serial) : new ArrayList<IModuleDef>();
+            InvocationTimeline timeline = InvocationTimeline.start(serial);
+            RunStatus status = RunStatus.forDevice(serial);
+            for (IModuleDef module : modules) {
+                status.addModule(module.getId(), module.getRuntimeHint());
+            }
 
             listener = new FailureListener(listener, getDevice(), mBugReportOnFailure,
                     mLogcatOnFailure, mScreenshotOnFailure, mRebootOnFailure, mMaxLogcatBytes);
@@ -349,7 +423,7 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
                     (moduleCount > 1) ? "s" : "", mDevice.getSerialNumber());
             if (mRebootBeforeTest) {
                 CLog.d("Rebooting device before test starts as requested.");
-                mDevice.reboot();
+                reboot(timeline, null);
             }
 
             if (mSkipConnectivityCheck) {
@@ -371,14 +445,20 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
 
             // Set values and run preconditions
             boolean isPrepared = true; // whether the device has been successfully prepared
-            for (int i = 0; i < moduleCount; i++) {
-                IModuleDef module = modules.get(i);
-                module.setBuild(mBuildHelper.getBuildInfo());
-                module.setDevice(mDevice);
-                module.setPreparerWhitelist(mPreparerWhitelist);
-                isPrepared &= (module.prepare(mSkipPreconditions));
+            InvocationTimeline.Span prepareSpan = timeline.begin("prepare", null);
+            try {
+                for (int i = 0; i < moduleCount; i++) {
+                    IModuleDef module = modules.get(i);
+                    module.setBuild(mBuildHelper.getBuildInfo());
+                    module.setDevice(mDevice);
+                    module.setPreparerWhitelist(mPreparerWhitelist);
+                    isPrepared &= (module.prepare(mSkipPreconditions));
+                }
+            } finally {
+                prepareSpan.end();
             }
             mModuleRepo.setPrepared(isPrepared);
+            shardPrepared = true;
 
             if (!mModuleRepo.isPrepared()) {
                 CLog.logAndDisplay(LogLevel.ERROR,
@@ -389,60 +469,203 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
 
             // Run the tests
             for (int i = 0; i < moduleCount; i++) {
-                IModuleDef module = modules.get(i);
-                long start = System.currentTimeMillis();
-
-                if (mRebootPerModule) {
-                    if ("user".equals(mDevice.getProperty("ro.build.type"))) {
-                        CLog.e("reboot-per-module should only be used during development, "
-                            + "this is a\" user\" build device");
-                    } else {
-                        CLog.logAndDisplay(LogLevel.INFO, "Rebooting device before starting next "
-                            + "module");
-                        mDevice.reboot();
-                    }
+                runModule(modules.get(i), checkers, listener, timeline, status);
+            }
+            if (coordinator != null) {
+                runCoordinatedModules(coordinator, worker, checkers, listener, timeline, status);
+            }
+
+            // Take over the modules of devices which became unavailable
+            IModuleDef module;
+            while ((module = mModuleRepo.getReleasedModule(serial,
+                    TimeUnit.MINUTES.toMillis(mReleasedModuleWait))) != null) {
+                CLog.logAndDisplay(LogLevel.INFO, "Running %s on %s for an unavailable device",
+                        module.getId(), serial);
+                module.setBuild(mBuildHelper.getBuildInfo());
+                module.setDevice(mDevice);
+                module.setPreparerWhitelist(mPreparerWhitelist);
+                if (!module.prepare(mSkipPreconditions)) {
+                    CLog.logAndDisplay(LogLevel.ERROR, "Incorrect preparation of %s on %s",
+                            module.getId(), serial);
+                    mModuleRepo.moduleFinished(serial, module);
+                    continue;
                 }
+                status.addModule(module.getId(), module.getRuntimeHint());
+                runModule(module, checkers, listener, timeline, status);
+            }
+        } catch (FileNotFoundException fnfe) {
+            throw new RuntimeException("Failed to initialize modules", fnfe);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to reach the coordinator", e);
+        } finally {
+            if (coordinator != null) {
+                releaseCoordinator(coordinator, worker);
+            }
+            // If the device became unavailable, let the other devices run what it could not
+            mModuleRepo.releaseModules(serial);
+            if (!shardPrepared && mModuleRepo.isInitialized()) {
+                // Don't keep the other devices waiting for this one to be prepared
+                mModuleRepo.setPrepared(true);
+            }
+        }
+    }
+
+    /**
+     * @return the runtime hint of each module id, summed over the shards of the module.
+     */
+    private Map<String, Long> getRuntimeHints() {
+        Map<String, Long> hints = new HashMap<>();
+        for (String id : mModuleRepo.getModuleIds()) {
+            List<IModuleDef> modules = mModuleRepo.getModuleDefs(id);
+            if (modules.isEmpty()) {
+                // Reported under another id
+                continue;
+            }
+            long hint = 0;
+            for (IModuleDef module : modules) {
+                hint += module.getRuntimeHint();
+            }
+            hints.put(id, hint);
+        }
+        return hints;
+    }
+
+    /**
+     * @return the plan, filters and build fingerprint of this invocation, which the coordinator
+     * and the workers of a distributed run must share.
+     */
+    private Map<String, String> getCoordinatorIdentity() throws DeviceNotAvailableException {
+        Map<String, String> identity = new HashMap<>();
+        identity.put("plan", String.valueOf(mSuitePlan));
+        identity.put("subplan", String.valueOf(mSubPlan));
+        identity.put("include_filters", new TreeSet<>(mIncludeFilters).toString());
+        identity.put("exclude_filters", new TreeSet<>(mExcludeFilters).toString());
+        identity.put("module", String.valueOf(mModuleName));
+        identity.put("test", String.valueOf(mTestName));
+        identity.put("build_fingerprint", String.valueOf(
+                mDevice.getProperty("ro.build.fingerprint")));
+        return identity;
+    }
+
+    /**
+     * Runs the modules handed out by the coordinator of a distributed run, until none is left.
+     */
+    private void runCoordinatedModules(IModuleCoordinator coordinator, String worker,
+            List<SystemStatusChecker> checkers, ITestInvocationListener listener,
+            InvocationTimeline timeline, RunStatus status)
+            throws DeviceNotAvailableException, IOException {
+        Set<String> tokens = mModuleRepo.getDeviceTokens().get(mDevice.getSerialNumber());
+        String id;
+        while ((id = coordinator.takeModule(worker)) != null) {
+            List<IModuleDef> defs = mModuleRepo.getModuleDefs(id);
+            if (defs.isEmpty()) {
+                CLog.logAndDisplay(LogLevel.WARN, "%s is not in the plan of %s, skipping it",
+                        id, worker);
+                coordinator.moduleSkipped(worker, id);
+                continue;
+            }
+            Set<String> required = defs.get(0).getTokens();
+            if (!required.isEmpty() && (tokens == null || !tokens.containsAll(required))) {
+                CLog.logAndDisplay(LogLevel.INFO, "%s does not have %s, leaving %s to others",
+                        worker, required, id);
+                coordinator.moduleSkipped(worker, id);
+                continue;
+            }
+            boolean prepared = true;
+            for (IModuleDef module : defs) {
+                module.setBuild(mBuildHelper.getBuildInfo());
+                module.setDevice(mDevice);
+                module.setPreparerWhitelist(mPreparerWhitelist);
+                prepared &= module.prepare(mSkipPreconditions);
+            }
+            if (!prepared) {
+                CLog.logAndDisplay(LogLevel.ERROR, "Incorrect preparation of %s on %s, "
+                        + "leaving it to others", id, worker);
+                coordinator.moduleSkipped(worker, id);
+                continue;
+            }
+            for (IModuleDef module : defs) {
+                status.addModule(id, module.getRuntimeHint());
+                runModule(module, checkers, listener, timeline, status);
+            }
+            coordinator.moduleFinished(worker, id);
+        }
+    }
+
+    /**
+     * Lets the other workers of a distributed run take the modules this one did not finish.
+     */
+    private static void releaseCoordinator(IModuleCoordinator coordinator, String worker) {
+        try {
+            coordinator.release(worker);
+        } catch (IOException e) {
+            // The coordinator releases the workers of a lost connection on its own
+            CLog.w("Failed to release %s: %s", worker, e.getMessage());
+        }
+        if (coordinator instanceof CoordinatorClient) {
+            ((CoordinatorClient) coordinator).close();
+        }
+    }
 
-                // execute pre module execution checker
-                if (checkers != null && !checkers.isEmpty()) {
-                    runPreModuleCheck(module.getName(), checkers, mDevice, listener);
+    private void runModule(IModuleDef module, List<SystemStatusChecker> checkers,
+            ITestInvocationListener listener, InvocationTimeline timeline, RunStatus status)
+            throws DeviceNotAvailableException {
+        long start = System.currentTimeMillis();
+        InvocationTimeline.Span moduleSpan = timeline.begin("module", module.getId());
+        status.moduleStarted(module.getId(), module.getRuntimeHint());
+        try {
+            if (mRebootPerModule) {
+                if ("user".equals(mDevice.getProperty("ro.build.type"))) {
+                    CLog.e("reboot-per-module should only be used during development, "
+                        + "this is a\" user\" build device");
+                } else {
+                    CLog.logAndDisplay(LogLevel.INFO, "Rebooting device before starting next "
+                        + "module");
+                    reboot(timeline, module.getId());
                 }
+            }
+
+            // execute pre module execution checker
+            if (checkers != null && !checkers.isEmpty()) {
+                runPreModuleCheck(module, checkers, mDevice, listener, timeline);
+            }
+            try {
+                module.run(listener);
+            } catch (DeviceUnresponsiveException due) {
+                // being able to catch a DeviceUnresponsiveException here implies that recovery
+                // was successful, and test execution should proceed to next module
+                ByteArrayOutputStream stack = new ByteArrayOutputStream();
+                due.printStackTrace(new PrintWriter(stack, true));
                 try {
-                    module.run(listener);
-                } catch (DeviceUnresponsiveException due) {
-                    // being able to catch a DeviceUnresponsiveException here implies that recovery
-                    // was successful, and test execution should proceed to next module
-                    ByteArrayOutputStream stack = new ByteArrayOutputStream();
-                    due.printStackTrace(new PrintWriter(stack, true));
-                    try {
-                        stack.close();
-                    } catch (IOException ioe) {
-                        // won't happen on BAOS
-                    }
-                    CLog.w("Ignored DeviceUnresponsiveException because recovery was successful, "
-                            + "proceeding with next module. Stack trace: %s",
-                            stack.toString());
-                    CLog.w("This may be due to incorrect timeout setting on module %s",
-                            module.getName());
-                }
-                long duration = System.currentTimeMillis() - start;
-                long expected = module.getRuntimeHint();
-                long delta = Math.abs(duration - expected);
-                // Show warning if delta is more than 10% of expected
-                if (expected > 0 && ((float)delta / (float)expected) > 0.1f) {
-                    CLog.logAndDisplay(LogLevel.WARN,
-                            "Inaccurate runtime hint for %s, expected %s was %s",
-                            module.getId(),
-                            TimeUtil.formatElapsedTime(expected),
-                            TimeUtil.formatElapsedTime(duration));
-                }
-                if (checkers != null && !checkers.isEmpty()) {
-                    runPostModuleCheck(module.getName(), checkers, mDevice, listener);
+                    stack.close();
+                } catch (IOException ioe) {
+                    // won't happen on BAOS
                 }
+                CLog.w("Ignored DeviceUnresponsiveException because recovery was successful, "
+                        + "proceeding with next module. Stack trace: %s",
+                        stack.toString());
+                CLog.w("This may be due to incorrect timeout setting on module %s",
+                        module.getName());
             }
-        } catch (FileNotFoundException fnfe) {
-            throw new RuntimeException("Failed to initialize modules", fnfe);
+            long duration = System.currentTimeMillis() - start;
+            long expected = module.getRuntimeHint();
+            long delta = Math.abs(duration - expected);
+            // Show warning if delta is more than 10% of expected
+            if (expected > 0 && ((float)delta / (float)expected) > 0.1f) {
+                CLog.logAndDisplay(LogLevel.WARN,
+                        "Inaccurate runtime hint for %s, expected %s was %s",
+                        module.getId(),
+                        TimeUtil.formatElapsedTime(expected),
+                        TimeUtil.formatElapsedTime(duration));
+            }
+            if (checkers != null && !checkers.isEmpty()) {
+                runPostModuleCheck(module, checkers, mDevice, listener, timeline);
+            }
+        } finally {
+            moduleSpan.end();
         }
+        status.moduleEnded(module.getId());
+        mModuleRepo.moduleFinished(mDevice.getSerialNumber(), module);
     }
 
     /**
@@ -522,12 +745,31 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
         return shouldInclude && !shouldExclude;
     }
 
-    private void runPreModuleCheck(String moduleName, List<SystemStatusChecker> checkers,
-            ITestDevice device, ITestLogger logger) throws DeviceNotAvailableException {
+    private void reboot(InvocationTimeline timeline, String moduleId)
+            throws DeviceNotAvailableException {
+        InvocationTimeline.Span span = timeline.begin("reboot", moduleId);
+        try {
+            mDevice.reboot();
+        } finally {
+            span.end();
+        }
+    }
+
+    private void runPreModuleCheck(IModuleDef module, List<SystemStatusChecker> checkers,
+            ITestDevice device, ITestLogger logger, InvocationTimeline timeline)
+            throws DeviceNotAvailableException {
+        String moduleName = module.getName();
         CLog.i("Running system status checker before module execution: %s", moduleName);
         List<String> failures = new ArrayList<>();
         for (SystemStatusChecker checker : checkers) {
-            boolean result = checker.preExecutionCheck(device);
+            InvocationTimeline.Span span = timeline.begin(
+                    checker.getClass().getSimpleName() + ".preExecutionCheck", module.getId());
+            boolean result;
+            try {
+                result = checker.preExecutionCheck(device);
+            } finally {
+                span.end();
+            }
             if (!result) {
                 failures.add(checker.getClass().getCanonicalName());
                 CLog.w("System status checker [%s] failed with message: %s",
@@ -537,19 +779,30 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
         if (!failures.isEmpty()) {
             CLog.w("There are failed system status checkers: %s capturing a bugreport",
                     failures.toString());
+            InvocationTimeline.Span span = timeline.begin("checker_bugreport", module.getId());
             InputStreamSource bugSource = device.getBugreport();
+            span.end();
             logger.testLog(String.format("bugreport-checker-pre-module-%s", moduleName),
                     LogDataType.TEXT, bugSource);
             bugSource.cancel();
         }
     }
 
-    private void runPostModuleCheck(String moduleName, List<SystemStatusChecker> checkers,
-            ITestDevice device, ITestLogger logger) throws DeviceNotAvailableException {
+    private void runPostModuleCheck(IModuleDef module, List<SystemStatusChecker> checkers,
+            ITestDevice device, ITestLogger logger, InvocationTimeline timeline)
+            throws DeviceNotAvailableException {
+        String moduleName = module.getName();
         CLog.i("Running system status checker after module execution: %s", moduleName);
         List<String> failures = new ArrayList<>();
         for (SystemStatusChecker checker : checkers) {
-            boolean result = checker.postExecutionCheck(device);
+            InvocationTimeline.Span span = timeline.begin(
+                    checker.getClass().getSimpleName() + ".postExecutionCheck", module.getId());
+            boolean result;
+            try {
+                result = checker.postExecutionCheck(device);
+            } finally {
+                span.end();
+            }
             if (!result) {
                 failures.add(checker.getClass().getCanonicalName());
                 CLog.w("System status checker [%s] failed with message: %s",
@@ -559,7 +812,9 @@ public class CompatibilityTest implements IDeviceTest, IShardableTest, IBuildRec
         if (!failures.isEmpty()) {
             CLog.w("There are failed system status checkers: %s capturing a bugreport",
                     failures.toString());
+            InvocationTimeline.Span span = timeline.begin("checker_bugreport", module.getId());
             InputStreamSource bugSource = device.getBugreport();
+            span.end();
             logger.testLog(String.format("bugreport-checker-post-module-%s", moduleName),
                     LogDataType.TEXT, bugSource);
             bugSource.cancel();
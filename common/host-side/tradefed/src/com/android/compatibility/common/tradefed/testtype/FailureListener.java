@@ -15,6 +15,7 @@
  */
 package com.android.compatibility.common.tradefed.testtype;
 
+import com.android.compatibility.common.tradefed.util.InvocationTimeline;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
@@ -68,21 +69,33 @@ public class FailureListener extends ResultForwarder {
     public void testFailed(TestIdentifier test, String trace) {
         super.testFailed(test, trace);
         CLog.i("FailureListener.testFailed %s %b %b %b", test.toString(), mBugReportOnFailure, mLogcatOnFailure, mScreenshotOnFailure);
+        InvocationTimeline timeline = InvocationTimeline.forDevice(mDevice.getSerialNumber());
         if (mBugReportOnFailure) {
-           InputStreamSource bugSource = mDevice.getBugreport();
-           super.testLog(String.format("%s-bugreport", test.toString()), LogDataType.BUGREPORT,
-                   bugSource);
-           bugSource.cancel();
+           InvocationTimeline.Span span = timeline.begin("failure_bugreport", test.toString());
+           try {
+               InputStreamSource bugSource = mDevice.getBugreport();
+               super.testLog(String.format("%s-bugreport", test.toString()),
+                       LogDataType.BUGREPORT, bugSource);
+               bugSource.cancel();
+           } finally {
+               span.end();
+           }
         }
         if (mLogcatOnFailure) {
             // sleep 2s to ensure test failure stack trace makes it into logcat capture
             RunUtil.getDefault().sleep(2 * 1000);
-            InputStreamSource logSource = mDevice.getLogcat(mMaxLogcatBytes);
-            super.testLog(String.format("%s-logcat", test.toString()), LogDataType.LOGCAT,
-                    logSource);
-            logSource.cancel();
+            InvocationTimeline.Span span = timeline.begin("failure_logcat", test.toString());
+            try {
+                InputStreamSource logSource = mDevice.getLogcat(mMaxLogcatBytes);
+                super.testLog(String.format("%s-logcat", test.toString()), LogDataType.LOGCAT,
+                        logSource);
+                logSource.cancel();
+            } finally {
+                span.end();
+            }
         }
         if (mScreenshotOnFailure) {
+            InvocationTimeline.Span span = timeline.begin("failure_screenshot", test.toString());
             try {
                 InputStreamSource screenSource = mDevice.getScreenshot();
                 super.testLog(String.format("%s-screenshot", test.toString()), LogDataType.PNG,
@@ -92,6 +105,8 @@ public class FailureListener extends ResultForwarder {
                 CLog.e(e);
                 CLog.e("Device %s became unavailable while capturing screenshot",
                         mDevice.getSerialNumber());
+            } finally {
+                span.end();
             }
         }
         if (mRebootOnFailure) {
@@ -102,7 +117,12 @@ public class FailureListener extends ResultForwarder {
                     CLog.e("Reboot-on-failure should only be used during development," +
                             " this is a\" user\" build device");
                 } else {
-                    mDevice.reboot();
+                    InvocationTimeline.Span span = timeline.begin("reboot", test.toString());
+                    try {
+                        mDevice.reboot();
+                    } finally {
+                        span.end();
+                    }
                 }
             } catch (DeviceNotAvailableException e) {
                 CLog.e(e);
@@ -15,6 +15,7 @@
  */
 package com.android.compatibility.common.tradefed.testtype;
 
+import com.android.compatibility.common.tradefed.util.TestDurations;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.testtype.IAbi;
 
@@ -43,6 +44,12 @@ public interface IModuleRepo {
      */
     boolean isInitialized();
 
+    /**
+     * Sets the test durations of previous invocations. When initialized for several shards, the
+     * repository splits the modules which took the longest into chunks of tests.
+     */
+    void setTestDurations(TestDurations durations);
+
     /**
      * Initializes the repository.
      */
@@ -99,4 +106,38 @@ public interface IModuleRepo {
      * @return An array of all module ids in the repo.
      */
     String[] getModuleIds();
+
+    /**
+     * @return the {@link Map} of the ids of modules which give the same results for all ABIs, and
+     * so run for one ABI only, to the ids of the same module for the other ABIs.
+     */
+    Map<String, List<String>> getModuleIdAliases();
+
+    /**
+     * @return all the modules with the given id, whichever device they are assigned to, or an
+     * empty list if there is no such module.
+     */
+    List<IModuleDef> getModuleDefs(String id);
+
+    /**
+     * Indicates that the device referenced by the given serial has finished the given module.
+     */
+    void moduleFinished(String serial, IModuleDef module);
+
+    /**
+     * Returns the modules the device referenced by the given serial has not finished to the
+     * repo, so that other devices can run them. Called when the device becomes unavailable.
+     */
+    void releaseModules(String serial);
+
+    /**
+     * Called by a device once it has finished its own modules, to take over a module released by
+     * an unavailable device. Waits while other devices are still running, since they may become
+     * unavailable too.
+     *
+     * @param timeout the maximum time to wait in ms.
+     * @return the next released module the device referenced by the given serial has the tokens
+     * for, or null once no device is running anymore or the timeout has elapsed.
+     */
+    IModuleDef getReleasedModule(String serial, long timeout);
 }
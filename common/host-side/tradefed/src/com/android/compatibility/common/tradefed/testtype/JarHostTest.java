@@ -56,6 +56,12 @@ public class JarHostTest extends HostTest implements IAbiReceiver, IBuildReceive
             description="The hint about the test's runtime.")
     private long mRuntimeHint = 60000;// 1 minute
 
+    @Option(name = "abi-independent",
+            description = "whether the tests give the same results for all ABIs, because they "
+            + "neither install nor run ABI specific code. The module then runs for one ABI only, "
+            + "and its results are reported for all of them.")
+    private boolean mAbiIndependent = false;
+
     private IAbi mAbi;
     private IBuildInfo mBuild;
     private CompatibilityBuildHelper mHelper;
@@ -85,6 +91,13 @@ public class JarHostTest extends HostTest implements IAbiReceiver, IBuildReceive
         return mRuntimeHint;
     }
 
+    /**
+     * @return true if the tests give the same results for all ABIs.
+     */
+    public boolean isAbiIndependent() {
+        return mAbiIndependent;
+    }
+
     /**
      * {@inheritDoc}
      */
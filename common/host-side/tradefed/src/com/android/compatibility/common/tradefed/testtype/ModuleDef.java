@@ -19,6 +19,7 @@ import com.android.compatibility.common.tradefed.result.IModuleListener;
 import com.android.compatibility.common.tradefed.result.ModuleListener;
 import com.android.compatibility.common.tradefed.targetprep.PreconditionPreparer;
 import com.android.compatibility.common.tradefed.targetprep.TokenRequirement;
+import com.android.compatibility.common.tradefed.util.InvocationTimeline;
 import com.android.compatibility.common.util.AbiUtils;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.ConfigurationException;
@@ -64,6 +65,7 @@ public class ModuleDef implements IModuleDef {
     private IBuildInfo mBuild;
     private ITestDevice mDevice;
     private Set<String> mPreparerWhitelist = new HashSet<>();
+    private long mRuntimeHint = -1;
 
     public ModuleDef(String name, IAbi abi, IRemoteTest test,
             List<ITargetPreparer> preparers) {
@@ -156,12 +158,22 @@ public class ModuleDef implements IModuleDef {
      */
     @Override
     public long getRuntimeHint() {
+        if (mRuntimeHint >= 0) {
+            return mRuntimeHint;
+        }
         if (mTest instanceof IRuntimeHintProvider) {
             return ((IRuntimeHintProvider) mTest).getRuntimeHint();
         }
         return TimeUnit.MINUTES.toMillis(1); // Default 1 minute.
     }
 
+    /**
+     * Overrides the runtime hint of the test, for a module running only some of its tests.
+     */
+    void setRuntimeHint(long runtimeHint) {
+        mRuntimeHint = runtimeHint;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -216,6 +228,7 @@ public class ModuleDef implements IModuleDef {
     @Override
     public void run(ITestInvocationListener listener) throws DeviceNotAvailableException {
         IModuleListener moduleListener = new ModuleListener(this, listener);
+        InvocationTimeline timeline = getTimeline();
 
         // Setup
         for (ITargetPreparer preparer : mPreparers) {
@@ -229,6 +242,8 @@ public class ModuleDef implements IModuleDef {
             if (preparer instanceof IAbiReceiver) {
                 ((IAbiReceiver) preparer).setAbi(mAbi);
             }
+            InvocationTimeline.Span span = timeline.begin(
+                    preparer.getClass().getSimpleName() + ".setUp", mId);
             try {
                 preparer.setUp(mDevice, mBuild);
             } catch (BuildError e) {
@@ -240,6 +255,8 @@ public class ModuleDef implements IModuleDef {
                 CLog.e("TargetSetupError in precondition: %s",
                         preparer.getClass().getCanonicalName());
                 throw new RuntimeException(e);
+            } finally {
+                span.end();
             }
         }
 
@@ -255,12 +272,23 @@ public class ModuleDef implements IModuleDef {
             ((IDeviceTest) mTest).setDevice(mDevice);
         }
 
-        mTest.run(moduleListener);
+        InvocationTimeline.Span testSpan = timeline.begin("test", mId);
+        try {
+            mTest.run(moduleListener);
+        } finally {
+            testSpan.end();
+        }
 
         // Tear down
         for (ITargetCleaner cleaner : mCleaners) {
             CLog.d("Cleaner: %s", cleaner.getClass().getSimpleName());
-            cleaner.tearDown(mDevice, mBuild, null);
+            InvocationTimeline.Span span = timeline.begin(
+                    cleaner.getClass().getSimpleName() + ".tearDown", mId);
+            try {
+                cleaner.tearDown(mDevice, mBuild, null);
+            } finally {
+                span.end();
+            }
         }
     }
 
@@ -269,6 +297,7 @@ public class ModuleDef implements IModuleDef {
      */
     @Override
     public boolean prepare(boolean skipPrep) throws DeviceNotAvailableException {
+        InvocationTimeline timeline = getTimeline();
         for (ITargetPreparer preparer : mPreconditions) {
             CLog.d("Preparer: %s", preparer.getClass().getSimpleName());
             if (preparer instanceof IAbiReceiver) {
@@ -276,6 +305,8 @@ public class ModuleDef implements IModuleDef {
             }
             setOption(preparer, CompatibilityTest.SKIP_PRECONDITIONS_OPTION,
                     Boolean.toString(skipPrep));
+            InvocationTimeline.Span span = timeline.begin(
+                    preparer.getClass().getSimpleName() + ".setUp", mId);
             try {
                 preparer.setUp(mDevice, mBuild);
             } catch (BuildError e) {
@@ -289,11 +320,18 @@ public class ModuleDef implements IModuleDef {
                         preparer.getClass().getCanonicalName());
                 e.printStackTrace();
                 return false;
+            } finally {
+                span.end();
             }
         }
         return true;
     }
 
+    private InvocationTimeline getTimeline() {
+        return InvocationTimeline.forDevice(
+                mDevice != null ? mDevice.getSerialNumber() : "unknown_device");
+    }
+
     private void setOption(Object target, String option, String value) {
         try {
             OptionSetter setter = new OptionSetter(target);
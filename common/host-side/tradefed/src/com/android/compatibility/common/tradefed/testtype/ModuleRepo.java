@@ -15,6 +15,7 @@
  */
 package com.android.compatibility.common.tradefed.testtype;
 
+import com.android.compatibility.common.tradefed.util.TestDurations;
 import com.android.compatibility.common.util.AbiUtils;
 import com.android.compatibility.common.util.TestFilter;
 import com.android.ddmlib.Log.LogLevel;
@@ -43,6 +44,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -62,6 +64,8 @@ public class ModuleRepo implements IModuleRepo {
     }
     private static final long SMALL_TEST = TimeUnit.MINUTES.toMillis(2); // Small tests < 2mins
     private static final long MEDIUM_TEST = TimeUnit.MINUTES.toMillis(10); // Medium tests < 10mins
+    // Maximum number of class filters of a chunk of a split module
+    static final int MAX_CHUNK_FILTERS = 100;
 
     private int mShards;
     private int mModulesPerShard;
@@ -92,6 +96,17 @@ public class ModuleRepo implements IModuleRepo {
     private List<IModuleDef> mLargeModules = new ArrayList<>();
     // Holds all the tests with tokens waiting to be run. Meaning the DUT must have a specific token.
     private List<IModuleDef> mTokenModules = new ArrayList<>();
+    // Holds the modules each running device has been given but not finished yet.
+    private Map<String, List<IModuleDef>> mUnfinishedModules = new HashMap<>();
+    // Holds the modules of unavailable devices, waiting to be run by another device.
+    private List<IModuleDef> mReleasedModules = new ArrayList<>();
+    // Holds the modules of each module id, there are several when the module is sharded.
+    private Map<String, List<IModuleDef>> mModuleDefs = new LinkedHashMap<>();
+    // Holds the test durations of previous invocations, to split the longest modules.
+    private TestDurations mTestDurations = new TestDurations();
+    // Holds the ids under which modules giving the same results for all ABIs also report, by the
+    // id they run under.
+    private Map<String, List<String>> mModuleIdAliases = new HashMap<>();
 
     /**
      * {@inheritDoc}
@@ -195,6 +210,9 @@ public class ModuleRepo implements IModuleRepo {
         for (IModuleDef moduleDef : mTokenModules) {
             moduleIdSet.add(moduleDef.getId());
         }
+        for (List<String> aliases : mModuleIdAliases.values()) {
+            moduleIdSet.addAll(aliases);
+        }
         return moduleIdSet.toArray(new String[moduleIdSet.size()]);
     }
 
@@ -220,6 +238,14 @@ public class ModuleRepo implements IModuleRepo {
         mPreparedLatch.countDown();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTestDurations(TestDurations durations) {
+        mTestDurations = durations;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -278,51 +304,39 @@ public class ModuleRepo implements IModuleRepo {
                 // Invokes parser to process the test module config file
                 // Need to generate a different config for each ABI as we cannot guarantee the
                 // configs are idempotent. This however means we parse the same file multiple times
-                for (IAbi abi : abis) {
-                    IConfiguration config = mConfigFactory.createConfigurationFromArgs(pathArg);
+                // The id the module runs under, if it gives the same results for all ABIs
+                String abiIndependentId = null;
+                for (IAbi abi : sortAbis(abis)) {
                     String id = AbiUtils.createId(abi.getName(), name);
                     if (!shouldRunModule(id)) {
                         // If the module should not run tests based on the state of filters,
                         // skip this name/abi combination.
                         continue;
                     }
-                    {
-                        Map<String, String> args = new HashMap<>();
-                        if (mModuleArgs.containsKey(name)) {
-                            args.putAll(mModuleArgs.get(name));
-                        }
-                        if (mModuleArgs.containsKey(id)) {
-                            args.putAll(mModuleArgs.get(id));
-                        }
-                        if (args != null && args.size() > 0) {
-                            for (Entry<String, String> entry : args.entrySet()) {
-                                config.injectOptionValue(entry.getKey(), entry.getValue());
-                            }
-                        }
+                    if (abiIndependentId != null) {
+                        addModuleIdAlias(abiIndependentId, id);
+                        continue;
+                    }
+                    List<IRemoteTest> tests = null;
+                    if (mShards > 1) {
+                        tests = addTestChunks(name, abi, pathArg, buildInfo);
                     }
-                    List<IRemoteTest> tests = config.getTests();
-                    for (IRemoteTest test : tests) {
-                        String className = test.getClass().getName();
-                        Map<String, String> args = new HashMap<>();
-                        if (mTestArgs.containsKey(className)) {
-                            args.putAll(mTestArgs.get(className));
+                    if (tests == null) {
+                        tests = createTests(name, abi, pathArg, getFilter(mIncludeFilters, id),
+                                getFilter(mExcludeFilters, id));
+                        List<IRemoteTest> shardedTests = tests;
+                        if (mShards > 1) {
+                             shardedTests = splitShardableTests(tests, buildInfo);
                         }
-                        if (args != null && args.size() > 0) {
-                            for (Entry<String, String> entry : args.entrySet()) {
-                                config.injectOptionValue(entry.getKey(), entry.getValue());
+                        for (IRemoteTest test : shardedTests) {
+                            if (test instanceof IBuildReceiver) {
+                                ((IBuildReceiver)test).setBuild(buildInfo);
                             }
+                            addModuleDef(name, abi, test, pathArg);
                         }
-                        addFiltersToTest(test, abi, name);
-                    }
-                    List<IRemoteTest> shardedTests = tests;
-                    if (mShards > 1) {
-                         shardedTests = splitShardableTests(tests, buildInfo);
                     }
-                    for (IRemoteTest test : shardedTests) {
-                        if (test instanceof IBuildReceiver) {
-                            ((IBuildReceiver)test).setBuild(buildInfo);
-                        }
-                        addModuleDef(name, abi, test, pathArg);
+                    if (isAbiIndependent(tests)) {
+                        abiIndependentId = id;
                     }
                 }
             } catch (ConfigurationException e) {
@@ -339,6 +353,228 @@ public class ModuleRepo implements IModuleRepo {
         mLargeModulesPerShard = mLargeModules.size() / shards;
     }
 
+    /**
+     * Parses the config of a module and sets up its tests.
+     *
+     * @return the tests of the module, with the given filters.
+     */
+    private List<IRemoteTest> createTests(String name, IAbi abi, String[] pathArg,
+            List<TestFilter> includes, List<TestFilter> excludes) throws ConfigurationException {
+        IConfiguration config = mConfigFactory.createConfigurationFromArgs(pathArg);
+        String id = AbiUtils.createId(abi.getName(), name);
+        {
+            Map<String, String> args = new HashMap<>();
+            if (mModuleArgs.containsKey(name)) {
+                args.putAll(mModuleArgs.get(name));
+            }
+            if (mModuleArgs.containsKey(id)) {
+                args.putAll(mModuleArgs.get(id));
+            }
+            if (args != null && args.size() > 0) {
+                for (Entry<String, String> entry : args.entrySet()) {
+                    config.injectOptionValue(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        List<IRemoteTest> tests = config.getTests();
+        for (IRemoteTest test : tests) {
+            String className = test.getClass().getName();
+            Map<String, String> args = new HashMap<>();
+            if (mTestArgs.containsKey(className)) {
+                args.putAll(mTestArgs.get(className));
+            }
+            if (args != null && args.size() > 0) {
+                for (Entry<String, String> entry : args.entrySet()) {
+                    config.injectOptionValue(entry.getKey(), entry.getValue());
+                }
+            }
+            addFiltersToTest(test, id, name, includes, excludes);
+        }
+        return tests;
+    }
+
+    /**
+     * Splits a module which took longer than {@link #MEDIUM_TEST} in previous invocations into
+     * chunks of test classes of about the same duration, so several shards can run it in
+     * parallel. Each chunk is a module of the same id, so their results end up in the same module
+     * result.
+     * <p/>
+     * Chunks filter whole classes rather than methods, which keeps the filters few and less
+     * likely to name a test removed since the durations were recorded. The first chunk excludes
+     * the classes of the others, so it also runs the classes added since. A module whose chunks
+     * would need more than {@link #MAX_CHUNK_FILTERS} filters is not split.
+     *
+     * @return the tests of all chunks, or null if the module was not split.
+     */
+    private List<IRemoteTest> addTestChunks(String name, IAbi abi, String[] pathArg,
+            IBuildInfo buildInfo) throws ConfigurationException {
+        String id = AbiUtils.createId(abi.getName(), name);
+        List<TestFilter> includes = getFilter(mIncludeFilters, id);
+        for (TestFilter include : includes) {
+            if (include.getTest() != null) {
+                // Only running some tests of the module already, such as in a retry
+                return null;
+            }
+        }
+        Map<String, Long> durations = getClassDurations(mTestDurations.get(id));
+        long total = 0;
+        for (long duration : durations.values()) {
+            total += duration;
+        }
+        int count = (int) Math.min(Math.min(mShards, durations.size()),
+                (total + MEDIUM_TEST - 1) / MEDIUM_TEST);
+        if (count < 2) {
+            return null;
+        }
+        List<List<String>> chunks = splitTests(durations, count);
+        // The first chunk, the shortest, excludes the classes of all the others
+        int filterCount = durations.size() - chunks.get(0).size();
+        if (filterCount > MAX_CHUNK_FILTERS) {
+            CLog.logAndDisplay(LogLevel.INFO, "Not splitting %s, which would take %d filters",
+                    id, filterCount);
+            return null;
+        }
+        CLog.logAndDisplay(LogLevel.INFO, "Splitting %s in %d chunks, expected to complete in %s",
+                id, count, TimeUtil.formatElapsedTime(total));
+        List<TestFilter> excludes = getFilter(mExcludeFilters, id);
+        List<IRemoteTest> tests = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            List<TestFilter> chunkIncludes = new ArrayList<>();
+            List<TestFilter> chunkExcludes = new ArrayList<>(excludes);
+            if (i == 0) {
+                // The first chunk runs whatever the others don't, including the classes which
+                // did not run before
+                for (int j = 1; j < chunks.size(); j++) {
+                    for (String test : chunks.get(j)) {
+                        chunkExcludes.add(new TestFilter(abi.getName(), name, test));
+                    }
+                }
+            } else {
+                for (String test : chunks.get(i)) {
+                    chunkIncludes.add(new TestFilter(abi.getName(), name, test));
+                }
+            }
+            long hint = 0;
+            for (String test : chunks.get(i)) {
+                hint += durations.get(test);
+            }
+            for (IRemoteTest test : createTests(name, abi, pathArg, chunkIncludes,
+                    chunkExcludes)) {
+                if (test instanceof IBuildReceiver) {
+                    ((IBuildReceiver)test).setBuild(buildInfo);
+                }
+                addModuleDef(name, abi, test, pathArg, hint);
+                tests.add(test);
+            }
+        }
+        return tests;
+    }
+
+    /**
+     * @param durations the duration of each test, as "class#method".
+     * @return the total duration of the tests of each class.
+     */
+    static Map<String, Long> getClassDurations(Map<String, Long> durations) {
+        Map<String, Long> classDurations = new HashMap<>();
+        for (Entry<String, Long> test : durations.entrySet()) {
+            int index = test.getKey().indexOf('#');
+            String className = index < 0 ? test.getKey() : test.getKey().substring(0, index);
+            Long classDuration = classDurations.get(className);
+            classDurations.put(className,
+                    (classDuration == null ? 0 : classDuration) + test.getValue());
+        }
+        return classDurations;
+    }
+
+    /**
+     * @return the ABIs, 64 bit ones first, so a module which gives the same results for all ABIs
+     * runs for the primary ABI of 64 bit devices.
+     */
+    static List<IAbi> sortAbis(Set<IAbi> abis) {
+        List<IAbi> sorted = new ArrayList<>(abis);
+        Collections.sort(sorted, new Comparator<IAbi>() {
+            @Override
+            public int compare(IAbi abi1, IAbi abi2) {
+                int order = abi2.getBitness().compareTo(abi1.getBitness());
+                return order != 0 ? order : abi1.getName().compareTo(abi2.getName());
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * @return true if all the tests declare they give the same results for all ABIs.
+     */
+    static boolean isAbiIndependent(List<IRemoteTest> tests) {
+        if (tests.isEmpty()) {
+            return false;
+        }
+        for (IRemoteTest test : tests) {
+            if (!(test instanceof JarHostTest) || !((JarHostTest) test).isAbiIndependent()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addModuleIdAlias(String id, String alias) {
+        List<String> aliases = mModuleIdAliases.get(id);
+        if (aliases == null) {
+            aliases = new ArrayList<>();
+            mModuleIdAliases.put(id, aliases);
+        }
+        aliases.add(alias);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, List<String>> getModuleIdAliases() {
+        return mModuleIdAliases;
+    }
+
+    /**
+     * Splits tests into chunks of about the same total duration, longest tests first.
+     *
+     * @param durations the duration of each test.
+     * @return the tests of each chunk, the chunk with the shortest total duration first.
+     */
+    static List<List<String>> splitTests(final Map<String, Long> durations, int count) {
+        List<String> tests = new ArrayList<>(durations.keySet());
+        Collections.sort(tests, new Comparator<String>() {
+            @Override
+            public int compare(String test1, String test2) {
+                int order = Long.compare(durations.get(test2), durations.get(test1));
+                return order != 0 ? order : test1.compareTo(test2);
+            }
+        });
+        List<List<String>> chunks = new ArrayList<>(count);
+        long[] totals = new long[count];
+        for (int i = 0; i < count; i++) {
+            chunks.add(new ArrayList<String>());
+        }
+        for (String test : tests) {
+            // Give each test to the chunk with the least work so far
+            int shortest = 0;
+            for (int i = 1; i < count; i++) {
+                if (totals[i] < totals[shortest]) {
+                    shortest = i;
+                }
+            }
+            chunks.get(shortest).add(test);
+            totals[shortest] += durations.get(test);
+        }
+        int shortest = 0;
+        for (int i = 1; i < count; i++) {
+            if (totals[i] < totals[shortest]) {
+                shortest = i;
+            }
+        }
+        chunks.add(0, chunks.remove(shortest));
+        return chunks;
+    }
+
     private static List<IRemoteTest> splitShardableTests(List<IRemoteTest> tests,
             IBuildInfo buildInfo) {
         ArrayList<IRemoteTest> shardedList = new ArrayList<>(tests.size());
@@ -391,6 +627,14 @@ public class ModuleRepo implements IModuleRepo {
         addModuleDef(new ModuleDef(name, abi, test, config.getTargetPreparers()));
     }
 
+    private void addModuleDef(String name, IAbi abi, IRemoteTest test,
+            String[] configPaths, long runtimeHint) throws ConfigurationException {
+        IConfiguration config = mConfigFactory.createConfigurationFromArgs(configPaths);
+        ModuleDef moduleDef = new ModuleDef(name, abi, test, config.getTargetPreparers());
+        moduleDef.setRuntimeHint(runtimeHint);
+        addModuleDef(moduleDef);
+    }
+
     private void addModuleDef(IModuleDef moduleDef) {
         Set<String> tokens = moduleDef.getTokens();
         if (tokens != null && !tokens.isEmpty()) {
@@ -402,17 +646,21 @@ public class ModuleRepo implements IModuleRepo {
         } else {
             mLargeModules.add(moduleDef);
         }
+        List<IModuleDef> defs = mModuleDefs.get(moduleDef.getId());
+        if (defs == null) {
+            defs = new ArrayList<>();
+            mModuleDefs.put(moduleDef.getId(), defs);
+        }
+        defs.add(moduleDef);
         mModuleCount++;
     }
 
-    private void addFiltersToTest(IRemoteTest test, IAbi abi, String name) {
-        String moduleId = AbiUtils.createId(abi.getName(), name);
+    private void addFiltersToTest(IRemoteTest test, String moduleId, String name,
+            List<TestFilter> mdIncludes, List<TestFilter> mdExcludes) {
         if (!(test instanceof ITestFilterReceiver)) {
             throw new IllegalArgumentException(String.format(
                     "Test in module %s must implement ITestFilterReceiver.", moduleId));
         }
-        List<TestFilter> mdIncludes = getFilter(mIncludeFilters, moduleId);
-        List<TestFilter> mdExcludes = getFilter(mExcludeFilters, moduleId);
         if (!mdIncludes.isEmpty()) {
             addTestIncludes((ITestFilterReceiver) test, mdIncludes, name);
         }
@@ -539,9 +787,90 @@ public class ModuleRepo implements IModuleRepo {
         CLog.logAndDisplay(LogLevel.INFO, String.format(
                 "%s running %s modules, expected to complete in %s",
                 serial, modules.size(), TimeUtil.formatElapsedTime(estimatedTime)));
+        mUnfinishedModules.put(serial, new ArrayList<>(modules));
         return modules;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized List<IModuleDef> getModuleDefs(String id) {
+        List<IModuleDef> defs = mModuleDefs.get(id);
+        return defs == null ? new ArrayList<IModuleDef>() : new ArrayList<>(defs);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void moduleFinished(String serial, IModuleDef module) {
+        List<IModuleDef> unfinished = mUnfinishedModules.get(serial);
+        if (unfinished != null) {
+            unfinished.remove(module);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void releaseModules(String serial) {
+        List<IModuleDef> unfinished = mUnfinishedModules.remove(serial);
+        if (unfinished != null && !unfinished.isEmpty()) {
+            CLog.logAndDisplay(LogLevel.WARN, String.format(
+                    "%s stopped before finishing, releasing %d modules to the other devices: %s",
+                    serial, unfinished.size(), unfinished));
+            mReleasedModules.addAll(unfinished);
+        }
+        notifyAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized IModuleDef getReleasedModule(String serial, long timeout) {
+        // The device is done with its own modules, it no longer holds any
+        mUnfinishedModules.remove(serial);
+        notifyAll();
+        Set<String> tokens = mDeviceTokens.get(serial);
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            for (int i = 0; i < mReleasedModules.size(); i++) {
+                IModuleDef module = mReleasedModules.get(i);
+                if (module.getTokens().isEmpty()
+                        || (tokens != null && tokens.containsAll(module.getTokens()))) {
+                    mReleasedModules.remove(i);
+                    // Keep track of it, in case this device becomes unavailable as well
+                    List<IModuleDef> unfinished = new ArrayList<>();
+                    unfinished.add(module);
+                    mUnfinishedModules.put(serial, unfinished);
+                    return module;
+                }
+            }
+            if (mUnfinishedModules.isEmpty()) {
+                if (!mReleasedModules.isEmpty()) {
+                    CLog.logAndDisplay(LogLevel.WARN, String.format(
+                            "No device left to run the released modules %s", mReleasedModules));
+                }
+                return null;
+            }
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                CLog.logAndDisplay(LogLevel.WARN, String.format(
+                        "%s stopped waiting for released modules after %s", serial,
+                        TimeUtil.formatElapsedTime(timeout)));
+                return null;
+            }
+            try {
+                wait(left);
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+    }
+
     /**
      * Iterates through the remaining tests that require tokens and if the device has all the
      * required tokens it will queue that module to run on that device, else the module gets put
@@ -16,20 +16,43 @@
 
 package com.android.compatibility.common.tradefed.util;
 
+import com.android.json.stream.JsonReader;
+import com.android.json.stream.JsonToken;
+import com.android.json.stream.JsonWriter;
+import com.android.json.stream.LazilyParsedNumber;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.util.FileUtil;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -42,10 +65,30 @@ public class CollectorUtil {
     }
 
     private static final String ADB_LS_PATTERN = "([^\\s]+)\\s*";
-    private static final String TEST_METRICS_PATTERN = "\\\"([a-z0-9_]*)\\\":(\\{[^{}]*\\})";
+
+    /** Matches a line of "stat -c '%F|%s|%Y|%n'" output for a regular file. */
+    private static final Pattern STAT_PATTERN =
+            Pattern.compile("regular(?: empty)? file\\|(\\d+)\\|(\\d+)\\|(.+)");
+    private static final String STAT_COMMAND = "cd %s && stat -c '%%F|%%s|%%Y|%%n' *";
+    private static final String TAR_COMMAND = "cd %s && tar -cf %s %s";
+    private static final String DEVICE_ARCHIVE_PATH = "/data/local/tmp/collector-%d.tar";
+
+    private static final int TAR_BLOCK_SIZE = 512;
+    private static final int UNPACK_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_TAR_LONG_NAME = 4096;
+
+    /** Characters of merged report log streams to hold in memory before using temp files. */
+    private static final long MAX_BUFFERED_STREAM_CHARS = 4 * 1024 * 1024;
 
     /**
      * Copy files from device to host.
+     * <p/>
+     * Files that already exist in {@code dest} with the same size and modification time as on the
+     * device are skipped. When more than one file needs to be copied, they are packed into a
+     * single archive on the device so the transfer takes one adb round trip, then unpacked in
+     * parallel on the host. If the device lacks the tools for this, each file is pulled one by
+     * one instead.
+     *
      * @param device The device reference.
      * @param src The source directory on the device.
      * @param dest The destination directory.
@@ -53,16 +96,36 @@ public class CollectorUtil {
     public static void pullFromDevice(ITestDevice device, String src, String dest) {
         try {
             if (device.doesFileExist(src)) {
-                String listCommand = String.format("ls %s", src);
-                String fileList = device.executeShellCommand(listCommand);
-                Pattern p = Pattern.compile(ADB_LS_PATTERN);
-                Matcher m = p.matcher(fileList);
-                while (m.find()) {
-                    String fileName = m.group(1);
-                    String srcPath = String.format("%s%s", src, fileName);
-                    File destFile = new File(String.format("%s/%s", dest, fileName));
-                    device.pullFile(srcPath, destFile);
+                Map<String, DeviceFile> deviceFiles = listDeviceFiles(device, src);
+                if (deviceFiles == null) {
+                    pullEachFromDevice(device, src, dest);
+                    return;
+                }
+                long start = System.currentTimeMillis();
+                Map<String, DeviceFile> stale = new HashMap<>();
+                for (Map.Entry<String, DeviceFile> entry : deviceFiles.entrySet()) {
+                    File destFile = new File(dest, entry.getKey());
+                    if (!entry.getValue().isSameAs(destFile)) {
+                        stale.put(entry.getKey(), entry.getValue());
+                    }
                 }
+                long bytes = 0;
+                if (stale.size() == 1) {
+                    Map.Entry<String, DeviceFile> entry = stale.entrySet().iterator().next();
+                    File destFile = new File(dest, entry.getKey());
+                    if (device.pullFile(joinPath(src, entry.getKey()), destFile)) {
+                        destFile.setLastModified(entry.getValue().mModifiedSecs * 1000);
+                        bytes = entry.getValue().mSize;
+                    }
+                } else if (stale.size() > 1) {
+                    bytes = pullArchiveFromDevice(device, src, stale, new File(dest));
+                    if (bytes < 0) {
+                        pullEachFromDevice(device, src, dest);
+                        return;
+                    }
+                }
+                logThroughput(src, stale.size(), deviceFiles.size() - stale.size(), bytes,
+                        System.currentTimeMillis() - start);
             }
         } catch (DeviceNotAvailableException e) {
             CLog.e("Caught exception during pull.");
@@ -70,6 +133,273 @@ public class CollectorUtil {
         }
     }
 
+    /**
+     * Copy each file listed in the device directory with its own pull.
+     */
+    private static void pullEachFromDevice(ITestDevice device, String src, String dest)
+            throws DeviceNotAvailableException {
+        String listCommand = String.format("ls %s", src);
+        String fileList = device.executeShellCommand(listCommand);
+        Pattern p = Pattern.compile(ADB_LS_PATTERN);
+        Matcher m = p.matcher(fileList);
+        while (m.find()) {
+            String fileName = m.group(1);
+            String srcPath = joinPath(src, fileName);
+            File destFile = new File(String.format("%s/%s", dest, fileName));
+            device.pullFile(srcPath, destFile);
+        }
+    }
+
+    /**
+     * Lists the regular files directly under a device directory.
+     *
+     * @return the files by name, or null if the device could not stat the directory.
+     */
+    private static Map<String, DeviceFile> listDeviceFiles(ITestDevice device, String src)
+            throws DeviceNotAvailableException {
+        String output = device.executeShellCommand(String.format(STAT_COMMAND, src));
+        Map<String, DeviceFile> files = parseStatOutput(output);
+        if (files.isEmpty() && output != null && !output.trim().isEmpty()
+                && !output.contains("No such file")) {
+            // stat is unsupported or failed for another reason than an empty directory.
+            return null;
+        }
+        return files;
+    }
+
+    /**
+     * Parses the output of {@link #STAT_COMMAND} into files by name, skipping anything that is
+     * not a regular file.
+     */
+    static Map<String, DeviceFile> parseStatOutput(String output) {
+        Map<String, DeviceFile> files = new HashMap<>();
+        if (output == null) {
+            return files;
+        }
+        for (String line : output.split("\\r?\\n")) {
+            Matcher m = STAT_PATTERN.matcher(line.trim());
+            if (m.matches()) {
+                files.put(m.group(3),
+                        new DeviceFile(Long.parseLong(m.group(1)), Long.parseLong(m.group(2))));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Packs the given files into a single archive on the device, pulls it and unpacks it into
+     * {@code destDir}.
+     *
+     * @return the number of bytes unpacked, or -1 if the archive could not be created or pulled.
+     */
+    private static long pullArchiveFromDevice(ITestDevice device, String src,
+            Map<String, DeviceFile> files, File destDir) throws DeviceNotAvailableException {
+        String archivePath = String.format(DEVICE_ARCHIVE_PATH, System.nanoTime());
+        StringBuilder names = new StringBuilder();
+        for (String name : files.keySet()) {
+            names.append(" '").append(name.replace("'", "'\\''")).append("'");
+        }
+        File archive = null;
+        try {
+            device.executeShellCommand(String.format(TAR_COMMAND, src, archivePath, names));
+            archive = FileUtil.createTempFile("collector", ".tar");
+            if (!device.pullFile(archivePath, archive)) {
+                CLog.w("Could not pull archive of %s, pulling files individually", src);
+                return -1;
+            }
+            try (InputStream in = new BufferedInputStream(new FileInputStream(archive))) {
+                return unpackArchive(in, destDir, files.keySet());
+            }
+        } catch (IOException e) {
+            CLog.w("Could not unpack archive of %s, pulling files individually", src);
+            CLog.w(e);
+            return -1;
+        } finally {
+            device.executeShellCommand(String.format("rm -f %s", archivePath));
+            FileUtil.deleteFile(archive);
+        }
+    }
+
+    /**
+     * Unpacks the regular files of a tar stream into {@code destDir}, streaming each one to disk
+     * so that large archives are never held in memory. Each file keeps the modification time
+     * recorded in the archive, so later pulls can tell it is unchanged.
+     *
+     * @param in the tar stream.
+     * @param destDir the directory to unpack into.
+     * @param names the only file names to unpack, as stored in the archive without a leading
+     * "./", or null to unpack every regular file at the top level of the archive.
+     * @return the number of bytes unpacked.
+     * @throws IOException if the archive is malformed or a file could not be written.
+     */
+    static long unpackArchive(InputStream in, File destDir, Set<String> names)
+            throws IOException {
+        long bytes = 0;
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+        byte[] buffer = new byte[UNPACK_BUFFER_SIZE];
+        String longName = null;
+        while (readBlock(in, header) && !isZeroBlock(header)) {
+            long size = parseOctal(header, 124, 12);
+            long modifiedSecs = parseOctal(header, 136, 12);
+            byte type = header[156];
+            String name = longName != null ? longName : parseName(header);
+            longName = null;
+            if (type == 'L') {
+                // GNU long name, applies to the following entry.
+                if (size > MAX_TAR_LONG_NAME) {
+                    throw new IOException("Unsupported tar long name size " + size);
+                }
+                ByteArrayOutputStream data = new ByteArrayOutputStream((int) size);
+                copyEntry(in, size, data, buffer);
+                longName = parseString(data.toByteArray(), 0, data.size());
+                continue;
+            }
+            if (name.startsWith("./")) {
+                name = name.substring(2);
+            }
+            if ((type != '0' && type != 0) || name.isEmpty() || name.contains("/")
+                    || (names != null && !names.contains(name))) {
+                copyEntry(in, size, null, buffer);
+                continue;
+            }
+            File destFile = new File(destDir, name);
+            try (OutputStream out = new FileOutputStream(destFile)) {
+                copyEntry(in, size, out, buffer);
+            } catch (IOException e) {
+                FileUtil.deleteFile(destFile);
+                throw e;
+            }
+            destFile.setLastModified(modifiedSecs * 1000);
+            bytes += size;
+        }
+        return bytes;
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            int count = in.read(block, read, block.length - read);
+            if (count < 0) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated tar header");
+            }
+            read += count;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the content of an entry to {@code out}, or discards it if {@code out} is null, and
+     * skips the padding to the next block.
+     */
+    private static void copyEntry(InputStream in, long size, OutputStream out, byte[] buffer)
+            throws IOException {
+        long remaining = size;
+        while (remaining > 0) {
+            int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (count < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            if (out != null) {
+                out.write(buffer, 0, count);
+            }
+            remaining -= count;
+        }
+        long padding = (TAR_BLOCK_SIZE - size % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE;
+        while (padding > 0) {
+            long skipped = in.skip(padding);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Truncated tar entry");
+                }
+                skipped = 1;
+            }
+            padding -= skipped;
+        }
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String parseName(byte[] header) {
+        String name = parseString(header, 0, 100);
+        if (header[257] == 'u' && header[258] == 's' && header[259] == 't'
+                && header[260] == 'a' && header[261] == 'r') {
+            String prefix = parseString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String parseString(byte[] buffer, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && buffer[end] != 0) {
+            end++;
+        }
+        return new String(buffer, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long parseOctal(byte[] buffer, int offset, int length) throws IOException {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = buffer[i];
+            if (b == 0 || b == ' ') {
+                if (value != 0) {
+                    break;
+                }
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Malformed tar header");
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    private static void logThroughput(String src, int pulled, int skipped, long bytes,
+            long elapsedMs) {
+        double kbPerSec = elapsedMs > 0 ? (bytes / 1024.0) / (elapsedMs / 1000.0) : 0;
+        CLog.i("Pulled %d files (%d bytes) from %s in %dms (%.1f KB/s), %d unchanged skipped",
+                pulled, bytes, src, elapsedMs, kbPerSec, skipped);
+    }
+
+    private static String joinPath(String dir, String name) {
+        return dir.endsWith("/") ? dir + name : dir + "/" + name;
+    }
+
+    /**
+     * Size and modification time of a file on the device.
+     */
+    static class DeviceFile {
+        final long mSize;
+        final long mModifiedSecs;
+
+        DeviceFile(long size, long modifiedSecs) {
+            mSize = size;
+            mModifiedSecs = modifiedSecs;
+        }
+
+        /**
+         * @return true if {@code file} exists on the host with the same size and modification
+         * time, to the second.
+         */
+        boolean isSameAs(File file) {
+            return file.isFile() && file.length() == mSize
+                    && file.lastModified() / 1000 == mModifiedSecs;
+        }
+    }
+
     /**
      * Copy files from host and delete from source.
      * @param src The source directory.
@@ -88,93 +418,295 @@ public class CollectorUtil {
     /**
      * Reformat test metrics jsons to convert multiple json objects with identical stream names into
      * arrays of objects (b/28790467).
+     * <p/>
+     * Report logs are rewritten in parallel. Each one is streamed rather than loaded into memory,
+     * so large logs are merged with a bounded amount of memory.
      *
      * @param resultDir The directory containing test metrics.
      */
     public static void reformatRepeatedStreams(File resultDir) {
+        File[] reportLogs = resultDir.listFiles();
+        if (reportLogs == null || reportLogs.length == 0) {
+            return;
+        }
+        int threads = Math.min(reportLogs.length, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (final File reportLog : reportLogs) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        reformatReportLog(reportLog);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    CLog.e("Caught exception during reformatting.");
+                    CLog.e(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            CLog.e("Interrupted during reformatting.");
+            CLog.e(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Rewrites a single report log with its repeated streams merged. The log is only replaced
+     * once the merged copy has been completely written.
+     */
+    private static void reformatReportLog(File reportLog) throws IOException {
+        File merged = new File(reportLog.getParentFile(), reportLog.getName() + ".tmp");
         try {
-            File[] reportLogs = resultDir.listFiles();
-            for (File reportLog : reportLogs) {
-                writeFile(reportLog, reformatJsonString(readFile(reportLog)));
+            try (Reader in = new BufferedReader(new FileReader(reportLog));
+                    Writer out = new BufferedWriter(new FileWriter(merged))) {
+                reformatJson(in, out, MAX_BUFFERED_STREAM_CHARS);
+            }
+            if (!merged.renameTo(reportLog)) {
+                throw new IOException("Could not replace " + reportLog.getAbsolutePath());
             }
+        } finally {
+            FileUtil.deleteFile(merged);
+        }
+    }
+
+    /**
+     * Helper function to reformat JSON string.
+     *
+     * @param jsonString the report log content.
+     * @return the report log with the objects of each stream name merged into an array.
+     */
+    public static String reformatJsonString(String jsonString) {
+        StringWriter out = new StringWriter();
+        try {
+            reformatJson(new StringReader(jsonString), out, MAX_BUFFERED_STREAM_CHARS);
         } catch (IOException e) {
             CLog.e("Caught exception during reformatting.");
             CLog.e(e);
+            return "{}";
         }
+        return out.toString();
     }
 
     /**
-     * Helper function to read a file.
+     * Merges the values of repeated names in a report log object into one array per name.
+     * Values that are already arrays, from a log that has been reformatted before, are merged
+     * element by element.
      *
-     * @throws IOException
+     * @param in the report log.
+     * @param out where the merged report log is written.
+     * @param maxBufferedChars once the merged streams hold more than this many characters in
+     * memory, they are moved to temporary files.
      */
-    private static String readFile(File file) throws IOException {
-        StringBuilder stringBuilder = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                stringBuilder.append(line);
+    static void reformatJson(Reader in, Writer out, long maxBufferedChars) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        // Tolerate the separator left behind when a report log store reopens the object.
+        reader.setLenient(true);
+        reader.setInternNames(true);
+        Map<String, StreamGroup> groups = new HashMap<>();
+        try {
+            reader.beginObject();
+            long bufferedChars = 0;
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                StreamGroup group = groups.get(name);
+                if (group == null) {
+                    group = new StreamGroup();
+                    groups.put(name, group);
+                }
+                long before = group.getBufferedChars();
+                if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        copyValue(reader, group.mWriter);
+                    }
+                    reader.endArray();
+                } else {
+                    copyValue(reader, group.mWriter);
+                }
+                bufferedChars += group.getBufferedChars() - before;
+                if (bufferedChars > maxBufferedChars) {
+                    for (StreamGroup buffered : groups.values()) {
+                        buffered.spill();
+                    }
+                    bufferedChars = 0;
+                }
+            }
+            reader.endObject();
+
+            out.write('{');
+            boolean first = true;
+            for (Map.Entry<String, StreamGroup> entry : groups.entrySet()) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                writeName(out, entry.getKey());
+                entry.getValue().writeTo(out);
+            }
+            out.write('}');
+        } finally {
+            for (StreamGroup group : groups.values()) {
+                group.close();
             }
         }
-        return stringBuilder.toString();
     }
 
     /**
-     * Helper function to write to a file.
-     *
-     * @param file {@link File} to write to.
-     * @param jsonString String to be written.
-     * @throws IOException
+     * Copies the next value of {@code reader}, including any nested values, to {@code writer}.
      */
-    private static void writeFile(File file, String jsonString) throws IOException {
-        file.createNewFile();
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-            writer.write(jsonString, 0, jsonString.length());
+    private static void copyValue(JsonReader reader, JsonWriter writer) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                writer.beginArray();
+                while (reader.hasNext()) {
+                    copyValue(reader, writer);
+                }
+                reader.endArray();
+                writer.endArray();
+                break;
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                writer.beginObject();
+                while (reader.hasNext()) {
+                    writer.name(reader.nextName());
+                    copyValue(reader, writer);
+                }
+                reader.endObject();
+                writer.endObject();
+                break;
+            case STRING:
+                writer.value(reader.nextString());
+                break;
+            case NUMBER:
+                // keep the literal, so that copying does not change its form or precision
+                writer.value(new LazilyParsedNumber(reader.nextString()));
+                break;
+            case BOOLEAN:
+                writer.value(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                writer.nullValue();
+                break;
+            default:
+                throw new IOException("Unexpected " + reader.peek() + " in report log");
         }
     }
 
     /**
-     * Helper function to reformat JSON string.
-     *
-     * @param jsonString
-     * @return
+     * Writes {@code name} as a quoted JSON string followed by a colon.
      */
-    public static String reformatJsonString(String jsonString) {
-        StringBuilder newJsonBuilder = new StringBuilder();
-        // Create map of stream names and json objects.
-        HashMap<String, List<String>> jsonMap = new HashMap<>();
-        Pattern p = Pattern.compile(TEST_METRICS_PATTERN);
-        Matcher m = p.matcher(jsonString);
-        while (m.find()) {
-            String key = m.group(1);
-            String value = m.group(2);
-            if (!jsonMap.containsKey(key)) {
-                jsonMap.put(key, new ArrayList<String>());
-            }
-            jsonMap.get(key).add(value);
-        }
-        // Rewrite json string as arrays.
-        newJsonBuilder.append("{");
-        boolean firstLine = true;
-        for (String key : jsonMap.keySet()) {
-            if (!firstLine) {
-                newJsonBuilder.append(",");
+    private static void writeName(Writer out, String name) throws IOException {
+        out.write('"');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
             } else {
-                firstLine = false;
+                out.write(c);
             }
-            newJsonBuilder.append("\"").append(key).append("\":[");
-            boolean firstValue = true;
-            for (String stream : jsonMap.get(key)) {
-                if (!firstValue) {
-                    newJsonBuilder.append(",");
-                } else {
-                    firstValue = false;
+        }
+        out.write("\":");
+    }
+
+    /**
+     * The merged array of one stream name. It is built in memory until {@link #spill()} moves it
+     * to a temporary file, after which further values are appended to the file.
+     */
+    private static class StreamGroup {
+        private final StringBuilder mBuffer = new StringBuilder();
+        private File mSpillFile;
+        private Writer mSpillWriter;
+        final JsonWriter mWriter;
+
+        StreamGroup() throws IOException {
+            mWriter = new JsonWriter(new Writer() {
+                @Override
+                public void write(char[] chars, int offset, int length) throws IOException {
+                    if (mSpillWriter != null) {
+                        mSpillWriter.write(chars, offset, length);
+                    } else {
+                        mBuffer.append(chars, offset, length);
+                    }
+                }
+
+                @Override
+                public void write(String str, int offset, int length) throws IOException {
+                    if (mSpillWriter != null) {
+                        mSpillWriter.write(str, offset, length);
+                    } else {
+                        mBuffer.append(str, offset, offset + length);
+                    }
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    if (mSpillWriter != null) {
+                        mSpillWriter.flush();
+                    }
                 }
-                newJsonBuilder.append(stream);
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            });
+            mWriter.beginArray();
+        }
+
+        long getBufferedChars() {
+            return mBuffer.length();
+        }
+
+        void spill() throws IOException {
+            if (mSpillWriter != null) {
+                return;
+            }
+            mSpillFile = FileUtil.createTempFile("reportlog-stream", ".json");
+            mSpillWriter = new BufferedWriter(new FileWriter(mSpillFile));
+            mSpillWriter.append(mBuffer);
+            mBuffer.setLength(0);
+            mBuffer.trimToSize();
+        }
+
+        /**
+         * Closes the array and copies it to {@code out}.
+         */
+        void writeTo(Writer out) throws IOException {
+            mWriter.endArray();
+            mWriter.flush();
+            if (mSpillWriter == null) {
+                out.append(mBuffer);
+                return;
+            }
+            mSpillWriter.close();
+            mSpillWriter = null;
+            try (Reader in = new BufferedReader(new FileReader(mSpillFile))) {
+                char[] chars = new char[8192];
+                int count;
+                while ((count = in.read(chars)) != -1) {
+                    out.write(chars, 0, count);
+                }
+            }
+        }
+
+        void close() throws IOException {
+            if (mSpillWriter != null) {
+                mSpillWriter.close();
             }
-            newJsonBuilder.append("]");
+            FileUtil.deleteFile(mSpillFile);
         }
-        newJsonBuilder.append("}");
-        return newJsonBuilder.toString();
     }
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.json.stream.JsonWriter;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * An {@link IModuleCoordinator} forwarding to a {@link ModuleCoordinator} in another harness
+ * process, over one connection opened on first use. The connection starts with the token of the
+ * coordinator and, for a worker, the identity of its harness.
+ */
+public class CoordinatorClient implements IModuleCoordinator {
+
+    private final String mHost;
+    private final int mPort;
+    private final String mToken;
+    private final Map<String, String> mIdentity;
+    private Socket mSocket;
+    private BufferedReader mReader;
+    private Writer mWriter;
+
+    /**
+     * @param address the address of the coordinator, as "host:port".
+     * @param token the token of the coordinator, null or empty for none.
+     * @param identity the plan, filters and build fingerprint of this harness, which must be the
+     * same as those of the coordinator to take modules. Null to only send results.
+     */
+    public CoordinatorClient(String address, String token, Map<String, String> identity) {
+        int index = address.lastIndexOf(':');
+        if (index <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Expected the coordinator as host:port, got %s", address));
+        }
+        mHost = address.substring(0, index);
+        mPort = Integer.parseInt(address.substring(index + 1));
+        mToken = token == null ? "" : token;
+        mIdentity = identity;
+    }
+
+    /**
+     * @return a worker name for {@code serial} which is unique across hosts.
+     */
+    public static String getWorkerName(String serial) {
+        try {
+            return InetAddress.getLocalHost().getHostName() + "/" + serial;
+        } catch (UnknownHostException e) {
+            return serial;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String takeModule(String worker) throws IOException {
+        String response = request(ModuleCoordinator.TAKE + ModuleCoordinator.SEPARATOR + worker);
+        if (response.equals(ModuleCoordinator.END)) {
+            return null;
+        }
+        if (!response.startsWith(ModuleCoordinator.MODULE + ModuleCoordinator.SEPARATOR)) {
+            throw new IOException("Unexpected response from the coordinator: " + response);
+        }
+        return response.substring(ModuleCoordinator.MODULE.length() + 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void moduleFinished(String worker, String id) throws IOException {
+        checkOk(request(ModuleCoordinator.FINISHED + ModuleCoordinator.SEPARATOR + worker
+                + ModuleCoordinator.SEPARATOR + id));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void moduleSkipped(String worker, String id) throws IOException {
+        checkOk(request(ModuleCoordinator.SKIPPED + ModuleCoordinator.SEPARATOR + worker
+                + ModuleCoordinator.SEPARATOR + id));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void moduleResult(IModuleResult result) throws IOException {
+        // JsonWriter escapes line breaks, so the result fits on one line
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+        ModuleResultJson.write(result, writer);
+        writer.flush();
+        checkOk(request(ModuleCoordinator.RESULT + ModuleCoordinator.SEPARATOR + json));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release(String worker) throws IOException {
+        checkOk(request(ModuleCoordinator.RELEASE + ModuleCoordinator.SEPARATOR + worker));
+    }
+
+    /**
+     * Closes the connection. The coordinator releases the workers which used it.
+     */
+    public synchronized void close() {
+        StreamUtil.close(mSocket);
+        mSocket = null;
+    }
+
+    private synchronized String request(String line) throws IOException {
+        if (mSocket == null) {
+            mSocket = new Socket(mHost, mPort);
+            mReader = new BufferedReader(new InputStreamReader(mSocket.getInputStream(),
+                    StandardCharsets.UTF_8));
+            mWriter = new OutputStreamWriter(mSocket.getOutputStream(), StandardCharsets.UTF_8);
+            String hello = ModuleCoordinator.HELLO + ModuleCoordinator.SEPARATOR + mToken;
+            if (mIdentity != null) {
+                hello += ModuleCoordinator.SEPARATOR + ModuleCoordinator.writeIdentity(mIdentity);
+            }
+            String response = send(hello);
+            if (!response.equals(ModuleCoordinator.OK)) {
+                close();
+                throw new IOException("Rejected by the coordinator: " + response);
+            }
+        }
+        return send(line);
+    }
+
+    private String send(String line) throws IOException {
+        try {
+            mWriter.write(line);
+            mWriter.write('\n');
+            mWriter.flush();
+            String response = mReader.readLine();
+            if (response == null) {
+                throw new IOException("Connection to the coordinator closed");
+            }
+            return response;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static void checkOk(String response) throws IOException {
+        if (!response.equals(ModuleCoordinator.OK)) {
+            throw new IOException("Unexpected response from the coordinator: " + response);
+        }
+    }
+}
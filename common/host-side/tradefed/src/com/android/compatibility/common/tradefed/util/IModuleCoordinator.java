@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.compatibility.common.util.IModuleResult;
+
+import java.io.IOException;
+
+/**
+ * Hands out the modules of a distributed run to the harnesses running them, and collects their
+ * results.
+ * <p/>
+ * Each device running modules is a worker, named uniquely across the run. A worker takes a
+ * module, runs it, sends the result and reports the module finished before taking the next one.
+ */
+public interface IModuleCoordinator {
+
+    /**
+     * Waits for a module for {@code worker} to run. Waits while other workers are running
+     * modules, since they may stop and leave them to this worker.
+     *
+     * @return the id of the module, or null once there is nothing left to run.
+     */
+    String takeModule(String worker) throws IOException;
+
+    /**
+     * Indicates that {@code worker} has run the module {@code id}.
+     */
+    void moduleFinished(String worker, String id) throws IOException;
+
+    /**
+     * Indicates that {@code worker} cannot run the module {@code id}, for instance because its
+     * device does not have the tokens the module requires. The module goes to another worker.
+     */
+    void moduleSkipped(String worker, String id) throws IOException;
+
+    /**
+     * Adds the result of a module, possibly a part of it.
+     */
+    void moduleResult(IModuleResult result) throws IOException;
+
+    /**
+     * Indicates that {@code worker} stopped, so the modules it has not finished go to the other
+     * workers.
+     */
+    void release(String worker) throws IOException;
+}
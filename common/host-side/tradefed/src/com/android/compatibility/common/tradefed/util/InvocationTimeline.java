@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.json.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records where the wall time of an invocation goes on one device, as a list of named spans.
+ * <pre>
+ * InvocationTimeline.Span span = InvocationTimeline.forDevice(serial).begin("test", moduleId);
+ * try {
+ *     ...
+ * } finally {
+ *     span.end();
+ * }
+ * </pre>
+ * Spans are kept in flat arrays and only cost a {@link System#nanoTime()} call at each end, so
+ * the harness can record them around every preparer, module and status check. At the end of the
+ * invocation the timelines of all devices are written as a Chrome trace-event file, which can be
+ * opened in chrome://tracing, and summed up per span name for the result XML.
+ */
+public class InvocationTimeline {
+
+    public static final String TRACE_FILE_NAME = "timeline.json";
+
+    private static final String COUNT_SUFFIX = "_count";
+    private static final String MS_SUFFIX = "_ms";
+
+    private static final Map<String, InvocationTimeline> sTimelines = new HashMap<>();
+
+    /**
+     * A span in progress, ended by {@link #end()}.
+     */
+    public final class Span {
+        private final String mName;
+        private final String mDetail;
+        private final long mStart;
+        private boolean mEnded;
+
+        private Span(String name, String detail, long start) {
+            mName = name;
+            mDetail = detail;
+            mStart = start;
+        }
+
+        /**
+         * Records the span. Calling it more than once has no effect.
+         */
+        public void end() {
+            if (mEnded) {
+                return;
+            }
+            mEnded = true;
+            add(mName, mDetail, mStart, System.nanoTime(), Thread.currentThread().getId());
+        }
+    }
+
+    private final String mName;
+    private final long mStartMillis;
+    private final long mStartNanos;
+
+    private String[] mNames = new String[64];
+    private String[] mDetails = new String[64];
+    private long[] mStarts = new long[64];
+    private long[] mEnds = new long[64];
+    private long[] mThreads = new long[64];
+    private int mSize;
+
+    /**
+     * @param name the name of the timeline in the trace, usually the device serial.
+     */
+    public InvocationTimeline(String name) {
+        mName = name;
+        mStartMillis = System.currentTimeMillis();
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Starts a new timeline for {@code serial}, dropping anything recorded by a previous
+     * invocation on the same device.
+     */
+    public static InvocationTimeline start(String serial) {
+        InvocationTimeline timeline = new InvocationTimeline(serial);
+        synchronized (sTimelines) {
+            sTimelines.put(serial, timeline);
+        }
+        return timeline;
+    }
+
+    /**
+     * @return the timeline of {@code serial}, started if needed.
+     */
+    public static InvocationTimeline forDevice(String serial) {
+        synchronized (sTimelines) {
+            InvocationTimeline timeline = sTimelines.get(serial);
+            if (timeline == null) {
+                timeline = new InvocationTimeline(serial);
+                sTimelines.put(serial, timeline);
+            }
+            return timeline;
+        }
+    }
+
+    /**
+     * @return the timeline of {@code serial}, or null if nothing was recorded for it.
+     */
+    public static InvocationTimeline remove(String serial) {
+        synchronized (sTimelines) {
+            return sTimelines.remove(serial);
+        }
+    }
+
+    /**
+     * @return the name of this timeline.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Starts a span.
+     *
+     * @param name what is being done, such as "test" or "ApkInstaller.setUp". Spans are summed
+     * up per name, so it should not contain module or test names.
+     * @param detail what it is being done for, such as the module id, or null.
+     */
+    public Span begin(String name, String detail) {
+        return new Span(name, detail, System.nanoTime());
+    }
+
+    /**
+     * @return the number of spans recorded so far.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    synchronized void add(String name, String detail, long start, long end, long thread) {
+        if (mSize == mNames.length) {
+            int capacity = mSize * 2;
+            mNames = Arrays.copyOf(mNames, capacity);
+            mDetails = Arrays.copyOf(mDetails, capacity);
+            mStarts = Arrays.copyOf(mStarts, capacity);
+            mEnds = Arrays.copyOf(mEnds, capacity);
+            mThreads = Arrays.copyOf(mThreads, capacity);
+        }
+        mNames[mSize] = name;
+        mDetails[mSize] = detail;
+        mStarts[mSize] = start;
+        mEnds[mSize] = end;
+        mThreads[mSize] = thread;
+        mSize++;
+    }
+
+    /**
+     * Converts a {@link System#nanoTime()} of this timeline to microseconds since the epoch, so
+     * the timelines of different devices line up in the trace.
+     */
+    private long toMicros(long nanos) {
+        return mStartMillis * 1000 + (nanos - mStartNanos) / 1000;
+    }
+
+    private synchronized void writeEvents(JsonWriter writer, int pid) throws IOException {
+        writer.beginObject();
+        writer.name("name").value("process_name");
+        writer.name("ph").value("M");
+        writer.name("pid").value(pid);
+        writer.name("args").beginObject().name("name").value(mName).endObject();
+        writer.endObject();
+        for (int i = 0; i < mSize; i++) {
+            long start = toMicros(mStarts[i]);
+            writer.beginObject();
+            writer.name("name").value(mNames[i]);
+            writer.name("ph").value("X");
+            writer.name("ts").value(start);
+            writer.name("dur").value(toMicros(mEnds[i]) - start);
+            writer.name("pid").value(pid);
+            writer.name("tid").value(mThreads[i]);
+            if (mDetails[i] != null) {
+                writer.name("args").beginObject().name("detail").value(mDetails[i]).endObject();
+            }
+            writer.endObject();
+        }
+    }
+
+    private synchronized void addTo(Map<String, long[]> totals) {
+        for (int i = 0; i < mSize; i++) {
+            long[] total = totals.get(mNames[i]);
+            if (total == null) {
+                total = new long[2];
+                totals.put(mNames[i], total);
+            }
+            total[0]++;
+            total[1] += mEnds[i] - mStarts[i];
+        }
+    }
+
+    /**
+     * Writes {@code timelines} as a Chrome trace-event file, one process per timeline.
+     */
+    public static void writeTrace(List<InvocationTimeline> timelines, Writer out)
+            throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+        writer.name("displayTimeUnit").value("ms");
+        writer.name("traceEvents").beginArray();
+        for (int i = 0; i < timelines.size(); i++) {
+            timelines.get(i).writeEvents(writer, i + 1);
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Sums up the spans of {@code timelines} per name, as "&lt;name&gt;_count" and
+     * "&lt;name&gt;_ms" entries sorted by name.
+     */
+    public static Map<String, String> summarize(List<InvocationTimeline> timelines) {
+        Map<String, long[]> totals = new TreeMap<>();
+        for (InvocationTimeline timeline : timelines) {
+            timeline.addTo(totals);
+        }
+        Map<String, String> summary = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+            long[] total = entry.getValue();
+            summary.put(entry.getKey() + COUNT_SUFFIX, Long.toString(total[0]));
+            summary.put(entry.getKey() + MS_SUFFIX, Long.toString(total[1] / 1000000));
+        }
+        return summary;
+    }
+}
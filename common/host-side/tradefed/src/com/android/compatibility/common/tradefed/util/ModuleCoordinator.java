@@ -0,0 +1,543 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.json.stream.JsonReader;
+import com.android.json.stream.JsonWriter;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The {@link IModuleCoordinator} of a distributed run, owning the queue of modules and the
+ * results sent by the workers.
+ * <p/>
+ * Workers in the same process call it directly. Workers in other harness processes, on this host
+ * or others, go through a {@link CoordinatorClient} connected to the port it listens on. It only
+ * listens on the loopback interface unless told otherwise, in which case it requires a token. The
+ * protocol is one tab separated request per line, each answered by one line:
+ * <pre>
+ * HELLO &lt;token&gt; [&lt;identity json&gt;]  OK
+ * TAKE &lt;worker&gt;                  MODULE &lt;id&gt; or END
+ * FINISHED &lt;worker&gt; &lt;id&gt;         OK
+ * SKIPPED &lt;worker&gt; &lt;id&gt;          OK
+ * RESULT &lt;module result json&gt;     OK
+ * RELEASE &lt;worker&gt;               OK
+ * </pre>
+ * A connection starts with HELLO and the token of the coordinator, or is closed. A connection
+ * which takes modules also gives the plan, filters and build fingerprint of its harness, which
+ * must be the same as those of the coordinator. A connection which only sends results does not.
+ * <p/>
+ * The workers of a connection which closes are released, so a harness which dies does not take
+ * its modules with it.
+ */
+public class ModuleCoordinator implements IModuleCoordinator {
+
+    /**
+     * Receives the results sent by the workers.
+     */
+    public interface ResultListener {
+        void moduleResult(IModuleResult result);
+    }
+
+    static final String HELLO = "HELLO";
+    static final String TAKE = "TAKE";
+    static final String FINISHED = "FINISHED";
+    static final String SKIPPED = "SKIPPED";
+    static final String RESULT = "RESULT";
+    static final String RELEASE = "RELEASE";
+    static final String MODULE = "MODULE";
+    static final String END = "END";
+    static final String OK = "OK";
+    static final String ERROR = "ERROR";
+    static final String SEPARATOR = "\t";
+
+    private static final Map<Integer, ModuleCoordinator> sCoordinators = new HashMap<>();
+
+    // Holds the modules no worker has taken yet, longest first.
+    private final LinkedList<String> mQueue = new LinkedList<>();
+    // Holds the modules each worker has taken but not finished yet.
+    private final Map<String, List<String>> mAssigned = new HashMap<>();
+    // Holds the modules each worker cannot run.
+    private final Map<String, Set<String>> mSkipped = new HashMap<>();
+    private boolean mModulesSet = false;
+    private boolean mStopped = false;
+
+    private final Object mResultLock = new Object();
+    private final List<IModuleResult> mPendingResults = new ArrayList<>();
+    private ResultListener mResultListener;
+
+    private final String mToken;
+    // The plan, filters and build fingerprint the workers must have, null until set.
+    private Map<String, String> mIdentity;
+
+    private ServerSocket mServerSocket;
+    private final Set<Socket> mConnections = new HashSet<>();
+
+    /**
+     * The state of a connection.
+     */
+    static class Session {
+        boolean mAuthenticated = false;
+        boolean mIdentified = false;
+        // The workers seen on the connection so far, released when it closes.
+        final Set<String> mWorkers = new HashSet<>();
+    }
+
+    /**
+     * @param token the token connections must start with, null or empty for none.
+     */
+    public ModuleCoordinator(String token) {
+        mToken = token == null ? "" : token;
+    }
+
+    /**
+     * @return the coordinator listening on {@code port}, started if needed.
+     */
+    public static ModuleCoordinator forPort(int port, boolean allInterfaces, String token)
+            throws IOException {
+        synchronized (sCoordinators) {
+            ModuleCoordinator coordinator = sCoordinators.get(port);
+            if (coordinator == null) {
+                coordinator = new ModuleCoordinator(token);
+                coordinator.start(port, allInterfaces);
+                sCoordinators.put(port, coordinator);
+            }
+            return coordinator;
+        }
+    }
+
+    /**
+     * Starts listening for workers.
+     *
+     * @param port the port to listen on, or 0 for any free port.
+     * @param allInterfaces whether to listen on all interfaces rather than the loopback one only,
+     * which requires a token.
+     */
+    public synchronized void start(int port, boolean allInterfaces) throws IOException {
+        if (allInterfaces && mToken.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "A token is required to coordinate modules on all interfaces");
+        }
+        mServerSocket = new ServerSocket();
+        mServerSocket.setReuseAddress(true);
+        mServerSocket.bind(allInterfaces ? new InetSocketAddress(port)
+                : new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        final ServerSocket serverSocket = mServerSocket;
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        serve(serverSocket.accept());
+                    } catch (IOException e) {
+                        if (!serverSocket.isClosed()) {
+                            CLog.e(e);
+                        }
+                    }
+                }
+            }
+        }, "ModuleCoordinator-" + getPort());
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        CLog.logAndDisplay(LogLevel.INFO, "Coordinating modules on %s",
+                mServerSocket.getLocalSocketAddress());
+    }
+
+    /**
+     * @return the port the coordinator listens on.
+     */
+    public synchronized int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    /**
+     * @return the address the coordinator listens on.
+     */
+    synchronized InetAddress getAddress() {
+        return mServerSocket.getInetAddress();
+    }
+
+    /**
+     * Stops listening and disconnects the workers. Workers still waiting for a module get none.
+     */
+    public void stop() {
+        List<Socket> connections;
+        synchronized (this) {
+            mStopped = true;
+            notifyAll();
+            StreamUtil.close(mServerSocket);
+            connections = new ArrayList<>(mConnections);
+        }
+        for (Socket connection : connections) {
+            StreamUtil.close(connection);
+        }
+        synchronized (sCoordinators) {
+            if (sCoordinators.get(mServerSocket.getLocalPort()) == this) {
+                sCoordinators.remove(mServerSocket.getLocalPort());
+            }
+        }
+    }
+
+    /**
+     * Sets the plan, filters and build fingerprint the workers connecting must have. Until it is
+     * called, workers wait to be accepted.
+     */
+    public synchronized void setIdentity(Map<String, String> identity) {
+        if (mIdentity == null) {
+            mIdentity = new TreeMap<>(identity);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Sets the modules to run. Until it is called, workers wait for a module.
+     *
+     * @param runtimeHints the runtime hint of each module id in ms. Longer modules are handed out
+     * first, so the run does not end waiting on one long module.
+     */
+    public synchronized void setModules(final Map<String, Long> runtimeHints) {
+        if (mModulesSet) {
+            return;
+        }
+        List<String> ids = new ArrayList<>(runtimeHints.keySet());
+        Collections.sort(ids, new Comparator<String>() {
+            @Override
+            public int compare(String id1, String id2) {
+                int order = Long.compare(runtimeHints.get(id2), runtimeHints.get(id1));
+                return order != 0 ? order : id1.compareTo(id2);
+            }
+        });
+        mQueue.addAll(ids);
+        mModulesSet = true;
+        notifyAll();
+    }
+
+    /**
+     * Sets the listener of the results. Results received before are passed to it right away.
+     */
+    public void setResultListener(ResultListener listener) {
+        synchronized (mResultLock) {
+            mResultListener = listener;
+            if (listener != null) {
+                for (IModuleResult result : mPendingResults) {
+                    listener.moduleResult(result);
+                }
+                mPendingResults.clear();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String takeModule(String worker) {
+        while (true) {
+            if (mStopped) {
+                return null;
+            }
+            if (mModulesSet) {
+                Set<String> skipped = mSkipped.get(worker);
+                for (int i = 0; i < mQueue.size(); i++) {
+                    String id = mQueue.get(i);
+                    if (skipped == null || !skipped.contains(id)) {
+                        mQueue.remove(i);
+                        List<String> assigned = mAssigned.get(worker);
+                        if (assigned == null) {
+                            assigned = new ArrayList<>();
+                            mAssigned.put(worker, assigned);
+                        }
+                        assigned.add(id);
+                        return id;
+                    }
+                }
+                if (!isOtherWorkerRunning(worker)) {
+                    if (!mQueue.isEmpty() && skipped != null && skipped.containsAll(mQueue)) {
+                        CLog.logAndDisplay(LogLevel.WARN, "No worker left to run %s", mQueue);
+                    }
+                    return null;
+                }
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+    }
+
+    private boolean isOtherWorkerRunning(String worker) {
+        for (Map.Entry<String, List<String>> entry : mAssigned.entrySet()) {
+            if (!entry.getKey().equals(worker) && !entry.getValue().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void moduleFinished(String worker, String id) {
+        List<String> assigned = mAssigned.get(worker);
+        if (assigned != null) {
+            assigned.remove(id);
+        }
+        notifyAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void moduleSkipped(String worker, String id) {
+        List<String> assigned = mAssigned.get(worker);
+        if (assigned != null && assigned.remove(id)) {
+            Set<String> skipped = mSkipped.get(worker);
+            if (skipped == null) {
+                skipped = new HashSet<>();
+                mSkipped.put(worker, skipped);
+            }
+            skipped.add(id);
+            mQueue.addFirst(id);
+        }
+        notifyAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void moduleResult(IModuleResult result) {
+        ResultListener listener;
+        synchronized (mResultLock) {
+            listener = mResultListener;
+            if (listener == null) {
+                mPendingResults.add(result);
+                return;
+            }
+        }
+        // Not holding the lock, the listener may be busy setting itself or another listener
+        listener.moduleResult(result);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void release(String worker) {
+        List<String> assigned = mAssigned.remove(worker);
+        if (assigned != null && !assigned.isEmpty()) {
+            CLog.logAndDisplay(LogLevel.WARN,
+                    "%s stopped before finishing, releasing %d modules to the other workers: %s",
+                    worker, assigned.size(), assigned);
+            // Run them next, they were due before the ones left in the queue
+            mQueue.addAll(0, assigned);
+        }
+        notifyAll();
+    }
+
+    private synchronized boolean addConnection(Socket connection) {
+        if (mStopped) {
+            return false;
+        }
+        mConnections.add(connection);
+        return true;
+    }
+
+    private synchronized void removeConnection(Socket connection) {
+        mConnections.remove(connection);
+    }
+
+    /**
+     * Serves the requests of a connection on its own thread.
+     */
+    private void serve(final Socket connection) {
+        if (!addConnection(connection)) {
+            StreamUtil.close(connection);
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Session session = new Session();
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(
+                            connection.getInputStream(), StandardCharsets.UTF_8));
+                    Writer writer = new OutputStreamWriter(connection.getOutputStream(),
+                            StandardCharsets.UTF_8);
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        writer.write(handle(line, session));
+                        writer.write('\n');
+                        writer.flush();
+                        if (!session.mAuthenticated) {
+                            CLog.w("Rejected connection from %s",
+                                    connection.getRemoteSocketAddress());
+                            break;
+                        }
+                    }
+                } catch (IOException e) {
+                    CLog.d("Lost connection to %s: %s", connection.getRemoteSocketAddress(),
+                            e.getMessage());
+                } finally {
+                    StreamUtil.close(connection);
+                    removeConnection(connection);
+                    for (String worker : session.mWorkers) {
+                        release(worker);
+                    }
+                }
+            }
+        }, "ModuleCoordinator-" + connection.getRemoteSocketAddress());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Handles one request line.
+     *
+     * @return the response line.
+     */
+    String handle(String line, Session session) {
+        String[] parts = line.split(SEPARATOR, 3);
+        try {
+            if (parts[0].equals(HELLO) && parts.length >= 2) {
+                return hello(parts[1], parts.length == 3 ? parts[2] : null, session);
+            } else if (!session.mAuthenticated) {
+                return ERROR + SEPARATOR + "Expected " + HELLO;
+            } else if (parts[0].equals(RESULT) && parts.length == 2) {
+                moduleResult(ModuleResultJson.read(new JsonReader(new StringReader(parts[1]))));
+            } else if (!session.mIdentified) {
+                return ERROR + SEPARATOR + "Worker did not give its plan, filters and build";
+            } else if (parts[0].equals(TAKE) && parts.length == 2) {
+                session.mWorkers.add(parts[1]);
+                String id = takeModule(parts[1]);
+                return id == null ? END : MODULE + SEPARATOR + id;
+            } else if (parts[0].equals(FINISHED) && parts.length == 3) {
+                moduleFinished(parts[1], parts[2]);
+            } else if (parts[0].equals(SKIPPED) && parts.length == 3) {
+                moduleSkipped(parts[1], parts[2]);
+            } else if (parts[0].equals(RELEASE) && parts.length == 2) {
+                session.mWorkers.remove(parts[1]);
+                release(parts[1]);
+            } else {
+                return ERROR + SEPARATOR + "Unknown request " + parts[0];
+            }
+        } catch (IOException | RuntimeException e) {
+            CLog.e(e);
+            return ERROR + SEPARATOR + e.getMessage();
+        }
+        return OK;
+    }
+
+    /**
+     * Checks the token of a connection, and the identity of its harness if given.
+     */
+    private String hello(String token, String identityJson, Session session)
+            throws IOException {
+        if (!MessageDigest.isEqual(mToken.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8))) {
+            return ERROR + SEPARATOR + "Wrong token";
+        }
+        session.mAuthenticated = true;
+        if (identityJson == null) {
+            return OK;
+        }
+        Map<String, String> identity = readIdentity(identityJson);
+        Map<String, String> expected = waitForIdentity();
+        if (expected == null) {
+            return ERROR + SEPARATOR + "Coordinator stopped";
+        }
+        Set<String> keys = new TreeSet<>(expected.keySet());
+        keys.addAll(identity.keySet());
+        for (String key : keys) {
+            String value = identity.get(key);
+            if (value == null || !value.equals(expected.get(key))) {
+                CLog.logAndDisplay(LogLevel.WARN, "Rejected worker with %s %s, expected %s",
+                        key, value, expected.get(key));
+                return ERROR + SEPARATOR + String.format("Expected %s %s, got %s", key,
+                        expected.get(key), value);
+            }
+        }
+        session.mIdentified = true;
+        return OK;
+    }
+
+    private synchronized Map<String, String> waitForIdentity() {
+        while (mIdentity == null && !mStopped) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        return mIdentity;
+    }
+
+    /**
+     * Writes the identity of a harness as JSON, on one line.
+     */
+    static String writeIdentity(Map<String, String> identity) throws IOException {
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+        writer.beginObject();
+        for (Map.Entry<String, String> entry : new TreeMap<>(identity).entrySet()) {
+            writer.name(entry.getKey()).value(entry.getValue());
+        }
+        writer.endObject();
+        writer.flush();
+        return json.toString();
+    }
+
+    static Map<String, String> readIdentity(String json) throws IOException {
+        Map<String, String> identity = new TreeMap<>();
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            identity.put(reader.nextName(), reader.nextString());
+        }
+        reader.endObject();
+        return identity;
+    }
+}
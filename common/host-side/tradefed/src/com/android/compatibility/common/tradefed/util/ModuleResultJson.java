@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.compatibility.common.util.ICaseResult;
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.compatibility.common.util.ITestResult;
+import com.android.compatibility.common.util.ModuleResult;
+import com.android.compatibility.common.util.ReportLog;
+import com.android.compatibility.common.util.TestStatus;
+import com.android.json.stream.JsonReader;
+import com.android.json.stream.JsonToken;
+import com.android.json.stream.JsonWriter;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+
+/**
+ * Converts module results to and from JSON, to send them from one harness to another.
+ */
+public class ModuleResultJson {
+
+    private static final String ID = "id";
+    private static final String RUNTIME = "runtime";
+    private static final String DONE = "done";
+    private static final String NOT_EXECUTED = "not_executed";
+    private static final String CASES = "cases";
+    private static final String NAME = "name";
+    private static final String TESTS = "tests";
+    private static final String RESULT = "result";
+    private static final String MESSAGE = "message";
+    private static final String STACK_TRACE = "stack_trace";
+    private static final String BUGREPORT = "bugreport";
+    private static final String LOGCAT = "logcat";
+    private static final String SCREENSHOT = "screenshot";
+    private static final String REPORT_LOG = "report_log";
+
+    private ModuleResultJson() {}
+
+    /**
+     * Writes {@code module} as a JSON object.
+     */
+    public static void write(IModuleResult module, JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name(ID).value(module.getId());
+        writer.name(RUNTIME).value(module.getRuntime());
+        writer.name(DONE).value(module.isDone());
+        writer.name(NOT_EXECUTED).value(module.getNotExecuted());
+        writer.name(CASES).beginArray();
+        for (ICaseResult caseResult : module.getResults()) {
+            writer.beginObject();
+            writer.name(NAME).value(caseResult.getName());
+            writer.name(TESTS).beginArray();
+            for (ITestResult test : caseResult.getResults()) {
+                writer.beginObject();
+                writer.name(NAME).value(test.getName());
+                if (test.getResultStatus() != null) {
+                    writer.name(RESULT).value(test.getResultStatus().name());
+                }
+                writeString(writer, MESSAGE, test.getMessage());
+                writeString(writer, STACK_TRACE, test.getStackTrace());
+                writeString(writer, BUGREPORT, test.getBugReport());
+                writeString(writer, LOGCAT, test.getLog());
+                writeString(writer, SCREENSHOT, test.getScreenshot());
+                if (test.getReportLog() != null) {
+                    try {
+                        writer.name(REPORT_LOG).value(ReportLog.serialize(test.getReportLog()));
+                    } catch (XmlPullParserException e) {
+                        throw new IOException("Failed to serialize the report log of "
+                                + test.getFullName(), e);
+                    }
+                }
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    private static void writeString(JsonWriter writer, String name, String value)
+            throws IOException {
+        if (value != null) {
+            writer.name(name).value(value);
+        }
+    }
+
+    /**
+     * Reads a module result written by {@link #write(IModuleResult, JsonWriter)}.
+     */
+    public static IModuleResult read(JsonReader reader) throws IOException {
+        IModuleResult module = null;
+        long runtime = 0;
+        boolean done = false;
+        int notExecuted = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(ID)) {
+                module = new ModuleResult(reader.nextString());
+            } else if (name.equals(RUNTIME)) {
+                runtime = reader.nextLong();
+            } else if (name.equals(DONE)) {
+                done = reader.nextBoolean();
+            } else if (name.equals(NOT_EXECUTED)) {
+                notExecuted = reader.nextInt();
+            } else if (name.equals(CASES) && module != null) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readCase(module, reader);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (module == null) {
+            throw new IOException("Module result without id");
+        }
+        module.addRuntime(runtime);
+        module.setDone(done);
+        module.setNotExecuted(notExecuted);
+        return module;
+    }
+
+    private static void readCase(IModuleResult module, JsonReader reader) throws IOException {
+        ICaseResult caseResult = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(NAME)) {
+                caseResult = module.getOrCreateResult(reader.nextString());
+            } else if (name.equals(TESTS) && caseResult != null) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readTest(caseResult, reader);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readTest(ICaseResult caseResult, JsonReader reader) throws IOException {
+        ITestResult test = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (name.equals(NAME)) {
+                test = caseResult.getOrCreateResult(reader.nextString());
+            } else if (test == null) {
+                throw new IOException("Test result without name in " + caseResult.getName());
+            } else if (name.equals(RESULT)) {
+                test.setResultStatus(TestStatus.valueOf(reader.nextString()));
+            } else if (name.equals(MESSAGE)) {
+                test.setMessage(reader.nextString());
+            } else if (name.equals(STACK_TRACE)) {
+                test.setStackTrace(reader.nextString());
+            } else if (name.equals(BUGREPORT)) {
+                test.setBugReport(reader.nextString());
+            } else if (name.equals(LOGCAT)) {
+                test.setLog(reader.nextString());
+            } else if (name.equals(SCREENSHOT)) {
+                test.setScreenshot(reader.nextString());
+            } else if (name.equals(REPORT_LOG)) {
+                try {
+                    test.setReportLog(ReportLog.parse(reader.nextString()));
+                } catch (XmlPullParserException e) {
+                    throw new IOException("Failed to parse the report log of "
+                            + test.getFullName(), e);
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+}
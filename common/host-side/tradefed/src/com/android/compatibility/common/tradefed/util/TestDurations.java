@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.json.stream.JsonReader;
+import com.android.json.stream.JsonWriter;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The durations of the tests of each module, as measured by previous invocations.
+ * <p/>
+ * They are kept in the {@link #FILE_NAME} file of the results directory, as a JSON object of
+ * module ids to objects of test names, "class#method", to durations in ms. Each invocation
+ * updates the tests it ran, replacing all the durations of the modules it ran completely so
+ * removed tests do not linger, and the next one uses them to split the longest modules between
+ * shards.
+ */
+public class TestDurations {
+
+    public static final String FILE_NAME = "test_durations.json";
+    private static final String LOCK_EXT = ".lock";
+
+    private final Map<String, Map<String, Long>> mDurations = new TreeMap<>();
+
+    /**
+     * Records the duration of a test.
+     *
+     * @param test the test name, as "class#method".
+     */
+    public synchronized void put(String moduleId, String test, long duration) {
+        Map<String, Long> durations = mDurations.get(moduleId);
+        if (durations == null) {
+            durations = new TreeMap<>();
+            mDurations.put(moduleId, durations);
+        }
+        durations.put(test, duration);
+    }
+
+    /**
+     * Records the durations of {@code other}, replacing those of the same tests.
+     */
+    public void putAll(TestDurations other) {
+        Map<String, Map<String, Long>> durations;
+        synchronized (other) {
+            durations = new HashMap<>(other.mDurations);
+        }
+        for (Map.Entry<String, Map<String, Long>> module : durations.entrySet()) {
+            for (Map.Entry<String, Long> test : module.getValue().entrySet()) {
+                put(module.getKey(), test.getKey(), test.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the durations of the tests of {@code moduleId} in ms, empty if it never ran.
+     */
+    public synchronized Map<String, Long> get(String moduleId) {
+        Map<String, Long> durations = mDurations.get(moduleId);
+        return durations == null ? new HashMap<String, Long>() : new HashMap<>(durations);
+    }
+
+    /**
+     * @return true if no duration is recorded.
+     */
+    public synchronized boolean isEmpty() {
+        return mDurations.isEmpty();
+    }
+
+    synchronized void write(Writer out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+        for (Map.Entry<String, Map<String, Long>> module : mDurations.entrySet()) {
+            writer.name(module.getKey()).beginObject();
+            for (Map.Entry<String, Long> test : module.getValue().entrySet()) {
+                writer.name(test.getKey()).value(test.getValue());
+            }
+            writer.endObject();
+        }
+        writer.endObject();
+        writer.flush();
+    }
+
+    static TestDurations read(Reader in) throws IOException {
+        TestDurations durations = new TestDurations();
+        JsonReader reader = new JsonReader(in);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String moduleId = reader.nextName();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                durations.put(moduleId, reader.nextName(), reader.nextLong());
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        return durations;
+    }
+
+    /**
+     * @return the durations saved in {@code file}, or no durations if it does not exist or
+     * cannot be read.
+     */
+    public static TestDurations load(File file) {
+        if (!file.exists()) {
+            return new TestDurations();
+        }
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+            return read(reader);
+        } catch (IOException | RuntimeException e) {
+            CLog.w("Ignoring test durations in %s: %s", file.getAbsolutePath(), e.getMessage());
+            return new TestDurations();
+        } finally {
+            StreamUtil.close(reader);
+        }
+    }
+
+    /**
+     * Adds {@code latest} to the durations saved in {@code file}. The saved durations of the
+     * modules in {@code completeModules} are dropped first. The file is locked while it is
+     * updated, since invocations sharing the results directory may end at the same time.
+     */
+    public static void update(File file, TestDurations latest, Set<String> completeModules)
+            throws IOException {
+        // A file lock is held by the whole process, so it does not exclude other invocations of
+        // this harness
+        synchronized (TestDurations.class) {
+            FileOutputStream lockStream =
+                    new FileOutputStream(new File(file.getPath() + LOCK_EXT));
+            try {
+                FileLock lock = lockStream.getChannel().lock();
+                try {
+                    TestDurations durations = load(file);
+                    durations.removeAll(completeModules);
+                    durations.putAll(latest);
+                    durations.save(file);
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                lockStream.close();
+            }
+        }
+    }
+
+    private synchronized void removeAll(Set<String> moduleIds) {
+        mDurations.keySet().removeAll(moduleIds);
+    }
+
+    /**
+     * Saves the durations to {@code file}, replacing it in one rename.
+     */
+    public void save(File file) throws IOException {
+        File tmpFile = FileUtil.createTempFile("test_durations", ".json", file.getParentFile());
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmpFile),
+                StandardCharsets.UTF_8);
+        try {
+            write(writer);
+        } finally {
+            writer.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            FileUtil.deleteFile(tmpFile);
+            throw new IOException("Failed to write " + file.getAbsolutePath());
+        }
+    }
+}
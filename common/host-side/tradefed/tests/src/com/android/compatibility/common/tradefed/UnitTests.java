@@ -19,6 +19,7 @@ import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelperT
 import com.android.compatibility.common.tradefed.command.CompatibilityConsoleTest;
 import com.android.compatibility.common.tradefed.result.ConsoleReporterTest;
 import com.android.compatibility.common.tradefed.result.ResultReporterTest;
+import com.android.compatibility.common.tradefed.result.RunStatusTest;
 import com.android.compatibility.common.tradefed.result.SubPlanCreatorTest;
 import com.android.compatibility.common.tradefed.targetprep.PropertyCheckTest;
 import com.android.compatibility.common.tradefed.targetprep.SettingsPreparerTest;
@@ -26,7 +27,11 @@ import com.android.compatibility.common.tradefed.testtype.CompatibilityTestTest;
 import com.android.compatibility.common.tradefed.testtype.ModuleDefTest;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepoTest;
 import com.android.compatibility.common.tradefed.testtype.SubPlanTest;
+import com.android.compatibility.common.tradefed.util.InvocationTimelineTest;
+import com.android.compatibility.common.tradefed.util.ModuleCoordinatorTest;
+import com.android.compatibility.common.tradefed.util.ModuleResultJsonTest;
 import com.android.compatibility.common.tradefed.util.OptionHelperTest;
+import com.android.compatibility.common.tradefed.util.TestDurationsTest;
 import com.android.compatibility.common.tradefed.util.CollectorUtilTest;
 
 import junit.framework.Test;
@@ -46,15 +51,20 @@ public class UnitTests extends TestSuite {
         addTestSuite(CompatibilityTestTest.class);
         addTestSuite(ConsoleReporterTest.class);
         addTestSuite(ResultReporterTest.class);
+        addTestSuite(RunStatusTest.class);
         addTestSuite(CompatibilityTestTest.class);
         addTestSuite(OptionHelperTest.class);
         addTestSuite(CollectorUtilTest.class);
+        addTestSuite(InvocationTimelineTest.class);
+        addTestSuite(ModuleCoordinatorTest.class);
+        addTestSuite(ModuleResultJsonTest.class);
         addTestSuite(ModuleDefTest.class);
         addTestSuite(ModuleRepoTest.class);
         addTestSuite(PropertyCheckTest.class);
         addTestSuite(SettingsPreparerTest.class);
         addTestSuite(SubPlanTest.class);
         addTestSuite(SubPlanCreatorTest.class);
+        addTestSuite(TestDurationsTest.class);
     }
 
     public static Test suite() {
@@ -27,14 +27,17 @@ import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.build.BuildInfo;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.OptionSetter;
+import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.util.FileUtil;
 
 import junit.framework.TestCase;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ResultReporterTest extends TestCase {
 
@@ -303,6 +306,59 @@ public class ResultReporterTest extends TestCase {
                 result1.getResultStatus());
     }
 
+    public void testResultReporting_moduleTakenOver() throws Exception {
+        ResultReporter lostShard = new ResultReporter(mReporter);
+        ResultReporter takeoverShard = new ResultReporter(mReporter);
+        lostShard.invocationStarted(mBuildInfo);
+        takeoverShard.invocationStarted(mBuildInfo);
+        TestIdentifier test1 = new TestIdentifier(CLASS, METHOD_1);
+        TestIdentifier test2 = new TestIdentifier(CLASS, METHOD_2);
+        // The device of the first shard becomes unavailable after one of the two tests
+        lostShard.testRunStarted(ID, 2);
+        lostShard.testStarted(test1);
+        lostShard.testEnded(test1, new HashMap<String, String>());
+        lostShard.testRunFailed("error");
+        lostShard.testRunEnded(10, new HashMap<String, String>());
+        IModuleResult module = mReporter.getResult().getModules().get(0);
+        assertEquals(1, module.getNotExecuted());
+        lostShard.invocationFailed(new DeviceNotAvailableException("device lost"));
+        // The second shard takes the module over and runs all of its tests
+        takeoverShard.testRunStarted(ID, 2);
+        takeoverShard.testStarted(test1);
+        takeoverShard.testEnded(test1, new HashMap<String, String>());
+        takeoverShard.testStarted(test2);
+        takeoverShard.testEnded(test2, new HashMap<String, String>());
+        takeoverShard.testRunEnded(10, new HashMap<String, String>());
+        assertTrue(module.isDone());
+        assertEquals(0, module.getNotExecuted());
+        assertEquals(2, module.countResults(TestStatus.PASS));
+    }
+
+    public void testResultReporting_moduleIdAliases() throws Exception {
+        String alias = AbiUtils.createId("mips", NAME);
+        Map<String, List<String>> aliases = new HashMap<>();
+        aliases.put(ID, Arrays.asList(alias));
+        mBuildHelper.setModuleIdAliases(aliases);
+        mReporter.invocationStarted(mBuildInfo);
+        mReporter.testRunStarted(ID, 1);
+        TestIdentifier test1 = new TestIdentifier(CLASS, METHOD_1);
+        mReporter.testStarted(test1);
+        mReporter.testFailed(test1, STACK_TRACE);
+        mReporter.testEnded(test1, new HashMap<String, String>());
+        mReporter.testRunEnded(10, new HashMap<String, String>());
+        mReporter.invocationEnded(10);
+        IInvocationResult result = mReporter.getResult();
+        // The module ran once, its result is reported under both ABIs
+        List<IModuleResult> modules = result.getModules();
+        assertEquals("Expected 2 modules", 2, modules.size());
+        assertEquals("Expected 2 failures", 2, result.countResults(TestStatus.FAIL));
+        for (IModuleResult module : modules) {
+            assertTrue(module.isDone());
+            assertEquals(10, module.getRuntime());
+            assertEquals(STACK_TRACE, module.getResult(CLASS).getResult(METHOD_1).getStackTrace());
+        }
+    }
+
     public void testCopyFormattingFiles() throws Exception {
         File resultDir = new File(mBuildHelper.getResultsDir(), RESULT_DIR);
         resultDir.mkdirs();
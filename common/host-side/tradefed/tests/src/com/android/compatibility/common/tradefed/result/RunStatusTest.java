@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.result;
+
+import com.android.json.stream.JsonReader;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Unit tests for {@link RunStatus}
+ */
+public class RunStatusTest extends TestCase {
+
+    private static final String SERIAL = "run-status-test";
+    private static final String MODULE_1 = "arm64-v8a CtsFooTestCases";
+    private static final String MODULE_2 = "arm64-v8a CtsBarTestCases";
+    private static final String MODULE_3 = "arm64-v8a CtsBazTestCases";
+
+    public void testEstimatedTimeLeft() throws Exception {
+        RunStatus status = new RunStatus(SERIAL, 0);
+        status.addModule(MODULE_1, 1000);
+        status.addModule(MODULE_2, 2000);
+        status.addModule(MODULE_3, 3000);
+        assertEquals(6000, status.getEstimatedTimeLeft(0));
+
+        // The first module takes twice its hint, so the others are expected to as well
+        status.moduleStarted(MODULE_1, 1000, 0);
+        status.moduleEnded(MODULE_1, 2000);
+        assertEquals(10000, status.getEstimatedTimeLeft(2000));
+        status.moduleStarted(MODULE_2, 2000, 2000);
+        assertEquals(9000, status.getEstimatedTimeLeft(3000));
+        assertEquals(6000, status.getEstimatedTimeLeft(10000));
+        status.moduleEnded(MODULE_2, 10000);
+        assertEquals(2, status.getModulesDone());
+        assertEquals(3, status.getModulesTotal());
+        assertNull(status.getModuleId());
+    }
+
+    public void testEstimatedTimeLeft_chunks() throws Exception {
+        // The first module is split in two chunks, which share its id
+        RunStatus status = new RunStatus(SERIAL, 0);
+        status.addModule(MODULE_1, 1000);
+        status.addModule(MODULE_1, 3000);
+        status.addModule(MODULE_2, 2000);
+        assertEquals(3, status.getModulesTotal());
+        assertEquals(6000, status.getEstimatedTimeLeft(0));
+
+        status.moduleStarted(MODULE_1, 1000, 0);
+        status.moduleEnded(MODULE_1, 2000);
+        assertEquals(1, status.getModulesDone());
+        assertEquals(10000, status.getEstimatedTimeLeft(2000));
+        status.moduleStarted(MODULE_1, 3000, 2000);
+        assertEquals(9000, status.getEstimatedTimeLeft(3000));
+        status.moduleEnded(MODULE_1, 8000);
+        assertEquals(2, status.getModulesDone());
+        assertEquals(4000, status.getEstimatedTimeLeft(8000));
+        status.moduleStarted(MODULE_2, 2000, 8000);
+        status.moduleEnded(MODULE_2, 12000);
+        assertEquals(3, status.getModulesDone());
+        assertEquals(0, status.getEstimatedTimeLeft(12000));
+    }
+
+    public void testEstimatedTimeLeft_noHints() throws Exception {
+        RunStatus status = new RunStatus(SERIAL, 0);
+        status.addModule(MODULE_1, 0);
+        assertEquals(-1, status.getEstimatedTimeLeft(0));
+        status.moduleStarted(MODULE_1, 0, 0);
+        status.moduleEnded(MODULE_1, 1000);
+        assertEquals(0, status.getEstimatedTimeLeft(1000));
+    }
+
+    public void testTestsPerSecond() throws Exception {
+        RunStatus status = new RunStatus(SERIAL, 0);
+        assertEquals(0.0, status.getTestsPerSecond(1000));
+        for (int i = 1; i <= 10; i++) {
+            status.testEnded(i % 5 == 0, i * 100);
+        }
+        assertEquals(10, status.getTestsDone());
+        assertEquals(2, status.getTestsFailed());
+        assertEquals(10.0, status.getTestsPerSecond(1000), 0.001);
+
+        // Only the last tests count once the window is full
+        for (int i = 1; i <= 1000; i++) {
+            status.testEnded(false, 1000 + i * 10);
+        }
+        assertEquals(100.0, status.getTestsPerSecond(11000), 0.001);
+    }
+
+    public void testWriteAll() throws Exception {
+        RunStatus status = RunStatus.start(SERIAL);
+        try {
+            status.addModule(MODULE_1, 1000);
+            status.moduleStarted(MODULE_1, 1000);
+            status.testEnded(true);
+            StringWriter out = new StringWriter();
+            RunStatus.writeAll(out, System.currentTimeMillis());
+
+            JsonReader reader = new JsonReader(new StringReader(out.toString()));
+            reader.beginObject();
+            assertEquals("time", reader.nextName());
+            reader.skipValue();
+            assertEquals("devices", reader.nextName());
+            reader.beginArray();
+            boolean found = false;
+            while (reader.hasNext()) {
+                reader.beginObject();
+                assertEquals("serial", reader.nextName());
+                if (!reader.nextString().equals(SERIAL)) {
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endObject();
+                    continue;
+                }
+                found = true;
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("module")) {
+                        assertEquals(MODULE_1, reader.nextString());
+                    } else if (name.equals("modules_total")) {
+                        assertEquals(1, reader.nextInt());
+                    } else if (name.equals("tests_failed")) {
+                        assertEquals(1, reader.nextInt());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+            reader.endObject();
+            assertTrue("No status for " + SERIAL, found);
+        } finally {
+            RunStatus.remove(SERIAL);
+        }
+    }
+
+    public void testFinish() throws Exception {
+        String other = SERIAL + "-2";
+        RunStatus.start(SERIAL);
+        RunStatus.start(other);
+        try {
+            assertFalse(RunStatus.finish(SERIAL));
+            assertTrue(RunStatus.forDevice(SERIAL).isFinished());
+            assertFalse(RunStatus.forDevice(other).isFinished());
+            assertTrue(RunStatus.finish(other));
+            RunStatus.removeFinished();
+            for (RunStatus status : RunStatus.getAll()) {
+                assertFalse(status.getSerial().equals(SERIAL));
+                assertFalse(status.getSerial().equals(other));
+            }
+        } finally {
+            RunStatus.remove(SERIAL);
+            RunStatus.remove(other);
+        }
+    }
+
+    public void testWriteStatusFile() throws Exception {
+        File dir = FileUtil.createTempDir("run-status");
+        try {
+            RunStatus.writeStatusFile(dir);
+            assertTrue(new File(dir, RunStatus.STATUS_FILE_NAME).isFile());
+            // only the status file is left in the directory
+            assertEquals(1, dir.list().length);
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+}
@@ -19,8 +19,10 @@ package com.android.compatibility.common.tradefed.testtype;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildProvider;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepo.ConfigFilter;
 import com.android.compatibility.common.tradefed.testtype.IModuleDef;
+import com.android.compatibility.common.tradefed.util.TestDurations;
 import com.android.compatibility.common.util.AbiUtils;
 import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.config.OptionSetter;
 import com.android.tradefed.testtype.IAbi;
 import com.android.tradefed.testtype.IRemoteTest;
 import com.android.tradefed.testtype.IShardableTest;
@@ -32,10 +34,12 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class ModuleRepoTest extends TestCase {
 
@@ -50,10 +54,17 @@ public class ModuleRepoTest extends TestCase {
             "<option name=\"module\" value=\"%s\" />" +
             "</test>\n" +
             "</configuration>";
+    private static final String ABI_INDEPENDENT_CONFIG =
+            "<configuration description=\"Auto Generated File\">\n" +
+            "<test class=\"com.android.compatibility.common.tradefed.testtype.JarHostTest\">\n" +
+            "<option name=\"abi-independent\" value=\"true\" />" +
+            "</test>\n" +
+            "</configuration>";
     private static final String FOOBAR_TOKEN = "foobar";
     private static final String SERIAL1 = "abc";
     private static final String SERIAL2 = "def";
     private static final String SERIAL3 = "ghi";
+    private static final long WAIT = 60 * 1000; // Time to wait for released modules
     private static final Set<String> SERIALS = new HashSet<>();
     private static final Set<IAbi> ABIS = new HashSet<>();
     private static final List<String> DEVICE_TOKENS = new ArrayList<>();
@@ -74,6 +85,9 @@ public class ModuleRepoTest extends TestCase {
     private static final String ID_B_64 = AbiUtils.createId(ABI_64, MODULE_NAME_B);
     private static final String ID_C_32 = AbiUtils.createId(ABI_32, MODULE_NAME_C);
     private static final String ID_C_64 = AbiUtils.createId(ABI_64, MODULE_NAME_C);
+    private static final String MODULE_NAME_D = "FooModuleD";
+    private static final String ID_D_32 = AbiUtils.createId(ABI_32, MODULE_NAME_D);
+    private static final String ID_D_64 = AbiUtils.createId(ABI_64, MODULE_NAME_D);
     private static final String TEST_ARG = TestStub.class.getName() + ":foo:bar";
     private static final String MODULE_ARG = "%s:blah:foobar";
     private static final String TEST_STUB = "TestStub"; // Trivial test stub
@@ -282,6 +296,172 @@ public class ModuleRepoTest extends TestCase {
         assertFalse(mRepo.isPrepared());
     }
 
+    public void testReleasedModules() throws Exception {
+        mRepo.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        List<IModuleDef> serial1Modules = mRepo.getModules(SERIAL1);
+        List<IModuleDef> serial2Modules = mRepo.getModules(SERIAL2);
+        List<IModuleDef> serial3Modules = mRepo.getModules(SERIAL3);
+        for (IModuleDef module : serial1Modules) {
+            mRepo.moduleFinished(SERIAL1, module);
+        }
+        // Serial 2 becomes unavailable while running its second module
+        mRepo.moduleFinished(SERIAL2, serial2Modules.get(0));
+        mRepo.releaseModules(SERIAL2);
+
+        IModuleDef released = mRepo.getReleasedModule(SERIAL1, WAIT);
+        assertSame("Wrong released module", serial2Modules.get(1), released);
+        mRepo.moduleFinished(SERIAL1, released);
+
+        // Serial 1 waits for serial 3, which could still release its modules
+        final IModuleDef[] next = new IModuleDef[] { released };
+        Thread serial1 = new Thread() {
+            @Override
+            public void run() {
+                next[0] = mRepo.getReleasedModule(SERIAL1, WAIT);
+            }
+        };
+        serial1.start();
+        for (IModuleDef module : serial3Modules) {
+            mRepo.moduleFinished(SERIAL3, module);
+        }
+        assertNull("Unexpected released module", mRepo.getReleasedModule(SERIAL3, WAIT));
+        serial1.join(5000);
+        assertFalse("Serial 1 still waiting", serial1.isAlive());
+        assertNull("Unexpected released module", next[0]);
+    }
+
+    public void testReleasedModules_tokens() throws Exception {
+        mRepo.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        mRepo.getModules(SERIAL1);
+        mRepo.getModules(SERIAL2);
+        mRepo.getModules(SERIAL3);
+        mRepo.releaseModules(SERIAL2);
+        mRepo.releaseModules(SERIAL3);
+        // Only serial 3 has the token for the modules it released, serial 2's are free to take
+        List<String> taken = new ArrayList<>();
+        IModuleDef module;
+        while ((module = mRepo.getReleasedModule(SERIAL1, WAIT)) != null) {
+            taken.add(module.getName());
+            mRepo.moduleFinished(SERIAL1, module);
+        }
+        assertEquals("Wrong number of released modules", 2, taken.size());
+        assertFalse("Module with tokens released", taken.contains(MODULE_NAME_C));
+    }
+
+    public void testReleasedModules_timeout() throws Exception {
+        mRepo.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        mRepo.getModules(SERIAL1);
+        mRepo.getModules(SERIAL2);
+        mRepo.getModules(SERIAL3);
+        // Serials 2 and 3 are still running, serial 1 gives up waiting for them
+        long start = System.currentTimeMillis();
+        assertNull("Unexpected released module", mRepo.getReleasedModule(SERIAL1, 100));
+        assertTrue("Returned before the timeout", System.currentTimeMillis() - start >= 100);
+    }
+
+    public void testSplitTests() throws Exception {
+        Map<String, Long> durations = new HashMap<>();
+        durations.put("FooTest#testA", 600L);
+        durations.put("FooTest#testB", 500L);
+        durations.put("FooTest#testC", 400L);
+        durations.put("FooTest#testD", 300L);
+        durations.put("FooTest#testE", 200L);
+        durations.put("FooTest#testF", 50L);
+        durations.put("FooTest#testG", 200L);
+        List<List<String>> chunks = ModuleRepo.splitTests(durations, 3);
+        // The shortest chunk comes first, it also runs the tests without duration
+        assertEquals(3, chunks.size());
+        assertEquals(Arrays.asList("FooTest#testC", "FooTest#testD"), chunks.get(0));
+        assertEquals(Arrays.asList("FooTest#testA", "FooTest#testG"), chunks.get(1));
+        assertEquals(Arrays.asList("FooTest#testB", "FooTest#testE", "FooTest#testF"),
+                chunks.get(2));
+    }
+
+    public void testTestChunks() throws Exception {
+        TestDurations durations = new TestDurations();
+        durations.put(ID_A_64, "FooTest#testA", TimeUnit.MINUTES.toMillis(20));
+        durations.put(ID_A_64, "FooTest#testB", TimeUnit.MINUTES.toMillis(10));
+        durations.put(ID_A_64, "BarTest#testA", TimeUnit.MINUTES.toMillis(10));
+        durations.put(ID_A_64, "BazTest#testA", TimeUnit.MINUTES.toMillis(10));
+        mRepo.setTestDurations(durations);
+        mRepo.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        List<IModuleDef> defs = mRepo.getModuleDefs(ID_A_64);
+        assertEquals("Wrong number of chunks", 3, defs.size());
+        // Chunks filter classes, the first one runs all the classes the others don't
+        TestStub first = (TestStub) defs.get(0).getTest();
+        assertTrue(first.mIncludeFilters.isEmpty());
+        assertEquals(new HashSet<>(Arrays.asList("FooTest", "BazTest")), first.mExcludeFilters);
+        TestStub second = (TestStub) defs.get(1).getTest();
+        assertEquals(new HashSet<>(Arrays.asList("FooTest")), second.mIncludeFilters);
+        assertTrue(second.mExcludeFilters.isEmpty());
+        assertEquals(TimeUnit.MINUTES.toMillis(30), defs.get(1).getRuntimeHint());
+        TestStub third = (TestStub) defs.get(2).getTest();
+        assertEquals(new HashSet<>(Arrays.asList("BazTest")), third.mIncludeFilters);
+        // Modules without durations are not split
+        assertEquals(1, mRepo.getModuleDefs(ID_A_32).size());
+    }
+
+    public void testTestChunks_tooManyFilters() throws Exception {
+        TestDurations durations = new TestDurations();
+        for (int i = 0; i <= 2 * ModuleRepo.MAX_CHUNK_FILTERS; i++) {
+            durations.put(ID_A_64, "FooTest" + i + "#test", TimeUnit.MINUTES.toMillis(1));
+        }
+        mRepo.setTestDurations(durations);
+        mRepo.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        assertEquals("Module split", 1, mRepo.getModuleDefs(ID_A_64).size());
+    }
+
+    public void testGetClassDurations() throws Exception {
+        Map<String, Long> durations = new HashMap<>();
+        durations.put("FooTest#testA", 600L);
+        durations.put("FooTest#testB", 500L);
+        durations.put("BarTest#testA", 400L);
+        Map<String, Long> classDurations = ModuleRepo.getClassDurations(durations);
+        assertEquals(2, classDurations.size());
+        assertEquals(1100L, (long) classDurations.get("FooTest"));
+        assertEquals(400L, (long) classDurations.get("BarTest"));
+    }
+
+    public void testSortAbis() throws Exception {
+        List<IAbi> sorted = ModuleRepo.sortAbis(ABIS);
+        assertEquals(2, sorted.size());
+        assertEquals(ABI_64, sorted.get(0).getName());
+        assertEquals(ABI_32, sorted.get(1).getName());
+    }
+
+    public void testIsAbiIndependent() throws Exception {
+        List<IRemoteTest> tests = new ArrayList<>();
+        assertFalse("Module without tests", ModuleRepo.isAbiIndependent(tests));
+        JarHostTest jarTest = new JarHostTest();
+        tests.add(jarTest);
+        assertFalse("Option not set", ModuleRepo.isAbiIndependent(tests));
+        new OptionSetter(jarTest).setOptionValue("abi-independent", "true");
+        assertTrue("Option set", ModuleRepo.isAbiIndependent(tests));
+        tests.add(new TestStub());
+        assertFalse("Test without the option", ModuleRepo.isAbiIndependent(tests));
+    }
+
+    public void testAbiIndependentModule() throws Exception {
+        FileUtil.writeToFile(ABI_INDEPENDENT_CONFIG,
+                new File(mTestsDir, String.format(FILENAME, MODULE_NAME_D)));
+        mRepo.initialize(1, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        // Runs for the 64 bit ABI only, and its results are reported for the 32 bit one too
+        assertEquals(1, mRepo.getModuleDefs(ID_D_64).size());
+        assertTrue("Module ran for 32 bit ABI", mRepo.getModuleDefs(ID_D_32).isEmpty());
+        assertEquals(Arrays.asList(ID_D_32), mRepo.getModuleIdAliases().get(ID_D_64));
+        assertTrue(Arrays.asList(mRepo.getModuleIds()).contains(ID_D_32));
+        // Other modules still run for every ABI
+        assertEquals(1, mRepo.getModuleDefs(ID_A_32).size());
+        assertEquals(1, mRepo.getModuleDefs(ID_A_64).size());
+        assertNull(mRepo.getModuleIdAliases().get(ID_A_64));
+    }
+
     private void assertArrayEquals(Object[] expected, Object[] actual) {
         assertEquals(Arrays.asList(expected), Arrays.asList(actual));
     }
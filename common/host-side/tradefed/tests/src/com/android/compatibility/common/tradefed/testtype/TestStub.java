@@ -27,6 +27,7 @@ import com.android.tradefed.testtype.IShardableTest;
 import com.android.tradefed.testtype.ITestCollector;
 import com.android.tradefed.testtype.ITestFilterReceiver;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -40,6 +41,9 @@ public class TestStub implements IRemoteTest, IAbiReceiver, IRuntimeHintProvider
     @Option(name = "blah")
     String mBlah;
 
+    Set<String> mIncludeFilters = new HashSet<>();
+    Set<String> mExcludeFilters = new HashSet<>();
+
     /**
      * {@inheritDoc}
      */
@@ -65,22 +69,22 @@ public class TestStub implements IRemoteTest, IAbiReceiver, IRuntimeHintProvider
 
     @Override
     public void addIncludeFilter(String filter) {
-
+        mIncludeFilters.add(filter);
     }
 
     @Override
     public void addAllIncludeFilters(Set<String> filters) {
-
+        mIncludeFilters.addAll(filters);
     }
 
     @Override
     public void addExcludeFilter(String filter) {
-
+        mExcludeFilters.add(filter);
     }
 
     @Override
     public void addAllExcludeFilters(Set<String> filters) {
-
+        mExcludeFilters.addAll(filters);
     }
 
 }
@@ -15,8 +15,21 @@
  */
 package com.android.compatibility.common.tradefed.util;
 
+import com.android.tradefed.util.FileUtil;
+
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
 /**
  * Unit tests for {@link CollectorUtil}
  */
@@ -47,4 +60,126 @@ public class CollectorUtilTest extends TestCase {
         String reformattedJson = CollectorUtil.reformatJsonString(UNFORMATTED_JSON);
         assertEquals(reformattedJson, REFORMATTED_JSON);
     }
+
+    public void testReformatJson_spillsToFiles() throws Exception {
+        StringWriter out = new StringWriter();
+        CollectorUtil.reformatJson(new StringReader(UNFORMATTED_JSON), out, 0);
+        assertEquals(REFORMATTED_JSON, out.toString());
+    }
+
+    public void testReformatJson_alreadyReformatted() throws Exception {
+        String json = "{\"stream_name_1\":[{\"id\":1,\"values\":[1.5,2]}],"
+                + "\"stream_name_1\":{\"id\":2,\"key1\":null,\"ok\":true}}";
+        assertEquals("{\"stream_name_1\":["
+                + "{\"id\":1,\"values\":[1.5,2]},{\"id\":2,\"key1\":null,\"ok\":true}]}",
+                CollectorUtil.reformatJsonString(json));
+        assertEquals(CollectorUtil.reformatJsonString(json),
+                CollectorUtil.reformatJsonString(CollectorUtil.reformatJsonString(json)));
+    }
+
+    public void testReformatJson_keepsNumberLiterals() throws Exception {
+        String json = "{\"stream_name_1\":{\"values\":[1e3,-0.10,12345678901234567890123]}}";
+        assertEquals("{\"stream_name_1\":[{\"values\":[1e3,-0.10,12345678901234567890123]}]}",
+                CollectorUtil.reformatJsonString(json));
+    }
+
+    public void testReformatRepeatedStreams() throws Exception {
+        File dir = FileUtil.createTempDir("reportlogs");
+        try {
+            File first = new File(dir, "first.reportlog.json");
+            File second = new File(dir, "second.reportlog.json");
+            FileUtil.writeToFile(UNFORMATTED_JSON, first);
+            FileUtil.writeToFile("{\"stream_name_3\":{\"id\":3}}", second);
+            CollectorUtil.reformatRepeatedStreams(dir);
+            assertEquals(REFORMATTED_JSON, FileUtil.readStringFromFile(first));
+            assertEquals("{\"stream_name_3\":[{\"id\":3}]}",
+                    FileUtil.readStringFromFile(second));
+            assertEquals(2, dir.listFiles().length);
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+
+    public void testParseStatOutput() throws Exception {
+        Map<String, CollectorUtil.DeviceFile> files = CollectorUtil.parseStatOutput(
+                "regular file|120|1467072000|a.deviceinfo.json\r\n"
+                + "directory|4096|1467072000|subdir\n"
+                + "regular empty file|0|1467072001|empty file.json\n");
+        assertEquals(2, files.size());
+        assertEquals(120, files.get("a.deviceinfo.json").mSize);
+        assertEquals(1467072000, files.get("a.deviceinfo.json").mModifiedSecs);
+        assertEquals(0, files.get("empty file.json").mSize);
+        assertFalse(files.containsKey("subdir"));
+    }
+
+    public void testUnpackArchive() throws Exception {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        writeTarEntry(tar, "./", '5', new byte[0], 1467072000);
+        writeTarEntry(tar, "./first.json", '0', utf8("{\"a\":1}"), 1467072000);
+        writeTarEntry(tar, "./second.json", '0', new byte[700], 1467072100);
+        writeTarEntry(tar, "./skipped.json", '0', utf8("skip"), 1467072000);
+        tar.write(new byte[1024]);
+        File dir = FileUtil.createTempDir("collector");
+        try {
+            long bytes = CollectorUtil.unpackArchive(new ByteArrayInputStream(tar.toByteArray()),
+                    dir, new HashSet<>(Arrays.asList("first.json", "second.json")));
+            assertEquals(707, bytes);
+            File first = new File(dir, "first.json");
+            assertEquals("{\"a\":1}", FileUtil.readStringFromFile(first));
+            assertEquals(1467072000000L, first.lastModified());
+            File second = new File(dir, "second.json");
+            assertEquals(700, second.length());
+            assertTrue(new CollectorUtil.DeviceFile(700, 1467072100).isSameAs(second));
+            assertFalse(new File(dir, "skipped.json").exists());
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+
+    public void testUnpackArchive_truncated() throws Exception {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        writeTarEntry(tar, "first.json", '0', new byte[1000], 1467072000);
+        byte[] truncated = Arrays.copyOf(tar.toByteArray(), 1024);
+        File dir = FileUtil.createTempDir("collector");
+        try {
+            CollectorUtil.unpackArchive(new ByteArrayInputStream(truncated), dir, null);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a ustar entry with the given content, padded to the block size.
+     */
+    private static void writeTarEntry(ByteArrayOutputStream out, String name, char type,
+            byte[] content, long modifiedSecs) throws IOException {
+        byte[] header = new byte[512];
+        byte[] nameBytes = utf8(name);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 124, 12, content.length);
+        putOctal(header, 136, 12, modifiedSecs);
+        header[156] = (byte) type;
+        System.arraycopy(utf8("ustar"), 0, header, 257, 5);
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        putOctal(header, 148, 7, checksum);
+        out.write(header);
+        out.write(content);
+        out.write(new byte[(512 - content.length % 512) % 512]);
+    }
+
+    private static void putOctal(byte[] buffer, int offset, int length, long value) {
+        String octal = String.format("%0" + (length - 1) + "o", value);
+        System.arraycopy(utf8(octal), 0, buffer, offset, length - 1);
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.json.stream.JsonReader;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link InvocationTimeline}
+ */
+public class InvocationTimelineTest extends TestCase {
+
+    private static final long MS = 1000000;
+
+    public void testSummarize() throws Exception {
+        InvocationTimeline first = new InvocationTimeline("device1");
+        first.add("test", "arm64-v8a CtsFooTestCases", 0, 30 * MS, 1);
+        first.add("ApkInstaller.setUp", "arm64-v8a CtsFooTestCases", 0, 5 * MS, 1);
+        InvocationTimeline second = new InvocationTimeline("device2");
+        second.add("test", "arm64-v8a CtsBarTestCases", 10 * MS, 22 * MS, 2);
+        Map<String, String> summary = InvocationTimeline.summarize(Arrays.asList(first, second));
+        assertEquals("{ApkInstaller.setUp_count=1, ApkInstaller.setUp_ms=5, test_count=2, "
+                + "test_ms=42}", summary.toString());
+    }
+
+    public void testSpan() throws Exception {
+        InvocationTimeline timeline = InvocationTimeline.start("serial");
+        try {
+            assertSame(timeline, InvocationTimeline.forDevice("serial"));
+            InvocationTimeline.Span span = timeline.begin("reboot", null);
+            span.end();
+            span.end();
+            assertEquals(1, timeline.size());
+            assertNotSame(timeline, InvocationTimeline.start("serial"));
+        } finally {
+            InvocationTimeline.remove("serial");
+        }
+        assertNull(InvocationTimeline.remove("serial"));
+    }
+
+    public void testWriteTrace() throws Exception {
+        InvocationTimeline timeline = new InvocationTimeline("device1");
+        timeline.add("test", "arm64-v8a CtsFooTestCases", 0, 30 * MS, 7);
+        timeline.add("prepare", null, 0, 1 * MS, 7);
+        StringWriter out = new StringWriter();
+        InvocationTimeline.writeTrace(Arrays.asList(timeline), out);
+
+        List<String> events = new ArrayList<>();
+        JsonReader reader = new JsonReader(new StringReader(out.toString()));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("traceEvents")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                StringBuilder event = new StringBuilder();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("ts") || name.equals("args")) {
+                        reader.skipValue();
+                    } else {
+                        event.append(name).append('=').append(reader.nextString()).append(' ');
+                    }
+                }
+                reader.endObject();
+                events.add(event.toString().trim());
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        assertEquals(Arrays.asList(
+                "name=process_name ph=M pid=1",
+                "name=test ph=X dur=30000 pid=1 tid=7",
+                "name=prepare ph=X dur=1000 pid=1 tid=7"), events);
+    }
+}
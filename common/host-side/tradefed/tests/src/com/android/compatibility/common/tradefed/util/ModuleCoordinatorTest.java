@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.compatibility.common.util.ModuleResult;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link ModuleCoordinator}
+ */
+public class ModuleCoordinatorTest extends TestCase {
+
+    private static final String MODULE_1 = "arm64-v8a CtsFooTestCases";
+    private static final String MODULE_2 = "arm64-v8a CtsBarTestCases";
+    private static final String MODULE_3 = "arm64-v8a CtsBazTestCases";
+    private static final String WORKER_1 = "host1/serial1";
+    private static final String WORKER_2 = "host2/serial2";
+    private static final String TOKEN = "s3cr3t";
+    private static final Map<String, String> IDENTITY = new HashMap<>();
+    static {
+        IDENTITY.put("plan", "cts");
+        IDENTITY.put("build_fingerprint", "google/foo/bar:7.0/NRD90M/1:user/release-keys");
+    }
+
+    private ModuleCoordinator mCoordinator;
+
+    @Override
+    public void setUp() throws Exception {
+        mCoordinator = new ModuleCoordinator(TOKEN);
+        mCoordinator.start(0, false);
+        mCoordinator.setIdentity(IDENTITY);
+        Map<String, Long> hints = new HashMap<>();
+        hints.put(MODULE_1, 100L);
+        hints.put(MODULE_2, 300L);
+        hints.put(MODULE_3, 200L);
+        mCoordinator.setModules(hints);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mCoordinator.stop();
+    }
+
+    public void testTakeModule() throws Exception {
+        // The longest modules go first
+        assertEquals(MODULE_2, mCoordinator.takeModule(WORKER_1));
+        assertEquals(MODULE_3, mCoordinator.takeModule(WORKER_2));
+        mCoordinator.moduleFinished(WORKER_1, MODULE_2);
+        assertEquals(MODULE_1, mCoordinator.takeModule(WORKER_1));
+        mCoordinator.moduleFinished(WORKER_1, MODULE_1);
+        mCoordinator.moduleFinished(WORKER_2, MODULE_3);
+        assertNull(mCoordinator.takeModule(WORKER_1));
+        assertNull(mCoordinator.takeModule(WORKER_2));
+    }
+
+    public void testModuleSkipped() throws Exception {
+        assertEquals(MODULE_2, mCoordinator.takeModule(WORKER_1));
+        mCoordinator.moduleSkipped(WORKER_1, MODULE_2);
+        assertEquals(MODULE_3, mCoordinator.takeModule(WORKER_1));
+        assertEquals(MODULE_2, mCoordinator.takeModule(WORKER_2));
+    }
+
+    public void testRelease() throws Exception {
+        assertEquals(MODULE_2, mCoordinator.takeModule(WORKER_1));
+        assertEquals(MODULE_3, mCoordinator.takeModule(WORKER_2));
+        assertEquals(MODULE_1, mCoordinator.takeModule(WORKER_2));
+        mCoordinator.release(WORKER_1);
+        assertEquals(MODULE_2, mCoordinator.takeModule(WORKER_2));
+    }
+
+    public void testRemoteWorker() throws Exception {
+        final List<IModuleResult> results = new ArrayList<>();
+        mCoordinator.setResultListener(new ModuleCoordinator.ResultListener() {
+            @Override
+            public void moduleResult(IModuleResult result) {
+                synchronized (results) {
+                    results.add(result);
+                }
+            }
+        });
+        CoordinatorClient client = new CoordinatorClient("localhost:" + mCoordinator.getPort(),
+                TOKEN, IDENTITY);
+        try {
+            assertEquals(MODULE_2, client.takeModule(WORKER_1));
+            IModuleResult result = new ModuleResult(MODULE_2);
+            result.getOrCreateResult("com.android.bar.BarTest").getOrCreateResult("testBar")
+                    .passed(null);
+            client.moduleResult(result);
+            client.moduleFinished(WORKER_1, MODULE_2);
+            assertEquals(MODULE_3, client.takeModule(WORKER_1));
+        } finally {
+            client.close();
+        }
+        synchronized (results) {
+            assertEquals(1, results.size());
+            assertEquals(MODULE_2, results.get(0).getId());
+            assertEquals(1, results.get(0).getResults().size());
+        }
+        // The worker of the closed connection is released, so its module goes to the next one
+        Set<String> taken = new HashSet<>();
+        taken.add(mCoordinator.takeModule(WORKER_2));
+        taken.add(mCoordinator.takeModule(WORKER_2));
+        assertEquals(new HashSet<>(Arrays.asList(MODULE_1, MODULE_3)), taken);
+    }
+
+    public void testRemoteWorker_wrongToken() throws Exception {
+        CoordinatorClient client = new CoordinatorClient("localhost:" + mCoordinator.getPort(),
+                "guess", IDENTITY);
+        try {
+            client.takeModule(WORKER_1);
+            fail("Expected the worker to be rejected");
+        } catch (IOException expected) {
+        } finally {
+            client.close();
+        }
+        client = new CoordinatorClient("localhost:" + mCoordinator.getPort(), "guess", null);
+        try {
+            client.moduleResult(new ModuleResult(MODULE_2));
+            fail("Expected the result to be rejected");
+        } catch (IOException expected) {
+        } finally {
+            client.close();
+        }
+        assertEquals(MODULE_2, mCoordinator.takeModule(WORKER_2));
+    }
+
+    public void testRemoteWorker_otherIdentity() throws Exception {
+        Map<String, String> identity = new HashMap<>(IDENTITY);
+        identity.put("build_fingerprint", "google/foo/bar:7.0/NRD90M/2:user/release-keys");
+        CoordinatorClient client = new CoordinatorClient("localhost:" + mCoordinator.getPort(),
+                TOKEN, identity);
+        try {
+            client.takeModule(WORKER_1);
+            fail("Expected the worker to be rejected");
+        } catch (IOException expected) {
+        } finally {
+            client.close();
+        }
+        assertEquals(MODULE_2, mCoordinator.takeModule(WORKER_2));
+    }
+
+    public void testRemoteWorker_resultsOnly() throws Exception {
+        CoordinatorClient client = new CoordinatorClient("localhost:" + mCoordinator.getPort(),
+                TOKEN, null);
+        try {
+            client.moduleResult(new ModuleResult(MODULE_2));
+            client.takeModule(WORKER_1);
+            fail("Expected a worker without identity to be refused modules");
+        } catch (IOException expected) {
+        } finally {
+            client.close();
+        }
+    }
+
+    public void testStart_loopbackOnly() throws Exception {
+        assertTrue(mCoordinator.getAddress().isLoopbackAddress());
+        ModuleCoordinator coordinator = new ModuleCoordinator(null);
+        try {
+            coordinator.start(0, true);
+            fail("Expected a token to be required on all interfaces");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.compatibility.common.util.ICaseResult;
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.compatibility.common.util.ITestResult;
+import com.android.compatibility.common.util.ModuleResult;
+import com.android.compatibility.common.util.ReportLog;
+import com.android.compatibility.common.util.ResultType;
+import com.android.compatibility.common.util.ResultUnit;
+import com.android.compatibility.common.util.TestStatus;
+import com.android.json.stream.JsonReader;
+import com.android.json.stream.JsonWriter;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Unit tests for {@link ModuleResultJson}
+ */
+public class ModuleResultJsonTest extends TestCase {
+
+    private static final String MODULE_ID = "armeabi-v7a CtsFooTestCases";
+    private static final String CLASS = "com.android.foo.FooTest";
+    private static final String STACK = "java.lang.AssertionError: expected:<1> but was:<2>\n"
+            + "\tat com.android.foo.FooTest.testFail(FooTest.java:42)";
+
+    public void testRoundTrip() throws Exception {
+        IModuleResult module = new ModuleResult(MODULE_ID);
+        module.addRuntime(1234);
+        module.setDone(false);
+        module.setNotExecuted(3);
+        ICaseResult caseResult = module.getOrCreateResult(CLASS);
+        ReportLog report = new ReportLog("foo", "bar");
+        report.setSummary("baz", 1.5, ResultType.HIGHER_BETTER, ResultUnit.MS);
+        caseResult.getOrCreateResult("testPass").passed(report);
+        ITestResult failed = caseResult.getOrCreateResult("testFail");
+        failed.failed(STACK);
+        failed.setBugReport("bugreport.zip");
+
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+        ModuleResultJson.write(module, writer);
+        writer.flush();
+        assertEquals("Expected the result on one line", -1, json.toString().indexOf('\n'));
+        IModuleResult read = ModuleResultJson.read(new JsonReader(new StringReader(
+                json.toString())));
+
+        assertEquals(MODULE_ID, read.getId());
+        assertEquals(1234, read.getRuntime());
+        assertFalse(read.isDone());
+        assertEquals(3, read.getNotExecuted());
+        assertEquals(1, read.countResults(TestStatus.PASS));
+        assertEquals(1, read.countResults(TestStatus.FAIL));
+        ITestResult readFailed = read.getResult(CLASS).getResult("testFail");
+        assertEquals(STACK, readFailed.getStackTrace());
+        assertEquals(failed.getMessage(), readFailed.getMessage());
+        assertEquals("bugreport.zip", readFailed.getBugReport());
+        assertNull(readFailed.getLog());
+        ReportLog readReport = read.getResult(CLASS).getResult("testPass").getReportLog();
+        assertNotNull(readReport);
+        assertEquals(1.5, readReport.getSummary().getValues()[0], 0.0);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link TestDurations}
+ */
+public class TestDurationsTest extends TestCase {
+
+    private static final String MODULE_1 = "arm64-v8a CtsFooTestCases";
+    private static final String MODULE_2 = "arm64-v8a CtsBarTestCases";
+
+    public void testReadWrite() throws Exception {
+        TestDurations durations = new TestDurations();
+        durations.put(MODULE_1, "com.android.foo.FooTest#testFoo", 1500);
+        durations.put(MODULE_1, "com.android.foo.FooTest#testBar", 20);
+        durations.put(MODULE_2, "com.android.bar.BarTest#testBar", 300);
+        StringWriter out = new StringWriter();
+        durations.write(out);
+
+        TestDurations read = TestDurations.read(new StringReader(out.toString()));
+        Map<String, Long> module1 = read.get(MODULE_1);
+        assertEquals(2, module1.size());
+        assertEquals(1500, (long) module1.get("com.android.foo.FooTest#testFoo"));
+        assertEquals(20, (long) module1.get("com.android.foo.FooTest#testBar"));
+        assertEquals(300, (long) read.get(MODULE_2).get("com.android.bar.BarTest#testBar"));
+        assertTrue(read.get("arm64-v8a CtsBazTestCases").isEmpty());
+    }
+
+    public void testPutAll() throws Exception {
+        TestDurations previous = new TestDurations();
+        previous.put(MODULE_1, "com.android.foo.FooTest#testFoo", 1500);
+        previous.put(MODULE_1, "com.android.foo.FooTest#testBar", 20);
+        TestDurations latest = new TestDurations();
+        latest.put(MODULE_1, "com.android.foo.FooTest#testFoo", 1000);
+        previous.putAll(latest);
+        // The latest durations replace the previous ones, the others are kept
+        Map<String, Long> module1 = previous.get(MODULE_1);
+        assertEquals(1000, (long) module1.get("com.android.foo.FooTest#testFoo"));
+        assertEquals(20, (long) module1.get("com.android.foo.FooTest#testBar"));
+    }
+
+    public void testUpdate() throws Exception {
+        File dir = FileUtil.createTempDir("test_durations");
+        try {
+            File file = new File(dir, TestDurations.FILE_NAME);
+            TestDurations previous = new TestDurations();
+            previous.put(MODULE_1, "com.android.foo.FooTest#testFoo", 1500);
+            previous.put(MODULE_1, "com.android.foo.FooTest#testRemoved", 20);
+            previous.put(MODULE_2, "com.android.bar.BarTest#testBar", 300);
+            previous.save(file);
+            TestDurations latest = new TestDurations();
+            latest.put(MODULE_1, "com.android.foo.FooTest#testFoo", 1000);
+            latest.put(MODULE_2, "com.android.bar.BarTest#testOther", 10);
+            // Module 1 ran completely, module 2 only in part
+            TestDurations.update(file, latest, Collections.singleton(MODULE_1));
+
+            TestDurations saved = TestDurations.load(file);
+            Map<String, Long> module1 = saved.get(MODULE_1);
+            assertEquals(1, module1.size());
+            assertEquals(1000, (long) module1.get("com.android.foo.FooTest#testFoo"));
+            assertEquals(2, saved.get(MODULE_2).size());
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+/**
+ * Parses the checkin output of a dumpsys service as it is received from the device.
+ * <pre>
+ * CheckinOutputReceiver receiver = new CheckinOutputReceiver(parser);
+ * device.executeShellCommand("dumpsys batterystats --checkin", receiver);
+ * receiver.finish();
+ * </pre>
+ * Assertions made by the parser's handlers stop the command, and are rethrown by
+ * {@link #finish()}.
+ */
+public class CheckinOutputReceiver extends StreamingOutputReceiver {
+
+    private final CheckinParser mParser;
+
+    public CheckinOutputReceiver(CheckinParser parser) {
+        mParser = parser;
+    }
+
+    /**
+     * @return the parser fed by this receiver.
+     */
+    public CheckinParser getParser() {
+        return mParser;
+    }
+
+    @Override
+    protected void onChars(char[] chars, int offset, int length) {
+        mParser.addChars(chars, offset, length);
+    }
+
+    @Override
+    protected void onFinished() {
+        mParser.finish();
+    }
+}
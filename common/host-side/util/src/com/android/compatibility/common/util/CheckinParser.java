@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming parser for the comma separated checkin format of dumpsys services, such as
+ * "dumpsys batterystats --checkin" and "dumpsys procstats -c".
+ * <p/>
+ * Each non-empty line is split into a {@link CheckinRecord} in place and dispatched on its type,
+ * the field at the type index given to the constructor: 0 for procstats ("pkgproc,..."), 3 for
+ * batterystats ("9,0,i,vers,..."). Text is fed in chunks of any size, so output can be parsed
+ * while it is being read from the device, see {@link CheckinOutputReceiver}.
+ * <pre>
+ * CheckinParser parser = new CheckinParser(3)
+ *         .addHandler("vers", versionHandler)
+ *         .addHandler("bt", batteryHandler);
+ * </pre>
+ * A parser is not thread safe and parses a single dump.
+ */
+public class CheckinParser {
+
+    /**
+     * Receives records from the parser. The record is only valid until the call returns.
+     */
+    public interface RecordHandler {
+        void onRecord(CheckinRecord record);
+    }
+
+    private final int mTypeIndex;
+    private final CheckinRecord mRecord = new CheckinRecord();
+    private final List<RecordHandler> mDefaultHandlers = new ArrayList<>();
+    private String[] mTypes = new String[0];
+    private RecordHandler[] mHandlers = new RecordHandler[0];
+    private int[] mCounts = new int[0];
+
+    private char[] mBuffer = new char[256];
+    private int mLength;
+    private int mRecordCount;
+    private boolean mFinished;
+
+    /**
+     * @param typeIndex the index of the field holding the record type.
+     */
+    public CheckinParser(int typeIndex) {
+        mTypeIndex = typeIndex;
+    }
+
+    /**
+     * Calls {@code handler} for every record, before any handler for its type.
+     */
+    public CheckinParser addHandler(RecordHandler handler) {
+        mDefaultHandlers.add(handler);
+        return this;
+    }
+
+    /**
+     * Calls {@code handler} for records of the given type. Types may be registered more than
+     * once, to share a handler between several of them.
+     */
+    public CheckinParser addHandler(String type, RecordHandler handler) {
+        int count = mTypes.length;
+        mTypes = Arrays.copyOf(mTypes, count + 1);
+        mHandlers = Arrays.copyOf(mHandlers, count + 1);
+        mCounts = Arrays.copyOf(mCounts, count + 1);
+        mTypes[count] = type;
+        mHandlers[count] = handler;
+        return this;
+    }
+
+    /**
+     * @return the number of records parsed so far.
+     */
+    public int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * @return the number of records of {@code type} parsed so far. Only types with a handler are
+     * counted.
+     */
+    public int getRecordCount(String type) {
+        for (int i = 0; i < mTypes.length; i++) {
+            if (mTypes[i].equals(type)) {
+                return mCounts[i];
+            }
+        }
+        throw new IllegalArgumentException("No handler for type " + type);
+    }
+
+    /**
+     * Parses the rest of {@code reader} and finishes the dump.
+     */
+    public void parse(Reader reader) throws IOException {
+        char[] chars = new char[8192];
+        int count;
+        while ((count = reader.read(chars)) != -1) {
+            addChars(chars, 0, count);
+        }
+        finish();
+    }
+
+    /**
+     * Parses the next chunk of the dump. Records may be split across chunks.
+     */
+    public void addChars(char[] chars, int offset, int length) {
+        int end = offset + length;
+        int lineStart = offset;
+        for (int i = offset; i < end; i++) {
+            if (chars[i] == '\n') {
+                if (mLength == 0) {
+                    // The whole line is in this chunk, parse it in place.
+                    parseLine(chars, lineStart, i);
+                } else {
+                    append(chars, lineStart, i);
+                    parseLine(mBuffer, 0, mLength);
+                    mLength = 0;
+                }
+                lineStart = i + 1;
+            }
+        }
+        append(chars, lineStart, end);
+    }
+
+    /**
+     * Parses any last record not followed by a new line. Calling it more than once has no
+     * effect.
+     */
+    public void finish() {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        if (mLength > 0) {
+            parseLine(mBuffer, 0, mLength);
+            mLength = 0;
+        }
+    }
+
+    private void append(char[] chars, int start, int end) {
+        int count = end - start;
+        if (count == 0) {
+            return;
+        }
+        if (mLength + count > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mLength + count));
+        }
+        System.arraycopy(chars, start, mBuffer, mLength, count);
+        mLength += count;
+    }
+
+    private void parseLine(char[] c, int start, int end) {
+        if (end > start && c[end - 1] == '\r') {
+            end--;
+        }
+        if (end == start) {
+            return;
+        }
+        mRecord.set(c, start, end, ',');
+        mRecordCount++;
+        for (int i = 0; i < mDefaultHandlers.size(); i++) {
+            mDefaultHandlers.get(i).onRecord(mRecord);
+        }
+        if (mRecord.size() <= mTypeIndex) {
+            return;
+        }
+        for (int i = 0; i < mTypes.length; i++) {
+            if (mRecord.fieldEquals(mTypeIndex, mTypes[i])) {
+                mCounts[i]++;
+                mHandlers[i].onRecord(mRecord);
+                return;
+            }
+        }
+    }
+}
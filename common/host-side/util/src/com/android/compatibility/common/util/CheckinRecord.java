@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.util.Arrays;
+
+/**
+ * The fields of one line of dumpsys checkin output, such as
+ * {@code 9,0,i,vers,14,150,NRD90M,NRD90M}.
+ * <p/>
+ * Fields are ranges of the parser's line buffer and are read in place, so a record is only valid
+ * for the duration of the {@link CheckinParser.RecordHandler} callback. Like
+ * {@code String.split(",", -1)}, empty fields are kept, including a trailing one.
+ */
+public final class CheckinRecord {
+
+    private char[] mChars;
+    private int[] mStarts = new int[16];
+    private int[] mEnds = new int[16];
+    private int mSize;
+
+    public CheckinRecord() {
+    }
+
+    /**
+     * Splits {@code chars[start, end)} into fields at each {@code separator}.
+     */
+    void set(char[] chars, int start, int end, char separator) {
+        mChars = chars;
+        mSize = 0;
+        int fieldStart = start;
+        for (int i = start; i < end; i++) {
+            if (chars[i] == separator) {
+                addField(fieldStart, i);
+                fieldStart = i + 1;
+            }
+        }
+        addField(fieldStart, end);
+    }
+
+    private void addField(int start, int end) {
+        if (mSize == mStarts.length) {
+            mStarts = Arrays.copyOf(mStarts, mSize * 2);
+            mEnds = Arrays.copyOf(mEnds, mSize * 2);
+        }
+        mStarts[mSize] = start;
+        mEnds[mSize] = end;
+        mSize++;
+    }
+
+    /**
+     * @return the number of fields.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the length of field {@code index}.
+     */
+    public int length(int index) {
+        checkIndex(index);
+        return mEnds[index] - mStarts[index];
+    }
+
+    /**
+     * @return true if field {@code index} is exactly {@code value}.
+     */
+    public boolean fieldEquals(int index, String value) {
+        checkIndex(index);
+        int start = mStarts[index];
+        if (mEnds[index] - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (mChars[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if field {@code index} contains {@code value}.
+     */
+    public boolean fieldContains(int index, String value) {
+        checkIndex(index);
+        int last = mEnds[index] - value.length();
+        for (int start = mStarts[index]; start <= last; start++) {
+            int i = 0;
+            while (i < value.length() && mChars[start + i] == value.charAt(i)) {
+                i++;
+            }
+            if (i == value.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the character at {@code offset} in field {@code index}.
+     */
+    public char charAt(int index, int offset) {
+        if (offset < 0 || offset >= length(index)) {
+            throw new IndexOutOfBoundsException("offset " + offset + " of field " + index);
+        }
+        return mChars[mStarts[index] + offset];
+    }
+
+    /**
+     * @return a copy of field {@code index}.
+     */
+    public String getString(int index) {
+        checkIndex(index);
+        return new String(mChars, mStarts[index], mEnds[index] - mStarts[index]);
+    }
+
+    /**
+     * Parses field {@code index} as a decimal integer, like {@link Long#parseLong(String)} but
+     * without copying it.
+     *
+     * @throws NumberFormatException if the field is not an integer.
+     */
+    public long getLong(int index) {
+        checkIndex(index);
+        int pos = mStarts[index];
+        int end = mEnds[index];
+        boolean negative = pos < end && mChars[pos] == '-';
+        if (negative || (pos < end && mChars[pos] == '+')) {
+            pos++;
+        }
+        // 18 digits can't overflow, leave anything longer to parseLong.
+        if (pos == end || end - pos > 18) {
+            return Long.parseLong(getString(index));
+        }
+        long value = 0;
+        for (; pos < end; pos++) {
+            int digit = mChars[pos] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + getString(index) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses field {@code index} as a floating point number.
+     *
+     * @throws NumberFormatException if the field is not a number.
+     */
+    public double getDouble(int index) {
+        return Double.parseDouble(getString(index));
+    }
+
+    /**
+     * Splits field {@code index} at each {@code separator} into {@code into}, which then shares
+     * this record's buffer, and returns it. For example the "0nt:1200" state fields of procstats.
+     */
+    public CheckinRecord split(int index, char separator, CheckinRecord into) {
+        checkIndex(index);
+        into.set(mChars, mStarts[index], mEnds[index], separator);
+        return into;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new ArrayIndexOutOfBoundsException("field " + index + " of " + mSize + " in \""
+                    + this + "\"");
+        }
+    }
+
+    /**
+     * @return the fields, joined by commas.
+     */
+    @Override
+    public String toString() {
+        if (mSize == 0) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < mSize; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(mChars, mStarts[i], mEnds[i] - mStarts[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+/**
+ * A single ftrace record, as reported by {@link FtraceParser}.
+ * <p/>
+ * To keep parsing allocation free, the parser reuses one instance for every record and its text
+ * fields are views into the parser's line buffer. They are only valid for the duration of the
+ * {@link FtraceListener} callback; call {@link Object#toString()} on a field to keep it.
+ */
+public final class FtraceEvent {
+
+    final Text mThreadName = new Text();
+    final Text mEventName = new Text();
+    final Text mDetails = new Text();
+    int mTid;
+    int mTgid;
+    int mCpu;
+    long mTimestampUs;
+
+    FtraceEvent() {
+    }
+
+    /**
+     * @return the name of the thread that emitted the record, truncated by the kernel.
+     */
+    public Text getThreadName() {
+        return mThreadName;
+    }
+
+    /**
+     * @return the id of the thread that emitted the record.
+     */
+    public int getTid() {
+        return mTid;
+    }
+
+    /**
+     * @return the id of the process that emitted the record, or -1 if the trace was not
+     * captured with the print-tgid option or the kernel did not know it.
+     */
+    public int getTgid() {
+        return mTgid;
+    }
+
+    /**
+     * @return the cpu the record was emitted on.
+     */
+    public int getCpu() {
+        return mCpu;
+    }
+
+    /**
+     * @return the timestamp of the record, in microseconds.
+     */
+    public long getTimestampUs() {
+        return mTimestampUs;
+    }
+
+    /**
+     * @return the event name, e.g. "sched_switch" or "tracing_mark_write".
+     */
+    public Text getEventName() {
+        return mEventName;
+    }
+
+    /**
+     * @return the event specific text following the event name.
+     */
+    public Text getDetails() {
+        return mDetails;
+    }
+
+    /**
+     * @return true if this record is an event called {@code name}.
+     */
+    public boolean isEvent(String name) {
+        return mEventName.contentEquals(name);
+    }
+
+    @Override
+    public String toString() {
+        return mThreadName + "-" + mTid + " (" + mTgid + ") [" + mCpu + "] " + mTimestampUs
+                + ": " + mEventName + ": " + mDetails;
+    }
+
+    /**
+     * The fields of a sched_switch event.
+     */
+    public static final class SchedSwitch {
+        final Text mPrevComm = new Text();
+        final Text mPrevState = new Text();
+        final Text mNextComm = new Text();
+        int mPrevPid;
+        int mPrevPrio;
+        int mNextPid;
+        int mNextPrio;
+
+        SchedSwitch() {
+        }
+
+        public Text getPrevComm() {
+            return mPrevComm;
+        }
+
+        public int getPrevPid() {
+            return mPrevPid;
+        }
+
+        public int getPrevPrio() {
+            return mPrevPrio;
+        }
+
+        /**
+         * @return the state the previous task was left in, e.g. "R", "S" or "D".
+         */
+        public Text getPrevState() {
+            return mPrevState;
+        }
+
+        public Text getNextComm() {
+            return mNextComm;
+        }
+
+        public int getNextPid() {
+            return mNextPid;
+        }
+
+        public int getNextPrio() {
+            return mNextPrio;
+        }
+    }
+
+    /**
+     * A range of the parser's line buffer, compared in place without creating strings.
+     */
+    public static final class Text implements CharSequence {
+        private char[] mChars;
+        private int mStart;
+        private int mLength;
+
+        Text() {
+        }
+
+        void set(char[] chars, int start, int end) {
+            mChars = chars;
+            mStart = start;
+            mLength = end - start;
+        }
+
+        void clear() {
+            mLength = 0;
+        }
+
+        char[] buffer() {
+            return mChars;
+        }
+
+        int offset() {
+            return mStart;
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= mLength) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + mLength);
+            }
+            return mChars[mStart + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        /**
+         * @return true if this text is exactly {@code s}.
+         */
+        public boolean contentEquals(String s) {
+            return s.length() == mLength && regionMatches(0, s);
+        }
+
+        public boolean startsWith(String s) {
+            return s.length() <= mLength && regionMatches(0, s);
+        }
+
+        public boolean endsWith(String s) {
+            return s.length() <= mLength && regionMatches(mLength - s.length(), s);
+        }
+
+        private boolean regionMatches(int offset, String s) {
+            for (int i = 0; i < s.length(); i++) {
+                if (mChars[mStart + offset + i] != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return mLength == 0 ? "" : new String(mChars, mStart, mLength);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+/**
+ * Receives the records of a trace from {@link FtraceParser}. Override only the callbacks of
+ * interest; the default implementations do nothing.
+ * <p/>
+ * The {@link FtraceEvent} and text arguments are reused by the parser and are only valid until
+ * the callback returns.
+ */
+public abstract class FtraceListener {
+
+    /**
+     * Called for every trace record, before any of the event specific callbacks.
+     */
+    public void onEvent(FtraceEvent event) {
+    }
+
+    /**
+     * Called for each sched_switch event.
+     */
+    public void onSchedSwitch(FtraceEvent event, FtraceEvent.SchedSwitch sched) {
+    }
+
+    /**
+     * Called when a userspace trace section begins, for a "B|pid|name" tracing_mark_write.
+     *
+     * @param pid the process that began the section.
+     * @param name the section name.
+     */
+    public void onSliceBegin(FtraceEvent event, int pid, FtraceEvent.Text name) {
+    }
+
+    /**
+     * Called when a userspace trace section ends, for an "E" tracing_mark_write. Sections end
+     * in the reverse order they began on the same thread.
+     *
+     * @param pid the process that ended the section, or -1 if it was not recorded.
+     */
+    public void onSliceEnd(FtraceEvent event, int pid) {
+    }
+
+    /**
+     * Called for non-empty lines that are neither comments nor trace records, such as the
+     * header printed by atrace.
+     */
+    public void onUnparsedLine(CharSequence line) {
+    }
+
+    /**
+     * Called once the whole trace has been parsed.
+     */
+    public void onFinished() {
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+/**
+ * Parses the output of a shell command, such as "atrace --async_stop", as it is received from
+ * the device instead of collecting it into a string first.
+ * <pre>
+ * FtraceOutputReceiver receiver = new FtraceOutputReceiver(listener);
+ * device.executeShellCommand("atrace --async_stop", receiver);
+ * receiver.finish();
+ * </pre>
+ * {@link #finish()} reports {@link FtraceListener#onFinished()} on the calling thread, so
+ * listeners can make their assertions there.
+ */
+public class FtraceOutputReceiver extends StreamingOutputReceiver {
+
+    private final FtraceParser mParser;
+
+    public FtraceOutputReceiver(FtraceListener listener) {
+        mParser = new FtraceParser(listener);
+    }
+
+    /**
+     * @return the parser fed by this receiver.
+     */
+    public FtraceParser getParser() {
+        return mParser;
+    }
+
+    @Override
+    protected void onChars(char[] chars, int offset, int length) {
+        mParser.addChars(chars, offset, length);
+    }
+
+    @Override
+    protected void onFinished() {
+        mParser.finish();
+    }
+}
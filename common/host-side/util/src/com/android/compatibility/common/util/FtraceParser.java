@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for the text output of ftrace, as captured by atrace or read from
+ * /sys/kernel/debug/tracing/trace.
+ * <p/>
+ * The parser accepts the same record formats as the ftrace importer in catapult, and detects
+ * which one the trace uses from its first record. Text is fed to it in chunks of any size, so a
+ * trace can be parsed while it is being read from the device, and records are tokenized in
+ * place without allocating per line. Parsed records are reported to a {@link FtraceListener}.
+ * <p/>
+ * A parser is not thread safe and parses a single trace.
+ */
+public class FtraceParser {
+
+    /**
+     * The layout of trace records.
+     */
+    public enum Format {
+        /**
+         * Kernel 3.2 and later with the print-tgid option:
+         * {@code <idle>-0     (-----) [001] d...  1.23: sched_switch: ...}
+         */
+        TGID,
+        /**
+         * Kernel 3.2 and later, including irq info:
+         * {@code <idle>-0     [001] d...  1.23: sched_switch: ...}
+         */
+        IRQ_INFO,
+        /**
+         * Kernels before 3.2: {@code <idle>-0     [001]  1.23: sched_switch: ...}
+         */
+        LEGACY
+    }
+
+    private static final String SCHED_SWITCH = "sched_switch";
+    private static final String TRACING_MARK_WRITE = "tracing_mark_write";
+
+    private static final String PREV_COMM = "prev_comm=";
+    private static final String PREV_PID = " prev_pid=";
+    private static final String PREV_PRIO = " prev_prio=";
+    private static final String PREV_STATE = " prev_state=";
+    private static final String NEXT_COMM = " ==> next_comm=";
+    private static final String NEXT_PID = " next_pid=";
+    private static final String NEXT_PRIO = " next_prio=";
+
+    private static final int NO_MATCH = -1;
+
+    private final FtraceListener mListener;
+    private final FtraceEvent mEvent = new FtraceEvent();
+    private final FtraceEvent.SchedSwitch mSchedSwitch = new FtraceEvent.SchedSwitch();
+    private final FtraceEvent.Text mLine = new FtraceEvent.Text();
+    private final FtraceEvent.Text mSliceName = new FtraceEvent.Text();
+
+    private char[] mBuffer = new char[256];
+    private int mLength;
+    private Format mFormat;
+    private boolean mFinished;
+
+    /** Value of the last number parsed by {@link #parseNumber}. */
+    private long mNumber;
+
+    public FtraceParser(FtraceListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Parses a whole trace and reports it to {@code listener}.
+     */
+    public static void parse(Reader reader, FtraceListener listener) throws IOException {
+        new FtraceParser(listener).parse(reader);
+    }
+
+    /**
+     * @return the format of the trace, or null until a record has been parsed.
+     */
+    public Format getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Parses the rest of {@code reader} and finishes the trace.
+     */
+    public void parse(Reader reader) throws IOException {
+        char[] chars = new char[8192];
+        try {
+            int count;
+            while ((count = reader.read(chars)) != -1) {
+                addChars(chars, 0, count);
+            }
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Parses the rest of {@code in}, decoded as UTF-8, and finishes the trace.
+     */
+    public void parse(InputStream in) throws IOException {
+        parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses the next chunk of the trace. Records may be split across chunks.
+     */
+    public void addChars(char[] chars, int offset, int length) {
+        int end = offset + length;
+        int lineStart = offset;
+        for (int i = offset; i < end; i++) {
+            if (chars[i] == '\n') {
+                if (mLength == 0) {
+                    // The whole line is in this chunk, parse it in place.
+                    parseLine(chars, lineStart, i);
+                } else {
+                    append(chars, lineStart, i);
+                    parseLine(mBuffer, 0, mLength);
+                    mLength = 0;
+                }
+                lineStart = i + 1;
+            }
+        }
+        append(chars, lineStart, end);
+    }
+
+    /**
+     * Parses any last record not followed by a new line and calls
+     * {@link FtraceListener#onFinished()}. Calling it more than once has no effect.
+     */
+    public void finish() {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        if (mLength > 0) {
+            parseLine(mBuffer, 0, mLength);
+            mLength = 0;
+        }
+        mListener.onFinished();
+    }
+
+    private void append(char[] chars, int start, int end) {
+        int count = end - start;
+        if (count == 0) {
+            return;
+        }
+        if (mLength + count > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mLength + count));
+        }
+        System.arraycopy(chars, start, mBuffer, mLength, count);
+        mLength += count;
+    }
+
+    private void parseLine(char[] c, int start, int end) {
+        if (end > start && c[end - 1] == '\r') {
+            end--;
+        }
+        int pos = skipSpaces(c, start, end);
+        if (pos == end || c[pos] == '#') {
+            return;
+        }
+        if (mFormat == null || !parseRecord(c, pos, end, mFormat)) {
+            Format detected = null;
+            for (Format format : Format.values()) {
+                if (format != mFormat && parseRecord(c, pos, end, format)) {
+                    detected = format;
+                    break;
+                }
+            }
+            if (detected == null) {
+                mLine.set(c, start, end);
+                mListener.onUnparsedLine(mLine);
+                return;
+            }
+            mFormat = detected;
+        }
+        dispatch();
+    }
+
+    /**
+     * Tokenizes a record into {@link #mEvent}.
+     *
+     * @param start the first non space character of the line.
+     * @return true if the line is a record in the given format.
+     */
+    private boolean parseRecord(char[] c, int start, int end, Format format) {
+        // The thread name may itself contain dashes and spaces, so try each dash in turn
+        // until the rest of the record parses.
+        for (int dash = indexOf(c, start + 1, end, '-'); dash != NO_MATCH;
+                dash = indexOf(c, dash + 1, end, '-')) {
+            int pos = parseHeader(c, dash, end, format);
+            if (pos != NO_MATCH && parseBody(c, pos, end, format)) {
+                mEvent.mThreadName.set(c, start, dash);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses "-tid (tgid) [cpu]" starting at the dash following the thread name.
+     *
+     * @return the position after the cpu, or {@link #NO_MATCH}.
+     */
+    private int parseHeader(char[] c, int dash, int end, Format format) {
+        int pos = parseNumber(c, dash + 1, end);
+        if (pos == NO_MATCH) {
+            return NO_MATCH;
+        }
+        mEvent.mTid = (int) mNumber;
+        int next = skipSpaces(c, pos, end);
+        if (next == pos || next == end) {
+            return NO_MATCH;
+        }
+        pos = next;
+        mEvent.mTgid = -1;
+        if (format == Format.TGID) {
+            if (c[pos] != '(') {
+                return NO_MATCH;
+            }
+            pos = skipSpaces(c, pos + 1, end);
+            if (pos < end && c[pos] == '-') {
+                while (pos < end && c[pos] == '-') {
+                    pos++;
+                }
+            } else {
+                pos = parseNumber(c, pos, end);
+                if (pos == NO_MATCH) {
+                    return NO_MATCH;
+                }
+                mEvent.mTgid = (int) mNumber;
+            }
+            if (pos == end || c[pos] != ')') {
+                return NO_MATCH;
+            }
+            next = skipSpaces(c, pos + 1, end);
+            if (next == pos + 1 || next == end) {
+                return NO_MATCH;
+            }
+            pos = next;
+        }
+        if (c[pos] != '[') {
+            return NO_MATCH;
+        }
+        pos = parseNumber(c, pos + 1, end);
+        if (pos == NO_MATCH || pos == end || c[pos] != ']') {
+            return NO_MATCH;
+        }
+        mEvent.mCpu = (int) mNumber;
+        return pos + 1;
+    }
+
+    /**
+     * Parses "flags timestamp: event: details" following the cpu.
+     */
+    private boolean parseBody(char[] c, int pos, int end, Format format) {
+        int next = skipSpaces(c, pos, end);
+        if (format != Format.LEGACY) {
+            if (next == pos || next + 4 >= end || !isIrqInfo(c, next)
+                    || !isSpace(c[next + 4])) {
+                return false;
+            }
+            next = skipSpaces(c, next + 4, end);
+        }
+        pos = parseNumber(c, next, end);
+        if (pos == NO_MATCH || pos == end || c[pos] != '.') {
+            return false;
+        }
+        long seconds = mNumber;
+        int fractionStart = pos + 1;
+        pos = parseNumber(c, fractionStart, end);
+        if (pos == NO_MATCH || pos == end || c[pos] != ':') {
+            return false;
+        }
+        long micros = mNumber;
+        int digits = pos - fractionStart;
+        for (; digits < 6; digits++) {
+            micros *= 10;
+        }
+        for (; digits > 6; digits--) {
+            micros /= 10;
+        }
+        mEvent.mTimestampUs = seconds * 1000000 + micros;
+
+        // The event name runs to the next space and ends with a colon.
+        next = skipSpaces(c, pos + 1, end);
+        if (next == pos + 1 || next == end) {
+            return false;
+        }
+        int nameEnd = next;
+        while (nameEnd < end && !isSpace(c[nameEnd])) {
+            nameEnd++;
+        }
+        if (nameEnd - next < 2 || c[nameEnd - 1] != ':') {
+            return false;
+        }
+        mEvent.mEventName.set(c, next, nameEnd - 1);
+        if (nameEnd == end) {
+            mEvent.mDetails.clear();
+        } else {
+            mEvent.mDetails.set(c, nameEnd + 1, end);
+        }
+        return true;
+    }
+
+    private static boolean isIrqInfo(char[] c, int pos) {
+        char irqs = c[pos];
+        char resched = c[pos + 1];
+        char context = c[pos + 2];
+        char preempt = c[pos + 3];
+        return (irqs == 'd' || irqs == 'X' || irqs == '.')
+                && (resched == 'N' || resched == '.')
+                && (context == 'H' || context == 'h' || context == 's' || context == '.')
+                && ((preempt >= '0' && preempt <= '9') || (preempt >= 'a' && preempt <= 'f')
+                        || preempt == '.');
+    }
+
+    private void dispatch() {
+        FtraceEvent event = mEvent;
+        mListener.onEvent(event);
+        if (event.isEvent(TRACING_MARK_WRITE)) {
+            dispatchTracingMark(event);
+        } else if (event.isEvent(SCHED_SWITCH)) {
+            if (parseSchedSwitch(event.mDetails)) {
+                mListener.onSchedSwitch(event, mSchedSwitch);
+            }
+        }
+    }
+
+    /**
+     * Reports "B|pid|name" and "E" or "E|pid" markers written by android.os.Trace and atrace.
+     */
+    private void dispatchTracingMark(FtraceEvent event) {
+        FtraceEvent.Text details = event.mDetails;
+        if (details.length() == 0) {
+            return;
+        }
+        char type = details.charAt(0);
+        if (type == 'B') {
+            if (details.length() < 2 || details.charAt(1) != '|') {
+                return;
+            }
+            int pos = parseNumber(details, 2);
+            if (pos == NO_MATCH || pos == details.length() || details.charAt(pos) != '|') {
+                return;
+            }
+            mSliceName.set(details.buffer(), details.offset() + pos + 1,
+                    details.offset() + details.length());
+            mListener.onSliceBegin(event, (int) mNumber, mSliceName);
+        } else if (type == 'E') {
+            int pid = -1;
+            if (details.length() > 2 && details.charAt(1) == '|'
+                    && parseNumber(details, 2) != NO_MATCH) {
+                pid = (int) mNumber;
+            }
+            mListener.onSliceEnd(event, pid);
+        }
+    }
+
+    /**
+     * Parses "prev_comm=%s prev_pid=%d prev_prio=%d prev_state=%s ==> next_comm=%s
+     * next_pid=%d next_prio=%d" into {@link #mSchedSwitch}.
+     */
+    private boolean parseSchedSwitch(FtraceEvent.Text details) {
+        char[] c = details.buffer();
+        int start = details.offset();
+        int end = start + details.length();
+        if (!regionMatches(c, start, end, PREV_COMM)) {
+            return false;
+        }
+        int commStart = start + PREV_COMM.length();
+        int pidStart = indexOf(c, commStart, end, PREV_PID);
+        if (pidStart == NO_MATCH) {
+            return false;
+        }
+        FtraceEvent.SchedSwitch sched = mSchedSwitch;
+        sched.mPrevComm.set(c, commStart, pidStart);
+        int pos = parseNumber(c, pidStart + PREV_PID.length(), end);
+        if (pos == NO_MATCH || !regionMatches(c, pos, end, PREV_PRIO)) {
+            return false;
+        }
+        sched.mPrevPid = (int) mNumber;
+        pos = parseNumber(c, pos + PREV_PRIO.length(), end);
+        if (pos == NO_MATCH || !regionMatches(c, pos, end, PREV_STATE)) {
+            return false;
+        }
+        sched.mPrevPrio = (int) mNumber;
+        int stateStart = pos + PREV_STATE.length();
+        commStart = indexOf(c, stateStart, end, NEXT_COMM);
+        if (commStart == NO_MATCH) {
+            return false;
+        }
+        sched.mPrevState.set(c, stateStart, commStart);
+        commStart += NEXT_COMM.length();
+        pidStart = indexOf(c, commStart, end, NEXT_PID);
+        if (pidStart == NO_MATCH) {
+            return false;
+        }
+        sched.mNextComm.set(c, commStart, pidStart);
+        pos = parseNumber(c, pidStart + NEXT_PID.length(), end);
+        if (pos == NO_MATCH || !regionMatches(c, pos, end, NEXT_PRIO)) {
+            return false;
+        }
+        sched.mNextPid = (int) mNumber;
+        pos = parseNumber(c, pos + NEXT_PRIO.length(), end);
+        if (pos == NO_MATCH) {
+            return false;
+        }
+        sched.mNextPrio = (int) mNumber;
+        return true;
+    }
+
+    /**
+     * Parses an unsigned decimal number into {@link #mNumber}, or a negative one if it starts
+     * with a minus sign.
+     *
+     * @return the position after the number, or {@link #NO_MATCH} if there are no digits.
+     */
+    private int parseNumber(char[] c, int pos, int end) {
+        boolean negative = pos < end && c[pos] == '-';
+        int i = negative ? pos + 1 : pos;
+        long value = 0;
+        int digitsStart = i;
+        while (i < end && c[i] >= '0' && c[i] <= '9') {
+            value = value * 10 + (c[i] - '0');
+            i++;
+        }
+        if (i == digitsStart) {
+            return NO_MATCH;
+        }
+        mNumber = negative ? -value : value;
+        return i;
+    }
+
+    /**
+     * Parses a number within {@code text}, returning a position relative to the text.
+     */
+    private int parseNumber(FtraceEvent.Text text, int offset) {
+        int start = text.offset();
+        int pos = parseNumber(text.buffer(), start + offset, start + text.length());
+        return pos == NO_MATCH ? NO_MATCH : pos - start;
+    }
+
+    private static int skipSpaces(char[] c, int pos, int end) {
+        while (pos < end && isSpace(c[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isSpace(char ch) {
+        return ch == ' ' || ch == '\t';
+    }
+
+    private static int indexOf(char[] c, int pos, int end, char ch) {
+        for (int i = pos; i < end; i++) {
+            if (c[i] == ch) {
+                return i;
+            }
+        }
+        return NO_MATCH;
+    }
+
+    private static int indexOf(char[] c, int pos, int end, String s) {
+        for (int i = pos; i + s.length() <= end; i++) {
+            if (regionMatches(c, i, end, s)) {
+                return i;
+            }
+        }
+        return NO_MATCH;
+    }
+
+    private static boolean regionMatches(char[] c, int pos, int end, String s) {
+        if (pos + s.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (c[pos + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
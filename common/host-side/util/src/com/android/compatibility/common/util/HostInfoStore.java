@@ -17,6 +17,7 @@ package com.android.compatibility.common.util;
 
 import com.android.json.stream.JsonWriter;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -44,7 +45,8 @@ public class HostInfoStore extends InfoStore {
     @Override
     public void open() throws IOException {
         FileOutputStream out = new FileOutputStream(mJsonFile);
-        mJsonWriter = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        mJsonWriter = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8)));
         // TODO(agathaman): remove to make json output less pretty
         mJsonWriter.setIndent("  ");
         mJsonWriter.beginObject();
@@ -191,11 +193,7 @@ public class HostInfoStore extends InfoStore {
     public void addArrayResult(String name, long[] array) throws IOException {
         checkName(name);
         mJsonWriter.name(name);
-        mJsonWriter.beginArray();
-        for (long value : checkArray(array)) {
-            mJsonWriter.value(value);
-        }
-        mJsonWriter.endArray();
+        mJsonWriter.value(checkArray(array));
     }
 
     /**
@@ -219,11 +217,7 @@ public class HostInfoStore extends InfoStore {
     public void addArrayResult(String name, double[] array) throws IOException {
         checkName(name);
         mJsonWriter.name(name);
-        mJsonWriter.beginArray();
-        for (double value : checkArray(array)) {
-            mJsonWriter.value(value);
-        }
-        mJsonWriter.endArray();
+        mJsonWriter.value(checkArray(array));
     }
 
     /**
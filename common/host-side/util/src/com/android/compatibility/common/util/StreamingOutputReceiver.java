@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.ddmlib.IShellOutputReceiver;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Base class for receivers that parse the UTF-8 output of a shell command as it is received from
+ * the device, instead of collecting it into a string first.
+ * <pre>
+ * receiver = new ...OutputReceiver(...);
+ * device.executeShellCommand(command, receiver);
+ * receiver.finish();
+ * </pre>
+ * If parsing the output throws, for example because a listener made a failing assertion, the
+ * command is cancelled and {@link #finish()} rethrows the error on the calling thread.
+ */
+public abstract class StreamingOutputReceiver implements IShellOutputReceiver {
+
+    private final CharsetDecoder mDecoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer mBytes = ByteBuffer.allocate(8192);
+    private final CharBuffer mChars = CharBuffer.allocate(8192);
+    private volatile boolean mCancelled;
+    private Throwable mError;
+
+    /**
+     * Parses the next chunk of decoded output. Characters may be split across chunks at any
+     * point, including in the middle of a line.
+     */
+    protected abstract void onChars(char[] chars, int offset, int length);
+
+    /**
+     * Called once all of the output has been passed to {@link #onChars}.
+     */
+    protected abstract void onFinished();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addOutput(byte[] data, int offset, int length) {
+        if (mError != null) {
+            return;
+        }
+        try {
+            while (length > 0) {
+                int count = Math.min(length, mBytes.remaining());
+                mBytes.put(data, offset, count);
+                offset += count;
+                length -= count;
+                decode(false);
+            }
+        } catch (RuntimeException | Error e) {
+            mError = e;
+            mCancelled = true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() {
+        // Nothing to do, output is parsed as it is received and finished by finish().
+    }
+
+    /**
+     * Parses any remaining output and finishes parsing, or rethrows the error that stopped it.
+     */
+    public void finish() {
+        if (mError instanceof RuntimeException) {
+            throw (RuntimeException) mError;
+        } else if (mError != null) {
+            throw (Error) mError;
+        }
+        decode(true);
+        mDecoder.flush(mChars);
+        drainChars();
+        onFinished();
+    }
+
+    /**
+     * Stops the shell command at the next chunk of output.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private void decode(boolean endOfInput) {
+        mBytes.flip();
+        while (true) {
+            boolean overflow = mDecoder.decode(mBytes, mChars, endOfInput).isOverflow();
+            drainChars();
+            if (!overflow) {
+                break;
+            }
+        }
+        // Keep any partial character for the next chunk.
+        mBytes.compact();
+    }
+
+    private void drainChars() {
+        mChars.flip();
+        onChars(mChars.array(), mChars.arrayOffset() + mChars.position(), mChars.remaining());
+        mChars.clear();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.compatibility.common.util;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link CheckinParser}
+ */
+public class CheckinParserTest extends TestCase {
+
+    private static final String BATTERYSTATS =
+            "9,0,i,vers,14,150,NRD90M,NRD90M\n" +
+            "9,1000,l,wl,*alarm*,0,f,0,120,p,4,0,w,0\r\n" +
+            "\n" +
+            "9,0,l,dc,50,100,2,3\n" +
+            "9,0,l,pwi,caf\u00e9,0.5\n" +
+            "9,0,l,dsd,100,?,s+,,\n";
+
+    private static class Recorder implements CheckinParser.RecordHandler {
+        final List<String> mRecords = new ArrayList<>();
+
+        @Override
+        public void onRecord(CheckinRecord record) {
+            mRecords.add(record.size() + ":" + record);
+        }
+    }
+
+    public void testDispatch() throws Exception {
+        Recorder all = new Recorder();
+        Recorder vers = new Recorder();
+        Recorder steps = new Recorder();
+        CheckinParser parser = new CheckinParser(3)
+                .addHandler(all)
+                .addHandler("vers", vers)
+                .addHandler("dsd", steps)
+                .addHandler("csd", steps);
+        parser.parse(new StringReader(BATTERYSTATS));
+
+        assertEquals(5, parser.getRecordCount());
+        assertEquals(5, all.mRecords.size());
+        assertEquals("14:9,1000,l,wl,*alarm*,0,f,0,120,p,4,0,w,0", all.mRecords.get(1));
+        assertEquals("[8:9,0,i,vers,14,150,NRD90M,NRD90M]", vers.mRecords.toString());
+        assertEquals("[9:9,0,l,dsd,100,?,s+,,]", steps.mRecords.toString());
+        assertEquals(1, parser.getRecordCount("vers"));
+        assertEquals(1, parser.getRecordCount("dsd"));
+        assertEquals(0, parser.getRecordCount("csd"));
+        try {
+            parser.getRecordCount("bt");
+            fail("Expected an IllegalArgumentException for a type without handler");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testFields() throws Exception {
+        final List<Object> values = new ArrayList<>();
+        new CheckinParser(0).addHandler("pkgproc", new CheckinParser.RecordHandler() {
+            @Override
+            public void onRecord(CheckinRecord record) {
+                CheckinRecord state = record.split(5, ':', new CheckinRecord());
+                values.add(record.getString(1));
+                values.add(record.getLong(2));
+                values.add(record.getLong(3));
+                values.add(state.size());
+                values.add(state.charAt(0, 2));
+                values.add(state.getLong(1));
+                values.add(record.fieldEquals(4, "com.example"));
+                values.add(record.fieldContains(4, "exam"));
+                values.add(record.fieldContains(4, "examples"));
+                values.add(record.length(6));
+                try {
+                    record.getLong(1);
+                    values.add("parsed");
+                } catch (NumberFormatException expected) {
+                    values.add("NFE");
+                }
+                values.add(record.getLong(7));
+                values.add(record.getDouble(8));
+            }
+        }).parse(new StringReader(
+                "pkgproc,com.example,10012,-3,com.example,0nt:1200,,1234567890123456789,1.5"));
+        assertEquals("[com.example, 10012, -3, 2, t, 1200, true, true, false, 0, NFE, "
+                + "1234567890123456789, 1.5]", values.toString());
+    }
+
+    /**
+     * Test that records split across chunks are parsed the same as whole ones.
+     */
+    public void testChunkedInput() throws Exception {
+        Recorder whole = new Recorder();
+        new CheckinParser(3).addHandler(whole).parse(new StringReader(BATTERYSTATS));
+
+        Recorder chunked = new Recorder();
+        CheckinParser parser = new CheckinParser(3).addHandler(chunked);
+        char[] chars = BATTERYSTATS.toCharArray();
+        for (int i = 0; i < chars.length; i += 5) {
+            parser.addChars(chars, i, Math.min(5, chars.length - i));
+        }
+        parser.finish();
+        parser.finish();
+        assertEquals(whole.mRecords, chunked.mRecords);
+    }
+
+    /**
+     * Test that an assertion made by a handler cancels the command and is rethrown by finish().
+     */
+    public void testOutputReceiverError() throws Exception {
+        final int[] calls = new int[1];
+        CheckinParser parser = new CheckinParser(3).addHandler("wl",
+                new CheckinParser.RecordHandler() {
+            @Override
+            public void onRecord(CheckinRecord record) {
+                calls[0]++;
+                assertEquals(15, record.size());
+            }
+        });
+        CheckinOutputReceiver receiver = new CheckinOutputReceiver(parser);
+        byte[] bytes = (BATTERYSTATS + BATTERYSTATS).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            receiver.addOutput(bytes, i, 1);
+        }
+        assertTrue(receiver.isCancelled());
+        assertEquals(1, calls[0]);
+        try {
+            receiver.finish();
+            fail("Expected the handler's assertion to be rethrown");
+        } catch (AssertionFailedError expected) {
+        }
+    }
+
+    public void testOutputReceiver() throws Exception {
+        Recorder all = new Recorder();
+        CheckinOutputReceiver receiver = new CheckinOutputReceiver(
+                new CheckinParser(3).addHandler(all));
+        byte[] bytes = BATTERYSTATS.getBytes(StandardCharsets.UTF_8);
+        receiver.addOutput(bytes, 0, bytes.length);
+        receiver.finish();
+        assertFalse(receiver.isCancelled());
+        assertEquals("6:9,0,l,pwi,caf\u00e9,0.5", all.mRecords.get(3));
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput benchmark for {@link FtraceParser} against the regular expressions of the catapult
+ * ftrace importer that host tests used before.
+ * <p/>
+ * Usage: {@code java -cp compatibility-host-util.jar:compatibility-host-util-tests.jar
+ * com.android.compatibility.common.util.FtraceParserBenchmark [lines]}. The synthetic trace
+ * mixes sched_switch events with nested tracing_mark_write sections, as captured by
+ * "atrace sched view".
+ */
+public class FtraceParserBenchmark {
+
+    private static final int DEFAULT_LINES = 2 * 1000 * 1000;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 10;
+
+    // Copied from the catapult ftrace importer, see FtraceParser.
+    private static final Pattern sLineWithTgid = Pattern.compile(
+            "^\\s*(.+)-(\\d+)\\s+\\(\\s*(\\d+|-+)\\)\\s\\[(\\d+)\\]"
+            + "\\s+[dX.][N.][Hhs.][0-9a-f.]"
+            + "\\s+(\\d+\\.\\d+):\\s+(\\S+):\\s(.*)");
+    private static final Pattern sLineWithIrqInfo = Pattern.compile(
+            "^\\s*(.+)-(\\d+)\\s+\\[(\\d+)\\]"
+            + "\\s+[dX.][N.][Hhs.][0-9a-f.]"
+            + "\\s+(\\d+\\.\\d+):\\s+(\\S+):\\s(.*)$");
+    private static final Pattern sLineLegacy = Pattern.compile(
+            "^\\s*(.+)-(\\d+)\\s+\\[(\\d+)\\]\\s*(\\d+\\.\\d+):\\s+(\\S+):\\s(.*)");
+
+    private static final String[] SECTIONS = {
+            "Choreographer#doFrame", "traversal", "measure", "layout", "draw"
+    };
+
+    public static void main(String[] args) throws IOException {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_LINES;
+        String trace = generate(lines);
+        double megabytes = trace.length() / (1024.0 * 1024.0);
+        System.out.printf("%d lines (%.1f MB)%n", lines, megabytes);
+        report("regex", megabytes, timeRegex(trace));
+        report("FtraceParser", megabytes, timeParser(trace));
+    }
+
+    private static void report(String label, double megabytes, long nanos) {
+        double millis = nanos / 1e6;
+        System.out.printf("  %-24s %8.2f ms %8.1f MB/s%n", label, millis,
+                megabytes / (millis / 1000.0));
+    }
+
+    /**
+     * Returns a trace in the print-tgid format of {@code lines} records.
+     */
+    private static String generate(int lines) {
+        StringBuilder builder = new StringBuilder(lines * 120);
+        builder.append("TRACE:\n# tracer: nop\n#\n");
+        long timestampUs = 1000000;
+        int depth = 0;
+        for (int i = 0; i < lines; i++) {
+            int tid = 1000 + (i % 7);
+            timestampUs += 13;
+            builder.append(String.format("    RenderThread-%d  ( 1000) [%03d] ...1 %6d.%06d: ",
+                    tid, i % 4, timestampUs / 1000000, timestampUs % 1000000));
+            switch (i % 3) {
+                case 0:
+                    builder.append("sched_switch: prev_comm=RenderThread prev_pid=").append(tid)
+                            .append(" prev_prio=120 prev_state=S ==> next_comm=swapper/1")
+                            .append(" next_pid=0 next_prio=120\n");
+                    break;
+                case 1:
+                    builder.append("tracing_mark_write: B|1000|")
+                            .append(SECTIONS[depth++ % SECTIONS.length]).append('\n');
+                    break;
+                default:
+                    builder.append("tracing_mark_write: E\n");
+                    depth--;
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the median time in nanoseconds of matching each line of {@code trace} with the
+     * regular expressions, extracting the same fields as {@link FtraceParser}.
+     */
+    private static long timeRegex(String trace) throws IOException {
+        long[] times = new long[ITERATIONS];
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            int begins = 0;
+            BufferedReader reader = new BufferedReader(new StringReader(trace));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher m = sLineWithTgid.matcher(line);
+                String details;
+                if (m.matches()) {
+                    Integer.parseInt(m.group(2));
+                    details = m.group(7);
+                } else if ((m = sLineWithIrqInfo.matcher(line)).matches()) {
+                    Integer.parseInt(m.group(2));
+                    details = m.group(6);
+                } else if ((m = sLineLegacy.matcher(line)).matches()) {
+                    Integer.parseInt(m.group(2));
+                    details = m.group(6);
+                } else {
+                    continue;
+                }
+                if (details.startsWith("B|")) {
+                    begins++;
+                }
+            }
+            if (i >= 0) {
+                times[i] = System.nanoTime() - start;
+            }
+            checkBegins(begins, trace);
+        }
+        return median(times);
+    }
+
+    /**
+     * Returns the median time in nanoseconds of parsing {@code trace} with {@link FtraceParser}.
+     */
+    private static long timeParser(final String trace) throws IOException {
+        long[] times = new long[ITERATIONS];
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            final int[] begins = new int[1];
+            long start = System.nanoTime();
+            FtraceParser.parse(new StringReader(trace), new FtraceListener() {
+                @Override
+                public void onSliceBegin(FtraceEvent event, int pid, FtraceEvent.Text name) {
+                    begins[0]++;
+                }
+            });
+            if (i >= 0) {
+                times[i] = System.nanoTime() - start;
+            }
+            checkBegins(begins[0], trace);
+        }
+        return median(times);
+    }
+
+    private static void checkBegins(int begins, String trace) {
+        int expected = 0;
+        for (int i = trace.indexOf("B|"); i >= 0; i = trace.indexOf("B|", i + 2)) {
+            expected++;
+        }
+        if (begins != expected) {
+            throw new IllegalStateException("Parsed " + begins + " sections, expected "
+                    + expected);
+        }
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.compatibility.common.util;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link FtraceParser}
+ */
+public class FtraceParserTest extends TestCase {
+
+    private static final String TGID_TRACE =
+            "TRACE:\n" +
+            "# tracer: nop\n" +
+            "#\n" +
+            "#           TASK-PID    TGID   CPU#  ||||    TIMESTAMP  FUNCTION\n" +
+            "          <idle>-0     (-----) [001] d..3  1234.567890: sched_switch: " +
+                "prev_comm=swapper/1 prev_pid=0 prev_prio=120 prev_state=R ==> " +
+                "next_comm=Binder:1-2 3 next_pid=1305 next_prio=120\n" +
+            "     Binder:1-2 3-1305  ( 1290) [001] ...1  1234.567901: tracing_mark_write: " +
+                "B|1290|inflate\n" +
+            "     Binder:1-2 3-1305  ( 1290) [001] ...1  1234.5680: tracing_mark_write: E\n" +
+            "  RenderThread-1320  ( 1290) [003] ...1  1234.600000: tracing_mark_write: " +
+                "E|1290\r\n" +
+            "\n";
+
+    private static final String IRQ_INFO_TRACE =
+            "          <idle>-0     [000] d.h2    45.000001: irq_handler_entry: irq=31 name=x\n" +
+            "    surfaceflinger-500   [002] ...1    45.250000: tracing_mark_write: B|500|onMessage";
+
+    private static final String LEGACY_TRACE =
+            "          <idle>-0     [000]    12.5: cpu_idle: state=1 cpu_id=0\n" +
+            "           zygote-99    [001]  12.750000: tracing_mark_write: B|99|preload\n";
+
+    private static class RecordingListener extends FtraceListener {
+        final List<String> mEvents = new ArrayList<>();
+        final List<String> mUnparsed = new ArrayList<>();
+        int mFinished;
+
+        @Override
+        public void onEvent(FtraceEvent event) {
+            mEvents.add(event.getThreadName() + "|" + event.getTid() + "|" + event.getTgid()
+                    + "|" + event.getCpu() + "|" + event.getTimestampUs() + "|"
+                    + event.getEventName() + "|" + event.getDetails());
+        }
+
+        @Override
+        public void onSchedSwitch(FtraceEvent event, FtraceEvent.SchedSwitch sched) {
+            mEvents.add("switch " + sched.getPrevComm() + "/" + sched.getPrevPid() + "/"
+                    + sched.getPrevPrio() + "/" + sched.getPrevState() + " -> "
+                    + sched.getNextComm() + "/" + sched.getNextPid() + "/"
+                    + sched.getNextPrio());
+        }
+
+        @Override
+        public void onSliceBegin(FtraceEvent event, int pid, FtraceEvent.Text name) {
+            mEvents.add("begin " + pid + " " + name);
+        }
+
+        @Override
+        public void onSliceEnd(FtraceEvent event, int pid) {
+            mEvents.add("end " + pid);
+        }
+
+        @Override
+        public void onUnparsedLine(CharSequence line) {
+            mUnparsed.add(line.toString());
+        }
+
+        @Override
+        public void onFinished() {
+            mFinished++;
+        }
+    }
+
+    public void testTgidFormat() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        FtraceParser parser = new FtraceParser(listener);
+        parser.parse(new StringReader(TGID_TRACE));
+        assertEquals(FtraceParser.Format.TGID, parser.getFormat());
+        assertEquals(1, listener.mUnparsed.size());
+        assertEquals("TRACE:", listener.mUnparsed.get(0));
+        assertEquals(1, listener.mFinished);
+
+        List<String> events = listener.mEvents;
+        assertEquals(8, events.size());
+        assertEquals("<idle>|0|-1|1|1234567890|sched_switch|prev_comm=swapper/1 prev_pid=0 "
+                + "prev_prio=120 prev_state=R ==> next_comm=Binder:1-2 3 next_pid=1305 "
+                + "next_prio=120", events.get(0));
+        assertEquals("switch swapper/1/0/120/R -> Binder:1-2 3/1305/120", events.get(1));
+        assertEquals("Binder:1-2 3|1305|1290|1|1234567901|tracing_mark_write|B|1290|inflate",
+                events.get(2));
+        assertEquals("begin 1290 inflate", events.get(3));
+        assertEquals("Binder:1-2 3|1305|1290|1|1234568000|tracing_mark_write|E", events.get(4));
+        assertEquals("end -1", events.get(5));
+        assertEquals("RenderThread|1320|1290|3|1234600000|tracing_mark_write|E|1290",
+                events.get(6));
+        assertEquals("end 1290", events.get(7));
+    }
+
+    public void testIrqInfoFormat() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        FtraceParser parser = new FtraceParser(listener);
+        parser.parse(new StringReader(IRQ_INFO_TRACE));
+        assertEquals(FtraceParser.Format.IRQ_INFO, parser.getFormat());
+        assertTrue(listener.mUnparsed.isEmpty());
+        assertEquals(3, listener.mEvents.size());
+        assertEquals("<idle>|0|-1|0|45000001|irq_handler_entry|irq=31 name=x",
+                listener.mEvents.get(0));
+        assertEquals("begin 500 onMessage", listener.mEvents.get(2));
+    }
+
+    public void testLegacyFormat() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        FtraceParser parser = new FtraceParser(listener);
+        parser.parse(new StringReader(LEGACY_TRACE));
+        assertEquals(FtraceParser.Format.LEGACY, parser.getFormat());
+        assertEquals(3, listener.mEvents.size());
+        assertEquals("<idle>|0|-1|0|12500000|cpu_idle|state=1 cpu_id=0",
+                listener.mEvents.get(0));
+        assertEquals("begin 99 preload", listener.mEvents.get(2));
+    }
+
+    /**
+     * Test that records split across chunks are parsed the same as whole ones.
+     */
+    public void testChunkedInput() throws Exception {
+        RecordingListener whole = new RecordingListener();
+        FtraceParser.parse(new StringReader(TGID_TRACE), whole);
+
+        RecordingListener chunked = new RecordingListener();
+        FtraceParser parser = new FtraceParser(chunked);
+        char[] chars = TGID_TRACE.toCharArray();
+        for (int i = 0; i < chars.length; i += 7) {
+            parser.addChars(chars, i, Math.min(7, chars.length - i));
+        }
+        parser.finish();
+        parser.finish();
+        assertEquals(whole.mEvents, chunked.mEvents);
+        assertEquals(whole.mUnparsed, chunked.mUnparsed);
+        assertEquals(1, chunked.mFinished);
+    }
+
+    /**
+     * Test that the receiver decodes multi-byte characters split across chunks of output.
+     */
+    public void testOutputReceiver() throws Exception {
+        String trace = "  caf\u00e9-42    ( 42) [000] ...1  1.000001: tracing_mark_write: "
+                + "B|42|\u00fcber\n";
+        byte[] bytes = trace.getBytes(StandardCharsets.UTF_8);
+        RecordingListener listener = new RecordingListener();
+        FtraceOutputReceiver receiver = new FtraceOutputReceiver(listener);
+        for (int i = 0; i < bytes.length; i++) {
+            receiver.addOutput(bytes, i, 1);
+        }
+        receiver.flush();
+        assertEquals(0, listener.mFinished);
+        receiver.finish();
+        assertEquals(1, listener.mFinished);
+        assertEquals(2, listener.mEvents.size());
+        assertEquals("caf\u00e9|42|42|0|1000001|tracing_mark_write|B|42|\u00fcber",
+                listener.mEvents.get(0));
+        assertEquals("begin 42 \u00fcber", listener.mEvents.get(1));
+    }
+
+    public void testText() throws Exception {
+        final List<Boolean> results = new ArrayList<>();
+        FtraceParser.parse(new StringReader(IRQ_INFO_TRACE), new FtraceListener() {
+            @Override
+            public void onSliceBegin(FtraceEvent event, int pid, FtraceEvent.Text name) {
+                results.add(event.isEvent("tracing_mark_write"));
+                results.add(name.contentEquals("onMessage"));
+                results.add(name.startsWith("on"));
+                results.add(name.endsWith("Message"));
+                results.add(name.contentEquals("onMessag"));
+                results.add(event.getDetails().endsWith("|onMessage"));
+            }
+        });
+        assertEquals("[true, true, true, true, false, true]", results.toString());
+    }
+}
@@ -28,6 +28,8 @@ public class HostUnitTests extends TestSuite {
     public HostUnitTests() {
         super();
         addTestSuite(DynamicConfigHandlerTest.class);
+        addTestSuite(CheckinParserTest.class);
+        addTestSuite(FtraceParserTest.class);
     }
 
     public static Test suite() {
@@ -185,6 +185,8 @@ public class ModuleResult implements IModuleResult {
 
         this.mRuntime += otherModuleResult.getRuntime();
         this.mDone = otherModuleResult.isDone();
+        // Pieces of a sharded module each report the tests they did not execute
+        this.mNotExecuted += otherModuleResult.getNotExecuted();
         for (ICaseResult otherCaseResult : otherModuleResult.getResults()) {
             ICaseResult caseResult = getOrCreateResult(otherCaseResult.getName());
             caseResult.mergeFrom(otherCaseResult);
@@ -33,7 +33,9 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -93,6 +95,7 @@ public class ResultHandler {
     private static final String SUITE_BUILD_ATTR = "suite_build_number";
     private static final String SUMMARY_TAG = "Summary";
     private static final String TEST_TAG = "Test";
+    private static final String TIMELINE_TAG = "HarnessTimeline";
 
     /**
      * @param resultsDir
@@ -145,6 +148,11 @@ public class ResultHandler {
                 parser.nextTag();
                 parser.require(XmlPullParser.END_TAG, NS, SUMMARY_TAG);
                 while (parser.nextTag() == XmlPullParser.START_TAG) {
+                    if (parser.getName().equals(TIMELINE_TAG)) {
+                        parser.nextTag();
+                        parser.require(XmlPullParser.END_TAG, NS, TIMELINE_TAG);
+                        continue;
+                    }
                     parser.require(XmlPullParser.START_TAG, NS, MODULE_TAG);
                     String name = parser.getAttributeValue(NS, NAME_ATTR);
                     String abi = parser.getAttributeValue(NS, ABI_ATTR);
@@ -214,6 +222,39 @@ public class ResultHandler {
         return results;
     }
 
+    /**
+     * Returns the attributes of the HarnessTimeline element of a result file, in the order they
+     * were written, or an empty map if the file has none.
+     */
+    public static Map<String, String> getHarnessTimeline(File resultFile)
+            throws IOException, XmlPullParserException {
+        Map<String, String> timeline = new LinkedHashMap<>();
+        FileReader reader = new FileReader(resultFile);
+        try {
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(reader);
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                if (parser.getName().equals(TIMELINE_TAG)) {
+                    for (int i = 0; i < parser.getAttributeCount(); i++) {
+                        timeline.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+                    }
+                    break;
+                }
+                if (parser.getName().equals(MODULE_TAG)) {
+                    // The timeline comes before the modules
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return timeline;
+    }
+
     /**
      * @param result
      * @param resultDir
@@ -230,6 +271,21 @@ public class ResultHandler {
             long startTime, long endTime, String referenceUrl, String logUrl,
             String commandLineArgs)
                     throws IOException, XmlPullParserException {
+        return writeResults(suiteName, suiteVersion, suitePlan, suiteBuild, result, resultDir,
+                startTime, endTime, referenceUrl, logUrl, commandLineArgs, null);
+    }
+
+    /**
+     * Same as above, also writing the time spent by the harness.
+     *
+     * @param timeline A nullable map of attributes summing up where the harness spent its time,
+     * written to a HarnessTimeline element after the summary
+     */
+    public static File writeResults(String suiteName, String suiteVersion, String suitePlan,
+            String suiteBuild, IInvocationResult result, File resultDir,
+            long startTime, long endTime, String referenceUrl, String logUrl,
+            String commandLineArgs, Map<String, String> timeline)
+                    throws IOException, XmlPullParserException {
         int passed = result.countResults(TestStatus.PASS);
         int failed = result.countResults(TestStatus.FAIL);
         int notExecuted = result.getNotExecuted();
@@ -306,6 +362,15 @@ public class ResultHandler {
                 Integer.toString(result.getModules().size()));
         serializer.endTag(NS, SUMMARY_TAG);
 
+        // Harness Timeline
+        if (timeline != null && !timeline.isEmpty()) {
+            serializer.startTag(NS, TIMELINE_TAG);
+            for (Entry<String, String> entry : timeline.entrySet()) {
+                serializer.attribute(NS, entry.getKey(), entry.getValue());
+            }
+            serializer.endTag(NS, TIMELINE_TAG);
+        }
+
         // Results
         for (IModuleResult module : result.getModules()) {
             serializer.startTag(NS, MODULE_TAG);
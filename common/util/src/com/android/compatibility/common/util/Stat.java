@@ -22,6 +22,18 @@ import java.util.Arrays;
  * Utilities for doing statistics
  */
 public class Stat {
+    /**
+     * Two-sided 95% critical values of the Student's t distribution, indexed by degrees of
+     * freedom minus one.
+     */
+    private static final double[] T_DISTRIBUTION_95 = {
+        12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+        2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+        2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+    };
+    /** Critical value of the normal distribution, used past the end of the t table. */
+    private static final double NORMAL_95 = 1.960;
+
     /**
      * Private constructor for static class.
      */
@@ -102,6 +114,21 @@ public class Stat {
         return getStat(Arrays.copyOf(validData, index));
     }
 
+    /**
+     * Calculate the half width of the 95% confidence interval of the average of the given
+     * statistics, so that the true average lies in mAverage +/- the returned value.
+     * Returns 0 when there are less than two data points.
+     */
+    public static double getConfidenceInterval95(StatResult stat) {
+        if (stat.mDataCount < 2) {
+            return 0.0;
+        }
+        int degreesOfFreedom = stat.mDataCount - 1;
+        double t = degreesOfFreedom <= T_DISTRIBUTION_95.length
+                ? T_DISTRIBUTION_95[degreesOfFreedom - 1] : NORMAL_95;
+        return t * stat.mStddev / Math.sqrt(stat.mDataCount);
+    }
+
     /**
      * return the average value of the passed array
      */
@@ -173,10 +200,18 @@ public class Stat {
      * Get the value of the 95th percentile using nearest rank algorithm.
      */
     public static double get95PercentileValue(double[] values) {
+        return getPercentileValue(values, 95);
+    }
+
+    /**
+     * Get the value of the given percentile, between 0 and 100, using nearest rank algorithm.
+     * The values are sorted in place.
+     */
+    public static double getPercentileValue(double[] values, double percentile) {
         Arrays.sort(values);
         // zero-based array index
-        int index = (int) Math.round(values.length * 0.95 + .5) - 1;
-        return values[index];
+        int index = (int) Math.round(values.length * percentile / 100 + .5) - 1;
+        return values[Math.max(0, Math.min(values.length - 1, index))];
     }
 
 }
@@ -102,6 +102,14 @@ public class ModuleResultTest extends TestCase {
         assertTrue(mResult.isDone());
     }
 
+    public void testMergeModule_notExecuted() throws Exception {
+        mResult.setNotExecuted(2);
+        ModuleResult otherResult = new ModuleResult(ID);
+        otherResult.setNotExecuted(3);
+        mResult.mergeFrom(otherResult);
+        assertEquals("Expected not executed tests of both results", 5, mResult.getNotExecuted());
+    }
+
     public void testSetDone() {
         assertFalse(mResult.isDone());
         mResult.setDone(true);
@@ -23,7 +23,9 @@ import java.io.File;
 import java.io.FileWriter;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -197,6 +199,48 @@ public class ResultHandlerTest extends TestCase {
         checkResult(ResultHandler.getResults(resultsDir), resultDir);
     }
 
+    public void testHarnessTimeline() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        result.setStartTime(START_MS);
+        result.setTestPlan(SUITE_PLAN);
+        result.addDeviceSerial(DEVICE_A);
+        result.addInvocationInfo(BUILD_ID, EXAMPLE_BUILD_ID);
+        result.addInvocationInfo(BUILD_PRODUCT, EXAMPLE_BUILD_PRODUCT);
+        IModuleResult moduleA = result.getOrCreateModule(ID_A);
+        moduleA.setDone(true);
+        moduleA.getOrCreateResult(CLASS_A).getOrCreateResult(METHOD_1)
+                .setResultStatus(TestStatus.PASS);
+        Map<String, String> timeline = new LinkedHashMap<>();
+        timeline.put("trace", "harness_timeline.json");
+        timeline.put("module_ms", "1500");
+        timeline.put("reboot_ms", "20");
+
+        File resultFile = ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN,
+                SUITE_BUILD, result, resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                COMMAND_LINE_ARGS, timeline);
+
+        Map<String, String> read = ResultHandler.getHarnessTimeline(resultFile);
+        assertEquals(timeline, read);
+        assertEquals(new ArrayList<>(timeline.keySet()), new ArrayList<>(read.keySet()));
+        // the results around the timeline are still read
+        List<IInvocationResult> results = ResultHandler.getResults(resultsDir);
+        assertEquals(1, results.size());
+        assertEquals(1, results.get(0).countResults(TestStatus.PASS));
+        assertEquals(1, results.get(0).getModules().size());
+    }
+
+    public void testHarnessTimeline_missing() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        result.setStartTime(START_MS);
+        result.setTestPlan(SUITE_PLAN);
+        result.addDeviceSerial(DEVICE_A);
+        result.getOrCreateModule(ID_A).setDone(true);
+        File resultFile = ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN,
+                SUITE_BUILD, result, resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                COMMAND_LINE_ARGS);
+        assertTrue(ResultHandler.getHarnessTimeline(resultFile).isEmpty());
+    }
+
     public void testParsing() throws Exception {
         File resultsDir = null;
         FileWriter writer = null;
@@ -47,6 +47,44 @@ public class StatTest extends TestCase {
         assertEquals(95 * 95, (int) Stat.get95PercentileValue(values));
     }
 
+    /**
+     * Test {@link Stat#getPercentileValue(double[], double)}.
+     */
+    public void testGetPercentileValue() {
+        double[] values = new double[100];
+        for (int i = 0; i < 100; i++) {
+            values[i] = 99 - i;
+        }
+        assertEquals(0, (int) Stat.getPercentileValue(values, 0));
+        assertEquals(50, (int) Stat.getPercentileValue(values, 50));
+        assertEquals(99, (int) Stat.getPercentileValue(values, 99));
+        assertEquals(99, (int) Stat.getPercentileValue(values, 100));
+
+        values = new double[]{5};
+        assertEquals(5, (int) Stat.getPercentileValue(values, 0));
+        assertEquals(5, (int) Stat.getPercentileValue(values, 100));
+    }
+
+    /**
+     * Test {@link Stat#getConfidenceInterval95(Stat.StatResult)}.
+     */
+    public void testGetConfidenceInterval95() {
+        double[] values = new double[]{0, 1, 2, 3, 4};
+        // stddev is sqrt(2.5), t for 4 degrees of freedom is 2.776
+        assertEquals(2.776 * Math.sqrt(2.5) / Math.sqrt(5),
+                Stat.getConfidenceInterval95(Stat.getStat(values)), 0.00001);
+
+        values = new double[100];
+        for (int i = 0; i < 100; i++) {
+            values[i] = i % 2;
+        }
+        Stat.StatResult stat = Stat.getStat(values);
+        assertEquals(1.960 * stat.mStddev / 10, Stat.getConfidenceInterval95(stat), 0.00001);
+
+        values = new double[]{3};
+        assertEquals(0.0, Stat.getConfidenceInterval95(Stat.getStat(values)), 0.00001);
+    }
+
     /**
      * Test {@link Stat#getAverage(double[])}.
      */
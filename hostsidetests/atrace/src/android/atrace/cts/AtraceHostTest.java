@@ -16,6 +16,9 @@
 
 package android.atrace.cts;
 
+import com.android.compatibility.common.util.FtraceEvent;
+import com.android.compatibility.common.util.FtraceListener;
+import com.android.compatibility.common.util.FtraceOutputReceiver;
 import com.android.cts.migration.MigrationHelper;
 import com.android.ddmlib.Log;
 import com.android.tradefed.build.IBuildInfo;
@@ -23,16 +26,11 @@ import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.testtype.DeviceTestCase;
 import com.android.tradefed.testtype.IBuildReceiver;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.Reader;
-import java.io.StringReader;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Test to check that atrace is usable, to enable usage of systrace.
@@ -41,83 +39,6 @@ public class AtraceHostTest extends DeviceTestCase implements IBuildReceiver {
     private static final String TEST_APK = "CtsAtraceTestApp.apk";
     private static final String TEST_PKG = "com.android.cts.atracetestapp";
 
-    private interface FtraceEntryCallback {
-        void onTraceEntry(String threadName, int pid, int tid, String eventType, String args);
-        void onFinished();
-    }
-
-    /**
-     * Helper for parsing ftrace data.
-     * Regexs copied from (and should be kept in sync with) ftrace importer in catapult.
-     */
-    private static class FtraceParser {
-        // Matches the trace record in 3.2 and later with the print-tgid option:
-        //          <idle>-0    0 [001] d...  1.23: sched_switch
-        private static final Pattern sLineWithTgid = Pattern.compile(
-                "^\\s*(.+)-(\\d+)\\s+\\(\\s*(\\d+|-+)\\)\\s\\[(\\d+)\\]"
-                + "\\s+[dX.][N.][Hhs.][0-9a-f.]"
-                + "\\s+(\\d+\\.\\d+):\\s+(\\S+):\\s(.*)");
-
-        // Matches the default trace record in 3.2 and later (includes irq-info):
-        //          <idle>-0     [001] d...  1.23: sched_switch
-        private static final Pattern sLineWithIrqInfo = Pattern.compile(
-                "^\\s*(.+)-(\\d+)\\s+\\[(\\d+)\\]"
-                + "\\s+[dX.][N.][Hhs.][0-9a-f.]"
-                + "\\s+(\\d+\\.\\d+):\\s+(\\S+):\\s(.*)$");
-
-        // Matches the default trace record pre-3.2:
-        //          <idle>-0     [001]  1.23: sched_switch
-        private static final Pattern sLineLegacy = Pattern.compile(
-                "^\\s*(.+)-(\\d+)\\s+\\[(\\d+)\\]\\s*(\\d+\\.\\d+):\\s+(\\S+):\\s(.*)");
-        private static void parseLine(String line, FtraceEntryCallback callback) {
-            Matcher m = sLineWithTgid.matcher(line);
-            if (m.matches()) {
-                callback.onTraceEntry(
-                        /*threadname*/ m.group(1),
-                        /*pid*/ m.group(3).startsWith("-") ? -1 : Integer.parseInt(m.group(3)),
-                        /*tid*/ Integer.parseInt(m.group(2)),
-                        /*eventName*/ m.group(6),
-                        /*details*/ m.group(7));
-                return;
-            }
-
-            m = sLineWithIrqInfo.matcher(line);
-            if (m.matches()) {
-                callback.onTraceEntry(
-                        /*threadname*/ m.group(1),
-                        /*pid*/ -1,
-                        /*tid*/ Integer.parseInt(m.group(2)),
-                        /*eventName*/ m.group(5),
-                        /*details*/ m.group(6));
-                return;
-            }
-
-            m = sLineLegacy.matcher(line);
-            if (m.matches()) {
-                callback.onTraceEntry(
-                        /*threadname*/ m.group(1),
-                        /*pid*/ -1,
-                        /*tid*/ Integer.parseInt(m.group(2)),
-                        /*eventName*/ m.group(5),
-                        /*details*/ m.group(6));
-                return;
-            }
-            System.err.println("line doesn't match: " + line);
-        }
-
-        private static void parse(Reader reader, FtraceEntryCallback callback) throws Exception {
-            try {
-                BufferedReader bufferedReader = new BufferedReader(reader);
-                String line;
-                while ((line = bufferedReader.readLine()) != null) {
-                    FtraceParser.parseLine(line, callback);
-                }
-            } finally {
-                callback.onFinished();
-            }
-        }
-    }
-
     private IBuildInfo mCtsBuild;
 
     /**
@@ -195,44 +116,17 @@ public class AtraceHostTest extends DeviceTestCase implements IBuildReceiver {
      * Tests that atrace captures app launch, including app level tracing
      */
     public void testTracingContent() throws Exception {
-        String atraceOutput = null;
-        try {
-            // cleanup test apps that might be installed from previous partial test run
-            getDevice().uninstallPackage(TEST_PKG);
-
-            // install the test app
-            File testAppFile = MigrationHelper.getTestFile(mCtsBuild, TEST_APK);
-            String installResult = getDevice().installPackage(testAppFile, false);
-            assertNull(
-                    String.format("failed to install atrace test app. Reason: %s", installResult),
-                    installResult);
-
-            // capture a launch of the app with async tracing
-            // content traced by 'view' tag tested below, 'sched' used to ensure tgid printed
-            String atraceArgs = "-a " + TEST_PKG + " -c -b 16000 view"; // TODO: zipping
-            getDevice().executeShellCommand("atrace --async_stop " + atraceArgs);
-            getDevice().executeShellCommand("atrace --async_start " + atraceArgs);
-            getDevice().executeShellCommand("am start " + TEST_PKG);
-            getDevice().executeShellCommand("sleep 1");
-            atraceOutput = getDevice().executeShellCommand("atrace --async_stop " + atraceArgs);
-        } finally {
-            assertNotNull("unable to capture atrace output", atraceOutput);
-            getDevice().uninstallPackage(TEST_PKG);
-        }
-
-
-        // now parse the trace data (see external/chromium-trace/systrace.py)
-        final String MARKER = "TRACE:";
-        int dataStart = atraceOutput.indexOf(MARKER);
-        assertTrue(dataStart >= 0);
-        String traceData = atraceOutput.substring(dataStart + MARKER.length());
-
-        FtraceEntryCallback callback = new FtraceEntryCallback() {
+        // the trace is parsed as it is streamed from the device, see
+        // external/chromium-trace/systrace.py for the format.
+        FtraceListener listener = new FtraceListener() {
+            private boolean sawTraceMarker = false;
             private int userSpaceMatches = 0;
+            private int invalidThreads = 0;
             private int beginMatches = 0;
             private int nextSectionIndex = -1;
             private int appTid = -1;
-
+            // initial sections seen after the first one, which must not happen
+            private int repeatedInitialSections = 0;
 
             private final String initialSection = "traceable-app-test-section";
             // list of tags expected to be seen on app launch, in order, after the initial.
@@ -247,35 +141,44 @@ public class AtraceHostTest extends DeviceTestCase implements IBuildReceiver {
             };
 
             @Override
-            public void onTraceEntry(String truncatedThreadName, int pid, int tid,
-                    String eventName, String details) {
-                if (!"tracing_mark_write".equals(eventName)) {
+            public void onUnparsedLine(CharSequence line) {
+                if ("TRACE:".contentEquals(line)) {
+                    sawTraceMarker = true;
+                }
+            }
+
+            @Override
+            public void onEvent(FtraceEvent event) {
+                if (!event.isEvent("tracing_mark_write")) {
                     // not userspace trace, ignore
                     return;
                 }
-
-                assertNotNull(truncatedThreadName);
-                assertTrue(tid > 0);
+                if (event.getTid() <= 0 || event.getThreadName().length() == 0) {
+                    invalidThreads++;
+                }
                 userSpaceMatches++;
+            }
 
-                if (details == null || !details.startsWith("B|")) {
-                    // not a begin event
-                    return;
-                }
+            @Override
+            public void onSliceBegin(FtraceEvent event, int pid, FtraceEvent.Text name) {
                 beginMatches++;
+                int tid = event.getTid();
 
-                if (details.endsWith("|" + initialSection)) {
+                if (name.contentEquals(initialSection)) {
                     // initial section observed, start looking for others in order
-                    assertEquals(nextSectionIndex, -1);
-                    nextSectionIndex = 0;
-                    appTid = tid;
+                    if (nextSectionIndex == -1) {
+                        nextSectionIndex = 0;
+                        appTid = tid;
+                    } else {
+                        repeatedInitialSections++;
+                    }
                     return;
                 }
 
                 if (nextSectionIndex >= 0
                         && tid == appTid
                         && nextSectionIndex < requiredSectionList.length
-                        && details.endsWith("|" + requiredSectionList[nextSectionIndex])) {
+                        && name.contentEquals(requiredSectionList[nextSectionIndex])) {
                     // found next required section in sequence
                     nextSectionIndex++;
                 }
@@ -283,17 +186,45 @@ public class AtraceHostTest extends DeviceTestCase implements IBuildReceiver {
 
             @Override
             public void onFinished() {
+                // assertions are made here, on the test thread, rather than as output arrives
+                assertTrue("Unable to find trace data in atrace output", sawTraceMarker);
+                assertEquals("Userspace sections without a valid thread", 0, invalidThreads);
                 assertTrue("Unable to parse any userspace sections from atrace output",
                         userSpaceMatches != 0);
                 assertTrue("Unable to parse any section begin events from atrace output",
                         beginMatches != 0);
                 assertTrue("Unable to parse initial userspace sections from test app",
                         nextSectionIndex >= 0);
+                assertEquals("Initial userspace section traced more than once",
+                        0, repeatedInitialSections);
                 assertEquals("Didn't see required list of traced sections, in order",
                         requiredSectionList.length, nextSectionIndex);
             }
         };
 
-        FtraceParser.parse(new StringReader(traceData), callback);
+        FtraceOutputReceiver receiver = new FtraceOutputReceiver(listener);
+        try {
+            // cleanup test apps that might be installed from previous partial test run
+            getDevice().uninstallPackage(TEST_PKG);
+
+            // install the test app
+            File testAppFile = MigrationHelper.getTestFile(mCtsBuild, TEST_APK);
+            String installResult = getDevice().installPackage(testAppFile, false);
+            assertNull(
+                    String.format("failed to install atrace test app. Reason: %s", installResult),
+                    installResult);
+
+            // capture a launch of the app with async tracing
+            // content traced by 'view' tag tested below, 'sched' used to ensure tgid printed
+            String atraceArgs = "-a " + TEST_PKG + " -c -b 16000 view"; // TODO: zipping
+            getDevice().executeShellCommand("atrace --async_stop " + atraceArgs);
+            getDevice().executeShellCommand("atrace --async_start " + atraceArgs);
+            getDevice().executeShellCommand("am start " + TEST_PKG);
+            getDevice().executeShellCommand("sleep 1");
+            getDevice().executeShellCommand("atrace --async_stop " + atraceArgs, receiver);
+        } finally {
+            getDevice().uninstallPackage(TEST_PKG);
+        }
+        receiver.finish();
     }
 }
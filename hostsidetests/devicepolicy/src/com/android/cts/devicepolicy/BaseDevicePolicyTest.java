@@ -33,8 +33,11 @@ import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -62,10 +65,16 @@ public class BaseDevicePolicyTest extends DeviceTestCase implements IBuildReceiv
         }
     }
 
+    /**
+     * What is kept across the tests of the invocation running on each device, by serial. It is
+     * replaced as soon as a test runs for another invocation or on another device build.
+     */
+    private static final Map<String, InvocationState> sInvocationStates = new HashMap<>();
+
     protected IBuildInfo mCtsBuild;
 
-    private String mPackageVerifier;
-    private HashSet<String> mAvailableFeatures;
+    private InvocationState mInvocationState;
+    private DeviceFacts mDeviceFacts;
 
     /** Whether DPM is supported. */
     protected boolean mHasFeature;
@@ -86,13 +95,20 @@ public class BaseDevicePolicyTest extends DeviceTestCase implements IBuildReceiv
     protected void setUp() throws Exception {
         super.setUp();
         assertNotNull(mCtsBuild);  // ensure build has been set before test is run.
-        mHasFeature = getDevice().getApiLevel() >= 21 /* Build.VERSION_CODES.L */
+        mInvocationState = getInvocationState();
+        mDeviceFacts = mInvocationState.mDeviceFacts;
+        if (mDeviceFacts.mApiLevel == null) {
+            mDeviceFacts.mApiLevel = getDevice().getApiLevel();
+        }
+        mHasFeature = mDeviceFacts.mApiLevel >= 21 /* Build.VERSION_CODES.L */
                 && hasDeviceFeature("android.software.device_admin");
         mSupportsMultiUser = getMaxNumberOfUsersSupported() > 1;
 
         // disable the package verifier to avoid the dialog when installing an app
-        mPackageVerifier = getDevice().executeShellCommand(
-                "settings get global package_verifier_enable");
+        if (mDeviceFacts.mPackageVerifier == null) {
+            mDeviceFacts.mPackageVerifier = getDevice().executeShellCommand(
+                    "settings get global package_verifier_enable");
+        }
         getDevice().executeShellCommand("settings put global package_verifier_enable 0");
 
         mFixedUsers = new ArrayList();
@@ -102,20 +118,51 @@ public class BaseDevicePolicyTest extends DeviceTestCase implements IBuildReceiv
             mFixedUsers.add(USER_SYSTEM);
         }
         switchUser(mPrimaryUserId);
-        removeOwners();
-        removeTestUsers();
+        if (getClass().getName().equals(mInvocationState.mCleanedUpBy)) {
+            CLog.d("Device was cleaned up by the previous test, skipping cleanup");
+        } else {
+            removeOwners();
+            removeTestUsers();
+        }
+        // the device is no longer known to be clean once this test starts changing it
+        mInvocationState.mCleanedUpBy = null;
     }
 
     @Override
     protected void tearDown() throws Exception {
         // reset the package verifier setting to its original value
         getDevice().executeShellCommand("settings put global package_verifier_enable "
-                + mPackageVerifier);
+                + mDeviceFacts.mPackageVerifier);
         removeOwners();
         removeTestUsers();
+        // only reached once the cleanup has completed, which the next test of this class relies
+        // on to skip its own
+        mInvocationState.mCleanedUpBy = getClass().getName();
+        DeviceTestBatch batch = mInvocationState.mBatches.get(getClass().getName());
+        if (batch != null && batch.isFinished()) {
+            mInvocationState.mBatches.remove(getClass().getName());
+        }
         super.tearDown();
     }
 
+    /**
+     * Returns the state kept for this invocation and device, starting afresh when the device was
+     * last used by another invocation or has since been flashed with another build.
+     */
+    private InvocationState getInvocationState() throws DeviceNotAvailableException {
+        String serial = getDevice().getSerialNumber();
+        String fingerprint = getDevice().getProperty("ro.build.fingerprint");
+        synchronized (sInvocationStates) {
+            InvocationState state = sInvocationStates.get(serial);
+            if (state == null || state.mBuild != mCtsBuild
+                    || !Objects.equals(state.mFingerprint, fingerprint)) {
+                state = new InvocationState(mCtsBuild, fingerprint);
+                sInvocationStates.put(serial, state);
+            }
+            return state;
+        }
+    }
+
     protected void installAppAsUser(String appFileName, int userId) throws FileNotFoundException,
             DeviceNotAvailableException {
         installAppAsUser(appFileName, true, userId);
@@ -153,7 +200,10 @@ public class BaseDevicePolicyTest extends DeviceTestCase implements IBuildReceiv
     }
 
     protected int getMaxNumberOfUsersSupported() throws DeviceNotAvailableException {
-        return getDevice().getMaxNumberOfUsersSupported();
+        if (mDeviceFacts.mMaxUsers == null) {
+            mDeviceFacts.mMaxUsers = getDevice().getMaxNumberOfUsersSupported();
+        }
+        return mDeviceFacts.mMaxUsers;
     }
 
     protected int getUserFlags(int userId) throws DeviceNotAvailableException {
@@ -223,6 +273,30 @@ public class BaseDevicePolicyTest extends DeviceTestCase implements IBuildReceiv
         return runDeviceTestsAsUser(pkgName, testClassName, testMethodName, userId, params);
     }
 
+    /**
+     * Adds the device-side tests of this class that can run in a single instrumentation to
+     * {@code batch}. Those tests must rely only on the state set up by setUp(), and must not
+     * depend on each other: the first host test to run any of them runs them all, and the
+     * others report the result it collected. Called once per class and device, after setUp().
+     * <p/>
+     * Batched tests are still run with {@link #runDeviceTestsAsUser}, which maps their results
+     * back to the calling host test.
+     */
+    protected void addBatchedDeviceTests(DeviceTestBatch batch)
+            throws DeviceNotAvailableException {
+    }
+
+    private DeviceTestBatch getDeviceTestBatch() throws DeviceNotAvailableException {
+        String key = getClass().getName();
+        DeviceTestBatch batch = mInvocationState.mBatches.get(key);
+        if (batch == null) {
+            batch = new DeviceTestBatch(RUNNER);
+            addBatchedDeviceTests(batch);
+            mInvocationState.mBatches.put(key, batch);
+        }
+        return batch;
+    }
+
     protected boolean runDeviceTests(
             String pkgName, @Nullable String testClassName, String testMethodName)
             throws DeviceNotAvailableException {
@@ -236,6 +310,14 @@ public class BaseDevicePolicyTest extends DeviceTestCase implements IBuildReceiv
             testClassName = pkgName + testClassName;
         }
 
+        if (testClassName != null && params.isEmpty()) {
+            DeviceTestBatch batch = getDeviceTestBatch();
+            if (batch.contains(pkgName, testClassName, testMethodName, userId)) {
+                return batch.takeResult(getDevice(), pkgName, testClassName, testMethodName,
+                        userId);
+            }
+        }
+
         RemoteAndroidTestRunner testRunner = new RemoteAndroidTestRunner(
                 pkgName, RUNNER, getDevice().getIDevice());
         if (testClassName != null && testMethodName != null) {
@@ -258,7 +340,10 @@ public class BaseDevicePolicyTest extends DeviceTestCase implements IBuildReceiv
 
     /** Returns true if the system supports the split between system and primary user. */
     protected boolean hasUserSplit() throws DeviceNotAvailableException {
-        return getBooleanSystemProperty("ro.fw.system_user_split", false);
+        if (mDeviceFacts.mUserSplit == null) {
+            mDeviceFacts.mUserSplit = getBooleanSystemProperty("ro.fw.system_user_split", false);
+        }
+        return mDeviceFacts.mUserSplit;
     }
 
     /** Returns a boolean value of the system property with the specified key. */
@@ -298,24 +383,26 @@ public class BaseDevicePolicyTest extends DeviceTestCase implements IBuildReceiv
     }
 
     protected boolean hasDeviceFeature(String requiredFeature) throws DeviceNotAvailableException {
-        if (mAvailableFeatures == null) {
+        Set<String> availableFeatures = mDeviceFacts.mFeatures;
+        if (availableFeatures == null) {
             // TODO: Move this logic to ITestDevice.
             String command = "pm list features";
             String commandOutput = getDevice().executeShellCommand(command);
             CLog.i("Output for command " + command + ": " + commandOutput);
 
             // Extract the id of the new user.
-            mAvailableFeatures = new HashSet<>();
+            availableFeatures = new HashSet<>();
             for (String feature: commandOutput.split("\\s+")) {
                 // Each line in the output of the command has the format "feature:{FEATURE_VALUE}".
                 String[] tokens = feature.split(":");
                 assertTrue("\"" + feature + "\" expected to have format feature:{FEATURE_VALUE}",
                         tokens.length > 1);
                 assertEquals(feature, "feature", tokens[0]);
-                mAvailableFeatures.add(tokens[1]);
+                availableFeatures.add(tokens[1]);
             }
+            mDeviceFacts.mFeatures = availableFeatures;
         }
-        boolean result = mAvailableFeatures.contains(requiredFeature);
+        boolean result = availableFeatures.contains(requiredFeature);
         if (!result) {
             CLog.d("Device doesn't have required feature "
             + requiredFeature + ". Test won't run.");
@@ -363,7 +450,10 @@ public class BaseDevicePolicyTest extends DeviceTestCase implements IBuildReceiv
     }
 
     protected int getPrimaryUser() throws DeviceNotAvailableException {
-        return getDevice().getPrimaryUserId();
+        if (mDeviceFacts.mPrimaryUserId == null) {
+            mDeviceFacts.mPrimaryUserId = getDevice().getPrimaryUserId();
+        }
+        return mDeviceFacts.mPrimaryUserId;
     }
 
     protected int getUserSerialNumber(int userId) throws DeviceNotAvailableException{
@@ -529,4 +619,40 @@ public class BaseDevicePolicyTest extends DeviceTestCase implements IBuildReceiv
             }
         }
     }
+
+    /**
+     * Device properties that are queried once per device, rather than by every test. Fields are
+     * null until first queried.
+     */
+    private static class DeviceFacts {
+        Integer mApiLevel;
+        Set<String> mFeatures;
+        Integer mMaxUsers;
+        Integer mPrimaryUserId;
+        Boolean mUserSplit;
+        /** The package verifier setting before any test changed it. */
+        String mPackageVerifier;
+    }
+
+    /**
+     * State shared by the tests of one invocation on one device. The tests of a device run one
+     * after the other, so it is only ever used by one thread at a time.
+     */
+    private static class InvocationState {
+        final IBuildInfo mBuild;
+        final String mFingerprint;
+        final DeviceFacts mDeviceFacts = new DeviceFacts();
+        /** Batched device-side tests, by host test class. */
+        final Map<String, DeviceTestBatch> mBatches = new HashMap<>();
+        /**
+         * The host test class whose tearDown() last completed its cleanup, or null once a test
+         * has started since.
+         */
+        String mCleanedUpBy;
+
+        InvocationState(IBuildInfo build, String fingerprint) {
+            mBuild = build;
+            mFingerprint = fingerprint;
+        }
+    }
 }
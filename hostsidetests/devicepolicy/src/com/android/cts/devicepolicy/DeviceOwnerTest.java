@@ -16,6 +16,8 @@
 
 package com.android.cts.devicepolicy;
 
+import com.android.tradefed.device.DeviceNotAvailableException;
+
 import java.util.ArrayList;
 
 /**
@@ -84,6 +86,35 @@ public class DeviceOwnerTest extends BaseDevicePolicyTest {
         super.tearDown();
     }
 
+    @Override
+    protected void addBatchedDeviceTests(DeviceTestBatch batch)
+            throws DeviceNotAvailableException {
+        if (!mHasFeature) {
+            return;
+        }
+        // These only need the device owner set up by setUp(), and clean up after themselves.
+        for (String testClassName : new String[] {
+                "CaCertManagementTest",
+                "DeviceOwnerSetupTest",
+                "KeyManagementTest",
+                "LockScreenInfoTest",
+                "SystemUpdatePolicyTest"}) {
+            batch.add(DEVICE_OWNER_PKG, DEVICE_OWNER_PKG + "." + testClassName, null,
+                    mPrimaryUserId);
+        }
+        if (hasDeviceFeature("android.hardware.wifi")) {
+            batch.add(DEVICE_OWNER_PKG, DEVICE_OWNER_PKG + ".WifiTest", null, mPrimaryUserId);
+        }
+        batch.add(DEVICE_OWNER_PKG, ".HardwarePropertiesManagerTest",
+                "testHardwarePropertiesManager", mPrimaryUserId)
+                .add(DEVICE_OWNER_PKG, ".VrTemperatureTest", "testVrTemperatures",
+                        mPrimaryUserId)
+                .add(DEVICE_OWNER_PKG, ".PreDeviceOwnerTest", "testIsProvisioningAllowedFalse",
+                        mPrimaryUserId)
+                .add(DEVICE_OWNER_PKG, ".PreDeviceOwnerTest",
+                        "testIsProvisioningAllowedFalseForManagedProfileAction", mPrimaryUserId);
+    }
+
     public void testCaCertManagement() throws Exception {
         executeDeviceOwnerTest("CaCertManagementTest");
     }
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.devicepolicy;
+
+import com.android.ddmlib.testrunner.RemoteAndroidTestRunner;
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.ddmlib.testrunner.TestResult;
+import com.android.ddmlib.testrunner.TestRunResult;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.result.CollectingTestListener;
+
+import junit.framework.Assert;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Device-side tests of a host test class that are run together in as few instrumentations as
+ * possible, instead of one instrumentation per host test.
+ * <p/>
+ * Only tests that rely on nothing but the common setUp() of the host test class, and that do
+ * not depend on each other, should be batched: they all run with the state set up for the host
+ * test that first asks for a result. Each result is handed out once, so asking for it again,
+ * e.g. when the host test is retried, runs the batch again.
+ */
+class DeviceTestBatch {
+
+    /**
+     * Runs a list of device-side tests in one instrumentation.
+     */
+    interface InstrumentationRunner {
+        /**
+         * @param testNames classes, or "class#method" for single methods.
+         */
+        TestRunResult run(ITestDevice device, String pkgName, int userId, String[] testNames)
+                throws DeviceNotAvailableException;
+    }
+
+    private final InstrumentationRunner mRunner;
+    /** Tests to run, grouped by package and user. */
+    private final Map<String, List<Entry>> mGroups = new LinkedHashMap<>();
+    /** Results of the last run that have not been taken yet. */
+    private final Map<Entry, Boolean> mResults = new HashMap<>();
+    private boolean mHasRun;
+
+    DeviceTestBatch(final String runner) {
+        this(new InstrumentationRunner() {
+            @Override
+            public TestRunResult run(ITestDevice device, String pkgName, int userId,
+                    String[] testNames) throws DeviceNotAvailableException {
+                RemoteAndroidTestRunner testRunner = new RemoteAndroidTestRunner(
+                        pkgName, runner, device.getIDevice());
+                // AndroidJUnitRunner accepts "class#method" as well as classes in its class
+                // list.
+                testRunner.setClassNames(testNames);
+                CollectingTestListener listener = new CollectingTestListener();
+                Assert.assertTrue(device.runInstrumentationTestsAsUser(testRunner, userId,
+                        listener));
+                return listener.getCurrentRunResults();
+            }
+        });
+    }
+
+    DeviceTestBatch(InstrumentationRunner runner) {
+        mRunner = runner;
+    }
+
+    /**
+     * Adds a device-side test class, or one of its methods, to the batch.
+     *
+     * @param testClassName the test class, may start with "." to be relative to the package.
+     * @param testMethodName the method to run, or null to run the whole class.
+     */
+    DeviceTestBatch add(String pkgName, String testClassName, @Nullable String testMethodName,
+            int userId) {
+        Entry entry = new Entry(pkgName, testClassName, testMethodName, userId);
+        String groupKey = pkgName + ":" + userId;
+        List<Entry> group = mGroups.get(groupKey);
+        if (group == null) {
+            group = new ArrayList<>();
+            mGroups.put(groupKey, group);
+        }
+        if (!group.contains(entry)) {
+            group.add(entry);
+        }
+        return this;
+    }
+
+    /**
+     * @return true if the given test is part of the batch.
+     */
+    boolean contains(String pkgName, String testClassName, @Nullable String testMethodName,
+            int userId) {
+        List<Entry> group = mGroups.get(pkgName + ":" + userId);
+        return group != null
+                && group.contains(new Entry(pkgName, testClassName, testMethodName, userId));
+    }
+
+    /**
+     * Returns true if the given test passed, running the batch first if its result has already
+     * been taken or the batch has not run yet.
+     */
+    boolean takeResult(ITestDevice device, String pkgName, String testClassName,
+            @Nullable String testMethodName, int userId) throws DeviceNotAvailableException {
+        Entry entry = new Entry(pkgName, testClassName, testMethodName, userId);
+        if (!mResults.containsKey(entry)) {
+            run(device);
+        }
+        return mResults.remove(entry);
+    }
+
+    /**
+     * @return true once the batch has run and every result it collected has been taken.
+     */
+    boolean isFinished() {
+        return mHasRun && mResults.isEmpty();
+    }
+
+    private void run(ITestDevice device) throws DeviceNotAvailableException {
+        mResults.clear();
+        mHasRun = true;
+        for (List<Entry> group : mGroups.values()) {
+            Entry first = group.get(0);
+            String[] testNames = new String[group.size()];
+            for (int i = 0; i < testNames.length; i++) {
+                testNames[i] = group.get(i).getTestName();
+            }
+            CLog.d("Running " + testNames.length + " batched tests of " + first.mPkgName
+                    + " as user " + first.mUserId);
+            TestRunResult batchResult = mRunner.run(device, first.mPkgName, first.mUserId,
+                    testNames);
+            for (Entry entry : group) {
+                TestRunResult runResult = batchResult;
+                if (batchResult.isRunFailure() && !hasResults(batchResult, entry)) {
+                    // The instrumentation did not get to this test, don't let an earlier test
+                    // fail it too.
+                    CLog.w("Batched run failed before " + entry.getTestName()
+                            + ", running it on its own");
+                    runResult = mRunner.run(device, entry.mPkgName, entry.mUserId,
+                            new String[] { entry.getTestName() });
+                }
+                mResults.put(entry, passed(runResult, entry));
+            }
+        }
+    }
+
+    private static boolean hasResults(TestRunResult runResult, Entry entry) {
+        for (TestIdentifier test : runResult.getTestResults().keySet()) {
+            if (entry.matches(test)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the tests of {@code entry} ran and passed, the same check as
+     * {@link BaseDevicePolicyTest#runDeviceTestsAsUser} makes on an instrumentation of its own.
+     */
+    private static boolean passed(TestRunResult runResult, Entry entry) {
+        int passed = 0;
+        for (Map.Entry<TestIdentifier, TestResult> testEntry :
+                runResult.getTestResults().entrySet()) {
+            if (!entry.matches(testEntry.getKey())) {
+                continue;
+            }
+            TestResult testResult = testEntry.getValue();
+            CLog.d("Test " + testEntry.getKey() + ": " + testResult.getStatus());
+            switch (testResult.getStatus()) {
+                case PASSED:
+                    passed++;
+                    break;
+                case FAILURE:
+                case INCOMPLETE:
+                    CLog.d(testResult.getStackTrace());
+                    return false;
+                default:
+                    break;
+            }
+        }
+        return passed > 0;
+    }
+
+    private static class Entry {
+        final String mPkgName;
+        final String mClassName;
+        final String mMethodName;
+        final int mUserId;
+
+        Entry(String pkgName, String testClassName, @Nullable String testMethodName,
+                int userId) {
+            mPkgName = pkgName;
+            mClassName = testClassName.startsWith(".") ? pkgName + testClassName : testClassName;
+            mMethodName = testMethodName;
+            mUserId = userId;
+        }
+
+        String getTestName() {
+            return mMethodName == null ? mClassName : mClassName + "#" + mMethodName;
+        }
+
+        boolean matches(TestIdentifier test) {
+            return mClassName.equals(test.getClassName())
+                    && (mMethodName == null || mMethodName.equals(test.getTestName()));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return mUserId == other.mUserId && mPkgName.equals(other.mPkgName)
+                    && getTestName().equals(other.getTestName());
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * mPkgName.hashCode() + getTestName().hashCode()) + mUserId;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.devicepolicy;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.ddmlib.testrunner.TestRunResult;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.result.CollectingTestListener;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link DeviceTestBatch}, with a fake instrumentation.
+ */
+public class DeviceTestBatchTest extends TestCase {
+
+    private static final String PKG = "com.android.cts.deviceowner";
+    private static final String CLASS_A = PKG + ".ATest";
+    private static final String CLASS_B = PKG + ".BTest";
+    private static final String CLASS_C = PKG + ".CTest";
+
+    /**
+     * Runs each requested class as a single test named "test", which passes unless it is
+     * listed as failing. The instrumentation crashes just before any test listed as crashing.
+     */
+    private static class FakeRunner implements DeviceTestBatch.InstrumentationRunner {
+        final List<List<String>> mRuns = new ArrayList<>();
+        final Set<String> mFailing = new HashSet<>();
+        final Set<String> mCrashing = new HashSet<>();
+
+        @Override
+        public TestRunResult run(ITestDevice device, String pkgName, int userId,
+                String[] testNames) {
+            mRuns.add(Arrays.asList(testNames));
+            Map<String, String> metrics = Collections.emptyMap();
+            CollectingTestListener listener = new CollectingTestListener();
+            listener.testRunStarted(pkgName, testNames.length);
+            for (String testName : testNames) {
+                String className = testName.split("#")[0];
+                // a crash only happens when other tests ran first in the same instrumentation
+                if (mCrashing.contains(className) && testNames.length > 1) {
+                    listener.testRunFailed("Process crashed");
+                    listener.testRunEnded(0, metrics);
+                    return listener.getCurrentRunResults();
+                }
+                TestIdentifier test = new TestIdentifier(className, "test");
+                listener.testStarted(test);
+                if (mFailing.contains(className)) {
+                    listener.testFailed(test, "stack trace");
+                }
+                listener.testEnded(test, metrics);
+            }
+            listener.testRunEnded(0, metrics);
+            return listener.getCurrentRunResults();
+        }
+    }
+
+    private FakeRunner mRunner;
+    private DeviceTestBatch mBatch;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRunner = new FakeRunner();
+        mBatch = new DeviceTestBatch(mRunner)
+                .add(PKG, CLASS_A, null, 0)
+                .add(PKG, ".BTest", null, 0)
+                .add(PKG, CLASS_C, null, 0);
+    }
+
+    public void testContains() {
+        assertTrue(mBatch.contains(PKG, CLASS_A, null, 0));
+        assertTrue(mBatch.contains(PKG, CLASS_B, null, 0));
+        assertTrue(mBatch.contains(PKG, ".BTest", null, 0));
+        assertFalse(mBatch.contains(PKG, CLASS_A, "test", 0));
+        assertFalse(mBatch.contains(PKG, CLASS_A, null, 10));
+    }
+
+    public void testTakeResult_runsAllTestsOnce() throws Exception {
+        assertFalse(mBatch.isFinished());
+        assertTrue(mBatch.takeResult(null, PKG, CLASS_A, null, 0));
+        assertEquals(1, mRunner.mRuns.size());
+        assertEquals(Arrays.asList(CLASS_A, CLASS_B, CLASS_C), mRunner.mRuns.get(0));
+        assertFalse(mBatch.isFinished());
+        assertTrue(mBatch.takeResult(null, PKG, CLASS_B, null, 0));
+        assertTrue(mBatch.takeResult(null, PKG, CLASS_C, null, 0));
+        assertEquals(1, mRunner.mRuns.size());
+        assertTrue(mBatch.isFinished());
+    }
+
+    public void testTakeResult_takenResultRunsBatchAgain() throws Exception {
+        assertTrue(mBatch.takeResult(null, PKG, CLASS_A, null, 0));
+        assertTrue(mBatch.takeResult(null, PKG, CLASS_A, null, 0));
+        assertEquals(2, mRunner.mRuns.size());
+    }
+
+    public void testTakeResult_failure() throws Exception {
+        mRunner.mFailing.add(CLASS_B);
+        assertTrue(mBatch.takeResult(null, PKG, CLASS_A, null, 0));
+        assertFalse(mBatch.takeResult(null, PKG, CLASS_B, null, 0));
+        assertTrue(mBatch.takeResult(null, PKG, CLASS_C, null, 0));
+        assertEquals(1, mRunner.mRuns.size());
+    }
+
+    public void testTakeResult_crashRerunsTestsNotReached() throws Exception {
+        mRunner.mCrashing.add(CLASS_B);
+        assertTrue(mBatch.takeResult(null, PKG, CLASS_A, null, 0));
+        // B and C were not reached, and are each run on their own
+        assertEquals(3, mRunner.mRuns.size());
+        assertEquals(Arrays.asList(CLASS_B), mRunner.mRuns.get(1));
+        assertEquals(Arrays.asList(CLASS_C), mRunner.mRuns.get(2));
+        assertTrue(mBatch.takeResult(null, PKG, CLASS_B, null, 0));
+        assertTrue(mBatch.takeResult(null, PKG, CLASS_C, null, 0));
+        assertTrue(mBatch.isFinished());
+    }
+
+    public void testTakeResult_methods() throws Exception {
+        DeviceTestBatch batch = new DeviceTestBatch(mRunner)
+                .add(PKG, CLASS_A, "test", 0)
+                .add(PKG, CLASS_B, "testOther", 0);
+        assertTrue(batch.takeResult(null, PKG, CLASS_A, "test", 0));
+        assertEquals(Arrays.asList(CLASS_A + "#test", CLASS_B + "#testOther"),
+                mRunner.mRuns.get(0));
+        // the fake only runs methods named "test", so B did not run and cannot pass
+        assertFalse(batch.takeResult(null, PKG, CLASS_B, "testOther", 0));
+    }
+
+    public void testTakeResult_oneInstrumentationPerUser() throws Exception {
+        mBatch.add(PKG, CLASS_A, null, 10);
+        assertTrue(mBatch.takeResult(null, PKG, CLASS_A, null, 10));
+        assertEquals(2, mRunner.mRuns.size());
+        assertEquals(Arrays.asList(CLASS_A), mRunner.mRuns.get(1));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.security.cts;
+
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Files pulled from a device, kept for the lifetime of the test module.
+ *
+ * Caches are keyed by device serial and build fingerprint, so a device that is reflashed
+ * between runs gets its files pulled again. Each file is checked against a digest computed on
+ * the device when it is pulled, and against the digest of the first pull whenever it is reused.
+ */
+class DeviceArtifactCache {
+
+    private static final String BUILD_FINGERPRINT = "ro.build.fingerprint";
+    private static final Pattern SHA1SUM_PATTERN = Pattern.compile("^([0-9a-fA-F]{40})\\s");
+
+    private static final Map<String, DeviceArtifactCache> sCaches = new HashMap<>();
+    private static final Map<String, File> sResources = new HashMap<>();
+
+    private final String mKey;
+    private final Map<String, Artifact> mArtifacts = new HashMap<>();
+
+    private DeviceArtifactCache(String key) {
+        mKey = key;
+    }
+
+    /**
+     * Returns the cache for the build currently on {@code device}.
+     */
+    static synchronized DeviceArtifactCache forDevice(ITestDevice device)
+            throws DeviceNotAvailableException {
+        String key = device.getSerialNumber() + "/" + device.getProperty(BUILD_FINGERPRINT);
+        DeviceArtifactCache cache = sCaches.get(key);
+        if (cache == null) {
+            cache = new DeviceArtifactCache(key);
+            sCaches.put(key, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Extracts a resource from the test jar to a temporary file, once per module.
+     *
+     * @param resName the resource name, e.g. "/checkfc".
+     */
+    static synchronized File getResource(Class<?> owner, String resName) throws IOException {
+        File file = sResources.get(resName);
+        if (file != null && file.isFile()) {
+            return file;
+        }
+        file = File.createTempFile("SELinuxHostTest", ".tmp");
+        file.deleteOnExit();
+        try (InputStream is = owner.getResourceAsStream(resName);
+                OutputStream os = new FileOutputStream(file)) {
+            if (is == null) {
+                throw new IOException("Missing resource " + resName);
+            }
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                os.write(buffer, 0, count);
+            }
+        }
+        sResources.put(resName, file);
+        return file;
+    }
+
+    /**
+     * @return an identifier for the device and build this cache holds files for.
+     */
+    String getKey() {
+        return mKey;
+    }
+
+    /**
+     * Returns a local copy of {@code path} on the device, pulling it only the first time.
+     *
+     * @throws IOException if the local copy cannot be created or does not match the device.
+     */
+    synchronized File pullFile(ITestDevice device, String path)
+            throws DeviceNotAvailableException, IOException {
+        Artifact artifact = mArtifacts.get(path);
+        if (artifact != null) {
+            if (artifact.mFile.isFile() && artifact.mDigest.equals(digest(artifact.mFile))) {
+                return artifact.mFile;
+            }
+            // The local copy went away or was modified, pull it again.
+            mArtifacts.remove(path);
+        }
+        File file = File.createTempFile(new File(path).getName(), ".tmp");
+        file.deleteOnExit();
+        String deviceDigest = getDeviceDigest(device, path);
+        String localDigest = null;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (!device.pullFile(path, file)) {
+                throw new IOException("Could not pull " + path);
+            }
+            localDigest = digest(file);
+            if (deviceDigest == null || deviceDigest.equalsIgnoreCase(localDigest)) {
+                mArtifacts.put(path, new Artifact(file, localDigest));
+                return file;
+            }
+        }
+        throw new IOException("Pulled " + path + " does not match the device, expected SHA-1 "
+                + deviceDigest + " but got " + localDigest);
+    }
+
+    /**
+     * @return the SHA-1 of {@code path} computed on the device, or null if the device cannot
+     * compute it.
+     */
+    private static String getDeviceDigest(ITestDevice device, String path)
+            throws DeviceNotAvailableException {
+        String output = device.executeShellCommand("sha1sum " + path);
+        Matcher m = SHA1SUM_PATTERN.matcher(output == null ? "" : output.trim() + " ");
+        return m.find() ? m.group(1) : null;
+    }
+
+    private static String digest(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream is = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                md.update(buffer, 0, count);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static class Artifact {
+        final File mFile;
+        final String mDigest;
+
+        Artifact(File file, String digest) {
+            mFile = file;
+            mDigest = digest;
+        }
+    }
+}
@@ -32,9 +32,7 @@ import com.android.compatibility.common.util.CddTest;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.String;
 import java.util.ArrayList;
@@ -42,10 +40,16 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Host-side SELinux tests.
@@ -57,21 +61,32 @@ import java.util.Set;
 public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, IDeviceTest {
 
     private File sepolicyAnalyze;
-    private File checkSeapp;
-    private File checkFc;
     private File aospSeappFile;
     private File aospFcFile;
     private File aospPcFile;
     private File aospSvcFile;
     private File devicePolicyFile;
     private File deviceSeappFile;
-    private File deviceFcFile;
     private File devicePcFile;
     private File deviceSvcFile;
     private File seappNeverAllowFile;
 
     private IBuildInfo mBuild;
 
+    /**
+     * Device files pulled for the build under test, shared by all tests of the module.
+     */
+    private DeviceArtifactCache mArtifacts;
+
+    /**
+     * Runs the host tools. Results are kept in {@link #sToolResults} so that each check is
+     * only run once per device build, and checks that do not depend on each other can run
+     * at the same time.
+     */
+    private static final ExecutorService sToolExecutor = Executors.newCachedThreadPool();
+    private static final Map<String, Future<String>> sToolResults =
+            new HashMap<String, Future<String>>();
+
     /**
      * A reference to the device under test.
      */
@@ -95,17 +110,11 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
     }
 
     private File copyResourceToTempFile(String resName) throws IOException {
-        InputStream is = this.getClass().getResourceAsStream(resName);
-        File tempFile = File.createTempFile("SELinuxHostTest", ".tmp");
-        FileOutputStream os = new FileOutputStream(tempFile);
-        int rByte = 0;
-        while ((rByte = is.read()) != -1) {
-            os.write(rByte);
-        }
-        os.flush();
-        os.close();
-        tempFile.deleteOnExit();
-        return tempFile;
+        return DeviceArtifactCache.getResource(this.getClass(), resName);
+    }
+
+    private File pullDeviceFile(String path) throws Exception {
+        return mArtifacts.pullFile(mDevice, path);
     }
 
     @Override
@@ -115,9 +124,126 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
         sepolicyAnalyze.setExecutable(true);
 
         /* obtain sepolicy file from running device */
-        devicePolicyFile = File.createTempFile("sepolicy", ".tmp");
-        devicePolicyFile.deleteOnExit();
-        mDevice.pullFile("/sys/fs/selinux/policy", devicePolicyFile);
+        mArtifacts = DeviceArtifactCache.forDevice(mDevice);
+        devicePolicyFile = pullDeviceFile("/sys/fs/selinux/policy");
+
+        /* start all checks on the policy file in the background */
+        analyzePolicy("permissive");
+        analyzePolicy("booleans");
+        analyzePolicy("attribute", "mlstrustedsubject");
+        analyzePolicy("attribute", "mlstrustedobject");
+    }
+
+    /**
+     * Runs a host tool and returns its combined output and error streams.
+     */
+    private static String runTool(File tool, String... args)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(tool.getAbsolutePath());
+        command.addAll(Arrays.asList(args));
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
+        pb.redirectErrorStream(true);
+        Process p = pb.start();
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader result =
+                new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            String line;
+            while ((line = result.readLine()) != null) {
+                output.append(line);
+                output.append("\n");
+            }
+        }
+        p.waitFor();
+        return output.toString();
+    }
+
+    /**
+     * Starts {@code check} in the background, unless it already ran for the current device
+     * build.
+     *
+     * @param name identifies the check, together with the device build.
+     * @return the output of the check.
+     */
+    private Future<String> startCheck(String name, Callable<String> check) {
+        String key = mArtifacts.getKey() + " " + name;
+        synchronized (sToolResults) {
+            Future<String> result = sToolResults.get(key);
+            if (result == null) {
+                result = sToolExecutor.submit(check);
+                sToolResults.put(key, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Waits for a check started by {@link #startCheck} and returns its output.
+     */
+    private static String getCheckOutput(Future<String> check) throws Exception {
+        try {
+            return check.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Runs sepolicy-analyze on the device policy file.
+     */
+    private Future<String> analyzePolicy(final String... args) {
+        final File analyze = sepolicyAnalyze;
+        final File policy = devicePolicyFile;
+        return startCheck("sepolicy-analyze " + Arrays.toString(args), new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                List<String> toolArgs = new ArrayList<String>();
+                toolArgs.add(policy.getAbsolutePath());
+                toolArgs.addAll(Arrays.asList(args));
+                return runTool(analyze, toolArgs.toArray(new String[toolArgs.size()]));
+            }
+        });
+    }
+
+    /**
+     * Runs checkfc or checkseapp against a file pulled from the device.
+     *
+     * @param tool the tool resource name.
+     * @param devicePath the file on the device to check.
+     * @param args the tool arguments preceding the device file.
+     */
+    private Future<String> checkDeviceFile(final String tool, final String devicePath,
+            final String... args) {
+        return startCheck(tool + " " + Arrays.toString(args) + " " + devicePath,
+                new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                File toolFile = copyResourceToTempFile(tool);
+                toolFile.setExecutable(true);
+                List<String> toolArgs = new ArrayList<String>(Arrays.asList(args));
+                toolArgs.add(pullDeviceFile(devicePath).getAbsolutePath());
+                return runTool(toolFile, toolArgs.toArray(new String[toolArgs.size()]));
+            }
+        });
+    }
+
+    /**
+     * Starts all the checks of the context files on the device, so that they run at the same
+     * time instead of one per test.
+     */
+    private void startContextChecks() throws Exception {
+        String policy = devicePolicyFile.getAbsolutePath();
+        checkDeviceFile("/checkseapp", "/seapp_contexts", "-p", policy,
+                copyResourceToTempFile("/general_seapp_neverallows").getAbsolutePath());
+        checkDeviceFile("/checkfc", "/file_contexts.bin", "-c",
+                copyResourceToTempFile("/general_file_contexts.bin").getAbsolutePath());
+        checkDeviceFile("/checkfc", "/file_contexts.bin", policy);
+        checkDeviceFile("/checkfc", "/property_contexts", "-p", policy);
+        checkDeviceFile("/checkfc", "/service_contexts", "-s", policy);
     }
 
     /**
@@ -142,19 +268,7 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
     public void testAllDomainsEnforcing() throws Exception {
 
         /* run sepolicy-analyze permissive check on policy file */
-        ProcessBuilder pb = new ProcessBuilder(sepolicyAnalyze.getAbsolutePath(),
-                devicePolicyFile.getAbsolutePath(), "permissive");
-        pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-        p.waitFor();
-        BufferedReader result = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        String line;
-        StringBuilder errorString = new StringBuilder();
-        while ((line = result.readLine()) != null) {
-            errorString.append(line);
-            errorString.append("\n");
-        }
+        String errorString = getCheckOutput(analyzePolicy("permissive"));
         assertTrue("The following SELinux domains were found to be in permissive mode:\n"
                    + errorString, errorString.length() == 0);
     }
@@ -170,15 +284,8 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
      */
     private void assertNotInAttribute(String attribute, String badtype) throws Exception {
         /* run sepolicy-analyze attribute check on policy file */
-        ProcessBuilder pb = new ProcessBuilder(sepolicyAnalyze.getAbsolutePath(),
-                devicePolicyFile.getAbsolutePath(), "attribute", attribute);
-        pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-        p.waitFor();
-        BufferedReader result = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        String type;
-        while ((type = result.readLine()) != null) {
+        String result = getCheckOutput(analyzePolicy("attribute", attribute));
+        for (String type : result.split("\n")) {
             assertFalse("Attribute " + attribute + " includes " + type + "\n",
                         type.equals(badtype));
         }
@@ -206,34 +313,11 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
     @CddTest(requirement="9.7")
     public void testValidSeappContexts() throws Exception {
 
-        /* obtain seapp_contexts file from running device */
-        deviceSeappFile = File.createTempFile("seapp_contexts", ".tmp");
-        deviceSeappFile.deleteOnExit();
-        mDevice.pullFile("/seapp_contexts", deviceSeappFile);
-
-        /* retrieve the checkseapp executable from jar */
-        checkSeapp = copyResourceToTempFile("/checkseapp");
-        checkSeapp.setExecutable(true);
-
-        /* retrieve the AOSP seapp_neverallows file from jar */
+        /* run checkseapp on seapp_contexts, along with the other context checks */
+        startContextChecks();
         seappNeverAllowFile = copyResourceToTempFile("/general_seapp_neverallows");
-
-        /* run checkseapp on seapp_contexts */
-        ProcessBuilder pb = new ProcessBuilder(checkSeapp.getAbsolutePath(),
-                "-p", devicePolicyFile.getAbsolutePath(),
-                seappNeverAllowFile.getAbsolutePath(),
-                deviceSeappFile.getAbsolutePath());
-        pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-        p.waitFor();
-        BufferedReader result = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        String line;
-        StringBuilder errorString = new StringBuilder();
-        while ((line = result.readLine()) != null) {
-            errorString.append(line);
-            errorString.append("\n");
-        }
+        String errorString = getCheckOutput(checkDeviceFile("/checkseapp", "/seapp_contexts",
+                "-p", devicePolicyFile.getAbsolutePath(), seappNeverAllowFile.getAbsolutePath()));
         assertTrue("The seapp_contexts file was invalid:\n"
                    + errorString, errorString.length() == 0);
     }
@@ -248,8 +332,10 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
      *  The actual file being checked.
      */
     private void assertFileStartsWith(File expectedFile, File actualFile) throws Exception {
-        BufferedReader expectedReader = new BufferedReader(new FileReader(expectedFile.getAbsolutePath()));
-        BufferedReader actualReader = new BufferedReader(new FileReader(actualFile.getAbsolutePath()));
+        BufferedReader expectedReader =
+                new BufferedReader(new FileReader(expectedFile.getAbsolutePath()));
+        BufferedReader actualReader =
+                new BufferedReader(new FileReader(actualFile.getAbsolutePath()));
         String expectedLine, actualLine;
         while ((expectedLine = expectedReader.readLine()) != null) {
             actualLine = actualReader.readLine();
@@ -267,9 +353,7 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
     public void testAospSeappContexts() throws Exception {
 
         /* obtain seapp_contexts file from running device */
-        deviceSeappFile = File.createTempFile("seapp_contexts", ".tmp");
-        deviceSeappFile.deleteOnExit();
-        mDevice.pullFile("/seapp_contexts", deviceSeappFile);
+        deviceSeappFile = pullDeviceFile("/seapp_contexts");
 
         /* retrieve the AOSP seapp_contexts file from jar */
         aospSeappFile = copyResourceToTempFile("/general_seapp_contexts");
@@ -286,28 +370,13 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
     @CddTest(requirement="9.7")
     public void testAospFileContexts() throws Exception {
 
-        /* retrieve the checkfc executable from jar */
-        checkFc = copyResourceToTempFile("/checkfc");
-        checkFc.setExecutable(true);
-
-        /* obtain file_contexts.bin file from running device */
-        deviceFcFile = File.createTempFile("file_contexts", ".bin");
-        deviceFcFile.deleteOnExit();
-        mDevice.pullFile("/file_contexts.bin", deviceFcFile);
-
         /* retrieve the AOSP file_contexts file from jar */
         aospFcFile = copyResourceToTempFile("/general_file_contexts.bin");
 
         /* run checkfc -c general_file_contexts.bin file_contexts.bin */
-        ProcessBuilder pb = new ProcessBuilder(checkFc.getAbsolutePath(),
-                "-c", aospFcFile.getAbsolutePath(),
-                deviceFcFile.getAbsolutePath());
-        pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-        p.waitFor();
-        BufferedReader result = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        String line = result.readLine();
+        startContextChecks();
+        String line = getCheckOutput(checkDeviceFile("/checkfc", "/file_contexts.bin",
+                "-c", aospFcFile.getAbsolutePath())).split("\n")[0];
         assertTrue("The file_contexts.bin file did not include the AOSP entries:\n"
                    + line + "\n",
                    line.equals("equal") || line.equals("subset"));
@@ -323,9 +392,7 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
     public void testAospPropertyContexts() throws Exception {
 
         /* obtain property_contexts file from running device */
-        devicePcFile = File.createTempFile("property_contexts", ".tmp");
-        devicePcFile.deleteOnExit();
-        mDevice.pullFile("/property_contexts", devicePcFile);
+        devicePcFile = pullDeviceFile("/property_contexts");
 
         /* retrieve the AOSP property_contexts file from jar */
         aospPcFile = copyResourceToTempFile("/general_property_contexts");
@@ -343,9 +410,7 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
     public void testAospServiceContexts() throws Exception {
 
         /* obtain service_contexts file from running device */
-        deviceSvcFile = File.createTempFile("service_contexts", ".tmp");
-        deviceSvcFile.deleteOnExit();
-        mDevice.pullFile("/service_contexts", deviceSvcFile);
+        deviceSvcFile = pullDeviceFile("/service_contexts");
 
         /* retrieve the AOSP service_contexts file from jar */
         aospSvcFile = copyResourceToTempFile("/general_service_contexts");
@@ -361,30 +426,10 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
     @CddTest(requirement="9.7")
     public void testValidFileContexts() throws Exception {
 
-        /* retrieve the checkfc executable from jar */
-        checkFc = copyResourceToTempFile("/checkfc");
-        checkFc.setExecutable(true);
-
-        /* obtain file_contexts.bin file from running device */
-        deviceFcFile = File.createTempFile("file_contexts", ".bin");
-        deviceFcFile.deleteOnExit();
-        mDevice.pullFile("/file_contexts.bin", deviceFcFile);
-
         /* run checkfc sepolicy file_contexts.bin */
-        ProcessBuilder pb = new ProcessBuilder(checkFc.getAbsolutePath(),
-                devicePolicyFile.getAbsolutePath(),
-                deviceFcFile.getAbsolutePath());
-        pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-        p.waitFor();
-        BufferedReader result = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        String line;
-        StringBuilder errorString = new StringBuilder();
-        while ((line = result.readLine()) != null) {
-            errorString.append(line);
-            errorString.append("\n");
-        }
+        startContextChecks();
+        String errorString = getCheckOutput(checkDeviceFile("/checkfc", "/file_contexts.bin",
+                devicePolicyFile.getAbsolutePath()));
         assertTrue("The file_contexts.bin file was invalid:\n"
                    + errorString, errorString.length() == 0);
     }
@@ -397,30 +442,10 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
     @CddTest(requirement="9.7")
     public void testValidPropertyContexts() throws Exception {
 
-        /* retrieve the checkfc executable from jar */
-        checkFc = copyResourceToTempFile("/checkfc");
-        checkFc.setExecutable(true);
-
-        /* obtain property_contexts file from running device */
-        devicePcFile = File.createTempFile("property_contexts", ".tmp");
-        devicePcFile.deleteOnExit();
-        mDevice.pullFile("/property_contexts", devicePcFile);
-
         /* run checkfc -p on property_contexts */
-        ProcessBuilder pb = new ProcessBuilder(checkFc.getAbsolutePath(),
-                "-p", devicePolicyFile.getAbsolutePath(),
-                devicePcFile.getAbsolutePath());
-        pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-        p.waitFor();
-        BufferedReader result = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        String line;
-        StringBuilder errorString = new StringBuilder();
-        while ((line = result.readLine()) != null) {
-            errorString.append(line);
-            errorString.append("\n");
-        }
+        startContextChecks();
+        String errorString = getCheckOutput(checkDeviceFile("/checkfc", "/property_contexts",
+                "-p", devicePolicyFile.getAbsolutePath()));
         assertTrue("The property_contexts file was invalid:\n"
                    + errorString, errorString.length() == 0);
     }
@@ -433,30 +458,10 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
     @CddTest(requirement="9.7")
     public void testValidServiceContexts() throws Exception {
 
-        /* retrieve the checkfc executable from jar */
-        checkFc = copyResourceToTempFile("/checkfc");
-        checkFc.setExecutable(true);
-
-        /* obtain service_contexts file from running device */
-        deviceSvcFile = File.createTempFile("service_contexts", ".tmp");
-        deviceSvcFile.deleteOnExit();
-        mDevice.pullFile("/service_contexts", deviceSvcFile);
-
         /* run checkfc -s on service_contexts */
-        ProcessBuilder pb = new ProcessBuilder(checkFc.getAbsolutePath(),
-                "-s", devicePolicyFile.getAbsolutePath(),
-                deviceSvcFile.getAbsolutePath());
-        pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-        p.waitFor();
-        BufferedReader result = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        String line;
-        StringBuilder errorString = new StringBuilder();
-        while ((line = result.readLine()) != null) {
-            errorString.append(line);
-            errorString.append("\n");
-        }
+        startContextChecks();
+        String errorString = getCheckOutput(checkDeviceFile("/checkfc", "/service_contexts",
+                "-s", devicePolicyFile.getAbsolutePath()));
         assertTrue("The service_contexts file was invalid:\n"
                    + errorString, errorString.length() == 0);
     }
@@ -470,19 +475,7 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
     public void testNoBooleans() throws Exception {
 
         /* run sepolicy-analyze booleans check on policy file */
-        ProcessBuilder pb = new ProcessBuilder(sepolicyAnalyze.getAbsolutePath(),
-                devicePolicyFile.getAbsolutePath(), "booleans");
-        pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
-        pb.redirectErrorStream(true);
-        Process p = pb.start();
-        p.waitFor();
-        BufferedReader result = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        String line;
-        StringBuilder errorString = new StringBuilder();
-        while ((line = result.readLine()) != null) {
-            errorString.append(line);
-            errorString.append("\n");
-        }
+        String errorString = getCheckOutput(analyzePolicy("booleans"));
         assertTrue("The policy contained booleans:\n"
                    + errorString, errorString.length() == 0);
     }
@@ -498,7 +491,8 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
      *  The domain or SELinux context to check.
      */
     private void assertDomainEmpty(String domain) throws DeviceNotAvailableException {
-        List<ProcessDetails> procs = ProcessDetails.getProcMap(mDevice).get(domain);
+        List<ProcessDetails> procs =
+                ProcessDetails.getProcMap(mDevice, mArtifacts.getKey()).get(domain);
         String msg = "Expected no processes in SELinux domain \"" + domain + "\""
             + " Found: \"" + procs + "\"";
         assertNull(msg, procs);
@@ -513,9 +507,12 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
      * @param executable
      *  The path of the executable or application package name.
      */
-    private void assertDomainOne(String domain, String executable) throws DeviceNotAvailableException {
-        List<ProcessDetails> procs = ProcessDetails.getProcMap(mDevice).get(domain);
-        List<ProcessDetails> exeProcs = ProcessDetails.getExeMap(mDevice).get(executable);
+    private void assertDomainOne(String domain, String executable)
+        throws DeviceNotAvailableException {
+        List<ProcessDetails> procs =
+                ProcessDetails.getProcMap(mDevice, mArtifacts.getKey()).get(domain);
+        List<ProcessDetails> exeProcs =
+                ProcessDetails.getExeMap(mDevice, mArtifacts.getKey()).get(executable);
         String msg = "Expected 1 process in SELinux domain \"" + domain + "\""
             + " Found \"" + procs + "\"";
         assertNotNull(msg, procs);
@@ -547,8 +544,10 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
      */
     private void assertDomainZeroOrOne(String domain, String executable)
         throws DeviceNotAvailableException {
-        List<ProcessDetails> procs = ProcessDetails.getProcMap(mDevice).get(domain);
-        List<ProcessDetails> exeProcs = ProcessDetails.getExeMap(mDevice).get(executable);
+        List<ProcessDetails> procs =
+                ProcessDetails.getProcMap(mDevice, mArtifacts.getKey()).get(domain);
+        List<ProcessDetails> exeProcs =
+                ProcessDetails.getExeMap(mDevice, mArtifacts.getKey()).get(executable);
 
         if (procs != null) {
             String msg = "Expected 1 process in SELinux domain \"" + domain + "\""
@@ -582,7 +581,8 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
      */
     private void assertDomainN(String domain, String... executables)
         throws DeviceNotAvailableException {
-        List<ProcessDetails> procs = ProcessDetails.getProcMap(mDevice).get(domain);
+        List<ProcessDetails> procs =
+                ProcessDetails.getProcMap(mDevice, mArtifacts.getKey()).get(domain);
         String msg = "Expected 1 or more processes in SELinux domain but found none.";
         assertNotNull(msg, procs);
 
@@ -595,7 +595,8 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
         }
 
         for (String exe : executables) {
-            List<ProcessDetails> exeProcs = ProcessDetails.getExeMap(mDevice).get(exe);
+            List<ProcessDetails> exeProcs =
+                    ProcessDetails.getExeMap(mDevice, mArtifacts.getKey()).get(exe);
 
             if (exeProcs != null) {
                 for (ProcessDetails p : exeProcs) {
@@ -617,7 +618,8 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
      */
     private void assertDomainHasExecutable(String domain, String... executables)
         throws DeviceNotAvailableException {
-        List<ProcessDetails> procs = ProcessDetails.getProcMap(mDevice).get(domain);
+        List<ProcessDetails> procs =
+                ProcessDetails.getProcMap(mDevice, mArtifacts.getKey()).get(domain);
 
         if (procs != null) {
             Set<String> execList = new HashSet<String>(Arrays.asList(executables));
@@ -630,7 +632,8 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
         }
 
         for (String exe : executables) {
-            List<ProcessDetails> exeProcs = ProcessDetails.getExeMap(mDevice).get(exe);
+            List<ProcessDetails> exeProcs =
+                    ProcessDetails.getExeMap(mDevice, mArtifacts.getKey()).get(exe);
 
             if (exeProcs != null) {
                 for (ProcessDetails p : exeProcs) {
@@ -788,7 +791,8 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
     @CddTest(requirement="9.7")
     public void testKernelDomain() throws DeviceNotAvailableException {
         String domain = "u:r:kernel:s0";
-        List<ProcessDetails> procs = ProcessDetails.getProcMap(mDevice).get(domain);
+        List<ProcessDetails> procs =
+                ProcessDetails.getProcMap(mDevice, mArtifacts.getKey()).get(domain);
         if (procs != null) {
             for (ProcessDetails p : procs) {
                 assertTrue("Non Kernel thread \"" + p + "\" found!", p.isKernel());
@@ -803,8 +807,13 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
         public int ppid;
         public String procTitle;
 
+        /*
+         * One process table snapshot is shared by all assertions on the same device build,
+         * identified by snapshotKey.
+         */
         private static HashMap<String, ArrayList<ProcessDetails>> procMap;
         private static HashMap<String, ArrayList<ProcessDetails>> exeMap;
+        private static String snapshotKey;
         private static int kernelParentThreadpid = -1;
 
         ProcessDetails(String label, String user, int pid, int ppid, String procTitle) {
@@ -859,19 +868,24 @@ public class SELinuxHostTest extends DeviceTestCase implements IBuildReceiver, I
             }
         }
 
-        public static HashMap<String, ArrayList<ProcessDetails>> getProcMap(ITestDevice tDevice)
-                throws DeviceNotAvailableException{
-            if (procMap == null) {
+        private static void ensureProcMap(ITestDevice tDevice, String deviceKey)
+                throws DeviceNotAvailableException {
+            if (procMap == null || !deviceKey.equals(snapshotKey)) {
+                kernelParentThreadpid = -1;
                 createProcMap(tDevice);
+                snapshotKey = deviceKey;
             }
+        }
+
+        public static synchronized HashMap<String, ArrayList<ProcessDetails>> getProcMap(
+                ITestDevice tDevice, String deviceKey) throws DeviceNotAvailableException {
+            ensureProcMap(tDevice, deviceKey);
             return procMap;
         }
 
-        public static HashMap<String, ArrayList<ProcessDetails>> getExeMap(ITestDevice tDevice)
-                throws DeviceNotAvailableException{
-            if (exeMap == null) {
-                createProcMap(tDevice);
-            }
+        public static synchronized HashMap<String, ArrayList<ProcessDetails>> getExeMap(
+                ITestDevice tDevice, String deviceKey) throws DeviceNotAvailableException {
+            ensureProcMap(tDevice, deviceKey);
             return exeMap;
         }
 
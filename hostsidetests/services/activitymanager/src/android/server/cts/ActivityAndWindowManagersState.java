@@ -115,46 +115,32 @@ class ActivityAndWindowManagersState extends Assert {
      * @param stackIds ids of stack where provided activities should be found.
      *                 Pass null to skip this check.
      */
-    void waitForValidState(ITestDevice device, boolean visibleOnly,
-                           String[] waitForActivitiesVisible, int[] stackIds,
-                           boolean compareTaskAndStackBounds) throws Exception {
-        int retriesLeft = 5;
-        do {
-            // TODO: Get state of AM and WM at the same time to avoid mismatches caused by
-            // requesting dump in some intermediate state.
-            mAmState.computeState(device);
-            mWmState.computeState(device, visibleOnly);
-            if (shouldWaitForValidStacks(compareTaskAndStackBounds)
-                    || shouldWaitForActivities(waitForActivitiesVisible, stackIds)) {
-                log("***Waiting for valid stacks and activities states...");
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    log(e.toString());
-                    // Well I guess we are not waiting...
-                }
-            } else {
-                break;
+    void waitForValidState(final ITestDevice device, final boolean visibleOnly,
+                           final String[] waitForActivitiesVisible, final int[] stackIds,
+                           final boolean compareTaskAndStackBounds) throws Exception {
+        StateWaiter.waitFor("valid stacks and activities states",
+                new StateWaiter.Condition<Exception>() {
+            @Override
+            public boolean isSatisfied() throws Exception {
+                // TODO: Get state of AM and WM at the same time to avoid mismatches caused by
+                // requesting dump in some intermediate state.
+                mAmState.computeState(device);
+                mWmState.computeState(device, visibleOnly);
+                return !shouldWaitForValidStacks(compareTaskAndStackBounds)
+                        && !shouldWaitForActivities(waitForActivitiesVisible, stackIds);
             }
-        } while (retriesLeft-- > 0);
+        });
     }
 
-    void waitForHomeActivityVisible(ITestDevice device) throws Exception {
-        int retriesLeft = 5;
-        do {
-            mAmState.computeState(device);
-            if (!mAmState.isHomeActivityVisible()) {
-                log("***Waiting for home activity to be visible...");
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    log(e.toString());
-                    // Well I guess we are not waiting...
-                }
-            } else {
-                break;
+    void waitForHomeActivityVisible(final ITestDevice device) throws Exception {
+        StateWaiter.waitFor("home activity to be visible",
+                new StateWaiter.Condition<Exception>() {
+            @Override
+            public boolean isSatisfied() throws Exception {
+                mAmState.computeState(device);
+                return mAmState.isHomeActivityVisible();
             }
-        } while (retriesLeft-- > 0);
+        });
     }
 
     private boolean shouldWaitForValidStacks(boolean compareTaskAndStackBounds) {
@@ -59,6 +59,8 @@ class ActivityManagerState {
     private String mFocusedActivityRecord = null;
     private final List<String> mResumedActivities = new ArrayList();
     private final LinkedList<String> mSysDump = new LinkedList();
+    // The dump the current state was parsed from. An identical dump is not parsed again.
+    private String mLastDump = null;
 
     void computeState(ITestDevice device) throws DeviceNotAvailableException {
         // It is possible the system is in the middle of transition to the right state when we get
@@ -86,7 +88,10 @@ class ActivityManagerState {
             final CollectingOutputReceiver outputReceiver = new CollectingOutputReceiver();
             device.executeShellCommand(DUMPSYS_ACTIVITY_ACTIVITIES, outputReceiver);
             dump = outputReceiver.getOutput();
-            parseSysDump(dump);
+            if (!dump.equals(mLastDump)) {
+                parseSysDump(dump);
+                mLastDump = dump;
+            }
 
             retry = mStacks.isEmpty() || mFocusedStackId == -1 || mFocusedActivityRecord == null
                     || mResumedActivities.isEmpty();
@@ -113,7 +118,7 @@ class ActivityManagerState {
     private void parseSysDump(String sysDump) {
         reset();
 
-        Collections.addAll(mSysDump, sysDump.split("\\n"));
+        DumpsysLines.split(sysDump, mSysDump);
 
         int currentDisplayId = 0;
         while (!mSysDump.isEmpty()) {
@@ -130,8 +135,8 @@ class ActivityManagerState {
 
             final String line = mSysDump.pop().trim();
 
-            Matcher matcher = mFocusedStackPattern.matcher(line);
-            if (matcher.matches()) {
+            Matcher matcher = DumpsysLines.match(mFocusedStackPattern, line);
+            if (matcher != null) {
                 log(line);
                 final String stackId = matcher.group(2);
                 log(stackId);
@@ -139,16 +144,16 @@ class ActivityManagerState {
                 continue;
             }
 
-            matcher = mFocusedActivityPattern.matcher(line);
-            if (matcher.matches()) {
+            matcher = DumpsysLines.match(mFocusedActivityPattern, line);
+            if (matcher != null) {
                 log(line);
                 mFocusedActivityRecord = matcher.group(3);
                 log(mFocusedActivityRecord);
                 continue;
             }
 
-            matcher = mDisplayIdPattern.matcher(line);
-            if (matcher.matches()) {
+            matcher = DumpsysLines.match(mDisplayIdPattern, line);
+            if (matcher != null) {
                 log(line);
                 final String displayId = matcher.group(2);
                 log(displayId);
@@ -280,8 +285,8 @@ class ActivityManagerState {
                                     Pattern[] exitPatterns, int displayId) {
             final String line = dump.peek().trim();
 
-            final Matcher matcher = stackIdPattern.matcher(line);
-            if (!matcher.matches()) {
+            final Matcher matcher = DumpsysLines.match(stackIdPattern, line);
+            if (matcher == null) {
                 // Not a stack.
                 return null;
             }
@@ -326,8 +331,8 @@ class ActivityManagerState {
                     continue;
                 }
 
-                Matcher matcher = RESUMED_ACTIVITY_PATTERN.matcher(line);
-                if (matcher.matches()) {
+                Matcher matcher = DumpsysLines.match(RESUMED_ACTIVITY_PATTERN, line);
+                if (matcher != null) {
                     log(line);
                     mResumedActivity = matcher.group(3);
                     log(mResumedActivity);
@@ -383,8 +388,8 @@ class ActivityManagerState {
                 LinkedList<String> dump, Pattern taskIdPattern, Pattern[] exitPatterns) {
             final String line = dump.peek().trim();
 
-            final Matcher matcher = taskIdPattern.matcher(line);
-            if (!matcher.matches()) {
+            final Matcher matcher = DumpsysLines.match(taskIdPattern, line);
+            if (matcher == null) {
                 // Not a task.
                 return null;
             }
@@ -430,8 +435,8 @@ class ActivityManagerState {
                     continue;
                 }
 
-                Matcher matcher = TASK_RECORD_PATTERN.matcher(line);
-                if (matcher.matches()) {
+                Matcher matcher = DumpsysLines.match(TASK_RECORD_PATTERN, line);
+                if (matcher != null) {
                     log(line);
                     final String stackId = matcher.group(6);
                     mStackId = Integer.valueOf(stackId);
@@ -439,14 +444,14 @@ class ActivityManagerState {
                     continue;
                 }
 
-                matcher = LAST_NON_FULLSCREEN_BOUNDS_PATTERN.matcher(line);
-                if (matcher.matches()) {
+                matcher = DumpsysLines.match(LAST_NON_FULLSCREEN_BOUNDS_PATTERN, line);
+                if (matcher != null) {
                     log(line);
                     mLastNonFullscreenBounds = extractBounds(matcher);
                 }
 
-                matcher = REAL_ACTIVITY_PATTERN.matcher(line);
-                if (matcher.matches()) {
+                matcher = DumpsysLines.match(REAL_ACTIVITY_PATTERN, line);
+                if (matcher != null) {
                     if (mRealActivity == null) {
                         log(line);
                         mRealActivity = matcher.group(1);
@@ -455,8 +460,8 @@ class ActivityManagerState {
                     continue;
                 }
 
-                matcher = ORIG_ACTIVITY_PATTERN.matcher(line);
-                if (matcher.matches()) {
+                matcher = DumpsysLines.match(ORIG_ACTIVITY_PATTERN, line);
+                if (matcher != null) {
                     if (mOrigActivity == null) {
                         log(line);
                         mOrigActivity = matcher.group(1);
@@ -465,8 +470,8 @@ class ActivityManagerState {
                     continue;
                 }
 
-                matcher = TASK_TYPE_PATTERN.matcher(line);
-                if (matcher.matches()) {
+                matcher = DumpsysLines.match(TASK_TYPE_PATTERN, line);
+                if (matcher != null) {
                     log(line);
                     mTaskType = Integer.valueOf(matcher.group(4));
                     mReturnToType = Integer.valueOf(matcher.group(5));
@@ -494,8 +499,8 @@ class ActivityManagerState {
                 LinkedList<String> dump, Pattern activityNamePattern, Pattern[] exitPatterns) {
             final String line = dump.peek().trim();
 
-            final Matcher matcher = activityNamePattern.matcher(line);
-            if (!matcher.matches()) {
+            final Matcher matcher = DumpsysLines.match(activityNamePattern, line);
+            if (matcher == null) {
                 // Not an activity.
                 return null;
             }
@@ -515,8 +520,8 @@ class ActivityManagerState {
             while (!doneExtracting(dump, exitPatterns)) {
                 final String line = dump.pop().trim();
 
-                Matcher matcher = VISIBILITY_PATTERN.matcher(line);
-                if (matcher.matches()) {
+                Matcher matcher = DumpsysLines.match(VISIBILITY_PATTERN, line);
+                if (matcher != null) {
                     log(line);
                     final String visibleString = matcher.group(3);
                     visible = Boolean.valueOf(visibleString);
@@ -524,8 +529,8 @@ class ActivityManagerState {
                     continue;
                 }
 
-                matcher = FRONT_OF_TASK_PATTERN.matcher(line);
-                if (matcher.matches()) {
+                matcher = DumpsysLines.match(FRONT_OF_TASK_PATTERN, line);
+                if (matcher != null) {
                     log(line);
                     final String frontOfTaskString = matcher.group(1);
                     frontOfTask = Boolean.valueOf(frontOfTaskString);
@@ -551,8 +556,8 @@ class ActivityManagerState {
         protected int mMinHeight = -1;
 
         boolean extractFullscreen(String line) {
-            final Matcher matcher = FULLSCREEN_PATTERN.matcher(line);
-            if (!matcher.matches()) {
+            final Matcher matcher = DumpsysLines.match(FULLSCREEN_PATTERN, line);
+            if (matcher == null) {
                 return false;
             }
             log(line);
@@ -563,8 +568,8 @@ class ActivityManagerState {
         }
 
         boolean extractBounds(String line) {
-            final Matcher matcher = BOUNDS_PATTERN.matcher(line);
-            if (!matcher.matches()) {
+            final Matcher matcher = DumpsysLines.match(BOUNDS_PATTERN, line);
+            if (matcher == null) {
                 return false;
             }
             log(line);
@@ -584,13 +589,13 @@ class ActivityManagerState {
         }
 
         boolean extractMinimalSize(String line) {
-            final Matcher minWidthMatcher = MIN_WIDTH_PATTERN.matcher(line);
-            final Matcher minHeightMatcher = MIN_HEIGHT_PATTERN.matcher(line);
+            final Matcher minWidthMatcher = DumpsysLines.match(MIN_WIDTH_PATTERN, line);
+            final Matcher minHeightMatcher = DumpsysLines.match(MIN_HEIGHT_PATTERN, line);
 
-            if (minWidthMatcher.matches()) {
+            if (minWidthMatcher != null) {
                 log(line);
                 mMinWidth = Integer.valueOf(minWidthMatcher.group(1));
-            } else if (minHeightMatcher.matches()) {
+            } else if (minHeightMatcher != null) {
                 log(line);
                 mMinHeight = Integer.valueOf(minHeightMatcher.group(1));
             } else {
@@ -623,7 +628,7 @@ class ActivityManagerState {
         final String line = dump.peek().trim();
 
         for (Pattern pattern : exitPatterns) {
-            if (pattern.matcher(line).matches()) {
+            if (DumpsysLines.matches(pattern, line)) {
                 return true;
             }
         }
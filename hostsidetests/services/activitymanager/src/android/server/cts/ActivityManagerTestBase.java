@@ -306,21 +306,26 @@ public abstract class ActivityManagerTestBase extends DeviceTestCase {
     }
 
     protected void lockDevice() throws DeviceNotAvailableException {
-        int retriesLeft = 5;
         runCommandAndPrintOutput("input keyevent 26");
-        do {
-            if (isDisplayOn()) {
-                log("***Waiting for display to turn off...");
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    log(e.toString());
-                    // Well I guess we are not waiting...
-                }
-            } else {
-                break;
+        waitForState("display to turn off",
+                new StateWaiter.Condition<DeviceNotAvailableException>() {
+            @Override
+            public boolean isSatisfied() throws DeviceNotAvailableException {
+                return !isDisplayOn();
             }
-        } while (retriesLeft-- > 0);
+        });
+    }
+
+    /**
+     * Polls {@code condition} with exponential backoff until it is satisfied or
+     * {@link StateWaiter#DEFAULT_TIMEOUT_MS} passes.
+     *
+     * @param description what is being waited for, used for logging.
+     * @return true if the condition was satisfied before the timeout.
+     */
+    protected <E extends Exception> boolean waitForState(String description,
+            StateWaiter.Condition<E> condition) throws E {
+        return StateWaiter.waitFor(description, condition);
     }
 
     protected void unlockDevice() throws DeviceNotAvailableException {
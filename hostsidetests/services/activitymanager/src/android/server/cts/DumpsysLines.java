@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package android.server.cts;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits dumpsys output into trimmed lines and matches patterns against them.
+ *
+ * Matching is gated on the literal text a pattern starts with, so most lines of a dump are
+ * rejected with a single startsWith() before any regex runs.
+ */
+class DumpsysLines {
+    // Literal text every match of a pattern must start with, keyed by regex. Patterns built per
+    // call from the same regex share an entry.
+    private static final Map<String, String> sLiteralPrefixes =
+            new ConcurrentHashMap<String, String>();
+
+    private DumpsysLines() {
+    }
+
+    /**
+     * Appends the lines of {@code dump} to {@code lines} in a single pass, each trimmed once.
+     * Blank lines are dropped.
+     */
+    static void split(String dump, List<String> lines) {
+        final int length = dump.length();
+        int start = 0;
+        while (start < length) {
+            int end = dump.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            int first = start;
+            while (first < end && dump.charAt(first) <= ' ') {
+                first++;
+            }
+            int last = end;
+            while (last > first && dump.charAt(last - 1) <= ' ') {
+                last--;
+            }
+            if (first < last) {
+                lines.add(dump.substring(first, last));
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Returns true if {@code pattern} matches the whole of {@code line}. The regex only runs
+     * when the line starts with the literal text the pattern begins with.
+     */
+    static boolean matches(Pattern pattern, String line) {
+        return line.startsWith(literalPrefix(pattern)) && pattern.matcher(line).matches();
+    }
+
+    /**
+     * Like {@link #matches} but returns the successful matcher, or null.
+     */
+    static Matcher match(Pattern pattern, String line) {
+        if (!line.startsWith(literalPrefix(pattern))) {
+            return null;
+        }
+        final Matcher matcher = pattern.matcher(line);
+        return matcher.matches() ? matcher : null;
+    }
+
+    /**
+     * Returns the literal text at the start of {@code pattern}, up to the first character with
+     * a special meaning. Escaped punctuation such as {@code \\:} or {@code \\*} is unescaped.
+     * Patterns with flags or alternatives have no required prefix.
+     */
+    static String literalPrefix(Pattern pattern) {
+        final String regex = pattern.pattern();
+        if (pattern.flags() != 0 || regex.indexOf('|') >= 0) {
+            return "";
+        }
+        String prefix = sLiteralPrefixes.get(regex);
+        if (prefix != null) {
+            return prefix;
+        }
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()
+                    && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                builder.append(regex.charAt(++i));
+            } else if (".[]{}()*+?^$|\\".indexOf(c) >= 0) {
+                break;
+            } else {
+                builder.append(c);
+            }
+            // A quantifier applies to the character before it, which is then not required.
+            if (i + 1 < regex.length() && "*+?{".indexOf(regex.charAt(i + 1)) >= 0) {
+                builder.setLength(builder.length() - 1);
+                break;
+            }
+        }
+        prefix = builder.toString();
+        sLiteralPrefixes.put(regex, prefix);
+        return prefix;
+    }
+}
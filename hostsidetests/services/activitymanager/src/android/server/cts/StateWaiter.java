@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package android.server.cts;
+
+import static android.server.cts.StateLogger.log;
+
+/**
+ * Polls a device state condition with exponential backoff.
+ *
+ * The first re-check happens after {@link #INITIAL_DELAY_MS}, so states that settle quickly are
+ * picked up without waiting a whole second, and the delay doubles up to {@link #MAX_DELAY_MS}
+ * so that slow transitions do not flood the device with dumpsys calls.
+ */
+class StateWaiter {
+    static final long INITIAL_DELAY_MS = 50;
+    static final long MAX_DELAY_MS = 1000;
+    static final long DEFAULT_TIMEOUT_MS = 5000;
+
+    /** A condition on device state, evaluated by fetching fresh state on each call. */
+    interface Condition<E extends Exception> {
+        boolean isSatisfied() throws E;
+    }
+
+    /**
+     * Waits up to {@link #DEFAULT_TIMEOUT_MS} for {@code condition} to be satisfied.
+     *
+     * @param description what is being waited for, used for logging.
+     * @return true if the condition was satisfied before the timeout.
+     */
+    static <E extends Exception> boolean waitFor(String description, Condition<E> condition)
+            throws E {
+        return waitFor(description, DEFAULT_TIMEOUT_MS, condition);
+    }
+
+    /**
+     * Waits up to {@code timeoutMs} for {@code condition} to be satisfied. The condition is
+     * always evaluated at least once, and once more after the timeout expires.
+     *
+     * @param description what is being waited for, used for logging.
+     * @return true if the condition was satisfied before the timeout.
+     */
+    static <E extends Exception> boolean waitFor(String description, long timeoutMs,
+            Condition<E> condition) throws E {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        long delay = INITIAL_DELAY_MS;
+        while (!condition.isSatisfied()) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                log("***Timed out waiting for " + description);
+                return false;
+            }
+            log("***Waiting " + delay + "ms for " + description + "...");
+            try {
+                Thread.sleep(Math.min(delay, remaining));
+            } catch (InterruptedException e) {
+                log(e.toString());
+                // Well I guess we are not waiting...
+                return condition.isSatisfied();
+            }
+            delay = Math.min(delay * 2, MAX_DELAY_MS);
+        }
+        return true;
+    }
+}
@@ -71,6 +71,9 @@ class WindowManagerState {
     private String mFocusedWindow = null;
     private String mFocusedApp = null;
     private final LinkedList<String> mSysDump = new LinkedList();
+    // The dump the current state was parsed from. An identical dump is not parsed again.
+    private String mLastDump = null;
+    private boolean mLastVisibleOnly;
 
     void computeState(ITestDevice device, boolean visibleOnly) throws DeviceNotAvailableException {
         // It is possible the system is in the middle of transition to the right state when we get
@@ -99,7 +102,11 @@ class WindowManagerState {
                     DUMPSYS_WINDOWS_VISIBLE_APPS : DUMPSYS_WINDOWS_APPS;
             device.executeShellCommand(dumpsysCmd, outputReceiver);
             dump = outputReceiver.getOutput();
-            parseSysDump(dump, visibleOnly);
+            if (!dump.equals(mLastDump) || visibleOnly != mLastVisibleOnly) {
+                parseSysDump(dump, visibleOnly);
+                mLastDump = dump;
+                mLastVisibleOnly = visibleOnly;
+            }
 
             retry = mWindows.isEmpty() || mFocusedWindow == null || mFocusedApp == null;
         } while (retry && retriesLeft-- > 0);
@@ -122,7 +129,7 @@ class WindowManagerState {
     private void parseSysDump(String sysDump, boolean visibleOnly) {
         reset();
 
-        Collections.addAll(mSysDump, sysDump.split("\\n"));
+        DumpsysLines.split(sysDump, mSysDump);
 
         while (!mSysDump.isEmpty()) {
             final Display display =
@@ -167,8 +174,8 @@ class WindowManagerState {
 
             final String line = mSysDump.pop().trim();
 
-            Matcher matcher = sFocusedWindowPattern.matcher(line);
-            if (matcher.matches()) {
+            Matcher matcher = DumpsysLines.match(sFocusedWindowPattern, line);
+            if (matcher != null) {
                 log(line);
                 final String focusedWindow = matcher.group(3);
                 log(focusedWindow);
@@ -176,8 +183,8 @@ class WindowManagerState {
                 continue;
             }
 
-            matcher = sAppErrorFocusedWindowPattern.matcher(line);
-            if (matcher.matches()) {
+            matcher = DumpsysLines.match(sAppErrorFocusedWindowPattern, line);
+            if (matcher != null) {
                 log(line);
                 final String focusedWindow = matcher.group(3);
                 log(focusedWindow);
@@ -185,8 +192,8 @@ class WindowManagerState {
                 continue;
             }
 
-            matcher = sWaitingForDebuggerFocusedWindowPattern.matcher(line);
-            if (matcher.matches()) {
+            matcher = DumpsysLines.match(sWaitingForDebuggerFocusedWindowPattern, line);
+            if (matcher != null) {
                 log(line);
                 final String focusedWindow = matcher.group(3);
                 log(focusedWindow);
@@ -194,8 +201,8 @@ class WindowManagerState {
                 continue;
             }
 
-            matcher = sFocusedAppPattern.matcher(line);
-            if (matcher.matches()) {
+            matcher = DumpsysLines.match(sFocusedAppPattern, line);
+            if (matcher != null) {
                 log(line);
                 final String focusedApp = matcher.group(5);
                 log(focusedApp);
@@ -304,8 +311,8 @@ class WindowManagerState {
                 LinkedList<String> dump, Pattern stackIdPattern, Pattern[] exitPatterns) {
             final String line = dump.peek().trim();
 
-            final Matcher matcher = stackIdPattern.matcher(line);
-            if (!matcher.matches()) {
+            final Matcher matcher = DumpsysLines.match(stackIdPattern, line);
+            if (matcher == null) {
                 // Not a stack.
                 return null;
             }
@@ -380,8 +387,8 @@ class WindowManagerState {
                 LinkedList<String> dump, Pattern taskIdPattern, Pattern[] exitPatterns) {
             final String line = dump.peek().trim();
 
-            final Matcher matcher = taskIdPattern.matcher(line);
-            if (!matcher.matches()) {
+            final Matcher matcher = DumpsysLines.match(taskIdPattern, line);
+            if (matcher == null) {
                 // Not a task.
                 return null;
             }
@@ -409,14 +416,14 @@ class WindowManagerState {
                     continue;
                 }
 
-                Matcher matcher = sTempInsetBoundsPattern.matcher(line);
-                if (matcher.matches()) {
+                Matcher matcher = DumpsysLines.match(sTempInsetBoundsPattern, line);
+                if (matcher != null) {
                     log(line);
                     mTempInsetBounds = extractBounds(matcher);
                 }
 
-                matcher = sAppTokenPattern.matcher(line);
-                if (matcher.matches()) {
+                matcher = DumpsysLines.match(sAppTokenPattern, line);
+                if (matcher != null) {
                     log(line);
                     final String appToken = matcher.group(6);
                     log(appToken);
@@ -442,7 +449,7 @@ class WindowManagerState {
             final String line = dump.peek().trim();
 
             for (Pattern pattern : exitPatterns) {
-                if (pattern.matcher(line).matches()) {
+                if (DumpsysLines.matches(pattern, line)) {
                     return true;
                 }
             }
@@ -450,8 +457,8 @@ class WindowManagerState {
         }
 
         boolean extractFullscreen(String line) {
-            final Matcher matcher = sFullscreenPattern.matcher(line);
-            if (!matcher.matches()) {
+            final Matcher matcher = DumpsysLines.match(sFullscreenPattern, line);
+            if (matcher == null) {
                 return false;
             }
             log(line);
@@ -462,8 +469,8 @@ class WindowManagerState {
         }
 
         boolean extractBounds(String line) {
-            final Matcher matcher = sBoundsPattern.matcher(line);
-            if (!matcher.matches()) {
+            final Matcher matcher = DumpsysLines.match(sBoundsPattern, line);
+            if (matcher == null) {
                 return false;
             }
             log(line);
@@ -541,8 +548,8 @@ class WindowManagerState {
             // TODO: exit pattern for displays?
             final String line = dump.peek().trim();
 
-            Matcher matcher = sDisplayIdPattern.matcher(line);
-            if (!matcher.matches()) {
+            Matcher matcher = DumpsysLines.match(sDisplayIdPattern, line);
+            if (matcher == null) {
                 return null;
             }
 
@@ -559,8 +566,8 @@ class WindowManagerState {
             while (!doneExtracting(dump, exitPatterns)) {
                 final String line = dump.pop().trim();
 
-                final Matcher matcher = sDisplayInfoPattern.matcher(line);
-                if (matcher.matches()) {
+                final Matcher matcher = DumpsysLines.match(sDisplayInfoPattern, line);
+                if (matcher != null) {
                     log(TAG + "DISPLAY_INFO: " + line);
                     mDpi = Integer.valueOf(matcher.group(2));
 
@@ -646,8 +653,8 @@ class WindowManagerState {
         static WindowState create(LinkedList<String> dump, Pattern[] exitPatterns) {
             final String line = dump.peek().trim();
 
-            Matcher matcher = sWindowPattern.matcher(line);
-            if (!matcher.matches()) {
+            Matcher matcher = DumpsysLines.match(sWindowPattern, line);
+            if (matcher == null) {
                 return null;
             }
 
@@ -655,13 +662,13 @@ class WindowManagerState {
             dump.pop();
 
             final WindowState window;
-            Matcher specialMatcher = sStartingWindowPattern.matcher(line);
-            if (specialMatcher.matches()) {
+            Matcher specialMatcher = DumpsysLines.match(sStartingWindowPattern, line);
+            if (specialMatcher != null) {
                 log(TAG + "STARTING: " + line);
                 window = new WindowState(specialMatcher, true, false);
             } else {
-                specialMatcher = sExitingWindowPattern.matcher(line);
-                if (specialMatcher.matches()) {
+                specialMatcher = DumpsysLines.match(sExitingWindowPattern, line);
+                if (specialMatcher != null) {
                     log(TAG + "EXITING: " + line);
                     window = new WindowState(specialMatcher, false, true);
                 } else {
@@ -677,16 +684,16 @@ class WindowManagerState {
             while (!doneExtracting(dump, exitPatterns)) {
                 final String line = dump.pop().trim();
 
-                Matcher matcher = sWindowAssociationPattern.matcher(line);
-                if (matcher.matches()) {
+                Matcher matcher = DumpsysLines.match(sWindowAssociationPattern, line);
+                if (matcher != null) {
                     log(TAG + "WINDOW_ASSOCIATION: " + line);
                     mDisplayId = Integer.valueOf(matcher.group(1));
                     mStackId = Integer.valueOf(matcher.group(2));
                     continue;
                 }
 
-                matcher = sFramePattern.matcher(line);
-                if (matcher.matches()) {
+                matcher = DumpsysLines.match(sFramePattern, line);
+                if (matcher != null) {
                     log(TAG + "FRAME: " + line);
                     extractMultipleBounds(matcher, 1, mContainingFrame, mParentFrame);
                     continue;
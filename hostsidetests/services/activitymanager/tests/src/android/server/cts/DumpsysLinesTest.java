@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package android.server.cts;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Unit tests for {@link DumpsysLines}.
+ */
+public class DumpsysLinesTest extends TestCase {
+
+    public void testSplit() {
+        final List<String> lines = new ArrayList<>();
+        DumpsysLines.split("  Display #0\n\n    Stack #1:\r\n\t  mBounds=null  \n   \nlast", lines);
+        assertEquals(Arrays.asList("Display #0", "Stack #1:", "mBounds=null", "last"), lines);
+    }
+
+    public void testLiteralPrefix() {
+        assertPrefix("Display #", "Display #(\\d+)");
+        assertPrefix("Stack #", "Stack #(\\d+)\\:");
+        assertPrefix("mFocusedActivity: ActivityRecord{",
+                "mFocusedActivity\\: ActivityRecord\\{(.+) u(\\d+) (\\S+) (\\S+)\\}");
+        assertPrefix("mBounds=Rect(", "mBounds=Rect\\((\\d+), (\\d+) - (\\d+), (\\d+)\\)");
+        assertPrefix("mMinWidth=", "mMinWidth=(\\d+)");
+    }
+
+    public void testLiteralPrefix_stopsAtSpecialCharacters() {
+        assertPrefix("", "(.+): onConfigurationChanged");
+        assertPrefix("", ".*");
+        assertPrefix("", "^Display");
+        assertPrefix("abc", "abc[def]");
+        assertPrefix("abc", "abc\\d+");
+    }
+
+    public void testLiteralPrefix_dropsQuantifiedCharacter() {
+        assertPrefix("ab", "abc*");
+        assertPrefix("ab", "abc?d");
+        assertPrefix("ab", "abc+");
+        assertPrefix("ab", "abc{2}");
+        assertPrefix("a", "a\\:*b");
+    }
+
+    public void testLiteralPrefix_noPrefixForAlternativesOrFlags() {
+        assertPrefix("", "abc|def");
+        assertEquals("", DumpsysLines.literalPrefix(
+                Pattern.compile("Display", Pattern.CASE_INSENSITIVE)));
+    }
+
+    public void testLiteralPrefix_sharedByEqualRegexes() {
+        assertSame(DumpsysLines.literalPrefix(Pattern.compile("Task id #(\\d+)")),
+                DumpsysLines.literalPrefix(Pattern.compile("Task id #(\\d+)")));
+    }
+
+    public void testMatch() {
+        final Pattern pattern = Pattern.compile("Stack #(\\d+)\\:");
+        final Matcher matcher = DumpsysLines.match(pattern, "Stack #12:");
+        assertNotNull(matcher);
+        assertEquals("12", matcher.group(1));
+        assertNull(DumpsysLines.match(pattern, "Display #12:"));
+        assertNull(DumpsysLines.match(pattern, "Stack #a:"));
+        assertTrue(DumpsysLines.matches(pattern, "Stack #3:"));
+        assertFalse(DumpsysLines.matches(pattern, "  Stack #3:"));
+    }
+
+    private static void assertPrefix(String expected, String regex) {
+        final Pattern pattern = Pattern.compile(regex);
+        assertEquals(expected, DumpsysLines.literalPrefix(pattern));
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.sustainedPerformance.cts;
+
+import com.android.compatibility.common.util.ReportLog;
+import com.android.compatibility.common.util.ResultType;
+import com.android.compatibility.common.util.ResultUnit;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.MultiLineReceiver;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the state of the device while a test runs: the frequency of each cpu and the
+ * temperature of each thermal zone.
+ *
+ * All samples are read by a single shell command looping on the device, so that sampling does
+ * not open a new adb session each time. The loop ends after the expected duration of the run,
+ * and is killed when sampling is stopped. The samples are kept in fixed size ring buffers of
+ * primitives, and summarized as time series into a {@link ReportLog} once sampling is stopped.
+ */
+public class DeviceStateSampler {
+    private static final String LOG_TAG = "DeviceStateSampler";
+    /** Number of points of each summarized time series. */
+    private static final int SERIES_LENGTH = 30;
+    /** Time to wait for the sampling command to end once stopped, in addition to a period. */
+    private static final long STOP_TIMEOUT_MS = 30000;
+
+    /**
+     * Values of one quantity, in a ring aligned with the ring of sample times.
+     */
+    private static class Channel {
+        final int[] mValues;
+        final ResultUnit mUnit;
+
+        Channel(int capacity, ResultUnit unit) {
+            mValues = new int[capacity];
+            mUnit = unit;
+        }
+    }
+
+    private final ITestDevice mDevice;
+    private final int mPeriodSec;
+    private final int mCapacity;
+
+    // ring of sample times, in ms of device uptime
+    private final long[] mTimes;
+    // keyed by metric name, in the order the channels were first seen
+    private final Map<String, Channel> mChannels = new LinkedHashMap<>();
+    // number of complete samples, of which the rings hold the last mCapacity
+    private long mSampleCount;
+    // whether a sample is being read
+    private boolean mInSample;
+
+    private volatile boolean mStopped;
+    // pid of the shell running the sampling loop on the device, once it has printed it
+    private volatile int mShellPid;
+    private Thread mThread;
+
+    /**
+     * @param device the device to sample
+     * @param periodSec time between two samples
+     * @param capacity number of samples kept, older ones are overwritten
+     */
+    public DeviceStateSampler(ITestDevice device, int periodSec, int capacity) {
+        mDevice = device;
+        mPeriodSec = periodSec;
+        mCapacity = capacity;
+        mTimes = new long[capacity];
+    }
+
+    /**
+     * Starts sampling in the background.
+     *
+     * @param durationMs expected duration of the run, after which the device stops sampling even
+     * if {@link #stop} is never called
+     */
+    public void start(long durationMs) {
+        mStopped = false;
+        mShellPid = 0;
+        final String command = buildCommand(durationMs / (mPeriodSec * 1000L) + 2);
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // the command runs until the end of the run, or until killed once stopped
+                    mDevice.executeShellCommand(command, new SampleReceiver(),
+                            Math.max(60, 5 * mPeriodSec), TimeUnit.SECONDS, 0);
+                } catch (Exception e) {
+                    if (!mStopped) {
+                        Log.e(LOG_TAG, "Sampling failed: " + e.toString());
+                    }
+                }
+            }
+        }, LOG_TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stops sampling, and kills the sampling loop on the device.
+     */
+    public void stop() throws DeviceNotAvailableException, InterruptedException {
+        mStopped = true;
+        int pid = mShellPid;
+        if (pid > 0) {
+            mDevice.executeShellCommand("kill " + pid);
+        }
+        if (mThread != null) {
+            mThread.join(mPeriodSec * 1000L + STOP_TIMEOUT_MS);
+            mThread = null;
+        }
+    }
+
+    /**
+     * Adds the summarized time series of every channel to the report. Each series has up to
+     * {@link #SERIES_LENGTH} points, averaging the samples over equal parts of the run.
+     */
+    public synchronized void report(ReportLog report) {
+        // a sample being read when stopped may have overwritten the oldest one
+        int count = (int) Math.min(mSampleCount, mInSample ? mCapacity - 1 : mCapacity);
+        report.addValue("state_samples", count, ResultType.NEUTRAL, ResultUnit.COUNT);
+        if (count < 2) {
+            return;
+        }
+        long first = mSampleCount - count;
+        int points = Math.min(SERIES_LENGTH, count - 1);
+        double[] times = new double[points];
+        for (int p = 0; p < points; p++) {
+            // end of each part, from the first sample
+            times[p] = (time(first + end(p, points, count)) - time(first)) / 1000.0;
+        }
+        report.addValues("state_time", times, ResultType.NEUTRAL, ResultUnit.NONE);
+
+        for (Map.Entry<String, Channel> entry : mChannels.entrySet()) {
+            String name = entry.getKey();
+            Channel channel = entry.getValue();
+            double[] series = new double[points];
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            for (int p = 0; p < points; p++) {
+                int start = start(p, points, count);
+                int end = end(p, points, count);
+                // the last part also averages the last sample
+                int stop = p == points - 1 ? end + 1 : end;
+                double sum = 0;
+                for (int i = start; i < stop; i++) {
+                    sum += value(channel, first + i);
+                }
+                series[p] = sum / (stop - start);
+                min = Math.min(min, series[p]);
+                max = Math.max(max, series[p]);
+            }
+            report.addValues(name, series, ResultType.NEUTRAL, channel.mUnit);
+            report.addValue(name + "_min", min, ResultType.NEUTRAL, channel.mUnit);
+            report.addValue(name + "_max", max, ResultType.NEUTRAL, channel.mUnit);
+        }
+    }
+
+    // first sample of a part of the run
+    private static int start(int part, int parts, int count) {
+        return (int) ((long) part * (count - 1) / parts);
+    }
+
+    // sample after the last one of a part of the run, and first one of the next part
+    private static int end(int part, int parts, int count) {
+        return (int) ((long) (part + 1) * (count - 1) / parts);
+    }
+
+    private long time(long sample) {
+        return mTimes[(int) (sample % mCapacity)];
+    }
+
+    private int value(Channel channel, long sample) {
+        return channel.mValues[(int) (sample % mCapacity)];
+    }
+
+    /**
+     * Returns a command printing "P" with the pid of the shell, then a sample every period, as
+     * lines starting with a tag: "T" with the uptime, "F" with a cpufreq node and its value,
+     * "Z" with a thermal zone, its type and its temperature, and "E" at the end of the sample.
+     */
+    private String buildCommand(long samples) {
+        StringBuilder command = new StringBuilder();
+        command.append("echo P $$; i=0; while [ $i -lt ").append(samples).append(" ]; do ");
+        command.append("echo T $(cat /proc/uptime); ");
+        command.append("for f in /sys/devices/system/cpu/cpu[0-9]*/cpufreq/scaling_cur_freq; do ");
+        command.append("echo F $f $(cat $f 2>/dev/null); done; ");
+        command.append("for z in /sys/class/thermal/thermal_zone[0-9]*; do ");
+        command.append("echo Z $z $(cat $z/type 2>/dev/null) $(cat $z/temp 2>/dev/null); done; ");
+        command.append("echo E; i=$((i+1)); sleep ").append(mPeriodSec).append("; done");
+        return command.toString();
+    }
+
+    private class SampleReceiver extends MultiLineReceiver {
+        @Override
+        public void processNewLines(String[] lines) {
+            for (String line : lines) {
+                try {
+                    processLine(line);
+                } catch (NumberFormatException e) {
+                    Log.w(LOG_TAG, "Cannot parse sample line: " + line);
+                }
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mStopped;
+        }
+    }
+
+    private synchronized void processLine(String line) {
+        String[] parts = line.trim().split("\\s+");
+        if (parts[0].equals("P") && parts.length == 2) {
+            mShellPid = Integer.parseInt(parts[1]);
+        } else if (parts[0].equals("T") && parts.length >= 2) {
+            beginSample((long) (Double.parseDouble(parts[1]) * 1000));
+        } else if (!mInSample) {
+            return;
+        } else if (parts[0].equals("E")) {
+            mInSample = false;
+            mSampleCount++;
+        } else if (parts[0].equals("F") && parts.length == 3) {
+            // /sys/devices/system/cpu/cpuN/cpufreq/scaling_cur_freq
+            String cpu = parts[1].split("/")[5];
+            setValue(cpu + "_freq", ResultUnit.NONE, Integer.parseInt(parts[2]));
+        } else if (parts[0].equals("Z") && parts.length == 4) {
+            String zone = parts[1].substring(parts[1].lastIndexOf('/') + 1);
+            String type = parts[2].toLowerCase().replaceAll("[^a-z0-9]", "_");
+            setValue(zone + "_" + type + "_temp", ResultUnit.NONE, Integer.parseInt(parts[3]));
+        }
+    }
+
+    private void beginSample(long time) {
+        int slot = (int) (mSampleCount % mCapacity);
+        mTimes[slot] = time;
+        // until read, values are the same as in the previous sample
+        if (mSampleCount > 0) {
+            int previous = (int) ((mSampleCount - 1) % mCapacity);
+            for (Channel channel : mChannels.values()) {
+                channel.mValues[slot] = channel.mValues[previous];
+            }
+        }
+        mInSample = true;
+    }
+
+    private void setValue(String name, ResultUnit unit, int value) {
+        Channel channel = mChannels.get(name);
+        if (channel == null) {
+            // a channel first seen now takes its first value in the earlier samples, so that
+            // averages do not include zeros
+            channel = new Channel(mCapacity, unit);
+            Arrays.fill(channel.mValues, value);
+            mChannels.put(name, channel);
+        }
+        channel.mValues[(int) (mSampleCount % mCapacity)] = value;
+    }
+}
@@ -16,10 +16,17 @@
 
 package android.sustainedPerformance.cts;
 
+import com.android.compatibility.common.util.MetricsReportLog;
+import com.android.compatibility.common.util.ResultType;
+import com.android.compatibility.common.util.ResultUnit;
 import com.android.ddmlib.MultiLineReceiver;
 import com.android.ddmlib.IShellOutputReceiver;
+import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.testtype.DeviceTestCase;
+import com.android.tradefed.testtype.IAbi;
+import com.android.tradefed.testtype.IAbiReceiver;
+import com.android.tradefed.testtype.IBuildReceiver;
 import com.android.ddmlib.Log;
 import java.util.Scanner;
 import java.util.ArrayList;
@@ -29,9 +36,12 @@ import java.util.*;
 /**
  * Test to check if device implements Sustained Performance Mode
  */
-public class SustainedPerformanceHostTest extends DeviceTestCase {
+public class SustainedPerformanceHostTest extends DeviceTestCase
+        implements IAbiReceiver, IBuildReceiver {
 
     ITestDevice device;
+    private IBuildInfo mBuild;
+    private IAbi mAbi;
     private static final String PACKAGE = "com.android.gputest";
     private static final String CLASS = "GPUStressTestActivity";
     private static final String START_COMMAND = String.format(
@@ -49,6 +59,10 @@ public class SustainedPerformanceHostTest extends DeviceTestCase {
             TEST_PACKAGE, TEST_PACKAGE, TEST_CLASS);
     private static final String DHRYSTONE = "/data/local/tmp/";
     private static final String LOG_TAG = "sustainedPerfTest";
+    private static final String REPORT_LOG_NAME = "CtsSustainedPerformanceHostTestCases";
+    // cpu frequencies and temperatures are sampled every 10s
+    private static final int SAMPLING_PERIOD_SEC = 10;
+    private static final int SAMPLING_CAPACITY = 1024;
 
     private static ArrayList<Double> appResultsWithMode = new ArrayList<Double>();
     private static ArrayList<Double> appResultsWithoutMode = new ArrayList<Double>();
@@ -109,6 +123,16 @@ public class SustainedPerformanceHostTest extends DeviceTestCase {
         }
     }
 
+    @Override
+    public void setAbi(IAbi abi) {
+        mAbi = abi;
+    }
+
+    @Override
+    public void setBuild(IBuildInfo buildInfo) {
+        mBuild = buildInfo;
+    }
+
     public void analyzeResults(String logs, boolean mode) {
         Double[] testSet = new Double[10];
         int index = 0;
@@ -202,11 +226,15 @@ public class SustainedPerformanceHostTest extends DeviceTestCase {
          */
         setUpEnvironment();
         device.executeShellCommand(START_COMMAND_MODE);
+        DeviceStateSampler sampler = new DeviceStateSampler(device, SAMPLING_PERIOD_SEC,
+                SAMPLING_CAPACITY);
+        sampler.start(testDuration);
         Thread dhrystone = new Thread(new Dhrystone(true, 1));
         Thread dhrystone1 = new Thread(new Dhrystone(true, 2));
         dhrystone.start();
         dhrystone1.start();
         Thread.sleep(testDuration);
+        sampler.stop();
         device.executeShellCommand(STOP_COMMAND);
         dhrystone.join();
         dhrystone1.join();
@@ -220,6 +248,24 @@ public class SustainedPerformanceHostTest extends DeviceTestCase {
         device.executeShellCommand("settings put global airplane_mode_on 0");
         device.executeShellCommand("am broadcast -a android.intent.action.AIRPLANE_MODE --ez state false");
 
+        MetricsReportLog report = new MetricsReportLog(mBuild, mAbi.getName(),
+                String.format("%s#%s", getClass().getName(), "testShader"), REPORT_LOG_NAME,
+                "test_shader");
+        report.addValue("shader_min", appResultsWithMode.get(0), ResultType.NEUTRAL,
+                ResultUnit.NONE);
+        report.addValue("shader_max", appResultsWithMode.get(1), ResultType.NEUTRAL,
+                ResultUnit.NONE);
+        report.addValue("shader_variation", appResultsWithMode.get(2), ResultType.LOWER_BETTER,
+                ResultUnit.NONE);
+        report.addValue("dhrystone_min", dhrystoneResultsWithMode.get(0), ResultType.HIGHER_BETTER,
+                ResultUnit.SCORE);
+        report.addValue("dhrystone_max", dhrystoneResultsWithMode.get(1), ResultType.HIGHER_BETTER,
+                ResultUnit.SCORE);
+        report.addValue("dhrystone_variation", dhrystoneResultsWithMode.get(2),
+                ResultType.LOWER_BETTER, ResultUnit.NONE);
+        sampler.report(report);
+        report.submit();
+
         /*
          * Checks if the performance in the mode is consistent with
          * 5% error margin for shader and 10% error margin for dhrystone.
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.cts.util;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecInfo.CodecCapabilities;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the regular codecs of the device and of their capabilities.
+ *
+ * The codec list and the capabilities of each codec are queried once, when the index is built,
+ * and are then looked up by codec name or by mime type. The index is shared by the whole process
+ * and only rebuilt when the number of codecs changes.
+ */
+public final class CodecCapabilityIndex {
+    private static CodecCapabilityIndex sIndex;
+
+    private final int mCodecCount;
+    private final List<MediaCodecInfo> mCodecInfos;
+    // keyed by lower case codec name
+    private final Map<String, MediaCodecInfo> mCodecsByName = new HashMap<>();
+    // capabilities of each codec, keyed by the supported type as the codec declares it
+    private final Map<MediaCodecInfo, Map<String, CodecCapabilities>> mCapabilities =
+            new HashMap<>();
+    // keyed by lower case mime type, in the order of the codec list
+    private final Map<String, List<MediaCodecInfo>> mEncodersByMime = new LinkedHashMap<>();
+    private final Map<String, List<MediaCodecInfo>> mDecodersByMime = new LinkedHashMap<>();
+    // results of canDecodeVideo, the only part of the index filled in lazily
+    private final Map<String, Boolean> mVideoDecodeSupport = new ConcurrentHashMap<>();
+
+    private CodecCapabilityIndex() {
+        mCodecCount = MediaCodecList.getCodecCount();
+        mCodecInfos = Collections.unmodifiableList(Arrays.asList(
+                new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()));
+        for (MediaCodecInfo info : mCodecInfos) {
+            mCodecsByName.put(info.getName().toLowerCase(), info);
+            Map<String, List<MediaCodecInfo>> byMime =
+                    info.isEncoder() ? mEncodersByMime : mDecodersByMime;
+            Map<String, CodecCapabilities> caps = new HashMap<>();
+            for (String type : info.getSupportedTypes()) {
+                try {
+                    caps.put(type, info.getCapabilitiesForType(type));
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                String mime = type.toLowerCase();
+                List<MediaCodecInfo> codecs = byMime.get(mime);
+                if (codecs == null) {
+                    codecs = new ArrayList<>();
+                    byMime.put(mime, codecs);
+                }
+                if (!codecs.contains(info)) {
+                    codecs.add(info);
+                }
+            }
+            mCapabilities.put(info, caps);
+        }
+    }
+
+    /**
+     * Returns the index of the process, building it on first use and again whenever the number of
+     * codecs of the device has changed.
+     */
+    public static synchronized CodecCapabilityIndex get() {
+        if (sIndex == null || sIndex.mCodecCount != MediaCodecList.getCodecCount()) {
+            sIndex = new CodecCapabilityIndex();
+        }
+        return sIndex;
+    }
+
+    /** Returns the regular codecs, in the order of the codec list. */
+    public List<MediaCodecInfo> getCodecInfos() {
+        return mCodecInfos;
+    }
+
+    /** Returns the codec with the given name, ignoring case, or null. */
+    public MediaCodecInfo getCodecInfo(String name) {
+        return mCodecsByName.get(name.toLowerCase());
+    }
+
+    /** Returns the encoders or decoders of the mime type, ignoring case. */
+    public List<MediaCodecInfo> getCodecInfos(boolean encoder, String mime) {
+        List<MediaCodecInfo> codecs =
+                (encoder ? mEncodersByMime : mDecodersByMime).get(mime.toLowerCase());
+        return codecs == null
+                ? Collections.<MediaCodecInfo>emptyList() : Collections.unmodifiableList(codecs);
+    }
+
+    /**
+     * Returns the first mime type of the domain (e.g. "video") for which there is an encoder or a
+     * decoder, or null.
+     */
+    public String findMimeForDomain(boolean encoder, String domain) {
+        String prefix = domain.toLowerCase() + "/";
+        for (String mime : (encoder ? mEncodersByMime : mDecodersByMime).keySet()) {
+            if (mime.startsWith(prefix)) {
+                return mime;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the capabilities of the codec for the mime type, or null if the codec does not
+     * support it.
+     */
+    public CodecCapabilities getCapabilities(MediaCodecInfo info, String mime) {
+        Map<String, CodecCapabilities> caps = mCapabilities.get(info);
+        return caps == null ? null : caps.get(mime);
+    }
+
+    /**
+     * Same as {@link MediaCodecList#findEncoderForFormat} and
+     * {@link MediaCodecList#findDecoderForFormat}, only looking at the codecs of the mime type.
+     */
+    public String findCodecForFormat(boolean encoder, MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        for (MediaCodecInfo info : getCodecInfos(encoder, mime)) {
+            CodecCapabilities caps = getCapabilities(info, mime);
+            if (caps != null && caps.isFormatSupported(format)) {
+                return info.getName();
+            }
+        }
+        return null;
+    }
+
+    /** Returns whether a decoder supports the video size and frame rate. */
+    public boolean canDecodeVideo(String mime, int width, int height, float rate) {
+        String key = mime + " " + width + "x" + height + "@" + rate;
+        Boolean supported = mVideoDecodeSupport.get(key);
+        if (supported == null) {
+            MediaFormat format = MediaFormat.createVideoFormat(mime, width, height);
+            format.setFloat(MediaFormat.KEY_FRAME_RATE, rate);
+            supported = findCodecForFormat(false /* encoder */, format) != null;
+            mVideoDecodeSupport.put(key, supported);
+        }
+        return supported;
+    }
+}
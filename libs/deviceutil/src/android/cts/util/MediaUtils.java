@@ -21,7 +21,6 @@ import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaCodecInfo.CodecCapabilities;
 import android.media.MediaCodecInfo.VideoCapabilities;
-import android.media.MediaCodecList;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.net.Uri;
@@ -37,6 +36,7 @@ import static java.lang.reflect.Modifier.isPublic;
 import static java.lang.reflect.Modifier.isStatic;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import static junit.framework.Assert.assertTrue;
@@ -51,8 +51,6 @@ public class MediaUtils {
      */
     private static final int ALL_AV_TRACKS = -1;
 
-    private static final MediaCodecList sMCL = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
-
     /**
      * Returns the test name (heuristically).
      *
@@ -187,9 +185,9 @@ public class MediaUtils {
     // returns the list of codecs that support any one of the formats
     private static String[] getCodecNames(
             boolean isEncoder, Boolean isGoog, MediaFormat... formats) {
-        MediaCodecList mcl = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        CodecCapabilityIndex index = CodecCapabilityIndex.get();
         ArrayList<String> result = new ArrayList<>();
-        for (MediaCodecInfo info : mcl.getCodecInfos()) {
+        for (MediaCodecInfo info : index.getCodecInfos()) {
             if (info.isEncoder() != isEncoder) {
                 continue;
             }
@@ -201,10 +199,8 @@ public class MediaUtils {
             for (MediaFormat format : formats) {
                 String mime = format.getString(MediaFormat.KEY_MIME);
 
-                CodecCapabilities caps = null;
-                try {
-                    caps = info.getCapabilitiesForType(mime);
-                } catch (IllegalArgumentException e) {  // mime is not supported
+                CodecCapabilities caps = index.getCapabilities(info, mime);
+                if (caps == null) {  // mime is not supported
                     continue;
                 }
                 if (caps.isFormatSupported(format)) {
@@ -248,7 +244,7 @@ public class MediaUtils {
     }
 
     public static MediaCodec getDecoder(MediaFormat format) {
-        String decoder = sMCL.findDecoderForFormat(format);
+        String decoder = CodecCapabilityIndex.get().findCodecForFormat(false /* encoder */, format);
         if (decoder != null) {
             try {
                 return MediaCodec.createByCodecName(decoder);
@@ -259,7 +255,7 @@ public class MediaUtils {
     }
 
     public static boolean canEncode(MediaFormat format) {
-        if (sMCL.findEncoderForFormat(format) == null) {
+        if (CodecCapabilityIndex.get().findCodecForFormat(true /* encoder */, format) == null) {
             Log.i(TAG, "no encoder for " + format);
             return false;
         }
@@ -267,7 +263,7 @@ public class MediaUtils {
     }
 
     public static boolean canDecode(MediaFormat format) {
-        if (sMCL.findDecoderForFormat(format) == null) {
+        if (CodecCapabilityIndex.get().findCodecForFormat(false /* encoder */, format) == null) {
             Log.i(TAG, "no decoder for " + format);
             return false;
         }
@@ -291,6 +287,19 @@ public class MediaUtils {
     }
 
     public static boolean supports(String codecName, MediaFormat format) {
+        CodecCapabilityIndex index = CodecCapabilityIndex.get();
+        MediaCodecInfo info = index.getCodecInfo(codecName);
+        if (info != null) {
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            CodecCapabilities cap = index.getCapabilities(info, mime);
+            if (cap == null) {
+                Log.w(TAG, "not supported mime: " + mime);
+                return false;
+            }
+            return cap.isFormatSupported(format);
+        }
+
+        // not a regular codec, ask the codec itself
         MediaCodec codec;
         try {
             codec = MediaCodec.createByCodecName(codecName);
@@ -448,19 +457,14 @@ public class MediaUtils {
     }
 
     public static boolean hasCodecForDomain(boolean encoder, String domain) {
-        for (MediaCodecInfo info : sMCL.getCodecInfos()) {
-            if (encoder != info.isEncoder()) {
-                continue;
-            }
-
-            for (String type : info.getSupportedTypes()) {
-                if (type.toLowerCase().startsWith(domain.toLowerCase() + "/")) {
-                    Log.i(TAG, "found codec " + info.getName() + " for mime " + type);
-                    return true;
-                }
-            }
+        CodecCapabilityIndex index = CodecCapabilityIndex.get();
+        String mime = index.findMimeForDomain(encoder, domain);
+        if (mime == null) {
+            return false;
         }
-        return false;
+        Log.i(TAG, "found codec " + index.getCodecInfos(encoder, mime).get(0).getName()
+                + " for mime " + mime);
+        return true;
     }
 
     public static boolean checkCodecForDomain(boolean encoder, String domain) {
@@ -469,19 +473,12 @@ public class MediaUtils {
     }
 
     private static boolean hasCodecForMime(boolean encoder, String mime) {
-        for (MediaCodecInfo info : sMCL.getCodecInfos()) {
-            if (encoder != info.isEncoder()) {
-                continue;
-            }
-
-            for (String type : info.getSupportedTypes()) {
-                if (type.equalsIgnoreCase(mime)) {
-                    Log.i(TAG, "found codec " + info.getName() + " for mime " + mime);
-                    return true;
-                }
-            }
+        List<MediaCodecInfo> codecs = CodecCapabilityIndex.get().getCodecInfos(encoder, mime);
+        if (codecs.isEmpty()) {
+            return false;
         }
-        return false;
+        Log.i(TAG, "found codec " + codecs.get(0).getName() + " for mime " + mime);
+        return true;
     }
 
     private static boolean hasCodecForMimes(boolean encoder, String[] mimes) {
@@ -512,9 +509,11 @@ public class MediaUtils {
     }
 
     public static boolean canDecodeVideo(String mime, int width, int height, float rate) {
-        MediaFormat format = MediaFormat.createVideoFormat(mime, width, height);
-        format.setFloat(MediaFormat.KEY_FRAME_RATE, rate);
-        return canDecode(format);
+        if (!CodecCapabilityIndex.get().canDecodeVideo(mime, width, height, rate)) {
+            Log.i(TAG, "no decoder for " + mime + " " + width + "x" + height + "@" + rate);
+            return false;
+        }
+        return true;
     }
 
     public static boolean canDecodeVideo(
@@ -547,26 +546,23 @@ public class MediaUtils {
      */
 
     public static VideoCapabilities getVideoCapabilities(String codecName, String mime) {
-        for (MediaCodecInfo info : sMCL.getCodecInfos()) {
-            if (!info.getName().equalsIgnoreCase(codecName)) {
-                continue;
-            }
-            CodecCapabilities caps;
-            try {
-                caps = info.getCapabilitiesForType(mime);
-            } catch (IllegalArgumentException e) {
-                // mime is not supported
-                Log.w(TAG, "not supported mime: " + mime);
-                return null;
-            }
-            VideoCapabilities vidCaps = caps.getVideoCapabilities();
-            if (vidCaps == null) {
-                Log.w(TAG, "not a video codec: " + codecName);
-            }
-            return vidCaps;
+        CodecCapabilityIndex index = CodecCapabilityIndex.get();
+        MediaCodecInfo info = index.getCodecInfo(codecName);
+        if (info == null) {
+            Log.w(TAG, "codec not found: " + codecName);
+            return null;
         }
-        Log.w(TAG, "codec not found: " + codecName);
-        return null;
+        CodecCapabilities caps = index.getCapabilities(info, mime);
+        if (caps == null) {
+            // mime is not supported
+            Log.w(TAG, "not supported mime: " + mime);
+            return null;
+        }
+        VideoCapabilities vidCaps = caps.getVideoCapabilities();
+        if (vidCaps == null) {
+            Log.w(TAG, "not a video codec: " + codecName);
+        }
+        return vidCaps;
     }
 
     public static MediaFormat getTrackFormatForResource(
@@ -671,27 +667,36 @@ public class MediaUtils {
             }
         }
 
+        /** uses the first |num| values of |data|, which the caller no longer modifies */
+        private Stats(double[] data, int num) {
+            mData = data;
+            mNum = num;
+        }
+
         public int getNum() {
             return mNum;
         }
 
+        /** adds |x| to mMinX, mMaxX, mSumX and mSumXX */
+        private void accumulate(double x) {
+            if (!(x >= mMinX)) { // mMinX may be NaN
+                mMinX = x;
+            }
+            if (!(x <= mMaxX)) { // mMaxX may be NaN
+                mMaxX = x;
+            }
+            mSumX += x;
+            mSumXX += x * x;
+        }
+
         /** calculate mSumX and mSumXX */
         private void analyze() {
             if (mAnalyzed) {
                 return;
             }
 
-            if (mData != null) {
-                for (double x : mData) {
-                    if (!(x >= mMinX)) { // mMinX may be NaN
-                        mMinX = x;
-                    }
-                    if (!(x <= mMaxX)) { // mMaxX may be NaN
-                        mMaxX = x;
-                    }
-                    mSumX += x;
-                    mSumXX += x * x;
-                }
+            for (int i = 0; i < mNum; ++i) {
+                accumulate(mData[i]);
             }
             mAnalyzed = true;
         }
@@ -737,16 +742,24 @@ public class MediaUtils {
                 return this;
             }
 
-            double[] avgs = new double[mNum - n + 1];
+            // the averages are analyzed as they are computed, with a running sum over the window
+            Stats avgs = new Stats(new double[mNum - n + 1], 0);
             double sum = 0;
             for (int i = 0; i < mNum; ++i) {
                 sum += mData[i];
                 if (i >= n - 1) {
-                    avgs[i - n + 1] = sum / n;
+                    avgs.append(sum / n);
                     sum -= mData[i - n + 1];
                 }
             }
-            return new Stats(avgs);
+            avgs.mAnalyzed = true;
+            return avgs;
+        }
+
+        /** appends to statistics whose buffer is known to be large enough */
+        private void append(double x) {
+            mData[mNum++] = x;
+            accumulate(x);
         }
 
         /** returns the statistics for the moving average over a window over the
@@ -766,7 +779,8 @@ public class MediaUtils {
                 return new Stats(new double[] { average });
             }
             int samples = (int)Math.ceil((mSumX - window) / average);
-            double[] avgs = new double[samples];
+            // the averages are analyzed as they are computed
+            Stats avgs = new Stats(new double[samples], 0);
 
             // A somewhat brute force approach to calculating the moving average.
             // TODO: add support for weights in Stats, so we can do a more refined approach.
@@ -787,10 +801,9 @@ public class MediaUtils {
             //  intervals:   |-----------|-------|-------|--------------------|--------|
             //                           ^bi             ^ei
 
-            int ix = 0; // index in the result
-            while (ix < samples) {
+            while (avgs.mNum < samples) {
                 // add intervals while there is space in the window
-                while (ei < mData.length && mData[ei] <= space) {
+                while (ei < mNum && mData[ei] <= space) {
                     space -= mData[ei];
                     sum += mData[ei];
                     num++;
@@ -801,14 +814,14 @@ public class MediaUtils {
                 // intervals in the current window: pick whichever element overlaps the window
                 // most.
                 if (num > 0) {
-                    avgs[ix++] = sum / num;
+                    avgs.append(sum / num);
                 } else if (bi > 0 && foot > space) {
                     // consider previous
-                    avgs[ix++] = mData[bi - 1];
-                } else if (ei == mData.length) {
+                    avgs.append(mData[bi - 1]);
+                } else if (ei == mNum) {
                     break;
                 } else {
-                    avgs[ix++] = mData[ei];
+                    avgs.append(mData[ei]);
                 }
 
                 // move the window to the next position
@@ -823,7 +836,8 @@ public class MediaUtils {
                     bi++;
                 }
             }
-            return new Stats(Arrays.copyOf(avgs, ix));
+            avgs.mAnalyzed = true;
+            return avgs;
         }
 
         /** calculate mSortedData */
@@ -856,14 +870,19 @@ public class MediaUtils {
                 Stats other = (Stats)o;
                 if (other.mNum != mNum) {
                     return false;
-                } else if (mNum == 0) {
-                    return true;
                 }
-                return Arrays.equals(mData, other.mData);
+                for (int i = 0; i < mNum; ++i) {
+                    if (Double.doubleToLongBits(mData[i])
+                            != Double.doubleToLongBits(other.mData[i])) {
+                        return false;
+                    }
+                }
+                return true;
             }
             return false;
         }
 
+        // only the first mNum values of mData are used
         private double[] mData;
         private double mSumX = 0;
         private double mSumXX = 0;
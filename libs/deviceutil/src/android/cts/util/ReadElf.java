@@ -17,10 +17,21 @@
 package android.cts.util;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A poor man's implementation of the readelf command. This program is designed
@@ -44,8 +55,8 @@ public class ReadElf implements AutoCloseable {
     private static final int EM_QDSP6 = 164;
     private static final int EM_AARCH64 = 183;
 
-    private static final int ELFCLASS32 = 1;
-    private static final int ELFCLASS64 = 2;
+    public static final int ELFCLASS32 = 1;
+    public static final int ELFCLASS64 = 2;
 
     private static final int ELFDATA2LSB = 1;
     private static final int ELFDATA2MSB = 2;
@@ -122,10 +133,35 @@ public class ReadElf implements AutoCloseable {
         }
     }
 
+    /**
+     * The identification of an ELF file, read by {@link ReadElf#probe}.
+     */
+    public static class Header {
+        /** ELFCLASS32 or ELFCLASS64 */
+        public final int elfClass;
+        /** e_machine */
+        public final int machine;
+        /** e_type */
+        public final int type;
+
+        Header(int elfClass, int machine, int type) {
+            this.elfClass = elfClass;
+            this.machine = machine;
+            this.type = type;
+        }
+
+        public boolean is64Bit() {
+            return elfClass == ELFCLASS64;
+        }
+    }
+
+    /** Size of the part of the ELF header checked by {@link #probe}, up to e_version. */
+    private static final int PROBE_SIZE = EI_NIDENT + 8;
+
     private final String mPath;
     private final RandomAccessFile mFile;
-    private final byte[] mBuffer = new byte[512];
-    private int mEndian;
+    private final ByteBuffer mBuffer;
+    private int mPosition;
     private boolean mIsDynamic;
     private boolean mIsPIE;
     private int mType;
@@ -161,16 +197,91 @@ public class ReadElf implements AutoCloseable {
     /** Dynamic String Table size */
     private long mDynStrSize;
 
-    /** Symbol Table symbol names */
+    /** Symbol Table symbol names, indexed on the first lookup */
     private Map<String, Symbol> mSymbols;
 
-    /** Dynamic Symbol Table symbol names */
+    /** Dynamic Symbol Table symbol names, indexed on the first lookup */
     private Map<String, Symbol> mDynamicSymbols;
 
     public static ReadElf read(File file) throws IOException {
         return new ReadElf(file);
     }
 
+    /**
+     * Reads and checks the identification of an ELF file, without mapping it or reading its
+     * sections.
+     *
+     * @return the header, or null if the file is not an ELF file
+     * @throws IOException if the file cannot be read, or is an ELF file of an unsupported kind
+     */
+    public static Header probe(File file) throws IOException {
+        byte[] ident = new byte[PROBE_SIZE];
+        int length = 0;
+        try (FileInputStream in = new FileInputStream(file)) {
+            int count;
+            while (length < ident.length
+                    && (count = in.read(ident, length, ident.length - length)) > 0) {
+                length += count;
+            }
+        }
+        if (length < EI_NIDENT || !hasElfMagic(ident)) {
+            return null;
+        }
+        if (length < PROBE_SIZE) {
+            throw new IOException("Truncated ELF header: " + file);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(ident).order(ByteOrder.LITTLE_ENDIAN);
+        return checkHeader(buffer, file.getPath());
+    }
+
+    /**
+     * Probes files in parallel, as directory scans over the system partition are dominated by
+     * the time spent opening and reading files.
+     *
+     * @return the header of each ELF file among the files
+     * @throws IOException the first failure of {@link #probe}, if any
+     */
+    public static Map<File, Header> probe(Collection<File> files) throws IOException {
+        int threads = Math.max(1, Math.min(files.size(),
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Map<File, Future<Header>> futures = new LinkedHashMap<>();
+            for (final File file : files) {
+                futures.put(file, executor.submit(new Callable<Header>() {
+                    @Override
+                    public Header call() throws IOException {
+                        return probe(file);
+                    }
+                }));
+            }
+            Map<File, Header> headers = new LinkedHashMap<>();
+            for (Map.Entry<File, Future<Header>> entry : futures.entrySet()) {
+                Header header = getProbeResult(entry.getValue());
+                if (header != null) {
+                    headers.put(entry.getKey(), header);
+                }
+            }
+            return headers;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Header getProbeResult(Future<Header> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while probing ELF files", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
     public static void main(String[] args) throws IOException {
         for (String arg : args) {
             ReadElf re = new ReadElf(new File(arg));
@@ -197,10 +308,22 @@ public class ReadElf implements AutoCloseable {
         mFile = new RandomAccessFile(file, "r");
 
         if (mFile.length() < EI_NIDENT) {
+            close();
             throw new IllegalArgumentException("Too small to be an ELF file: " + file);
         }
 
-        readHeader();
+        try {
+            // The whole file is mapped, so that fields are read without a system call each.
+            mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mFile.length())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            readHeader();
+        } catch (IndexOutOfBoundsException e) {
+            close();
+            throw new IOException("Truncated ELF file: " + mPath, e);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
     }
 
     @Override
@@ -220,40 +343,37 @@ public class ReadElf implements AutoCloseable {
         }
     }
 
-    private void readHeader() throws IOException {
-        mFile.seek(0);
-        mFile.readFully(mBuffer, 0, EI_NIDENT);
-
-        if (mBuffer[0] != ELFMAG[0] || mBuffer[1] != ELFMAG[1] ||
-                mBuffer[2] != ELFMAG[2] || mBuffer[3] != ELFMAG[3]) {
-            throw new IllegalArgumentException("Invalid ELF file: " + mPath);
-        }
+    private static boolean hasElfMagic(byte[] ident) {
+        return ident[0] == ELFMAG[0] && ident[1] == ELFMAG[1] &&
+                ident[2] == ELFMAG[2] && ident[3] == ELFMAG[3];
+    }
 
-        int elfClass = mBuffer[EI_CLASS];
-        if (elfClass == ELFCLASS32) {
-            mAddrSize = 4;
-        } else if (elfClass == ELFCLASS64) {
-            mAddrSize = 8;
-        } else {
-            throw new IOException("Invalid ELF EI_CLASS: " + elfClass + ": " + mPath);
+    /**
+     * Checks the ELF identification, e_type, e_machine and e_version at the start of buffer,
+     * whose magic has been checked.
+     */
+    private static Header checkHeader(ByteBuffer buffer, String path) throws IOException {
+        int elfClass = buffer.get(EI_CLASS);
+        if (elfClass != ELFCLASS32 && elfClass != ELFCLASS64) {
+            throw new IOException("Invalid ELF EI_CLASS: " + elfClass + ": " + path);
         }
 
-        mEndian = mBuffer[EI_DATA];
-        if (mEndian == ELFDATA2LSB) {
-        } else if (mEndian == ELFDATA2MSB) {
-            throw new IOException("Unsupported ELFDATA2MSB file: " + mPath);
+        int endian = buffer.get(EI_DATA);
+        if (endian == ELFDATA2LSB) {
+        } else if (endian == ELFDATA2MSB) {
+            throw new IOException("Unsupported ELFDATA2MSB file: " + path);
         } else {
-            throw new IOException("Invalid ELF EI_DATA: " + mEndian + ": " + mPath);
+            throw new IOException("Invalid ELF EI_DATA: " + endian + ": " + path);
         }
 
-        mType = readHalf();
+        int type = buffer.getShort(EI_NIDENT) & 0xffff;
 
-        int e_machine = readHalf();
+        int e_machine = buffer.getShort(EI_NIDENT + 2) & 0xffff;
         if (e_machine != EM_386 && e_machine != EM_X86_64 &&
                 e_machine != EM_AARCH64 && e_machine != EM_ARM &&
                 e_machine != EM_MIPS &&
                 e_machine != EM_QDSP6) {
-            throw new IOException("Invalid ELF e_machine: " + e_machine + ": " + mPath);
+            throw new IOException("Invalid ELF e_machine: " + e_machine + ": " + path);
         }
 
         // AbiTest relies on us rejecting any unsupported combinations.
@@ -263,14 +383,29 @@ public class ReadElf implements AutoCloseable {
                 (e_machine == EM_ARM && elfClass != ELFCLASS32) ||
                 (e_machine == EM_QDSP6 && elfClass != ELFCLASS32)) {
             throw new IOException("Invalid e_machine/EI_CLASS ELF combination: " +
-                    e_machine + "/" + elfClass + ": " + mPath);
+                    e_machine + "/" + elfClass + ": " + path);
         }
 
-        long e_version = readWord();
+        long e_version = buffer.getInt(EI_NIDENT + 4) & 0xffffffffL;
         if (e_version != EV_CURRENT) {
-            throw new IOException("Invalid e_version: " + e_version + ": " + mPath);
+            throw new IOException("Invalid e_version: " + e_version + ": " + path);
+        }
+
+        return new Header(elfClass, e_machine, type);
+    }
+
+    private void readHeader() throws IOException {
+        byte[] ident = new byte[EI_NIDENT];
+        mBuffer.get(ident, 0, EI_NIDENT);
+        if (!hasElfMagic(ident)) {
+            throw new IllegalArgumentException("Invalid ELF file: " + mPath);
         }
 
+        Header header = checkHeader(mBuffer, mPath);
+        mAddrSize = header.is64Bit() ? 8 : 4;
+        mType = header.type;
+
+        seek(EI_NIDENT + 8);
         long e_entry = readAddr();
 
         long ph_off = readOff();
@@ -292,7 +427,7 @@ public class ReadElf implements AutoCloseable {
             throws IOException {
         // Read the Section Header String Table offset first.
         {
-            mFile.seek(sh_off + e_shstrndx * e_shentsize);
+            seek(sh_off + e_shstrndx * e_shentsize);
 
             long sh_name = readWord();
             long sh_type = readWord();
@@ -314,7 +449,7 @@ public class ReadElf implements AutoCloseable {
                 continue;
             }
 
-            mFile.seek(sh_off + i * e_shentsize);
+            seek(sh_off + i * e_shentsize);
 
             long sh_name = readWord();
             long sh_type = readWord();
@@ -349,7 +484,7 @@ public class ReadElf implements AutoCloseable {
 
     private void readProgramHeaders(long ph_off, int e_phnum, int e_phentsize) throws IOException {
         for (int i = 0; i < e_phnum; ++i) {
-            mFile.seek(ph_off + i * e_phentsize);
+            seek(ph_off + i * e_phentsize);
 
             long p_type = readWord();
             if (p_type == PT_LOAD) {
@@ -371,32 +506,36 @@ public class ReadElf implements AutoCloseable {
     private HashMap<String, Symbol> readSymbolTable(long symStrOffset, long symStrSize,
             long tableOffset, long tableSize) throws IOException {
         HashMap<String, Symbol> result = new HashMap<String, Symbol>();
-        mFile.seek(tableOffset);
-        while (mFile.getFilePointer() < tableOffset + tableSize) {
-            long st_name = readWord();
-            int st_info;
-            if (mAddrSize == 8) {
-                st_info = readByte();
-                int st_other = readByte();
-                int st_shndx = readHalf();
-                long st_value = readAddr();
-                long st_size = readX(mAddrSize);
-            } else {
-                long st_value = readAddr();
-                long st_size = readWord();
-                st_info = readByte();
-                int st_other = readByte();
-                int st_shndx = readHalf();
-            }
-            if (st_name == 0) {
-                continue;
-            }
+        try {
+            seek(tableOffset);
+            while (mPosition < tableOffset + tableSize) {
+                long st_name = readWord();
+                int st_info;
+                if (mAddrSize == 8) {
+                    st_info = readByte();
+                    int st_other = readByte();
+                    int st_shndx = readHalf();
+                    long st_value = readAddr();
+                    long st_size = readX(mAddrSize);
+                } else {
+                    long st_value = readAddr();
+                    long st_size = readWord();
+                    st_info = readByte();
+                    int st_other = readByte();
+                    int st_shndx = readHalf();
+                }
+                if (st_name == 0) {
+                    continue;
+                }
 
-            final String symName = readStrTabEntry(symStrOffset, symStrSize, st_name);
-            if (symName != null) {
-                Symbol s = new Symbol(symName, st_info);
-                result.put(symName, s);
+                final String symName = readStrTabEntry(symStrOffset, symStrSize, st_name);
+                if (symName != null) {
+                    Symbol s = new Symbol(symName, st_info);
+                    result.put(symName, s);
+                }
             }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated symbol table: " + mPath, e);
         }
         return result;
     }
@@ -416,12 +555,23 @@ public class ReadElf implements AutoCloseable {
         return readString(tableOffset + strOffset);
     }
 
+    private void seek(long offset) throws IOException {
+        if (offset < 0 || offset > mBuffer.limit()) {
+            throw new IOException("Offset " + offset + " past the end of " + mPath);
+        }
+        mPosition = (int) offset;
+    }
+
     private int readHalf() throws IOException {
-        return (int) readX(2);
+        int value = mBuffer.getShort(mPosition) & 0xffff;
+        mPosition += 2;
+        return value;
     }
 
     private long readWord() throws IOException {
-        return readX(4);
+        long value = mBuffer.getInt(mPosition) & 0xffffffffL;
+        mPosition += 4;
+        return value;
     }
 
     private long readOff() throws IOException {
@@ -433,32 +583,23 @@ public class ReadElf implements AutoCloseable {
     }
 
     private long readX(int byteCount) throws IOException {
-        mFile.readFully(mBuffer, 0, byteCount);
-
-        int answer = 0;
-        if (mEndian == ELFDATA2LSB) {
-            for (int i = byteCount - 1; i >= 0; i--) {
-                answer = (answer << 8) | (mBuffer[i] & 0xff);
-            }
-        } else {
-            final int N = byteCount - 1;
-            for (int i = 0; i <= N; ++i) {
-                answer = (answer << 8) | (mBuffer[i] & 0xff);
-            }
+        if (byteCount == 4) {
+            return readWord();
         }
-
-        return answer;
+        long value = mBuffer.getLong(mPosition);
+        mPosition += 8;
+        return value;
     }
 
     private String readString(long offset) throws IOException {
-        long originalOffset = mFile.getFilePointer();
-        mFile.seek(offset);
-        mFile.readFully(mBuffer, 0, (int) Math.min(mBuffer.length, mFile.length() - offset));
-        mFile.seek(originalOffset);
-
-        for (int i = 0; i < mBuffer.length; ++i) {
-            if (mBuffer[i] == 0) {
-                return new String(mBuffer, 0, i);
+        int start = (int) offset;
+        for (int i = start; i < mBuffer.limit(); ++i) {
+            if (mBuffer.get(i) == 0) {
+                byte[] bytes = new byte[i - start];
+                for (int j = 0; j < bytes.length; ++j) {
+                    bytes[j] = mBuffer.get(start + j);
+                }
+                return new String(bytes);
             }
         }
 
@@ -466,7 +607,7 @@ public class ReadElf implements AutoCloseable {
     }
 
     private int readByte() throws IOException {
-        return mFile.read() & 0xff;
+        return mBuffer.get(mPosition++) & 0xff;
     }
 
     public Symbol getSymbol(String name) {
@@ -36,3 +36,4 @@ LOCAL_MODULE_TAGS := optional
 
 include $(BUILD_STATIC_JAVA_LIBRARY)
 
+include $(call all-makefiles-under,$(LOCAL_PATH))
@@ -19,8 +19,7 @@ package com.android.json.stream;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Closeable;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Reads a JSON (<a href="http://www.ietf.org/rfc/rfc4627.txt">RFC 4627</a>)
@@ -188,11 +187,39 @@ public final class JsonReader implements Closeable {
     private int pos = 0;
     private int limit = 0;
 
-    private final List<JsonScope> stack = new ArrayList<JsonScope>();
+    private static final JsonScope[] SCOPES = JsonScope.values();
+
+    /** Exact powers of ten, used to decode short numbers without rounding. */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Size of the name cache used when names are interned. Must be a power of two. */
+    private static final int NAME_CACHE_SIZE = 512;
+
+    /**
+     * The scope stack, holding the ordinals of {@link JsonScope} values. Using
+     * primitives avoids boxing and list bookkeeping on every token.
+     */
+    private int[] stack = new int[32];
+    private int stackSize = 0;
     {
         push(JsonScope.EMPTY_DOCUMENT);
     }
 
+    /**
+     * Scratch space for strings containing escapes and for literals that do
+     * not fit in the buffer. Reused across tokens.
+     */
+    private final StringBuilder stringBuilder = new StringBuilder();
+
+    /** True to return a canonical instance for each distinct property name. */
+    private boolean internNames = false;
+
+    /** Recently read names, indexed by hash; only allocated when interning. */
+    private String[] nameCache;
+
     /**
      * The type of the next token to be returned by {@link #peek} and {@link
      * #advance}. If null, peek() will assign a value.
@@ -204,7 +231,8 @@ public final class JsonReader implements Closeable {
 
     /*
      * For the next literal value, we may have the text value, or the position
-     * and length in the buffer.
+     * and length in the buffer. Numbers are left in the buffer and only decoded
+     * when the caller asks for them.
      */
     private String value;
     private int valuePos;
@@ -242,12 +270,27 @@ public final class JsonReader implements Closeable {
      *   <li>Names and values separated by {@code =} or {@code =>} instead of
      *       {@code :}.
      *   <li>Name/value pairs separated by {@code ;} instead of {@code ,}.
+     *   <li>A trailing separator after the last name/value pair of an object.
      * </ul>
      */
     public void setLenient(boolean lenient) {
         this.lenient = lenient;
     }
 
+    /**
+     * Configure this parser to return the same {@link String} instance for
+     * repeated property names. Documents such as device info and report logs
+     * repeat a small set of names many times; interning them avoids allocating
+     * a new string for each occurrence. Names containing escape sequences are
+     * never interned.
+     */
+    public void setInternNames(boolean internNames) {
+        this.internNames = internNames;
+        if (internNames && nameCache == null) {
+            nameCache = new String[NAME_CACHE_SIZE];
+        }
+    }
+
     /**
      * Consumes the next token from the JSON stream and asserts that it is the
      * beginning of a new array.
@@ -379,7 +422,7 @@ public final class JsonReader implements Closeable {
             throw new IllegalStateException("Expected a string but was " + peek());
         }
 
-        String result = value;
+        String result = literalValue();
         advance();
         return result;
     }
@@ -431,7 +474,9 @@ public final class JsonReader implements Closeable {
             throw new IllegalStateException("Expected a double but was " + token);
         }
 
-        double result = Double.parseDouble(value);
+        double result = value == null
+                ? decodeDouble(buffer, valuePos, valueLength)
+                : Double.parseDouble(value);
         advance();
         return result;
     }
@@ -453,13 +498,19 @@ public final class JsonReader implements Closeable {
         }
 
         long result;
-        try {
-            result = Long.parseLong(value);
-        } catch (NumberFormatException ignored) {
-            double asDouble = Double.parseDouble(value); // don't catch this NumberFormatException
-            result = (long) asDouble;
-            if ((double) result != asDouble) {
-                throw new NumberFormatException(value);
+        if (value == null && isShortInteger(buffer, valuePos, valueLength)) {
+            result = decodeLong(buffer, valuePos, valueLength);
+        } else {
+            String value = literalValue();
+            try {
+                result = Long.parseLong(value);
+            } catch (NumberFormatException ignored) {
+                // don't catch this NumberFormatException
+                double asDouble = Double.parseDouble(value);
+                result = (long) asDouble;
+                if ((double) result != asDouble) {
+                    throw new NumberFormatException(value);
+                }
             }
         }
 
@@ -484,13 +535,23 @@ public final class JsonReader implements Closeable {
         }
 
         int result;
-        try {
-            result = Integer.parseInt(value);
-        } catch (NumberFormatException ignored) {
-            double asDouble = Double.parseDouble(value); // don't catch this NumberFormatException
-            result = (int) asDouble;
-            if ((double) result != asDouble) {
-                throw new NumberFormatException(value);
+        if (value == null && isShortInteger(buffer, valuePos, valueLength)) {
+            long asLong = decodeLong(buffer, valuePos, valueLength);
+            result = (int) asLong;
+            if (result != asLong) {
+                throw new NumberFormatException(literalValue());
+            }
+        } else {
+            String value = literalValue();
+            try {
+                result = Integer.parseInt(value);
+            } catch (NumberFormatException ignored) {
+                // don't catch this NumberFormatException
+                double asDouble = Double.parseDouble(value);
+                result = (int) asDouble;
+                if ((double) result != asDouble) {
+                    throw new NumberFormatException(value);
+                }
             }
         }
 
@@ -504,8 +565,8 @@ public final class JsonReader implements Closeable {
     public void close() throws IOException {
         value = null;
         token = null;
-        stack.clear();
-        stack.add(JsonScope.CLOSED);
+        stackSize = 0;
+        push(JsonScope.CLOSED);
         in.close();
     }
 
@@ -532,22 +593,25 @@ public final class JsonReader implements Closeable {
     }
 
     private JsonScope peekStack() {
-        return stack.get(stack.size() - 1);
+        return SCOPES[stack[stackSize - 1]];
     }
 
     private JsonScope pop() {
-        return stack.remove(stack.size() - 1);
+        return SCOPES[stack[--stackSize]];
     }
 
     private void push(JsonScope newTop) {
-        stack.add(newTop);
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = newTop.ordinal();
     }
 
     /**
      * Replace the value on the top of the stack with the given value.
      */
     private void replaceTop(JsonScope newTop) {
-        stack.set(stack.size() - 1, newTop);
+        stack[stackSize - 1] = newTop.ordinal();
     }
 
     private JsonToken nextInArray(boolean firstElement) throws IOException {
@@ -618,11 +682,17 @@ public final class JsonReader implements Closeable {
 
         /* Read the name. */
         int quote = nextNonWhitespace();
+        if (quote == '}' && !firstElement) {
+            /* In lenient mode, a separator may trail the last name/value pair. */
+            checkLenient();
+            pop();
+            return token = JsonToken.END_OBJECT;
+        }
         switch (quote) {
             case '\'':
                 checkLenient(); // fall-through
             case '"':
-                name = nextString((char) quote);
+                name = nextString((char) quote, internNames);
                 break;
             default:
                 checkLenient();
@@ -673,7 +743,7 @@ public final class JsonReader implements Closeable {
             case '\'':
                 checkLenient(); // fall-through
             case '"':
-                value = nextString((char) c);
+                value = nextString((char) c, false);
                 return token = JsonToken.STRING;
 
             default:
@@ -801,10 +871,12 @@ public final class JsonReader implements Closeable {
      * not include it in the returned string.
      *
      * @param quote either ' or ".
+     * @param intern true to return a canonical instance if the string has no
+     *     escape sequences.
      * @throws NumberFormatException if any unicode escape sequences are
      *     malformed.
      */
-    private String nextString(char quote) throws IOException {
+    private String nextString(char quote, boolean intern) throws IOException {
         StringBuilder builder = null;
         do {
             /* the index of the first character not yet appended to the builder. */
@@ -816,7 +888,9 @@ public final class JsonReader implements Closeable {
                     if (skipping) {
                         return "skipped!";
                     } else if (builder == null) {
-                        return new String(buffer, start, pos - start - 1);
+                        return intern
+                                ? internName(buffer, start, pos - start - 1)
+                                : new String(buffer, start, pos - start - 1);
                     } else {
                         builder.append(buffer, start, pos - start - 1);
                         return builder.toString();
@@ -824,7 +898,7 @@ public final class JsonReader implements Closeable {
 
                 } else if (c == '\\') {
                     if (builder == null) {
-                        builder = new StringBuilder();
+                        builder = resetBuilder();
                     }
                     builder.append(buffer, start, pos - start - 1);
                     builder.append(readEscapeCharacter());
@@ -833,7 +907,7 @@ public final class JsonReader implements Closeable {
             }
 
             if (builder == null) {
-                builder = new StringBuilder();
+                builder = resetBuilder();
             }
             builder.append(buffer, start, pos - start);
         } while (fillBuffer(1));
@@ -896,7 +970,7 @@ public final class JsonReader implements Closeable {
 
             // use a StringBuilder when the value is too long. It must be an unquoted string.
             if (builder == null) {
-                builder = new StringBuilder();
+                builder = resetBuilder();
             }
             builder.append(buffer, pos, i);
             valueLength += i;
@@ -924,6 +998,156 @@ public final class JsonReader implements Closeable {
         return result;
     }
 
+    /**
+     * Returns the shared scratch builder, emptied for a new string.
+     */
+    private StringBuilder resetBuilder() {
+        stringBuilder.setLength(0);
+        return stringBuilder;
+    }
+
+    /**
+     * Returns a string with the given characters, reusing a previously returned
+     * instance with the same characters when it is still in the name cache.
+     */
+    private String internName(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+        String cached = nameCache[slot];
+        if (cached != null && cached.length() == length) {
+            int i = 0;
+            while (i < length && cached.charAt(i) == chars[offset + i]) {
+                i++;
+            }
+            if (i == length) {
+                return cached;
+            }
+        }
+        String result = new String(chars, offset, length);
+        nameCache[slot] = result;
+        return result;
+    }
+
+    /**
+     * Returns the text of the current literal, creating it from the buffer
+     * for numbers that have not yet been materialized.
+     */
+    private String literalValue() {
+        if (value == null && token == JsonToken.NUMBER) {
+            value = new String(buffer, valuePos, valueLength);
+        }
+        return value;
+    }
+
+    /**
+     * Returns true if the number in {@code chars} is an integer with few
+     * enough digits that it cannot overflow a long.
+     */
+    private static boolean isShortInteger(char[] chars, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        if (chars[i] == '-') {
+            i++;
+        }
+        if (end - i > 18) {
+            return false;
+        }
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes an integer previously accepted by {@link #isShortInteger}.
+     */
+    private static long decodeLong(char[] chars, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        boolean negative = chars[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long result = 0;
+        for (; i < end; i++) {
+            result = result * 10 + (chars[i] - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Decodes a number previously accepted by {@link #decodeNumber} without
+     * creating a string. Numbers with at most 15 significant digits and a
+     * decimal exponent within 22 are exactly representable as a product or
+     * quotient of two doubles, so the result is correctly rounded; all other
+     * numbers are handed to {@link Double#parseDouble(String)}.
+     */
+    private static double decodeDouble(char[] chars, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        boolean negative = chars[i] == '-';
+        if (negative) {
+            i++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                if (mantissa != 0 || c != '0') {
+                    if (++significantDigits > 15) {
+                        return Double.parseDouble(new String(chars, offset, length));
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+                if (fraction) {
+                    exponent--;
+                }
+            } else if (c == '.') {
+                fraction = true;
+            } else {
+                break; // 'e' or 'E'
+            }
+        }
+
+        if (i < end) {
+            i++; // skip the 'e'
+            boolean negativeExponent = chars[i] == '-';
+            if (chars[i] == '-' || chars[i] == '+') {
+                i++;
+            }
+            if (end - i > 3) {
+                return Double.parseDouble(new String(chars, offset, length));
+            }
+            int explicitExponent = 0;
+            for (; i < end; i++) {
+                explicitExponent = explicitExponent * 10 + (chars[i] - '0');
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        double result;
+        if (mantissa == 0) {
+            result = 0.0;
+        } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            result = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            result = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return Double.parseDouble(new String(chars, offset, length));
+        }
+        return negative ? -result : result;
+    }
+
     @Override public String toString() {
         return getClass().getSimpleName() + " near " + getSnippet();
     }
@@ -1020,8 +1244,11 @@ public final class JsonReader implements Closeable {
             value = FALSE;
             return JsonToken.BOOLEAN;
         } else {
-            value = new String(buffer, valuePos, valueLength);
-            return decodeNumber(buffer, valuePos, valueLength);
+            JsonToken literal = decodeNumber(buffer, valuePos, valueLength);
+            if (literal == JsonToken.STRING) {
+                value = new String(buffer, valuePos, valueLength);
+            }
+            return literal;
         }
     }
 
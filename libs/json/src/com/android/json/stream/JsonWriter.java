@@ -329,6 +329,89 @@ public final class JsonWriter implements Closeable {
         return this;
     }
 
+    /**
+     * Encodes {@code value} as its {@link Number#toString() string form}, which
+     * for a {@link LazilyParsedNumber} is the literal it was read from.
+     *
+     * @param value a finite value, or null. May not be {@link Double#isNaN()
+     *     NaN} or {@link Double#isInfinite() infinite}.
+     * @return this writer.
+     */
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        String string = value.toString();
+        if (string.equals("-Infinity") || string.equals("Infinity") || string.equals("NaN")) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue(false);
+        out.write(string);
+        return this;
+    }
+
+    /**
+     * Encodes {@code values} as an array. This is equivalent to calling
+     * {@link #beginArray}, {@link #value(double)} for each element and
+     * {@link #endArray}, but validates the values up front and writes the
+     * elements without per-element scope bookkeeping.
+     *
+     * @param values finite values. May not contain {@link Double#isNaN() NaNs}
+     *     or {@link Double#isInfinite() infinities}.
+     * @return this writer.
+     */
+    public JsonWriter value(double[] values) throws IOException {
+        for (double value : values) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                throw new IllegalArgumentException(
+                        "Numeric values must be finite, but was " + value);
+            }
+        }
+        open(JsonScope.EMPTY_ARRAY, "[");
+        for (int i = 0; i < values.length; i++) {
+            elementSeparator(i);
+            out.write(Double.toString(values[i]));
+        }
+        return endArray(values.length);
+    }
+
+    /**
+     * Encodes {@code values} as an array. This is equivalent to calling
+     * {@link #beginArray}, {@link #value(long)} for each element and
+     * {@link #endArray}.
+     *
+     * @return this writer.
+     */
+    public JsonWriter value(long[] values) throws IOException {
+        open(JsonScope.EMPTY_ARRAY, "[");
+        for (int i = 0; i < values.length; i++) {
+            elementSeparator(i);
+            out.write(Long.toString(values[i]));
+        }
+        return endArray(values.length);
+    }
+
+    /**
+     * Writes the separator and whitespace preceding the array element at
+     * {@code index} of a bulk array write.
+     */
+    private void elementSeparator(int index) throws IOException {
+        if (index > 0) {
+            out.write(',');
+        }
+        newline();
+    }
+
+    /**
+     * Closes an array written by one of the bulk value methods.
+     */
+    private JsonWriter endArray(int length) throws IOException {
+        if (length > 0) {
+            replaceTop(JsonScope.NONEMPTY_ARRAY);
+        }
+        return endArray();
+    }
+
     /**
      * Ensures all buffered data is written to the underlying {@link Writer}
      * and flushes that writer.
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.json.stream;
+
+import java.math.BigDecimal;
+
+/**
+ * A number holding the literal text it was read from, which is only parsed when one of its
+ * values is asked for. Writing it with {@link JsonWriter#value(Number)} copies the literal
+ * unchanged, keeping its form and precision.
+ */
+public final class LazilyParsedNumber extends Number {
+    private static final long serialVersionUID = 1L;
+
+    private final String value;
+
+    /**
+     * @param value a JSON number literal, as returned by {@link JsonReader#nextString} for a
+     *     {@link JsonToken#NUMBER}.
+     */
+    public LazilyParsedNumber(String value) {
+        this.value = value;
+    }
+
+    @Override
+    public int intValue() {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            try {
+                return (int) Long.parseLong(value);
+            } catch (NumberFormatException nfe) {
+                return new BigDecimal(value).intValue();
+            }
+        }
+    }
+
+    @Override
+    public long longValue() {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return new BigDecimal(value).longValue();
+        }
+    }
+
+    @Override
+    public float floatValue() {
+        return Float.parseFloat(value);
+    }
+
+    @Override
+    public double doubleValue() {
+        return Double.parseDouble(value);
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LazilyParsedNumber && value.equals(((LazilyParsedNumber) o).value);
+    }
+}
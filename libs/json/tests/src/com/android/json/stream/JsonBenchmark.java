@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.json.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Throughput benchmark for {@link JsonReader} and {@link JsonWriter} over report log files.
+ * <p/>
+ * Usage: {@code java -cp jsonlib.jar:jsonlib-tests.jar com.android.json.stream.JsonBenchmark
+ * [file.reportlog.json ...]}. Defaults to the samples in {@code cts/tools/cts-test-metrics}.
+ * Each file is concatenated into an array until the input is at least {@link #MIN_INPUT_CHARS}
+ * long, so that small samples model the multi-megabyte logs produced by a full session.
+ */
+public class JsonBenchmark {
+
+    private static final String DEFAULT_DIR = "cts/tools/cts-test-metrics";
+    private static final int MIN_INPUT_CHARS = 8 * 1024 * 1024;
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 20;
+
+    public static void main(String[] args) throws IOException {
+        List<File> files = new ArrayList<>();
+        if (args.length == 0) {
+            File[] samples = new File(DEFAULT_DIR).listFiles();
+            if (samples != null) {
+                for (File sample : samples) {
+                    if (sample.getName().endsWith(".reportlog.json")) {
+                        files.add(sample);
+                    }
+                }
+            }
+        } else {
+            for (String arg : args) {
+                files.add(new File(arg));
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("No report log files found");
+            return;
+        }
+        for (File file : files) {
+            String json = replicate(new String(Files.readAllBytes(file.toPath()),
+                    StandardCharsets.UTF_8));
+            double megabytes = json.length() / (1024.0 * 1024.0);
+            System.out.printf("%s (%.1f MB)%n", file.getName(), megabytes);
+            report("read", megabytes, timeRead(json, false));
+            report("read, interned names", megabytes, timeRead(json, true));
+            report("read + write", megabytes, timeCopy(json));
+        }
+    }
+
+    private static void report(String label, double megabytes, long nanos) {
+        double millis = nanos / 1e6;
+        System.out.printf("  %-24s %8.2f ms %8.1f MB/s%n", label, millis,
+                megabytes / (millis / 1000.0));
+    }
+
+    /**
+     * Wraps {@code json} in an array, repeating it until the result is large enough.
+     */
+    private static String replicate(String json) {
+        StringBuilder builder = new StringBuilder(MIN_INPUT_CHARS + json.length());
+        builder.append('[');
+        do {
+            if (builder.length() > 1) {
+                builder.append(',');
+            }
+            builder.append(json);
+        } while (builder.length() < MIN_INPUT_CHARS);
+        return builder.append(']').toString();
+    }
+
+    /**
+     * Returns the median time in nanoseconds of fully reading {@code json}.
+     */
+    private static long timeRead(String json, boolean internNames) throws IOException {
+        long[] times = new long[ITERATIONS];
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.setInternNames(internNames);
+            copy(reader, null);
+            reader.close();
+            if (i >= 0) {
+                times[i] = System.nanoTime() - start;
+            }
+        }
+        return median(times);
+    }
+
+    /**
+     * Returns the median time in nanoseconds of reading {@code json} and writing it back out.
+     */
+    private static long timeCopy(String json) throws IOException {
+        long[] times = new long[ITERATIONS];
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.setInternNames(true);
+            Writer out = new StringWriter(json.length());
+            JsonWriter writer = new JsonWriter(out);
+            copy(reader, writer);
+            reader.close();
+            writer.close();
+            if (i >= 0) {
+                times[i] = System.nanoTime() - start;
+            }
+        }
+        return median(times);
+    }
+
+    /**
+     * Streams every token of {@code reader} to {@code writer}, or discards them if null.
+     */
+    private static void copy(JsonReader reader, JsonWriter writer) throws IOException {
+        int depth = 0;
+        do {
+            switch (reader.peek()) {
+                case BEGIN_ARRAY:
+                    reader.beginArray();
+                    if (writer != null) {
+                        writer.beginArray();
+                    }
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    reader.endArray();
+                    if (writer != null) {
+                        writer.endArray();
+                    }
+                    depth--;
+                    break;
+                case BEGIN_OBJECT:
+                    reader.beginObject();
+                    if (writer != null) {
+                        writer.beginObject();
+                    }
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    reader.endObject();
+                    if (writer != null) {
+                        writer.endObject();
+                    }
+                    depth--;
+                    break;
+                case NAME:
+                    String name = reader.nextName();
+                    if (writer != null) {
+                        writer.name(name);
+                    }
+                    break;
+                case NUMBER:
+                    double number = reader.nextDouble();
+                    if (writer != null) {
+                        writer.value(number);
+                    }
+                    break;
+                case STRING:
+                    String string = reader.nextString();
+                    if (writer != null) {
+                        writer.value(string);
+                    }
+                    break;
+                case BOOLEAN:
+                    boolean bool = reader.nextBoolean();
+                    if (writer != null) {
+                        writer.value(bool);
+                    }
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    if (writer != null) {
+                        writer.nullValue();
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected token " + reader.peek());
+            }
+        } while (depth > 0);
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
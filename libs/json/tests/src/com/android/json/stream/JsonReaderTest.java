@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.json.stream;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Unit tests for {@link JsonReader}.
+ */
+public class JsonReaderTest extends TestCase {
+
+    private static final String[] DOUBLES = {
+        "0", "-0", "1", "-1", "0.5", "1.5e3", "-2.25E-2", "3.141592653589793",
+        "0.1", "0.30000000000000004", "123456789012345", "1234567890123456789",
+        "1e22", "1e23", "4.9e-324", "1.7976931348623157e308", "0.000001234",
+        "1950.0", "1771.3", "100e-2", "12345678901234567890123"
+    };
+
+    private static final String[] LONGS = {
+        "0", "-0", "7", "-7", "2147483648", "-9223372036854775808", "9223372036854775807",
+        "123456789012345678", "1e3", "1.0"
+    };
+
+    private static final long[] LONG_VALUES = {
+        0L, 0L, 7L, -7L, 2147483648L, Long.MIN_VALUE, Long.MAX_VALUE,
+        123456789012345678L, 1000L, 1L
+    };
+
+    /**
+     * Test that numbers decoded from the buffer match {@link Double#parseDouble}.
+     */
+    public void testNextDouble() throws IOException {
+        JsonReader reader = newArrayReader(DOUBLES);
+        reader.beginArray();
+        for (String expected : DOUBLES) {
+            assertEquals(expected, JsonToken.NUMBER, reader.peek());
+            assertEquals(expected, Double.doubleToLongBits(Double.parseDouble(expected)),
+                    Double.doubleToLongBits(reader.nextDouble()));
+        }
+        reader.endArray();
+        assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+    }
+
+    /**
+     * Test that integers decoded from the buffer match {@link Long#parseLong}.
+     */
+    public void testNextLong() throws IOException {
+        JsonReader reader = newArrayReader(LONGS);
+        reader.beginArray();
+        for (int i = 0; i < LONGS.length; i++) {
+            assertEquals(LONGS[i], LONG_VALUES[i], reader.nextLong());
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Test that {@link JsonReader#nextInt} rejects values that do not fit in an int.
+     */
+    public void testNextIntOverflow() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader("[2147483647,2147483648]"));
+        reader.beginArray();
+        assertEquals(Integer.MAX_VALUE, reader.nextInt());
+        try {
+            reader.nextInt();
+            fail("Expected NumberFormatException");
+        } catch (NumberFormatException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that numbers are still available as strings.
+     */
+    public void testNumberAsString() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader("{\"a\":-1.5e10,\"b\":\"2\"}"));
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        assertEquals("-1.5e10", reader.nextString());
+        assertEquals("b", reader.nextName());
+        assertEquals(2, reader.nextInt());
+        reader.endObject();
+    }
+
+    /**
+     * Test deeply nested documents, which grow the scope stack.
+     */
+    public void testDeepNesting() throws IOException {
+        int depth = 100;
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            json.append("[");
+        }
+        for (int i = 0; i < depth; i++) {
+            json.append("]");
+        }
+        JsonReader reader = new JsonReader(new StringReader(json.toString()));
+        for (int i = 0; i < depth; i++) {
+            reader.beginArray();
+        }
+        for (int i = 0; i < depth; i++) {
+            reader.endArray();
+        }
+        assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+    }
+
+    /**
+     * Test that interned names are shared instances.
+     */
+    public void testInternNames() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(
+                "[{\"install_time\":1,\"we\\\"ird\":2},{\"install_time\":3,\"we\\\"ird\":4}]"));
+        reader.setInternNames(true);
+        reader.beginArray();
+        reader.beginObject();
+        String first = reader.nextName();
+        reader.skipValue();
+        assertEquals("we\"ird", reader.nextName());
+        reader.skipValue();
+        reader.endObject();
+        reader.beginObject();
+        String second = reader.nextName();
+        assertEquals("install_time", second);
+        assertSame(first, second);
+        assertEquals(3, reader.nextInt());
+        assertEquals("we\"ird", reader.nextName());
+        assertEquals(4, reader.nextInt());
+        reader.endObject();
+        reader.endArray();
+    }
+
+    /**
+     * Test strings with escapes spanning buffer refills.
+     */
+    public void testLongEscapedString() throws IOException {
+        StringBuilder expected = new StringBuilder();
+        StringBuilder json = new StringBuilder("[\"");
+        for (int i = 0; i < 3000; i++) {
+            expected.append("a\n");
+            json.append("a\\n");
+        }
+        json.append("\",\"b\\tc\"]");
+        JsonReader reader = new JsonReader(new StringReader(json.toString()));
+        reader.beginArray();
+        assertEquals(expected.toString(), reader.nextString());
+        assertEquals("b\tc", reader.nextString());
+        reader.endArray();
+    }
+
+    /**
+     * Test that a trailing separator in an object is only accepted when lenient.
+     */
+    public void testTrailingObjectSeparator() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader("{\"a\":{\"b\":1},}"));
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        reader.skipValue();
+        try {
+            reader.hasNext();
+            fail();
+        } catch (IOException expected) {
+        }
+
+        reader = new JsonReader(new StringReader("{\"a\":{\"b\":1},}"));
+        reader.setLenient(true);
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        reader.skipValue();
+        assertFalse(reader.hasNext());
+        reader.endObject();
+        assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+    }
+
+    private static JsonReader newArrayReader(String[] values) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(values[i]);
+        }
+        json.append(']');
+        return new JsonReader(new StringReader(json.toString()));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.json.stream;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Unit tests for {@link JsonWriter}.
+ */
+public class JsonWriterTest extends TestCase {
+
+    private static final double[] DOUBLES = {0.0, -1.5, 1771.3, 1e22, 4.9e-324};
+    private static final long[] LONGS = {0L, -1L, Long.MAX_VALUE, Long.MIN_VALUE};
+
+    /**
+     * Test that {@link JsonWriter#value(double[])} matches per-element writes.
+     */
+    public void testDoubleArray() throws IOException {
+        for (String indent : new String[] {"", "  "}) {
+            StringWriter expected = new StringWriter();
+            JsonWriter writer = newWriter(expected, indent);
+            writer.name("a").beginArray();
+            for (double value : DOUBLES) {
+                writer.value(value);
+            }
+            writer.endArray();
+            writer.name("b").beginArray().endArray();
+            closeWriter(writer);
+
+            StringWriter actual = new StringWriter();
+            writer = newWriter(actual, indent);
+            writer.name("a").value(DOUBLES);
+            writer.name("b").value(new double[0]);
+            closeWriter(writer);
+
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+
+    /**
+     * Test that {@link JsonWriter#value(long[])} matches per-element writes.
+     */
+    public void testLongArray() throws IOException {
+        for (String indent : new String[] {"", "  "}) {
+            StringWriter expected = new StringWriter();
+            JsonWriter writer = newWriter(expected, indent);
+            writer.name("a").beginArray();
+            for (long value : LONGS) {
+                writer.value(value);
+            }
+            writer.endArray();
+            closeWriter(writer);
+
+            StringWriter actual = new StringWriter();
+            writer = newWriter(actual, indent);
+            writer.name("a").value(LONGS);
+            closeWriter(writer);
+
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+
+    /**
+     * Test that {@link JsonWriter#value(double[])} rejects non-finite values before writing.
+     */
+    public void testDoubleArrayNonFinite() throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = newWriter(out, "");
+        writer.name("a");
+        try {
+            writer.value(new double[] {1.0, Double.NaN});
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        assertEquals("{\"a\"", out.toString());
+    }
+
+    /**
+     * Test that {@link JsonWriter#value(Number)} copies a {@link LazilyParsedNumber} literally.
+     */
+    public void testLazilyParsedNumber() throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = newWriter(out, "");
+        writer.name("a");
+        writer.beginArray();
+        writer.value(new LazilyParsedNumber("1e3"));
+        writer.value(new LazilyParsedNumber("12345678901234567890123"));
+        writer.value(new LazilyParsedNumber("-0.10"));
+        writer.value((Number) null);
+        writer.endArray();
+        closeWriter(writer);
+        assertEquals("{\"a\":[1e3,12345678901234567890123,-0.10,null]}", out.toString());
+    }
+
+    /**
+     * Test that {@link JsonWriter#value(Number)} rejects non-finite values.
+     */
+    public void testNumberNonFinite() throws IOException {
+        JsonWriter writer = newWriter(new StringWriter(), "");
+        writer.name("a");
+        try {
+            writer.value(Double.valueOf(Double.POSITIVE_INFINITY));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    private static JsonWriter newWriter(StringWriter out, String indent) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setIndent(indent);
+        writer.beginObject();
+        return writer;
+    }
+
+    private static void closeWriter(JsonWriter writer) throws IOException {
+        writer.endObject();
+        writer.close();
+    }
+}
@@ -18,7 +18,6 @@ package android.webkit.cts;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
-import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
@@ -29,14 +28,10 @@ import org.apache.http.StatusLine;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.FileEntity;
-import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.DefaultHttpServerConnection;
 import org.apache.http.impl.cookie.DateUtils;
 import org.apache.http.message.BasicHttpResponse;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.CoreProtocolPNames;
-import org.apache.http.params.HttpParams;
 
 import android.content.Context;
 import android.content.res.AssetManager;
@@ -49,6 +44,7 @@ import android.webkit.MimeTypeMap;
 
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -62,15 +58,16 @@ import java.net.URLEncoder;
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Hashtable;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
@@ -141,11 +138,16 @@ public class CtsTestServer {
     private Resources mResources;
     private SslMode mSsl;
     private MimeTypeMap mMap;
-    private Vector<String> mQueries;
+    // The request log below is written on the connection threads without taking a lock.
+    private final Queue<String> mQueries = new ConcurrentLinkedQueue<String>();
     private ArrayList<HttpEntity> mRequestEntities;
-    private final Map<String, HttpRequest> mLastRequestMap = new HashMap<String, HttpRequest>();
-    private long mDocValidity;
-    private long mDocAge;
+    private final Map<String, HttpRequest> mLastRequestMap =
+            new ConcurrentHashMap<String, HttpRequest>();
+    // Asset and raw resource contents, loaded on first request and served from memory after.
+    private final Map<String, byte[]> mAssetCache = new ConcurrentHashMap<String, byte[]>();
+    private volatile long mDocValidity;
+    private volatile long mDocAge;
+    private volatile boolean mKeepAlive;
     private X509TrustManager mTrustManager;
 
     /**
@@ -203,7 +205,6 @@ public class CtsTestServer {
         mSsl = sslMode;
         mRequestEntities = new ArrayList<HttpEntity>();
         mMap = MimeTypeMap.getSingleton();
-        mQueries = new Vector<String>();
         mTrustManager = trustManager;
         mServerThread = new ServerThread(this, mSsl);
         if (mSsl == SslMode.INSECURE) {
@@ -229,6 +230,15 @@ public class CtsTestServer {
         }
     }
 
+    /**
+     * Sets whether connections accepted from now on are kept open between HTTP/1.1 requests.
+     * Disabled by default, in which case every request is served as HTTP/1.0 on its own
+     * connection.
+     */
+    public void setKeepAliveEnabled(boolean keepAlive) {
+        mKeepAlive = keepAlive;
+    }
+
     /**
      * {@link X509TrustManager} that trusts everybody. This is used so that
      * the client calling {@link CtsTestServer#shutdown()} can issue a request
@@ -456,7 +466,7 @@ public class CtsTestServer {
      *
      * @param url The relative url to check whether it has been requested.
      */
-    public synchronized boolean wasResourceRequested(String url) {
+    public boolean wasResourceRequested(String url) {
         Iterator<String> it = mQueries.iterator();
         while (it.hasNext()) {
             String request = it.next();
@@ -474,7 +484,7 @@ public class CtsTestServer {
         return mRequestEntities;
     }
 
-    public synchronized int getRequestCount() {
+    public int getRequestCount() {
         return mQueries.size();
     }
 
@@ -483,7 +493,7 @@ public class CtsTestServer {
      * value, the server will include a "Expires" header.
      * @param timeMillis The time, in milliseconds, for which any future response will be valid.
      */
-    public synchronized void setDocumentValidity(long timeMillis) {
+    public void setDocumentValidity(long timeMillis) {
         mDocValidity = timeMillis;
     }
 
@@ -492,7 +502,7 @@ public class CtsTestServer {
      * a "Last-Modified" header calculated from the value.
      * @param timeMillis The age, in milliseconds, of any document served in the future.
      */
-    public synchronized void setDocumentAge(long timeMillis) {
+    public void setDocumentAge(long timeMillis) {
         mDocAge = timeMillis;
     }
 
@@ -508,11 +518,8 @@ public class CtsTestServer {
     /**
      * Returns the last HttpRequest at this path. Can return null if it is never requested.
      */
-    public synchronized HttpRequest getLastRequest(String requestPath) {
-        String relativeUrl = getRelativeUrl(requestPath);
-        if (!mLastRequestMap.containsKey(relativeUrl))
-            return null;
-        return mLastRequestMap.get(relativeUrl);
+    public HttpRequest getLastRequest(String requestPath) {
+        return mLastRequestMap.get(getRelativeUrl(requestPath));
     }
     /**
      * Hook for adding stuffs for HTTP POST. Default implementation does nothing.
@@ -544,10 +551,10 @@ public class CtsTestServer {
         String uriString = requestLine.getUri();
         Log.i(TAG, requestLine.getMethod() + ": " + uriString);
 
-        synchronized (this) {
-            mQueries.add(uriString);
-            mLastRequestMap.put(uriString, request);
-            if (request instanceof HttpEntityEnclosingRequest) {
+        mQueries.add(uriString);
+        mLastRequestMap.put(uriString, request);
+        if (request instanceof HttpEntityEnclosingRequest) {
+            synchronized (this) {
                 mRequestEntities.add(((HttpEntityEnclosingRequest)request).getEntity());
             }
         }
@@ -622,20 +629,9 @@ public class CtsTestServer {
             path = path.substring(ASSET_PREFIX.length());
             // request for an asset file
             try {
-                InputStream in;
-                if (path.startsWith(RAW_PREFIX)) {
-                  String resourceName = path.substring(RAW_PREFIX.length());
-                  int id = mResources.getIdentifier(resourceName, "raw", mContext.getPackageName());
-                  if (id == 0) {
-                    Log.w(TAG, "Can't find raw resource " + resourceName);
-                    throw new IOException();
-                  }
-                  in = mResources.openRawResource(id);
-                } else {
-                  in = mAssets.open(path);
-                }
+                byte[] data = getAssetData(path);
                 response = createResponse(HttpStatus.SC_OK);
-                InputStreamEntity entity = new InputStreamEntity(in, in.available());
+                ByteArrayEntity entity = new ByteArrayEntity(data);
                 String mimeType =
                     mMap.getMimeTypeFromExtension(MimeTypeMap.getFileExtensionFromUrl(path));
                 if (mimeType == null) {
@@ -757,19 +753,55 @@ public class CtsTestServer {
         return response;
     }
 
+    /**
+     * Returns the contents of the given asset or raw resource, reading it on first use.
+     * @param path The path of the asset, or {@link #RAW_PREFIX} and the resource name.
+     */
+    private byte[] getAssetData(String path) throws IOException {
+        byte[] data = mAssetCache.get(path);
+        if (data != null) {
+            return data;
+        }
+        InputStream in;
+        if (path.startsWith(RAW_PREFIX)) {
+          String resourceName = path.substring(RAW_PREFIX.length());
+          int id = mResources.getIdentifier(resourceName, "raw", mContext.getPackageName());
+          if (id == 0) {
+            Log.w(TAG, "Can't find raw resource " + resourceName);
+            throw new IOException();
+          }
+          in = mResources.openRawResource(id);
+        } else {
+          in = mAssets.open(path);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 32));
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            data = out.toByteArray();
+        } finally {
+            in.close();
+        }
+        mAssetCache.put(path, data);
+        return data;
+    }
+
     private void setDateHeaders(HttpResponse response) {
         long time = System.currentTimeMillis();
-        synchronized (this) {
-            if (mDocValidity != 0) {
-                String expires = DateUtils.formatDate(new Date(time + mDocValidity),
-                        DateUtils.PATTERN_RFC1123);
-                response.addHeader("Expires", expires);
-            }
-            if (mDocAge != 0) {
-                String modified = DateUtils.formatDate(new Date(time - mDocAge),
-                        DateUtils.PATTERN_RFC1123);
-                response.addHeader("Last-Modified", modified);
-            }
+        long docValidity = mDocValidity;
+        long docAge = mDocAge;
+        if (docValidity != 0) {
+            String expires = DateUtils.formatDate(new Date(time + docValidity),
+                    DateUtils.PATTERN_RFC1123);
+            response.addHeader("Expires", expires);
+        }
+        if (docAge != 0) {
+            String modified = DateUtils.formatDate(new Date(time - docAge),
+                    DateUtils.PATTERN_RFC1123);
+            response.addHeader("Last-Modified", modified);
         }
         response.addHeader("Date", DateUtils.formatDate(new Date(), DateUtils.PATTERN_RFC1123));
     }
@@ -854,12 +886,21 @@ public class CtsTestServer {
         private CtsTestServer mServer;
         private ServerSocket mSocket;
         private SslMode mSsl;
-        private boolean mWillShutDown = false;
+        private volatile boolean mWillShutDown = false;
         private SSLContext mSslContext;
-        private ExecutorService mExecutorService = Executors.newFixedThreadPool(20);
-        private Object mLock = new Object();
+        // Each accepted connection is served on its own thread, so that delayed responses and
+        // idle keep-alive connections never hold up other requests.
+        private ExecutorService mExecutorService = Executors.newCachedThreadPool();
         // All the sockets bound to an open connection.
-        private Set<Socket> mSockets = new HashSet<Socket>();
+        private Set<Socket> mSockets =
+                Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+        private final ServerConnection.RequestHandler mHandler =
+                new ServerConnection.RequestHandler() {
+                    @Override
+                    public HttpResponse handleRequest(HttpRequest request) throws Exception {
+                        return mServer.getResponse(request);
+                    }
+                };
 
         /**
          * Defines the keystore contents for the server, BKS version. Holds just a
@@ -948,37 +989,16 @@ public class CtsTestServer {
             while (!mWillShutDown) {
                 try {
                     Socket socket = mSocket.accept();
-
-                    synchronized(mLock) {
-                        mSockets.add(socket);
-                    }
-
-                    DefaultHttpServerConnection conn = mServer.createHttpServerConnection();
-                    HttpParams params = new BasicHttpParams();
-                    params.setParameter(CoreProtocolPNames.PROTOCOL_VERSION, HttpVersion.HTTP_1_0);
-                    conn.bind(socket, params);
-
-                    // Determine whether we need to shutdown early before
-                    // parsing the response since conn.close() will crash
-                    // for SSL requests due to UnsupportedOperationException.
-                    HttpRequest request = conn.receiveRequestHeader();
-                    if (request instanceof HttpEntityEnclosingRequest) {
-                        conn.receiveRequestEntity( (HttpEntityEnclosingRequest) request);
-                    }
-
-                    mExecutorService.execute(new HandleResponseTask(conn, request, socket));
+                    mSockets.add(socket);
+                    mExecutorService.execute(new ServerConnection(
+                            mServer.createHttpServerConnection(), socket, mServer.mKeepAlive,
+                            mHandler, mSockets));
                 } catch (IOException e) {
                     // normal during shutdown, ignore
                     Log.w(TAG, e);
                 } catch (RejectedExecutionException e) {
                     // normal during shutdown, ignore
                     Log.w(TAG, e);
-                } catch (HttpException e) {
-                    Log.w(TAG, e);
-                } catch (UnsupportedOperationException e) {
-                    // DefaultHttpServerConnection's close() throws an
-                    // UnsupportedOperationException.
-                    Log.w(TAG, e);
                 }
             }
         }
@@ -991,53 +1011,18 @@ public class CtsTestServer {
             try {
                 mWillShutDown = true;
                 mExecutorService.shutdown();
-                mExecutorService.awaitTermination(1L, TimeUnit.MINUTES);
                 mSocket.close();
-                // To prevent the server thread from being blocked on read from socket,
-                // which is called when the server tries to receiveRequestHeader,
-                // close all the sockets here.
-                synchronized(mLock) {
-                    for (Socket socket : mSockets) {
-                        socket.close();
-                    }
+                // Closing the sockets unblocks connection threads waiting for the next request
+                // on an idle connection, which would otherwise delay termination.
+                for (Socket socket : mSockets) {
+                    socket.close();
                 }
+                mExecutorService.awaitTermination(1L, TimeUnit.MINUTES);
             } catch (IOException ignored) {
                 // safe to ignore
             } catch (InterruptedException e) {
                 Log.e(TAG, "Shutting down threads", e);
             }
         }
-
-        private class HandleResponseTask implements Runnable {
-
-            private DefaultHttpServerConnection mConnection;
-
-            private HttpRequest mRequest;
-
-            private Socket mSocket;
-
-            public HandleResponseTask(DefaultHttpServerConnection connection,
-                    HttpRequest request, Socket socket)  {
-                this.mConnection = connection;
-                this.mRequest = request;
-                this.mSocket = socket;
-            }
-
-            @Override
-            public void run() {
-                try {
-                    HttpResponse response = mServer.getResponse(mRequest);
-                    mConnection.sendResponseHeader(response);
-                    mConnection.sendResponseEntity(response);
-                    mConnection.close();
-
-                    synchronized(mLock) {
-                        ServerThread.this.mSockets.remove(mSocket);
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "Error handling request:", e);
-                }
-            }
-        }
     }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.webkit.cts;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives concurrent GET requests against a local test server and reports the achieved rate.
+ *
+ * Intended for comparing server configurations on the device, e.g. a {@link TestWebServer} or
+ * {@link CtsTestServer} with and without keep-alive:
+ * <pre>
+ *   server.setKeepAliveEnabled(true);
+ *   HttpLoadGenerator.Result result = HttpLoadGenerator.run(urls, 8, 200);
+ *   Log.i(TAG, result.toString());
+ * </pre>
+ * Clients use {@link HttpURLConnection}, which reuses connections whenever the server allows.
+ */
+public class HttpLoadGenerator {
+    private static final String TAG = "HttpLoadGenerator";
+
+    /**
+     * The outcome of a load run.
+     */
+    public static class Result {
+        public final int mRequests;
+        public final int mErrors;
+        public final long mBytes;
+        public final long mElapsedNanos;
+
+        Result(int requests, int errors, long bytes, long elapsedNanos) {
+            mRequests = requests;
+            mErrors = errors;
+            mBytes = bytes;
+            mElapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Returns the number of successful requests per second.
+         */
+        public double getRequestsPerSecond() {
+            return (mRequests - mErrors) / (mElapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests (%d errors), %d bytes in %.1f ms: %.1f requests/s",
+                    mRequests, mErrors, mBytes, mElapsedNanos / 1e6, getRequestsPerSecond());
+        }
+    }
+
+    /**
+     * Issues {@code requestsPerClient} GETs from each of {@code clients} threads, cycling
+     * through {@code urls}, and waits for all of them to complete.
+     */
+    public static Result run(final List<String> urls, int clients, final int requestsPerClient)
+            throws InterruptedException {
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            final int offset = i;
+            Thread thread = new Thread("HttpLoadGenerator-" + i) {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[8192];
+                    try {
+                        start.await();
+                        for (int j = 0; j < requestsPerClient; j++) {
+                            String url = urls.get((offset + j) % urls.size());
+                            try {
+                                bytes.addAndGet(fetch(url, buffer));
+                            } catch (IOException e) {
+                                Log.w(TAG, "Failed to fetch " + url, e);
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Log.w(TAG, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        return new Result(clients * requestsPerClient, errors.get(), bytes.get(), elapsedNanos);
+    }
+
+    /**
+     * Fetches {@code url}, reading the body to the end so the connection can be reused.
+     * @return the number of body bytes read.
+     */
+    private static long fetch(String url, byte[] buffer) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (connection.getResponseCode() >= 400) {
+            connection.disconnect();
+            throw new IOException("HTTP " + connection.getResponseCode());
+        }
+        InputStream in = connection.getInputStream();
+        try {
+            long total = 0;
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                total += count;
+            }
+            return total;
+        } finally {
+            in.close();
+        }
+    }
+}
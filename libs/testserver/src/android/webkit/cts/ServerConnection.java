@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.webkit.cts;
+
+import android.util.Log;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.impl.DefaultHttpServerConnection;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.CoreProtocolPNames;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Set;
+
+/**
+ * Serves the requests arriving on one accepted socket of a test server.
+ *
+ * Each connection runs on its own worker thread, so a slow or delayed response never holds up
+ * other connections. When keep-alive is enabled the connection speaks HTTP/1.1 and keeps
+ * serving requests until the client asks to close it, a response cannot be delimited without
+ * closing, or the server shuts down. Otherwise exactly one HTTP/1.0 request is served.
+ */
+class ServerConnection implements Runnable {
+    private static final String TAG = "ServerConnection";
+
+    /**
+     * Produces the response for a single request. Called on the connection's worker thread.
+     */
+    interface RequestHandler {
+        HttpResponse handleRequest(HttpRequest request) throws Exception;
+    }
+
+    private final DefaultHttpServerConnection mConnection;
+    private final Socket mSocket;
+    private final boolean mKeepAlive;
+    private final RequestHandler mHandler;
+    private final Set<Socket> mOpenSockets;
+
+    /**
+     * @param connection the unbound connection to serve requests on.
+     * @param socket the accepted socket.
+     * @param keepAlive true to reuse the connection for multiple requests.
+     * @param handler produces a response for each request.
+     * @param openSockets the server's set of open sockets; the socket is removed when closed.
+     */
+    ServerConnection(DefaultHttpServerConnection connection, Socket socket, boolean keepAlive,
+            RequestHandler handler, Set<Socket> openSockets) {
+        mConnection = connection;
+        mSocket = socket;
+        mKeepAlive = keepAlive;
+        mHandler = handler;
+        mOpenSockets = openSockets;
+    }
+
+    @Override
+    public void run() {
+        try {
+            HttpParams params = new BasicHttpParams();
+            params.setParameter(CoreProtocolPNames.PROTOCOL_VERSION,
+                    mKeepAlive ? HttpVersion.HTTP_1_1 : HttpVersion.HTTP_1_0);
+            mConnection.bind(mSocket, params);
+            boolean reuse;
+            do {
+                HttpRequest request = mConnection.receiveRequestHeader();
+                if (request instanceof HttpEntityEnclosingRequest) {
+                    HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest) request;
+                    mConnection.receiveRequestEntity(entityRequest);
+                    if (mKeepAlive && entityRequest.getEntity() != null) {
+                        // The body must be consumed before the next request can be read.
+                        entityRequest.setEntity(new BufferedHttpEntity(entityRequest.getEntity()));
+                    }
+                }
+                HttpResponse response = mHandler.handleRequest(request);
+                reuse = mKeepAlive && prepareKeepAlive(request, response);
+                mConnection.sendResponseHeader(response);
+                mConnection.sendResponseEntity(response);
+                mConnection.flush();
+            } while (reuse);
+        } catch (IOException e) {
+            // normal when the client closes the connection or during shutdown, ignore
+        } catch (HttpException e) {
+            Log.w(TAG, e);
+        } catch (Exception e) {
+            Log.e(TAG, "Error handling request:", e);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Upgrades {@code response} to HTTP/1.1 and sets its connection header.
+     *
+     * @return true if the connection can serve another request after this response.
+     */
+    private static boolean prepareKeepAlive(HttpRequest request, HttpResponse response) {
+        boolean reuse = wantsKeepAlive(request) && !hasToken(response, HTTP.CONN_CLOSE);
+        HttpEntity entity = response.getEntity();
+        if (response.getFirstHeader(HTTP.CONTENT_LEN) == null) {
+            if (entity == null) {
+                response.setHeader(HTTP.CONTENT_LEN, "0");
+            } else {
+                // Without a length the body is delimited by closing the connection.
+                reuse = false;
+            }
+        }
+        StatusLine status = response.getStatusLine();
+        response.setStatusLine(HttpVersion.HTTP_1_1, status.getStatusCode(),
+                status.getReasonPhrase());
+        response.setHeader(HTTP.CONN_DIRECTIVE, reuse ? HTTP.CONN_KEEP_ALIVE : HTTP.CONN_CLOSE);
+        return reuse;
+    }
+
+    private static boolean wantsKeepAlive(HttpRequest request) {
+        if (hasToken(request.getHeaders(HTTP.CONN_DIRECTIVE), HTTP.CONN_CLOSE)) {
+            return false;
+        }
+        ProtocolVersion version = request.getRequestLine().getProtocolVersion();
+        return !version.lessEquals(HttpVersion.HTTP_1_0)
+                || hasToken(request.getHeaders(HTTP.CONN_DIRECTIVE), HTTP.CONN_KEEP_ALIVE);
+    }
+
+    private static boolean hasToken(HttpResponse response, String token) {
+        return hasToken(response.getHeaders(HTTP.CONN_DIRECTIVE), token);
+    }
+
+    private static boolean hasToken(Header[] headers, String token) {
+        for (Header header : headers) {
+            if (header.getValue().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void close() {
+        try {
+            mConnection.close();
+        } catch (IOException ignored) {
+            // safe to ignore
+        } catch (UnsupportedOperationException ignored) {
+            // DefaultHttpServerConnection's close() throws an
+            // UnsupportedOperationException for SSL sockets.
+        }
+        try {
+            mSocket.close();
+        } catch (IOException ignored) {
+            // safe to ignore
+        }
+        mOpenSockets.remove(mSocket);
+    }
+}
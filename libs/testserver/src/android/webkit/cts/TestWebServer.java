@@ -11,7 +11,6 @@ import android.util.Base64;
 import android.util.Log;
 import android.util.Pair;
 
-import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
@@ -22,9 +21,7 @@ import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.DefaultHttpServerConnection;
 import org.apache.http.impl.cookie.DateUtils;
 import org.apache.http.message.BasicHttpResponse;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.CoreProtocolPNames;
-import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -40,11 +37,18 @@ import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -75,6 +79,7 @@ public class TestWebServer {
     private final ServerThread mServerThread;
     private String mServerUri;
     private final boolean mSsl;
+    private volatile boolean mKeepAlive;
 
     private static class Response {
         final byte[] mResponseData;
@@ -82,6 +87,8 @@ public class TestWebServer {
         final boolean mIsRedirect;
         final Runnable mResponseAction;
         final boolean mIsNotFound;
+        final AtomicInteger mRequestCount = new AtomicInteger();
+        volatile HttpRequest mLastRequest;
 
         Response(byte[] responseData, List<Pair<String, String>> responseHeaders,
                 boolean isRedirect, boolean isNotFound, Runnable responseAction) {
@@ -94,12 +101,9 @@ public class TestWebServer {
         }
     }
 
-    // The Maps below are modified on both the client thread and the internal server thread, so
-    // need to use a lock when accessing them.
-    private final Object mLock = new Object();
-    private final Map<String, Response> mResponseMap = new HashMap<String, Response>();
-    private final Map<String, Integer> mResponseCountMap = new HashMap<String, Integer>();
-    private final Map<String, HttpRequest> mLastRequestMap = new HashMap<String, HttpRequest>();
+    // The Map below is modified on the client thread and read on the connection threads. Each
+    // Response carries its own request counter, so serving a request never takes a lock.
+    private final Map<String, Response> mResponseMap = new ConcurrentHashMap<String, Response>();
 
     /**
      * Create and start a local HTTP server instance.
@@ -143,6 +147,10 @@ public class TestWebServer {
             InputStream is = connection.getInputStream();
             is.close();
 
+            // The request was served on a connection thread; wake the accept loop so that it
+            // notices the shutdown and closes the server socket itself.
+            new Socket("localhost", mServerThread.mSocket.getLocalPort()).close();
+
             // Block until the server thread is done shutting down.
             mServerThread.join();
 
@@ -161,6 +169,15 @@ public class TestWebServer {
         setInstance(null, mSsl);
     }
 
+    /**
+     * Sets whether connections accepted from now on are kept open between HTTP/1.1 requests.
+     * Disabled by default, in which case every request is served as HTTP/1.0 on its own
+     * connection.
+     */
+    public void setKeepAliveEnabled(boolean keepAlive) {
+        mKeepAlive = keepAlive;
+    }
+
     private static void setInstance(TestWebServer instance, boolean isSsl) {
         if (isSsl) {
             sSecureInstance = instance;
@@ -180,12 +197,8 @@ public class TestWebServer {
         final boolean isRedirect = (status == RESPONSE_STATUS_MOVED_TEMPORARILY);
         final boolean isNotFound = (status == RESPONSE_STATUS_NOT_FOUND);
 
-        synchronized (mLock) {
-            mResponseMap.put(requestPath, new Response(
-                    responseData, responseHeaders, isRedirect, isNotFound, responseAction));
-            mResponseCountMap.put(requestPath, Integer.valueOf(0));
-            mLastRequestMap.put(requestPath, null);
-        }
+        mResponseMap.put(requestPath, new Response(
+                responseData, responseHeaders, isRedirect, isNotFound, responseAction));
         return getResponseUrl(requestPath);
     }
 
@@ -296,23 +309,18 @@ public class TestWebServer {
      * Get the number of requests was made at this path since it was last set.
      */
     public int getRequestCount(String requestPath) {
-        Integer count = null;
-        synchronized (mLock) {
-            count = mResponseCountMap.get(requestPath);
-        }
-        if (count == null) throw new IllegalArgumentException("Path not set: " + requestPath);
-        return count.intValue();
+        Response response = mResponseMap.get(requestPath);
+        if (response == null) throw new IllegalArgumentException("Path not set: " + requestPath);
+        return response.mRequestCount.get();
     }
 
     /**
      * Returns the last HttpRequest at this path. Can return null if it is never requested.
      */
     public HttpRequest getLastRequest(String requestPath) {
-        synchronized (mLock) {
-            if (!mLastRequestMap.containsKey(requestPath))
-                throw new IllegalArgumentException("Path not set: " + requestPath);
-            return mLastRequestMap.get(requestPath);
-        }
+        Response response = mResponseMap.get(requestPath);
+        if (response == null) throw new IllegalArgumentException("Path not set: " + requestPath);
+        return response.mLastRequest;
     }
 
     public String getBaseUrl() {
@@ -375,18 +383,15 @@ public class TestWebServer {
         }
     }
 
-    private void servedResponseFor(String path, HttpRequest request) {
-        synchronized (mLock) {
-            mResponseCountMap.put(path, Integer.valueOf(
-                    mResponseCountMap.get(path).intValue() + 1));
-            mLastRequestMap.put(path, request);
-        }
+    private void servedResponseFor(Response response, HttpRequest request) {
+        response.mLastRequest = request;
+        response.mRequestCount.incrementAndGet();
     }
 
     /**
      * Generate a response to the given request.
      *
-     * <p>Always executed on the background server thread.
+     * <p>Always executed on a background connection thread.
      *
      * <p>If there is an action associated with the response, it will be executed inside of
      * this function.
@@ -394,9 +399,6 @@ public class TestWebServer {
      * @throws InterruptedException
      */
     private HttpResponse getResponse(HttpRequest request) throws InterruptedException {
-        assert Thread.currentThread() == mServerThread
-                : "getResponse called from non-server thread";
-
         RequestLine requestLine = request.getRequestLine();
         HttpResponse httpResponse = null;
         Log.i(TAG, requestLine.getMethod() + ": " + requestLine.getUri());
@@ -404,23 +406,21 @@ public class TestWebServer {
         URI uri = URI.create(uriString);
         String path = uri.getPath();
 
-        Response response = null;
-        synchronized (mLock) {
-            response = mResponseMap.get(path);
-        }
+        Response response = mResponseMap.get(path);
         if (path.equals(SHUTDOWN_PREFIX)) {
             httpResponse = createResponse(HttpStatus.SC_OK);
+            httpResponse.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
         } else if (response == null) {
             httpResponse = createResponse(HttpStatus.SC_NOT_FOUND);
         } else if (response.mIsNotFound) {
             httpResponse = createResponse(HttpStatus.SC_NOT_FOUND);
-            servedResponseFor(path, request);
+            servedResponseFor(response, request);
         } else if (response.mIsRedirect) {
             httpResponse = createResponse(HttpStatus.SC_MOVED_TEMPORARILY);
             for (Pair<String, String> header : response.mResponseHeaders) {
                 httpResponse.addHeader(header.first, header.second);
             }
-            servedResponseFor(path, request);
+            servedResponseFor(response, request);
         } else {
             if (response.mResponseAction != null) response.mResponseAction.run();
 
@@ -431,7 +431,7 @@ public class TestWebServer {
             for (Pair<String, String> header : response.mResponseHeaders) {
                 httpResponse.addHeader(header.first, header.second);
             }
-            servedResponseFor(path, request);
+            servedResponseFor(response, request);
         }
         StatusLine sl = httpResponse.getStatusLine();
         Log.i(TAG, sl.getStatusCode() + "(" + sl.getReasonPhrase() + ")");
@@ -490,8 +490,23 @@ public class TestWebServer {
         private TestWebServer mServer;
         private ServerSocket mSocket;
         private boolean mIsSsl;
-        private boolean mIsCancelled;
+        private volatile boolean mIsCancelled;
         private SSLContext mSslContext;
+        // Each accepted connection is served on its own thread.
+        private final ExecutorService mExecutorService = Executors.newCachedThreadPool();
+        // All the sockets bound to an open connection.
+        private final Set<Socket> mSockets =
+                Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+        private final ServerConnection.RequestHandler mHandler =
+                new ServerConnection.RequestHandler() {
+                    @Override
+                    public HttpResponse handleRequest(HttpRequest request) throws Exception {
+                        if (isShutdownRequest(request)) {
+                            mIsCancelled = true;
+                        }
+                        return mServer.getResponse(request);
+                    }
+                };
 
         /**
          * Defines the keystore contents for the server, BKS version. Holds just a
@@ -573,37 +588,23 @@ public class TestWebServer {
 
         @Override
         public void run() {
-            HttpParams params = new BasicHttpParams();
-            params.setParameter(CoreProtocolPNames.PROTOCOL_VERSION, HttpVersion.HTTP_1_0);
             while (!mIsCancelled) {
                 try {
                     Socket socket = mSocket.accept();
-                    DefaultHttpServerConnection conn = new DefaultHttpServerConnection();
-                    conn.bind(socket, params);
-
-                    // Determine whether we need to shutdown early before
-                    // parsing the response since conn.close() will crash
-                    // for SSL requests due to UnsupportedOperationException.
-                    HttpRequest request = conn.receiveRequestHeader();
-                    if (isShutdownRequest(request)) {
-                        mIsCancelled = true;
+                    if (mIsCancelled) {
+                        // The wake-up connection from shutdown().
+                        socket.close();
+                        break;
                     }
-
-                    HttpResponse response = mServer.getResponse(request);
-                    conn.sendResponseHeader(response);
-                    conn.sendResponseEntity(response);
-                    conn.close();
-
+                    mSockets.add(socket);
+                    mExecutorService.execute(new ServerConnection(
+                            new DefaultHttpServerConnection(), socket, mServer.mKeepAlive, mHandler,
+                            mSockets));
                 } catch (IOException e) {
                     // normal during shutdown, ignore
                     Log.w(TAG, e);
-                } catch (HttpException e) {
-                    Log.w(TAG, e);
-                } catch (InterruptedException e) {
-                    Log.w(TAG, e);
-                } catch (UnsupportedOperationException e) {
-                    // DefaultHttpServerConnection's close() throws an
-                    // UnsupportedOperationException.
+                } catch (RejectedExecutionException e) {
+                    // normal during shutdown, ignore
                     Log.w(TAG, e);
                 }
             }
@@ -612,6 +613,20 @@ public class TestWebServer {
             } catch (IOException ignored) {
                 // safe to ignore
             }
+            mExecutorService.shutdown();
+            // Idle keep-alive connections would otherwise block in receiveRequestHeader.
+            for (Socket socket : mSockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // safe to ignore
+                }
+            }
+            try {
+                mExecutorService.awaitTermination(1L, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Log.w(TAG, e);
+            }
         }
 
         private boolean isShutdownRequest(HttpRequest request) {
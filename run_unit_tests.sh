@@ -45,6 +45,7 @@ BUILD_TARGETS="
     compatibility-device-info-tests\
     compatibility-manifest-generator-tests
     compatibility-host-media-preconditions-tests\
+    jsonlib-tests\
     CompatibilityTestApp"
 
 pushd ${CTS_DIR}/..
@@ -72,6 +73,7 @@ ${CTS_DIR}/common/host-side/tradefed/tests/run_tests.sh
 ${CTS_DIR}/common/host-side/manifest-generator/tests/run_tests.sh
 ${CTS_DIR}/common/host-side/util/tests/run_tests.sh
 ${CTS_DIR}/common/util/tests/run_tests.sh
+${CTS_DIR}/libs/json/tests/run_tests.sh
 
 ${CTS_DIR}/tools/cts-tradefed/tests/run_tests.sh
 
@@ -15,6 +15,8 @@
  */
 
 #include <jni.h>
+#include <pthread.h>
+#include <stdint.h>
 #include <stdlib.h>
 #include <string.h>
 #include <sys/time.h>
@@ -69,3 +71,195 @@ extern "C" JNIEXPORT jdouble JNICALL Java_android_dram_cts_MemoryNative_runMemse
     return end - start;
 }
 
+// Keeps the compiler from removing loops whose result is otherwise unused.
+static volatile uint64_t gSink;
+
+// Access patterns of runBandwidth, same values as in MemoryNative.java.
+enum {
+    PATTERN_READ = 0,
+    PATTERN_WRITE = 1,
+    PATTERN_COPY = 2,
+};
+
+struct BandwidthWorker {
+    pthread_t thread;
+    int pattern;
+    int bufferSize;
+    int repetition;
+    char* src;
+    char* dst;
+    double start;
+    double end;
+};
+
+// Start gate, so that all threads contend for the memory at the same time.
+static pthread_mutex_t gGateLock = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t gGateCond = PTHREAD_COND_INITIALIZER;
+static bool gGateOpen;
+
+static void* runBandwidthWorker(void* arg)
+{
+    BandwidthWorker* worker = (BandwidthWorker*) arg;
+    pthread_mutex_lock(&gGateLock);
+    while (!gGateOpen) {
+        pthread_cond_wait(&gGateCond, &gGateLock);
+    }
+    pthread_mutex_unlock(&gGateLock);
+
+    const int bufferSize = worker->bufferSize;
+    worker->start = currentTimeMillis();
+    switch (worker->pattern) {
+    case PATTERN_READ: {
+        const uint64_t* src = (const uint64_t*) worker->src;
+        const int words = bufferSize / sizeof(uint64_t);
+        // independent sums, so that the loads are not serialized by the additions
+        uint64_t sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        for (int i = 0; i < worker->repetition; i++) {
+            for (int j = 0; j + 3 < words; j += 4) {
+                sum0 += src[j];
+                sum1 += src[j + 1];
+                sum2 += src[j + 2];
+                sum3 += src[j + 3];
+            }
+            // make each pass differ from the previous one
+            worker->src[bufferSize - 1] = i & 0xff;
+        }
+        gSink = sum0 + sum1 + sum2 + sum3;
+        break;
+    }
+    case PATTERN_WRITE:
+        for (int i = 0; i < worker->repetition; i++) {
+            memset(worker->dst, i & 0xff, bufferSize);
+        }
+        break;
+    case PATTERN_COPY:
+        for (int i = 0; i < worker->repetition; i++) {
+            memcpy(worker->dst, worker->src, bufferSize);
+            worker->src[bufferSize - 1] = i & 0xff;
+        }
+        break;
+    }
+    worker->end = currentTimeMillis();
+    return NULL;
+}
+
+extern "C" JNIEXPORT jdouble JNICALL Java_android_dram_cts_MemoryNative_runBandwidth(JNIEnv* env,
+        jclass clazz, jint pattern, jint bufferSize, jint repetition, jint threads)
+{
+    BandwidthWorker* workers = new BandwidthWorker[threads];
+    memset(workers, 0, threads * sizeof(BandwidthWorker));
+    bool noMemory = false;
+    for (int i = 0; i < threads; i++) {
+        workers[i].pattern = pattern;
+        workers[i].bufferSize = bufferSize;
+        workers[i].repetition = repetition;
+        // touch every page, so that page faults are not measured
+        if (pattern != PATTERN_WRITE) {
+            workers[i].src = new char[bufferSize];
+            if (workers[i].src == NULL) {
+                noMemory = true;
+                break;
+            }
+            memset(workers[i].src, 0, bufferSize);
+        }
+        if (pattern != PATTERN_READ) {
+            workers[i].dst = new char[bufferSize];
+            if (workers[i].dst == NULL) {
+                noMemory = true;
+                break;
+            }
+            memset(workers[i].dst, 0, bufferSize);
+        }
+    }
+
+    double elapsed = -1;
+    int started = 0;
+    if (!noMemory) {
+        gGateOpen = false;
+        for (; started < threads; started++) {
+            if (pthread_create(&workers[started].thread, NULL, runBandwidthWorker,
+                    &workers[started]) != 0) {
+                break;
+            }
+        }
+        pthread_mutex_lock(&gGateLock);
+        gGateOpen = true;
+        pthread_cond_broadcast(&gGateCond);
+        pthread_mutex_unlock(&gGateLock);
+        for (int i = 0; i < started; i++) {
+            pthread_join(workers[i].thread, NULL);
+        }
+        if (started == threads) {
+            // from the first thread starting to the last one finishing
+            double start = workers[0].start;
+            double end = workers[0].end;
+            for (int i = 1; i < threads; i++) {
+                if (workers[i].start < start) {
+                    start = workers[i].start;
+                }
+                if (workers[i].end > end) {
+                    end = workers[i].end;
+                }
+            }
+            elapsed = end - start;
+        }
+    }
+    for (int i = 0; i < threads; i++) {
+        delete[] workers[i].src;
+        delete[] workers[i].dst;
+    }
+    delete[] workers;
+    if (noMemory) {
+        env->ThrowNew(env->FindClass("java/lang/OutOfMemoryError"), "No memory");
+    } else if (started != threads) {
+        env->ThrowNew(env->FindClass("java/lang/RuntimeException"), "Cannot start threads");
+    }
+    return elapsed;
+}
+
+extern "C" JNIEXPORT jdouble JNICALL Java_android_dram_cts_MemoryNative_runPointerChase(
+        JNIEnv* env, jclass clazz, jint workingSetSize, jint accesses)
+{
+    // one pointer per cache line, so that every access touches a different line
+    const int lineSize = 64;
+    const int stride = lineSize / sizeof(void*);
+    const int lines = workingSetSize / lineSize;
+    void** buffer = new void*[lines * stride];
+    int* order = new int[lines];
+    if ((buffer == NULL) || (order == NULL) || (lines < 2)) {
+        delete[] buffer;
+        delete[] order;
+        env->ThrowNew(env->FindClass("java/lang/OutOfMemoryError"), "No memory");
+        return -1;
+    }
+    // link the lines in a random cycle, which defeats the hardware prefetchers
+    for (int i = 0; i < lines; i++) {
+        order[i] = i;
+    }
+    uint32_t seed = 1;
+    for (int i = lines - 1; i > 0; i--) {
+        seed = seed * 1103515245 + 12345;
+        int j = (seed >> 8) % (i + 1);
+        int tmp = order[i];
+        order[i] = order[j];
+        order[j] = tmp;
+    }
+    for (int i = 0; i < lines; i++) {
+        buffer[order[i] * stride] = &buffer[order[(i + 1) % lines] * stride];
+    }
+    delete[] order;
+
+    // warm up with a full cycle, so that small working sets are measured from the caches
+    void** p = (void**) buffer[0];
+    for (int i = 0; i < lines; i++) {
+        p = (void**) *p;
+    }
+    double start = currentTimeMillis();
+    for (int i = 0; i < accesses; i++) {
+        p = (void**) *p;
+    }
+    double end = currentTimeMillis();
+    gSink = (uint64_t) (uintptr_t) p;
+    delete[] buffer;
+    return end - start;
+}
@@ -45,6 +45,11 @@ public class BandwidthTest extends CtsAndroidTestCase {
     private static final int MEMSET_CHAR = 0xa5;
     // reject data outside +/- this value * median
     private static final double OUTLIER_THRESHOLD = 0.1;
+    private static final int PATTERN_REPETITION = 11;
+    // names of the MemoryNative patterns, used in the reports
+    private static final String[] PATTERN_NAMES = {"read", "write", "copy"};
+    // per thread, bigger than the caches
+    private static final int SCALING_BUFFER_SIZE = 16 * MB;
 
     @Override
     protected void setUp() throws Exception {
@@ -157,6 +162,118 @@ public class BandwidthTest extends CtsAndroidTestCase {
         doRunMemset(16 * MB);
     }
 
+    public void testReadK016() {
+        doRunPattern(MemoryNative.PATTERN_READ, 16 * KB, 1);
+    }
+
+    public void testReadK256() {
+        doRunPattern(MemoryNative.PATTERN_READ, 256 * KB, 1);
+    }
+
+    public void testReadM016() {
+        doRunPattern(MemoryNative.PATTERN_READ, 16 * MB, 1);
+    }
+
+    public void testWriteK016() {
+        doRunPattern(MemoryNative.PATTERN_WRITE, 16 * KB, 1);
+    }
+
+    public void testWriteK256() {
+        doRunPattern(MemoryNative.PATTERN_WRITE, 256 * KB, 1);
+    }
+
+    public void testWriteM016() {
+        doRunPattern(MemoryNative.PATTERN_WRITE, 16 * MB, 1);
+    }
+
+    public void testCopyK016() {
+        doRunPattern(MemoryNative.PATTERN_COPY, 16 * KB, 1);
+    }
+
+    public void testCopyK256() {
+        doRunPattern(MemoryNative.PATTERN_COPY, 256 * KB, 1);
+    }
+
+    public void testCopyM016() {
+        doRunPattern(MemoryNative.PATTERN_COPY, 16 * MB, 1);
+    }
+
+    public void testReadScaling() {
+        doRunScaling(MemoryNative.PATTERN_READ);
+    }
+
+    public void testWriteScaling() {
+        doRunScaling(MemoryNative.PATTERN_WRITE);
+    }
+
+    public void testCopyScaling() {
+        doRunScaling(MemoryNative.PATTERN_COPY);
+    }
+
+    /**
+     * run the pattern from 1, 2, 4... threads up to the number of cores, each thread with its own
+     * buffers bigger than the caches, to see how the bandwidth is shared between the cores.
+     * All the thread counts go in a single report, as only one report per test is kept.
+     */
+    private void doRunScaling(int pattern) {
+        String name = PATTERN_NAMES[pattern];
+        String streamName = "run_" + name + "_scaling";
+        DeviceReportLog report = new DeviceReportLog(REPORT_LOG_NAME, streamName);
+        report.addValue("buffer_size", SCALING_BUFFER_SIZE, ResultType.NEUTRAL, ResultUnit.NONE);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            addPatternValues(report, name + "_" + threads + "_threads", pattern,
+                    SCALING_BUFFER_SIZE, threads);
+        }
+        Stat.StatResult stat = addPatternValues(report, name + "_" + cores + "_threads", pattern,
+                SCALING_BUFFER_SIZE, cores);
+        report.addValue("cores", cores, ResultType.NEUTRAL, ResultUnit.COUNT);
+        report.setSummary(name + "_all_cores_throughput_average", stat.mAverage,
+                ResultType.HIGHER_BETTER, ResultUnit.MBPS);
+        report.submit(getInstrumentation());
+    }
+
+    private void doRunPattern(int pattern, int bufferSize, int threads) {
+        String name = PATTERN_NAMES[pattern];
+        String streamName = "run_" + name;
+        DeviceReportLog report = new DeviceReportLog(REPORT_LOG_NAME, streamName);
+        report.addValue("buffer_size", bufferSize, ResultType.NEUTRAL, ResultUnit.NONE);
+        report.addValue("threads", threads, ResultType.NEUTRAL, ResultUnit.COUNT);
+        Stat.StatResult stat = addPatternValues(report, name, pattern, bufferSize, threads);
+        report.setSummary(name + "_throughput_average", stat.mAverage, ResultType.HIGHER_BETTER,
+                ResultUnit.MBPS);
+        report.submit(getInstrumentation());
+    }
+
+    /**
+     * run the pattern and add its times and throughputs to the report, under names starting with
+     * the given prefix.
+     * @return the throughput with outliers rejected.
+     */
+    private Stat.StatResult addPatternValues(DeviceReportLog report, String prefix, int pattern,
+            int bufferSize, int threads) {
+        double[] result = new double[PATTERN_REPETITION];
+        int repeatInEachCall = REPEAT_IN_EACH_CALL;
+        if (bufferSize < (1 * MB)) {
+            // too small buffer size finishes too early to give accurate result.
+            repeatInEachCall *= (1 * MB / bufferSize);
+        }
+        for (int i = 0; i < PATTERN_REPETITION; i++) {
+            result[i] = MemoryNative.runBandwidth(pattern, bufferSize, repeatInEachCall, threads);
+        }
+        report.addValues(prefix + "_time", result, ResultType.LOWER_BETTER, ResultUnit.MS);
+        double[] mbps = Stat.calcRatePerSecArray(
+                (double)bufferSize * repeatInEachCall * threads / 1024.0 / 1024.0, result);
+        report.addValues(prefix + "_throughput", mbps, ResultType.HIGHER_BETTER, ResultUnit.MBPS);
+        Stat.StatResult stat = Stat.getStatWithOutlierRejection(mbps, OUTLIER_THRESHOLD);
+        if (stat.mDataCount != result.length) {
+            Log.w(TAG, "rejecting " + (result.length - stat.mDataCount) + " outliers");
+        }
+        report.addValue(prefix + "_throughput_confidence_interval",
+                Stat.getConfidenceInterval95(stat), ResultType.NEUTRAL, ResultUnit.MBPS);
+        return stat;
+    }
+
     private void doRunMemcpy(int bufferSize) {
         double[] result = new double[MEMCPY_REPETITION];
         int repeatInEachCall = REPEAT_IN_EACH_CALL;
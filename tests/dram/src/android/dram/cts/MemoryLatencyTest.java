@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.dram.cts;
+
+import android.cts.util.CtsAndroidTestCase;
+import android.util.Log;
+
+import com.android.compatibility.common.util.DeviceReportLog;
+import com.android.compatibility.common.util.ResultType;
+import com.android.compatibility.common.util.ResultUnit;
+import com.android.compatibility.common.util.Stat;
+
+/**
+ * check the latency of random accesses to memory, by following pointers which link the cache
+ * lines of a buffer in a random order. Each access depends on the previous one, so the time of
+ * an access is the latency of the level of the memory hierarchy the buffer fits in, from L1
+ * cache for the smallest buffers to DRAM for the biggest ones.
+ */
+public class MemoryLatencyTest extends CtsAndroidTestCase {
+    private static final String TAG = MemoryLatencyTest.class.getSimpleName();
+    private static final String REPORT_LOG_NAME = "CtsDramTestCases";
+    // data length is odd to prevent rare cases that all data are rejected.
+    private static final int REPETITION = 11;
+    private static final int ACCESSES_IN_EACH_CALL = 1024 * 1024;
+    private static final int KB = 1024;
+    private static final int MB = 1024 * 1024;
+    // reject data outside +/- this value * median
+    private static final double OUTLIER_THRESHOLD = 0.1;
+
+    public void testPointerChaseK004() {
+        doRunPointerChase(4 * KB);
+    }
+
+    public void testPointerChaseK016() {
+        doRunPointerChase(16 * KB);
+    }
+
+    public void testPointerChaseK064() {
+        doRunPointerChase(64 * KB);
+    }
+
+    public void testPointerChaseK256() {
+        doRunPointerChase(256 * KB);
+    }
+
+    public void testPointerChaseM001() {
+        doRunPointerChase(1 * MB);
+    }
+
+    public void testPointerChaseM004() {
+        doRunPointerChase(4 * MB);
+    }
+
+    public void testPointerChaseM016() {
+        doRunPointerChase(16 * MB);
+    }
+
+    public void testPointerChaseM064() {
+        doRunPointerChase(64 * MB);
+    }
+
+    private void doRunPointerChase(int workingSetSize) {
+        double[] result = new double[REPETITION];
+        for (int i = 0; i < REPETITION; i++) {
+            result[i] = MemoryNative.runPointerChase(workingSetSize, ACCESSES_IN_EACH_CALL);
+        }
+        String streamName = "run_pointer_chase";
+        DeviceReportLog report = new DeviceReportLog(REPORT_LOG_NAME, streamName);
+        report.addValue("working_set_size", workingSetSize, ResultType.NEUTRAL, ResultUnit.NONE);
+        report.addValues("pointer_chase_time", result, ResultType.LOWER_BETTER, ResultUnit.MS);
+        // time of a single access, far below a milli-second but kept at full precision
+        double[] latency = new double[REPETITION];
+        for (int i = 0; i < REPETITION; i++) {
+            latency[i] = result[i] / ACCESSES_IN_EACH_CALL;
+        }
+        report.addValues("access_latency", latency, ResultType.LOWER_BETTER, ResultUnit.MS);
+        Stat.StatResult stat = Stat.getStatWithOutlierRejection(latency, OUTLIER_THRESHOLD);
+        if (stat.mDataCount != result.length) {
+            Log.w(TAG, "rejecting " + (result.length - stat.mDataCount) + " outliers");
+        }
+        report.addValue("access_latency_confidence_interval",
+                Stat.getConfidenceInterval95(stat), ResultType.NEUTRAL, ResultUnit.MS);
+        report.setSummary("access_latency_average", stat.mAverage, ResultType.LOWER_BETTER,
+                ResultUnit.MS);
+        report.submit(getInstrumentation());
+    }
+}
@@ -17,6 +17,11 @@
 package android.dram.cts;
 
 public class MemoryNative {
+    /** Access patterns of {@link #runBandwidth}. */
+    public static final int PATTERN_READ = 0;
+    public static final int PATTERN_WRITE = 1;
+    public static final int PATTERN_COPY = 2;
+
     static {
         System.loadLibrary("ctsdram_jni");
     }
@@ -38,4 +43,25 @@ public class MemoryNative {
      * @return time spent in memset in ms.
      */
     public static native double runMemset(int bufferSize, int repetition, int c);
+
+    /**
+     * run the given access pattern from multiple threads at the same time, each thread going
+     * over its own buffers of bufferSize for the given number of repetition.
+     * @param pattern one of PATTERN_READ, PATTERN_WRITE or PATTERN_COPY
+     * @param bufferSize
+     * @param repetition
+     * @param threads
+     * @return time from the first thread starting to the last thread finishing in ms.
+     */
+    public static native double runBandwidth(int pattern, int bufferSize, int repetition,
+            int threads);
+
+    /**
+     * follow a chain of pointers linking the cache lines of a buffer of workingSetSize in a
+     * random order, so that each access waits for the previous one.
+     * @param workingSetSize
+     * @param accesses number of pointers to follow
+     * @return time spent in following the pointers in ms.
+     */
+    public static native double runPointerChase(int workingSetSize, int accesses);
 }
@@ -35,7 +35,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class FileUtil {
     private static final String TAG = "FileUtil";
@@ -412,4 +421,340 @@ public class FileUtil {
                 ResultUnit.MBPS);
         report.submit();
     }
+
+    /**
+     * Same as {@link #doRandomReadTest}, but reading through a {@link FileChannel} into a direct
+     * buffer, which skips the copy between native and java memory. Also reports the latency of
+     * each read. Only readCount reads are done, spread over the whole file, so that a file
+     * larger than the memory does not have to be read in full.
+     * @param bufferSize should be power of two
+     * @param readCount should be multiple of 16
+     */
+    public static void doChannelRandomReadTest(Context context, String dirName, ReportLog report,
+            long fileSize, int bufferSize, int readCount) throws Exception {
+        File file = FileUtil.createNewFilledFile(context, dirName, fileSize);
+        final int totalReadCount = readCount;
+        final long[] readOffsets = getRandomOffsets(fileSize, bufferSize, totalReadCount);
+        final int runsInOneGo = 16;
+        final int readsInOneMeasure = totalReadCount / runsInOneGo;
+        final double[] latencies = new double[runsInOneGo * readsInOneMeasure];
+
+        final ByteBuffer data = ByteBuffer.allocateDirect(bufferSize);
+        final RandomAccessFile randomFile = new RandomAccessFile(file, "rw"); // do not need O_SYNC
+        final FileChannel channel = randomFile.getChannel();
+        double[] rdAmount = new double[runsInOneGo];
+        double[] wrAmount = new double[runsInOneGo];
+        double[] times = FileUtil.measureIO(runsInOneGo, rdAmount, wrAmount, new MeasureRun() {
+
+            @Override
+            public void run(int i) throws IOException {
+                Log.i(TAG, "starting " + i + " -th round");
+                int start = i * readsInOneMeasure;
+                int end = (i + 1) * readsInOneMeasure;
+                for (int j = start; j < end; j++) {
+                    long begin = System.nanoTime();
+                    data.clear();
+                    readFully(channel, data, readOffsets[j]);
+                    latencies[j] = (System.nanoTime() - begin) / 1000000.0;
+                }
+            }
+        });
+        randomFile.close();
+        double[] mbps = Stat.calcRatePerSecArray(
+                (double)readsInOneMeasure * bufferSize / 1024 / 1024, times);
+        report.addValues("read_throughput", mbps, ResultType.HIGHER_BETTER, ResultUnit.MBPS);
+        report.addValues("read_amount", rdAmount, ResultType.NEUTRAL, ResultUnit.BYTE);
+        addLatencyPercentiles(report, "read_latency", latencies);
+        Stat.StatResult stat = Stat.getStat(mbps);
+
+        report.setSummary("read_throughput_average", stat.mAverage, ResultType.HIGHER_BETTER,
+                ResultUnit.MBPS);
+    }
+
+    /**
+     * Same as {@link #doRandomWriteTest}, but writing from a direct buffer through a
+     * {@link FileChannel}. Also reports the latency of each write. Only writeCount writes are
+     * done, spread over the whole file.
+     * @param bufferSize should be power of two
+     * @param writeCount should be multiple of 16
+     */
+    public static void doChannelRandomWriteTest(Context context, String dirName, ReportLog report,
+            long fileSize, int bufferSize, int writeCount) throws Exception {
+        File file = FileUtil.createNewFilledFile(context, dirName, fileSize);
+        final ByteBuffer data = ByteBuffer.allocateDirect(bufferSize);
+        data.put(FileUtil.generateRandomData(bufferSize));
+        final int totalWriteCount = writeCount;
+        final long[] writeOffsets = getRandomOffsets(fileSize, bufferSize, totalWriteCount);
+        final int runsInOneGo = 16;
+        final int writesInOneMeasure = totalWriteCount / runsInOneGo;
+        final double[] latencies = new double[runsInOneGo * writesInOneMeasure];
+
+        final RandomAccessFile randomFile = new RandomAccessFile(file, "rwd"); // force O_SYNC
+        final FileChannel channel = randomFile.getChannel();
+        double[] rdAmount = new double[runsInOneGo];
+        double[] wrAmount = new double[runsInOneGo];
+        double[] times = FileUtil.measureIO(runsInOneGo, rdAmount, wrAmount, new MeasureRun() {
+
+            @Override
+            public void run(int i) throws IOException {
+                Log.i(TAG, "starting " + i + " -th round");
+                int start = i * writesInOneMeasure;
+                int end = (i + 1) * writesInOneMeasure;
+                for (int j = start; j < end; j++) {
+                    long begin = System.nanoTime();
+                    data.clear();
+                    writeFully(channel, data, writeOffsets[j]);
+                    latencies[j] = (System.nanoTime() - begin) / 1000000.0;
+                }
+            }
+        });
+        randomFile.close();
+        double[] mbps = Stat.calcRatePerSecArray(
+                (double)writesInOneMeasure * bufferSize / 1024 / 1024, times);
+        report.addValues("write_throughput", mbps, ResultType.HIGHER_BETTER, ResultUnit.MBPS);
+        report.addValues("write_amount", wrAmount, ResultType.NEUTRAL, ResultUnit.BYTE);
+        addLatencyPercentiles(report, "write_latency", latencies);
+        Stat.StatResult stat = Stat.getStat(mbps);
+
+        report.setSummary("write_throughput_average", stat.mAverage, ResultType.HIGHER_BETTER,
+                ResultUnit.MBPS);
+    }
+
+    /**
+     * Random update through a memory mapping of the whole file. Each write is flushed to storage
+     * with {@link MappedByteBuffer#force()}, the mapped equivalent of O_SYNC, so that the result
+     * does not depend on the page cache. The whole file is mapped at once, so its size should be
+     * kept well below the address space of the process. Only writeCount writes are done.
+     * @param bufferSize should be power of two
+     * @param writeCount should be multiple of 16
+     */
+    public static void doMappedRandomWriteTest(Context context, String dirName, ReportLog report,
+            long fileSize, int bufferSize, int writeCount) throws Exception {
+        File file = FileUtil.createNewFilledFile(context, dirName, fileSize);
+        final byte[] data = FileUtil.generateRandomData(bufferSize);
+        final int totalWriteCount = writeCount;
+        final long[] writeOffsets = getRandomOffsets(fileSize, bufferSize, totalWriteCount);
+        final int runsInOneGo = 16;
+        final int writesInOneMeasure = totalWriteCount / runsInOneGo;
+        final double[] latencies = new double[runsInOneGo * writesInOneMeasure];
+
+        final RandomAccessFile randomFile = new RandomAccessFile(file, "rw");
+        final MappedByteBuffer mapped = randomFile.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        double[] rdAmount = new double[runsInOneGo];
+        double[] wrAmount = new double[runsInOneGo];
+        double[] times = FileUtil.measureIO(runsInOneGo, rdAmount, wrAmount, new MeasureRun() {
+
+            @Override
+            public void run(int i) throws IOException {
+                Log.i(TAG, "starting " + i + " -th round");
+                int start = i * writesInOneMeasure;
+                int end = (i + 1) * writesInOneMeasure;
+                for (int j = start; j < end; j++) {
+                    long begin = System.nanoTime();
+                    mapped.position((int) writeOffsets[j]);
+                    mapped.put(data);
+                    mapped.force();
+                    latencies[j] = (System.nanoTime() - begin) / 1000000.0;
+                }
+            }
+        });
+        randomFile.close();
+        double[] mbps = Stat.calcRatePerSecArray(
+                (double)writesInOneMeasure * bufferSize / 1024 / 1024, times);
+        report.addValues("write_throughput", mbps, ResultType.HIGHER_BETTER, ResultUnit.MBPS);
+        report.addValues("write_amount", wrAmount, ResultType.NEUTRAL, ResultUnit.BYTE);
+        addLatencyPercentiles(report, "write_latency", latencies);
+        Stat.StatResult stat = Stat.getStat(mbps);
+
+        report.setSummary("write_throughput_average", stat.mAverage, ResultType.HIGHER_BETTER,
+                ResultUnit.MBPS);
+    }
+
+    /**
+     * Same as {@link #doSequentialUpdateTest}, but through a memory mapping of the whole file,
+     * flushed to storage with {@link MappedByteBuffer#force()} after each buffer. The whole file
+     * is mapped at once, so its size should be kept well below the address space of the process.
+     * @param fileSize fileSize should be multiple of bufferSize.
+     */
+    public static void doMappedSequentialUpdateTest(Context context, String dirName,
+            long fileSize, int bufferSize, int numberRepetition, String reportName,
+            String streamName) throws Exception {
+        File file = FileUtil.createNewFilledFile(context, dirName, fileSize);
+        final byte[] data = FileUtil.generateRandomData(bufferSize);
+        int numberRepeatInOneRun = (int)(fileSize / bufferSize);
+        double[] mbpsAll = new double[numberRepetition * numberRepeatInOneRun];
+        final RandomAccessFile randomFile = new RandomAccessFile(file, "rw");
+        final MappedByteBuffer mapped = randomFile.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        for (int i = 0; i < numberRepetition; i++) {
+            Log.i(TAG, "starting " + i + " -th round");
+            DeviceReportLog report = new DeviceReportLog(reportName, streamName);
+            report.addValue("round", i,  ResultType.NEUTRAL, ResultUnit.NONE);
+            mapped.position(0);
+            double[] times = MeasureTime.measure(numberRepeatInOneRun, new MeasureRun() {
+
+                @Override
+                public void run(int i) throws IOException {
+                    mapped.put(data);
+                    mapped.force();
+                }
+            });
+            double[] mbps = Stat.calcRatePerSecArray((double)bufferSize / 1024 / 1024,
+                    times);
+            report.addValues("throughput", mbps, ResultType.HIGHER_BETTER, ResultUnit.MBPS);
+            int offset = i * numberRepeatInOneRun;
+            for (int j = 0; j < mbps.length; j++) {
+                mbpsAll[offset + j] = mbps[j];
+            }
+            report.submit();
+        }
+        randomFile.close();
+        Stat.StatResult stat = Stat.getStat(mbpsAll);
+        DeviceReportLog report = new DeviceReportLog(reportName, String.format("%s_average",
+                streamName));
+        report.addValue("update_throughput", stat.mAverage, ResultType.HIGHER_BETTER,
+                ResultUnit.MBPS);
+        report.submit();
+    }
+
+    /**
+     * Random reads issued by concurrent threads, one per request kept in flight, to measure how
+     * the storage scales with the queue depth. Every thread has its own file descriptor and
+     * direct buffer. The same file is read once for each of the given queue depths, and the
+     * results are reported with the queue depth as suffix.
+     * @param readCount number of reads for each queue depth
+     * @param bufferSize should be power of two
+     */
+    public static void doConcurrentRandomReadTest(Context context, String dirName,
+            ReportLog report, long fileSize, int bufferSize, int readCount, int[] queueDepths)
+            throws Exception {
+        File file = FileUtil.createNewFilledFile(context, dirName, fileSize);
+        doConcurrentRandomTest(file, "rw", false, report, fileSize, bufferSize, readCount,
+                queueDepths);
+    }
+
+    /**
+     * Same as {@link #doConcurrentRandomReadTest} for O_SYNC writes.
+     * @param writeCount number of writes for each queue depth
+     * @param bufferSize should be power of two
+     */
+    public static void doConcurrentRandomWriteTest(Context context, String dirName,
+            ReportLog report, long fileSize, int bufferSize, int writeCount, int[] queueDepths)
+            throws Exception {
+        File file = FileUtil.createNewFilledFile(context, dirName, fileSize);
+        doConcurrentRandomTest(file, "rwd", true, report, fileSize, bufferSize, writeCount,
+                queueDepths);
+    }
+
+    private static void doConcurrentRandomTest(final File file, final String mode,
+            final boolean write, ReportLog report, long fileSize, final int bufferSize,
+            int count, int[] queueDepths) throws Exception {
+        final String name = write ? "write" : "read";
+        final byte[] content = FileUtil.generateRandomData(bufferSize);
+        // different offsets for each queue depth, so that a run does not read what the previous
+        // one left in the page cache
+        final long[] offsets = getRandomOffsets(fileSize, bufferSize, count * queueDepths.length);
+        final double[] latencies = new double[count];
+        for (int d = 0; d < queueDepths.length; d++) {
+            final int depth = queueDepths[d];
+            final int first = d * count;
+            Log.i(TAG, "starting " + name + " with queue depth " + depth);
+            ExecutorService executor = Executors.newFixedThreadPool(depth);
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            long start = System.nanoTime();
+            for (int t = 0; t < depth; t++) {
+                // thread t does every depth-th request
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws IOException {
+                        RandomAccessFile randomFile = new RandomAccessFile(file, mode);
+                        try {
+                            FileChannel channel = randomFile.getChannel();
+                            ByteBuffer data = ByteBuffer.allocateDirect(bufferSize);
+                            if (write) {
+                                data.put(content);
+                            }
+                            for (int j = thread; j < latencies.length; j += depth) {
+                                long begin = System.nanoTime();
+                                data.clear();
+                                if (write) {
+                                    writeFully(channel, data, offsets[first + j]);
+                                } else {
+                                    readFully(channel, data, offsets[first + j]);
+                                }
+                                latencies[j] = (System.nanoTime() - begin) / 1000000.0;
+                            }
+                        } finally {
+                            randomFile.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            try {
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            double timeInMs = (System.nanoTime() - start) / 1000000.0;
+            String suffix = "_qd" + depth;
+            report.addValue(name + "_throughput" + suffix,
+                    Stat.calcRatePerSec((double)count * bufferSize / 1024 / 1024, timeInMs),
+                    ResultType.HIGHER_BETTER, ResultUnit.MBPS);
+            report.addValue(name + "_iops" + suffix, Stat.calcRatePerSec(count, timeInMs),
+                    ResultType.HIGHER_BETTER, ResultUnit.OPS);
+            addLatencyPercentiles(report, name + "_latency" + suffix, latencies);
+        }
+    }
+
+    /**
+     * Offsets aligned in bufferSize, spread over the whole file.
+     * @param bufferSize should be power of two
+     */
+    private static long[] getRandomOffsets(long fileSize, int bufferSize, int count) {
+        Random random = new Random(0);
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = (long)(random.nextFloat() * (fileSize - bufferSize)) &
+                    ~(long)(bufferSize - 1);
+        }
+        return offsets;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer data, long position)
+            throws IOException {
+        while (data.hasRemaining()) {
+            if (channel.read(data, position + data.position()) < 0) {
+                break;
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position)
+            throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data, position + data.position());
+        }
+    }
+
+    /**
+     * Reports the median, 90th and 99th percentiles and the maximum of latencies in ms.
+     * The latencies are sorted in place.
+     */
+    private static void addLatencyPercentiles(ReportLog report, String name,
+            double[] latencies) {
+        report.addValue(name + "_50th", Stat.getPercentileValue(latencies, 50),
+                ResultType.LOWER_BETTER, ResultUnit.MS);
+        report.addValue(name + "_90th", Stat.getPercentileValue(latencies, 90),
+                ResultType.LOWER_BETTER, ResultUnit.MS);
+        report.addValue(name + "_99th", Stat.getPercentileValue(latencies, 99),
+                ResultType.LOWER_BETTER, ResultUnit.MS);
+        report.addValue(name + "_max", latencies[latencies.length - 1],
+                ResultType.LOWER_BETTER, ResultUnit.MS);
+    }
 }
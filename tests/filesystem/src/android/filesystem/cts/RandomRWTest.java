@@ -24,12 +24,19 @@ import com.android.compatibility.common.util.DeviceReportLog;
 public class RandomRWTest extends CtsAndroidTestCase {
     private static final String DIR_RANDOM_WR = "RANDOM_WR";
     private static final String DIR_RANDOM_RD = "RANDOM_RD";
+    private static final String DIR_RANDOM_WR_MAPPED = "RANDOM_WR_MAPPED";
+    private static final String DIR_RANDOM_WR_QD = "RANDOM_WR_QD";
+    private static final String DIR_RANDOM_RD_QD = "RANDOM_RD_QD";
     private static final String REPORT_LOG_NAME = "CtsFileSystemTestCases";
+    private static final int[] QUEUE_DEPTHS = {1, 4, 8, 16};
 
     @Override
     protected void tearDown() throws Exception {
         FileUtil.removeFileOrDir(getContext(), DIR_RANDOM_WR);
         FileUtil.removeFileOrDir(getContext(), DIR_RANDOM_RD);
+        FileUtil.removeFileOrDir(getContext(), DIR_RANDOM_WR_MAPPED);
+        FileUtil.removeFileOrDir(getContext(), DIR_RANDOM_WR_QD);
+        FileUtil.removeFileOrDir(getContext(), DIR_RANDOM_RD_QD);
         super.tearDown();
     }
 
@@ -55,7 +62,73 @@ public class RandomRWTest extends CtsAndroidTestCase {
         String streamName = "test_random_update";
         DeviceReportLog report = new DeviceReportLog(REPORT_LOG_NAME, streamName);
         FileUtil.doRandomWriteTest(getContext(), DIR_RANDOM_WR, report, fileSize,
-                WRITE_BUFFER_SIZE);
+                WRITE_BUFFER_SIZE, WRITE_COUNT);
+        report.submit(getInstrumentation());
+    }
+
+    @CddTest(requirement="8.2")
+    public void testRandomReadDirect() throws Exception {
+        final int READ_BUFFER_SIZE = 4 * 1024;
+        final int READ_COUNT = 16 * 1024;
+        final long fileSize = FileUtil.getFileSizeExceedingMemory(getContext(), READ_BUFFER_SIZE);
+        if (fileSize == 0) { // not enough space, give up
+            return;
+        }
+        String streamName = "test_random_read_direct";
+        DeviceReportLog report = new DeviceReportLog(REPORT_LOG_NAME, streamName);
+        FileUtil.doChannelRandomReadTest(getContext(), DIR_RANDOM_RD, report, fileSize,
+                READ_BUFFER_SIZE, READ_COUNT);
+        report.submit(getInstrumentation());
+    }
+
+    @CddTest(requirement="8.2")
+    public void testRandomUpdateDirect() throws Exception {
+        final int WRITE_BUFFER_SIZE = 4 * 1024;
+        final int WRITE_COUNT = 4 * 1024;
+        final long fileSize = 256 * 1024 * 1024;
+        String streamName = "test_random_update_direct";
+        DeviceReportLog report = new DeviceReportLog(REPORT_LOG_NAME, streamName);
+        FileUtil.doChannelRandomWriteTest(getContext(), DIR_RANDOM_WR, report, fileSize,
+                WRITE_BUFFER_SIZE, WRITE_COUNT);
+        report.submit(getInstrumentation());
+    }
+
+    @CddTest(requirement="8.2")
+    public void testRandomUpdateMapped() throws Exception {
+        final int WRITE_BUFFER_SIZE = 4 * 1024;
+        final int WRITE_COUNT = 4 * 1024;
+        final long fileSize = 64 * 1024 * 1024;
+        String streamName = "test_random_update_mapped";
+        DeviceReportLog report = new DeviceReportLog(REPORT_LOG_NAME, streamName);
+        FileUtil.doMappedRandomWriteTest(getContext(), DIR_RANDOM_WR_MAPPED, report, fileSize,
+                WRITE_BUFFER_SIZE, WRITE_COUNT);
+        report.submit(getInstrumentation());
+    }
+
+    @CddTest(requirement="8.2")
+    public void testRandomReadQueueDepth() throws Exception {
+        final int READ_BUFFER_SIZE = 4 * 1024;
+        final int READ_COUNT = 16 * 1024;
+        final long fileSize = FileUtil.getFileSizeExceedingMemory(getContext(), READ_BUFFER_SIZE);
+        if (fileSize == 0) { // not enough space, give up
+            return;
+        }
+        String streamName = "test_random_read_queue_depth";
+        DeviceReportLog report = new DeviceReportLog(REPORT_LOG_NAME, streamName);
+        FileUtil.doConcurrentRandomReadTest(getContext(), DIR_RANDOM_RD_QD, report, fileSize,
+                READ_BUFFER_SIZE, READ_COUNT, QUEUE_DEPTHS);
+        report.submit(getInstrumentation());
+    }
+
+    @CddTest(requirement="8.2")
+    public void testRandomUpdateQueueDepth() throws Exception {
+        final int WRITE_BUFFER_SIZE = 4 * 1024;
+        final int WRITE_COUNT = 4 * 1024;
+        final long fileSize = 256 * 1024 * 1024;
+        String streamName = "test_random_update_queue_depth";
+        DeviceReportLog report = new DeviceReportLog(REPORT_LOG_NAME, streamName);
+        FileUtil.doConcurrentRandomWriteTest(getContext(), DIR_RANDOM_WR_QD, report, fileSize,
+                WRITE_BUFFER_SIZE, WRITE_COUNT, QUEUE_DEPTHS);
         report.submit(getInstrumentation());
     }
 }
@@ -35,6 +35,7 @@ public class SequentialRWTest extends CtsAndroidTestCase {
     private static final String DIR_SEQ_WR = "SEQ_WR";
     private static final String DIR_SEQ_UPDATE = "SEQ_UPDATE";
     private static final String DIR_SEQ_RD = "SEQ_RD";
+    private static final String DIR_SEQ_UPDATE_MAPPED = "SEQ_UPDATE_MAPPED";
     private static final String REPORT_LOG_NAME = "CtsFileSystemTestCases";
     private static final int BUFFER_SIZE = 10 * 1024 * 1024;
 
@@ -43,6 +44,7 @@ public class SequentialRWTest extends CtsAndroidTestCase {
         FileUtil.removeFileOrDir(getContext(), DIR_SEQ_WR);
         FileUtil.removeFileOrDir(getContext(), DIR_SEQ_UPDATE);
         FileUtil.removeFileOrDir(getContext(), DIR_SEQ_RD);
+        FileUtil.removeFileOrDir(getContext(), DIR_SEQ_UPDATE_MAPPED);
         super.tearDown();
     }
 
@@ -88,6 +90,16 @@ public class SequentialRWTest extends CtsAndroidTestCase {
                 NUMBER_REPETITION, REPORT_LOG_NAME, streamName);
     }
 
+    @CddTest(requirement="8.2")
+    public void testSingleSequentialUpdateMapped() throws Exception {
+        // mapped at once, so kept well below the address space of 32 bit processes
+        final long fileSize = 10 * BUFFER_SIZE;
+        final int NUMBER_REPETITION = 3;
+        String streamName = "test_single_sequential_update_mapped";
+        FileUtil.doMappedSequentialUpdateTest(getContext(), DIR_SEQ_UPDATE_MAPPED, fileSize,
+                BUFFER_SIZE, NUMBER_REPETITION, REPORT_LOG_NAME, streamName);
+    }
+
     @CddTest(requirement="8.2")
     public void testSingleSequentialRead() throws Exception {
         final long fileSize = FileUtil.getFileSizeExceedingMemory(getContext(), BUFFER_SIZE);
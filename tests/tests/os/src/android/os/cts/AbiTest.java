@@ -20,7 +20,9 @@ import android.cts.util.ReadElf;
 import android.util.ArraySet;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -34,6 +36,7 @@ public class AbiTest extends TestCase {
         if (pathVar != null) {
             abiDirs.addAll(Arrays.asList(pathVar.split(":")));
         }
+        List<File> files = new ArrayList<>();
         for (String dir : abiDirs) {
             boolean skip_dir = false;
             for (String dirOther : abiDirs) {
@@ -45,12 +48,18 @@ public class AbiTest extends TestCase {
                 }
             }
             if (!skip_dir) {
-                checkElfFilesInDirectory(new File(dir));
+                findElfFilesInDirectory(new File(dir), files);
             }
         }
+        // Files which are not ELF are ignored, ReadElf throws for any unsupported ELF file. The
+        // ELF files found are then read in full, which also checks their section and program
+        // header tables.
+        for (File elfFile : ReadElf.probe(files).keySet()) {
+            ReadElf.read(elfFile).close();
+        }
     }
 
-    private void checkElfFilesInDirectory(File dir) throws Exception {
+    private void findElfFilesInDirectory(File dir, List<File> result) throws Exception {
         if (!dir.isDirectory()) {
             return;
         }
@@ -66,18 +75,9 @@ public class AbiTest extends TestCase {
 
         for (File f : files) {
             if (f.isDirectory()) {
-                checkElfFilesInDirectory(f);
+                findElfFilesInDirectory(f, result);
             } else if (f.getName().endsWith(".so") || f.canExecute()) {
-                ReadElf elf = null;
-                try { // TODO: switch to try-with-resources.
-                    elf = ReadElf.read(f);
-                } catch (IllegalArgumentException ignored) {
-                    // If it's not actually an ELF file, we don't care.
-                } finally {
-                    if (elf != null) {
-                        elf.close();
-                    }
-                }
+                result.add(f);
             }
         }
     }
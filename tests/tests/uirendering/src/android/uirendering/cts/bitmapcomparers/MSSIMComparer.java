@@ -39,6 +39,31 @@ public class MSSIMComparer extends BaseRenderScriptComparer {
     public static final double CONSTANT_C2 = Math.pow(CONSTANT_L * CONSTANT_K2, 2);
     public static final int WINDOW_SIZE = 10;
 
+    // The tables summed over each window
+    private static final int IDEAL = 0;
+    private static final int GIVEN = 1;
+    private static final int IDEAL_SQUARED = 2;
+    private static final int GIVEN_SQUARED = 3;
+    private static final int PRODUCT = 4;
+    private static final int IDEAL_NOT_WHITE = 5;
+    private static final int GIVEN_NOT_WHITE = 6;
+    private static final int TABLE_COUNT = 7;
+    // Allows for the rounding of the tables when deciding to stop early
+    private static final double TOLERANCE = 1e-9;
+
+    private static final SummedAreaTables.PixelFunction WINDOW_TERMS =
+            (ideal, given, index, x, y, values) -> {
+        double intensityIdeal = getIntensity(ideal[index]);
+        double intensityGiven = getIntensity(given[index]);
+        values[IDEAL] = intensityIdeal;
+        values[GIVEN] = intensityGiven;
+        values[IDEAL_SQUARED] = intensityIdeal * intensityIdeal;
+        values[GIVEN_SQUARED] = intensityGiven * intensityGiven;
+        values[PRODUCT] = intensityIdeal * intensityGiven;
+        values[IDEAL_NOT_WHITE] = ideal[index] != Color.WHITE ? 1 : 0;
+        values[GIVEN_NOT_WHITE] = given[index] != Color.WHITE ? 1 : 0;
+    };
+
     private double mThreshold;
     private ScriptC_MSSIMComparer mScript;
 
@@ -49,25 +74,15 @@ public class MSSIMComparer extends BaseRenderScriptComparer {
     @Override
     public boolean verifySame(int[] ideal, int[] given, int offset, int stride, int width,
             int height) {
-        double SSIMTotal = 0;
-        int windows = 0;
+        SummedAreaTables tables = new SummedAreaTables(ideal, given, offset, stride, width,
+                height, TABLE_COUNT, WINDOW_TERMS);
 
+        int windows = 0;
         for (int currentWindowY = 0 ; currentWindowY < height ; currentWindowY += WINDOW_SIZE) {
             for (int currentWindowX = 0 ; currentWindowX < width ; currentWindowX += WINDOW_SIZE) {
-                int start = indexFromXAndY(currentWindowX, currentWindowY, stride, offset);
-                if (isWindowWhite(ideal, start, stride) && isWindowWhite(given, start, stride)) {
-                    continue;
+                if (!isWindowWhite(tables, currentWindowX, currentWindowY)) {
+                    windows++;
                 }
-                windows++;
-                double[] means = getMeans(ideal, given, start, stride);
-                double meanX = means[0];
-                double meanY = means[1];
-                double[] variances = getVariances(ideal, given, meanX, meanY, start, stride);
-                double varX = variances[0];
-                double varY = variances[1];
-                double stdBoth = variances[2];
-                double SSIM = SSIM(meanX, meanY, varX, varY, stdBoth);
-                SSIMTotal += SSIM;
             }
         }
 
@@ -75,6 +90,23 @@ public class MSSIMComparer extends BaseRenderScriptComparer {
             return true;
         }
 
+        double SSIMTotal = 0;
+        int remainingWindows = windows;
+        for (int currentWindowY = 0 ; currentWindowY < height ; currentWindowY += WINDOW_SIZE) {
+            for (int currentWindowX = 0 ; currentWindowX < width ; currentWindowX += WINDOW_SIZE) {
+                if (isWindowWhite(tables, currentWindowX, currentWindowY)) {
+                    continue;
+                }
+                SSIMTotal += SSIM(tables, currentWindowX, currentWindowY);
+                remainingWindows--;
+                // The SSIM of a window is at most 1, so stop once the threshold is out of reach
+                if (SSIMTotal + remainingWindows < mThreshold * windows - TOLERANCE) {
+                    Log.d(TAG_NAME, "MSSIM < " + mThreshold);
+                    return false;
+                }
+            }
+        }
+
         SSIMTotal /= windows;
 
         Log.d(TAG_NAME, "MSSIM = " + SSIMTotal);
@@ -107,18 +139,35 @@ public class MSSIMComparer extends BaseRenderScriptComparer {
         return (MSSIM >= mThreshold);
     }
 
-    private boolean isWindowWhite(int[] colors, int start, int stride) {
-        for (int y = 0 ; y < WINDOW_SIZE ; y++) {
-            for (int x = 0 ; x < WINDOW_SIZE ; x++) {
-                if (colors[indexFromXAndY(x, y, stride, start)] != Color.WHITE) {
-                    return false;
-                }
-            }
-        }
-        return true;
+    private static boolean isWindowWhite(SummedAreaTables tables, int x, int y) {
+        return tables.sum(IDEAL_NOT_WHITE, x, y, x + WINDOW_SIZE, y + WINDOW_SIZE) == 0
+                && tables.sum(GIVEN_NOT_WHITE, x, y, x + WINDOW_SIZE, y + WINDOW_SIZE) == 0;
+    }
+
+    /**
+     * Finds the SSIM of the window at the given position from the means, variances and covariance
+     * of its pixels, which are read from the tables.
+     */
+    private static double SSIM(SummedAreaTables tables, int x, int y) {
+        int right = x + WINDOW_SIZE;
+        int bottom = y + WINDOW_SIZE;
+        int pixels = (Math.min(right, tables.getWidth()) - x)
+                * (Math.min(bottom, tables.getHeight()) - y);
+        double sumX = tables.sum(IDEAL, x, y, right, bottom);
+        double sumY = tables.sum(GIVEN, x, y, right, bottom);
+        double muX = sumX / pixels;
+        double muY = sumY / pixels;
+        int degreesOfFreedom = Math.max(1, pixels - 1);
+        double sigX = (tables.sum(IDEAL_SQUARED, x, y, right, bottom) - sumX * muX)
+                / degreesOfFreedom;
+        double sigY = (tables.sum(GIVEN_SQUARED, x, y, right, bottom) - sumY * muY)
+                / degreesOfFreedom;
+        double sigXY = (tables.sum(PRODUCT, x, y, right, bottom) - sumX * muY)
+                / degreesOfFreedom;
+        return SSIM(muX, muY, sigX, sigY, sigXY);
     }
 
-    private double SSIM(double muX, double muY, double sigX, double sigY, double sigXY) {
+    private static double SSIM(double muX, double muY, double sigX, double sigY, double sigXY) {
         double SSIM = (((2 * muX * muY) + CONSTANT_C1) * ((2 * sigXY) + CONSTANT_C2));
         double denom = ((muX * muX) + (muY * muY) + CONSTANT_C1)
                 * (sigX + sigY + CONSTANT_C2);
@@ -126,53 +175,6 @@ public class MSSIMComparer extends BaseRenderScriptComparer {
         return SSIM;
     }
 
-
-    /**
-     * This method will find the mean of a window in both sets of pixels. The return is an array
-     * where the first double is the mean of the first set and the second double is the mean of the
-     * second set.
-     */
-    private double[] getMeans(int[] pixels0, int[] pixels1, int start, int stride) {
-        double avg0 = 0;
-        double avg1 = 0;
-        for (int y = 0 ; y < WINDOW_SIZE ; y++) {
-            for (int x = 0 ; x < WINDOW_SIZE ; x++) {
-                int index = indexFromXAndY(x, y, stride, start);
-                avg0 += getIntensity(pixels0[index]);
-                avg1 += getIntensity(pixels1[index]);
-            }
-        }
-        avg0 /= WINDOW_SIZE * WINDOW_SIZE;
-        avg1 /= WINDOW_SIZE * WINDOW_SIZE;
-        return new double[] {avg0, avg1};
-    }
-
-    /**
-     * Finds the variance of the two sets of pixels, as well as the covariance of the windows. The
-     * return value is an array of doubles, the first is the variance of the first set of pixels,
-     * the second is the variance of the second set of pixels, and the third is the covariance.
-     */
-    private double[] getVariances(int[] pixels0, int[] pixels1, double mean0, double mean1,
-            int start, int stride) {
-        double var0 = 0;
-        double var1 = 0;
-        double varBoth = 0;
-        for (int y = 0 ; y < WINDOW_SIZE ; y++) {
-            for (int x = 0 ; x < WINDOW_SIZE ; x++) {
-                int index = indexFromXAndY(x, y, stride, start);
-                double v0 = getIntensity(pixels0[index]) - mean0;
-                double v1 = getIntensity(pixels1[index]) - mean1;
-                var0 += v0 * v0;
-                var1 += v1 * v1;
-                varBoth += v0 * v1;
-            }
-        }
-        var0 /= (WINDOW_SIZE * WINDOW_SIZE) - 1;
-        var1 /= (WINDOW_SIZE * WINDOW_SIZE) - 1;
-        varBoth /= (WINDOW_SIZE * WINDOW_SIZE) - 1;
-        return new double[] {var0, var1, varBoth};
-    }
-
     /**
      * Gets the intensity of a given pixel in RGB using luminosity formula
      *
@@ -180,7 +182,7 @@ public class MSSIMComparer extends BaseRenderScriptComparer {
      *
      * The prime symbols dictate a gamma correction of 1.
      */
-    private double getIntensity(int pixel) {
+    private static double getIntensity(int pixel) {
         final double gamma = 1;
         double l = 0;
         l += (0.21f * Math.pow(Color.red(pixel) / 255f, gamma));
@@ -43,7 +43,9 @@ public class MeanSquaredComparer extends BaseRenderScriptComparer {
     @Override
     public boolean verifySame(int[] ideal, int[] given, int offset, int stride, int width,
             int height) {
-        float totalError = getMSE(ideal, given, offset, stride, width, height);
+        // The error only grows, so stop adding it up once it is past the threshold
+        float totalError = (float) (getSquaredError(ideal, given, offset, stride, width, height,
+                mErrorPerPixel * width * height) / (width * height));
         Log.d(TAG, "Error : " + totalError);
         return (totalError < (mErrorPerPixel));
     }
@@ -77,20 +79,30 @@ public class MeanSquaredComparer extends BaseRenderScriptComparer {
      */
     public static float getMSE(int[] ideal, int[] given, int offset, int stride, int width,
             int height) {
-        float totalError = 0;
+        return (float) (getSquaredError(ideal, given, offset, stride, width, height,
+                Double.POSITIVE_INFINITY) / (width * height));
+    }
 
-        for (int y = 0 ; y < height ; y++) {
-            for (int x = 0 ; x < width ; x++) {
-                int index = indexFromXAndY(x, y, stride, offset);
-                float idealSum = getColorSum(ideal[index]);
-                float givenSum = getColorSum(given[index]);
-                float difference = idealSum - givenSum;
-                totalError += (difference * difference);
+    /**
+     * Sums the squared error of all pixels, with the rows split across cores.
+     * @return the sum, which is only partial once it is above {@code limit}
+     */
+    private static double getSquaredError(int[] ideal, int[] given, int offset, int stride,
+            int width, int height, double limit) {
+        return RowBands.sum(width, height, limit, (startY, endY) -> {
+            double error = 0;
+            for (int y = startY ; y < endY ; y++) {
+                for (int x = 0 ; x < width ; x++) {
+                    int index = indexFromXAndY(x, y, stride, offset);
+                    if (ideal[index] == given[index]) {
+                        continue;
+                    }
+                    float difference = getColorSum(ideal[index]) - getColorSum(given[index]);
+                    error += (difference * difference);
+                }
             }
-        }
-
-        totalError /= (width * height);
-        return totalError;
+            return error;
+        });
     }
 
     private static float getColorSum(int color) {
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.uirendering.cts.bitmapcomparers;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Splits the rows of an image into bands, one per core, and processes the bands in parallel. Small
+ * images are processed on the calling thread, where the work is cheaper than the hand off.
+ */
+class RowBands {
+    /** Fewest pixels worth giving to another thread. */
+    private static final int MIN_PIXELS_PER_BAND = 64 * 64;
+    /** Rows processed between two checks of the limit. */
+    private static final int ROWS_PER_STEP = 8;
+
+    interface RowFunction {
+        /**
+         * Processes the rows from {@code startY} to {@code endY}, exclusive.
+         * @return a value which is not negative, added to the result of {@link RowBands#sum}
+         */
+        double apply(int startY, int endY);
+    }
+
+    /**
+     * Runs the function over all rows.
+     */
+    static void forEach(int width, int height, RowFunction function) {
+        sum(width, height, Double.POSITIVE_INFINITY, function);
+    }
+
+    /**
+     * Sums the function over all rows, stopping early once the sum is above {@code limit}.
+     * @return the sum, which is only partial when it is above {@code limit}
+     */
+    static double sum(int width, int height, double limit, RowFunction function) {
+        int bands = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                (width * height) / MIN_PIXELS_PER_BAND));
+        DoubleAdder total = new DoubleAdder();
+        IntStream stream = IntStream.range(0, bands);
+        if (bands > 1) {
+            stream = stream.parallel();
+        }
+        stream.forEach(band -> {
+            int endY = (int) ((long) height * (band + 1) / bands);
+            for (int y = (int) ((long) height * band / bands) ; y < endY ; y += ROWS_PER_STEP) {
+                if (total.sum() > limit) {
+                    return;
+                }
+                total.add(function.apply(y, Math.min(y + ROWS_PER_STEP, endY)));
+            }
+        });
+        return total.sum();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.uirendering.cts.bitmapcomparers;
+
+/**
+ * Summed-area tables (integral images) of values computed from each pixel of a pair of bitmaps.
+ * They are built in a single pass over the pixels, after which the sum of any value over any
+ * rectangle is read in constant time.
+ */
+public class SummedAreaTables {
+    /**
+     * Computes the values of every table for one pixel.
+     */
+    public interface PixelFunction {
+        /**
+         * @param index the index of the pixel in both arrays
+         * @param x the column of the pixel, relative to the compared area
+         * @param y the row of the pixel, relative to the compared area
+         * @param values receives the value of each table
+         */
+        void apply(int[] ideal, int[] given, int index, int x, int y, double[] values);
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mTableCount;
+    private final int mRowLength;
+    // Sums of the tables, interleaved, with an extra row and column of zeros at the top left
+    private final double[] mSums;
+
+    public SummedAreaTables(int[] ideal, int[] given, int offset, int stride, int width,
+            int height, int tableCount, PixelFunction function) {
+        mWidth = width;
+        mHeight = height;
+        mTableCount = tableCount;
+        mRowLength = (width + 1) * tableCount;
+        final int rowLength = mRowLength;
+        final double[] sums = new double[(height + 1) * rowLength];
+        mSums = sums;
+
+        // Sum each row
+        RowBands.forEach(width, height, (startY, endY) -> {
+            double[] values = new double[tableCount];
+            for (int y = startY ; y < endY ; y++) {
+                int cell = (y + 1) * rowLength + tableCount;
+                int index = BitmapComparer.indexFromXAndY(0, y, stride, offset);
+                for (int x = 0 ; x < width ; x++) {
+                    function.apply(ideal, given, index + x, x, y, values);
+                    for (int table = 0 ; table < tableCount ; table++) {
+                        sums[cell + table] = sums[cell - tableCount + table] + values[table];
+                    }
+                    cell += tableCount;
+                }
+            }
+            return 0;
+        });
+
+        // Then add the rows up, band of columns by band of columns
+        RowBands.forEach(height, width, (startX, endX) -> {
+            int start = (startX + 1) * tableCount;
+            int end = (endX + 1) * tableCount;
+            for (int y = 2 ; y <= height ; y++) {
+                int row = y * rowLength;
+                int previousRow = row - rowLength;
+                for (int i = start ; i < end ; i++) {
+                    sums[row + i] += sums[previousRow + i];
+                }
+            }
+            return 0;
+        });
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the sum of a table over a rectangle, clipped to the compared area.
+     * @param left the first column
+     * @param top the first row
+     * @param right the column after the last one
+     * @param bottom the row after the last one
+     */
+    public double sum(int table, int left, int top, int right, int bottom) {
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(mWidth, right);
+        bottom = Math.min(mHeight, bottom);
+        if (left >= right || top >= bottom) {
+            return 0;
+        }
+        int topRow = top * mRowLength + table;
+        int bottomRow = bottom * mRowLength + table;
+        return mSums[bottomRow + right * mTableCount] - mSums[bottomRow + left * mTableCount]
+                - mSums[topRow + right * mTableCount] + mSums[topRow + left * mTableCount];
+    }
+}
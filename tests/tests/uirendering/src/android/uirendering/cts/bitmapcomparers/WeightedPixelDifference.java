@@ -28,6 +28,10 @@ public class WeightedPixelDifference extends BitmapComparer {
     private static final int NUM_OF_COLUMNS = 10;
     private static final float TOTAL_ERROR_DIVISOR = 1024.0f;
 
+    // The tables of changes of color in the ideal image
+    private static final int HORIZONTAL_EDGES = 0;
+    private static final int VERTICAL_EDGES = 1;
+
     private float mThreshold;
 
     public WeightedPixelDifference(float threshold) {
@@ -35,20 +39,13 @@ public class WeightedPixelDifference extends BitmapComparer {
     }
 
     /**
-     * Calculates if pixels in a specific line are the same color
-     * @return true if the pixels are the same color
+     * Calculates if pixels in a specific region are not all the same color, which is the case when
+     * a pixel of the region differs from its neighbour on the left or above.
+     * @return true if the pixels are not the same color
      */
-    private static boolean inspectRegions(int[] ideal, int start, int stride, int regionSize) {
-        int regionColor = ideal[start];
-        for (int y = 0 ; y < regionSize ; y++) {
-            for (int x = 0 ; x < regionSize ; x++) {
-                int index = indexFromXAndY(x, y, stride, start);
-                if (ideal[index] != regionColor) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    private static boolean inspectRegions(SummedAreaTables edges, int x, int y, int regionSize) {
+        return edges.sum(HORIZONTAL_EDGES, x + 1, y, x + regionSize, y + regionSize) > 0
+                || edges.sum(VERTICAL_EDGES, x, y + 1, x + regionSize, y + regionSize) > 0;
     }
 
     /**
@@ -73,10 +70,16 @@ public class WeightedPixelDifference extends BitmapComparer {
         int interestingRegions = 0;
         int regionSize = width / NUM_OF_COLUMNS;
 
+        SummedAreaTables edges = new SummedAreaTables(ideal, given, offset, stride, width, height,
+                2, (idealPixels, givenPixels, index, x, y, values) -> {
+            values[HORIZONTAL_EDGES] =
+                    x > 0 && idealPixels[index] != idealPixels[index - 1] ? 1 : 0;
+            values[VERTICAL_EDGES] =
+                    y > 0 && idealPixels[index] != idealPixels[index - stride] ? 1 : 0;
+        });
         for (int y = 0 ; y < height ; y += regionSize) {
             for (int x = 0 ; x < width ; x += regionSize) {
-                int index = indexFromXAndY(x, y,stride, offset);
-                if (inspectRegions(ideal, index, stride, regionSize)) {
+                if (inspectRegions(edges, x, y, regionSize)) {
                     interestingRegions++;
                 }
             }
@@ -84,19 +87,23 @@ public class WeightedPixelDifference extends BitmapComparer {
 
         int interestingPixels = Math.max(1, interestingRegions) * regionSize * regionSize;
 
-        float totalError = 0;
-
-        for (int y = 0 ; y < height ; y++) {
-            for (int x = 0 ; x < width ; x++) {
-                int index = indexFromXAndY(x, y, stride, offset);
-                int idealColor = ideal[index];
-                int givenColor = given[index];
-                if (idealColor == givenColor) {
-                    continue;
+        // The error only grows, so stop adding it up once it is past the threshold
+        float totalError = (float) RowBands.sum(width, height,
+                mThreshold * TOTAL_ERROR_DIVISOR * interestingPixels, (startY, endY) -> {
+            float error = 0;
+            for (int y = startY ; y < endY ; y++) {
+                for (int x = 0 ; x < width ; x++) {
+                    int index = indexFromXAndY(x, y, stride, offset);
+                    int idealColor = ideal[index];
+                    int givenColor = given[index];
+                    if (idealColor == givenColor) {
+                        continue;
+                    }
+                    error += errorBetweenPixels(idealColor, givenColor);
                 }
-                totalError += errorBetweenPixels(idealColor, givenColor);
             }
-        }
+            return error;
+        });
 
         totalError /= TOTAL_ERROR_DIVISOR;
         totalError /= interestingPixels;
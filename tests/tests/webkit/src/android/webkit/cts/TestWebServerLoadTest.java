@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.webkit.cts;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Serves concurrent requests from {@link HttpLoadGenerator} with and without keep-alive, checking
+ * that every request is served and counted, and logs the achieved rate.
+ */
+public class TestWebServerLoadTest extends AndroidTestCase {
+    private static final String TAG = "TestWebServerLoadTest";
+    private static final int PATHS = 16;
+    private static final int CLIENTS = 8;
+    private static final int REQUESTS_PER_CLIENT = 100;
+    private static final int BODY_SIZE = 4096;
+
+    private TestWebServer mServer;
+    private List<String> mPaths;
+    private List<String> mUrls;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new TestWebServer(false);
+        char[] body = new char[BODY_SIZE];
+        Arrays.fill(body, 'x');
+        mPaths = new ArrayList<String>();
+        mUrls = new ArrayList<String>();
+        for (int i = 0; i < PATHS; i++) {
+            String path = "/load" + i + ".html";
+            mPaths.add(path);
+            mUrls.add(mServer.setResponse(path, new String(body), null));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testLoad() throws Exception {
+        runLoad(false);
+    }
+
+    public void testLoadWithKeepAlive() throws Exception {
+        mServer.setKeepAliveEnabled(true);
+        runLoad(true);
+    }
+
+    private void runLoad(boolean keepAlive) throws Exception {
+        HttpLoadGenerator.Result result =
+                HttpLoadGenerator.run(mUrls, CLIENTS, REQUESTS_PER_CLIENT);
+        Log.i(TAG, (keepAlive ? "keep-alive: " : "no keep-alive: ") + result);
+
+        assertEquals(CLIENTS * REQUESTS_PER_CLIENT, result.mRequests);
+        assertEquals(0, result.mErrors);
+        assertEquals((long) result.mRequests * BODY_SIZE, result.mBytes);
+        int served = 0;
+        for (String path : mPaths) {
+            served += mServer.getRequestCount(path);
+        }
+        assertEquals(result.mRequests, served);
+    }
+}